@@ -0,0 +1,122 @@
+package org.andresoviedo.datatable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * Implementation asynchrone du datatable server side: les requetes du {@link DatatableDAO} sont executées dans
+ * l'executor specifié (par exemple {@link DatatableExecutors#newVirtualThreadPerTaskExecutor()}).
+ * <p>
+ * L'annulation ou le timeout du future interrompt le thread qui execute les requetes. Le driver JDBC peut ignorer
+ * l'interruption: pour annuler la requete en base il faut aussi configurer un timeout de requete JPA.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public class AsyncDatatableDAOImpl<T> implements AsyncDatatableDAO<T> {
+
+    private final DatatableDAO<T> datatableDAO;
+
+    private final Executor executor;
+
+    private final long timeout;
+
+    private final TimeUnit timeoutUnit;
+
+    /**
+     * Constructeur du DAO asynchrone sans timeout
+     *
+     * @param datatableDAO
+     *            le DAO qui execute les requetes
+     * @param executor
+     *            l'executor des requetes
+     */
+    public AsyncDatatableDAOImpl(final DatatableDAO<T> datatableDAO, final Executor executor) {
+        this(datatableDAO, executor, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructeur du DAO asynchrone
+     *
+     * @param datatableDAO
+     *            le DAO qui execute les requetes
+     * @param executor
+     *            l'executor des requetes
+     * @param timeout
+     *            temps maximum d'execution, ou <code>0</code> pour pas de timeout
+     * @param timeoutUnit
+     *            unité du timeout
+     */
+    public AsyncDatatableDAOImpl(final DatatableDAO<T> datatableDAO, final Executor executor, final long timeout,
+        final TimeUnit timeoutUnit) {
+        super();
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout negatif: " + timeout);
+        }
+        this.datatableDAO = datatableDAO;
+        this.executor = executor;
+        this.timeout = timeout;
+        this.timeoutUnit = timeoutUnit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> CompletableFuture<DatatableResult<R>> findAllAsync(final DatatableQuery<R, T> input) {
+        return findAllAsync(input, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> CompletableFuture<DatatableResult<R>> findAllAsync(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification) {
+        return findAllAsync(input, additionalSpecification, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> CompletableFuture<DatatableResult<R>> findAllAsync(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+
+        final CompletableFuture<DatatableResult<R>> future = new CompletableFuture<DatatableResult<R>>();
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(datatableDAO.findAll(input, additionalSpecification, preFilteringSpecification));
+                } catch (final Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        }, null);
+
+        // annulation ou timeout: interrompre l'execution
+        future.whenComplete((result, ex) -> {
+            if (ex != null) {
+                task.cancel(true);
+            }
+        });
+        if (timeout > 0) {
+            future.orTimeout(timeout, timeoutUnit);
+        }
+
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+}
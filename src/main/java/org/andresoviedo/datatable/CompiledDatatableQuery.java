@@ -0,0 +1,412 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.andresoviedo.datatable.dto.DatatableAggregate;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableOrder;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+
+/**
+ * Snapshot immutable d'une {@link DatatableQuery} ({@link #of(DatatableQuery)}), qui peut etre partagé entre
+ * threads: index des colonnes par nom, termes de recherche normalisés (trim, minuscules) avec leur motif "like",
+ * ordre résolu en {@link Sort} et clé structurelle (avec son hash) pour les caches et le regroupement des requetes
+ * identiques.
+ * <p>
+ * {@link #toQuery()} cree une nouvelle {@link DatatableQuery} pour chaque execution.
+ *
+ * @author afoviedo
+ * @param <R>
+ *            type du retour
+ * @param <E>
+ *            type de l'entité
+ */
+public final class CompiledDatatableQuery<R, E> {
+
+    private final int draw;
+
+    private final int start;
+
+    private final int length;
+
+    private final String searchValue;
+
+    private final String searchTerm;
+
+    private final String searchLikePattern;
+
+    private final List<Column> columns;
+
+    private final Map<String, Integer> columnIndexes;
+
+    private final List<DatatableOrder> orders;
+
+    private final Sort sort;
+
+    private final Pageable pageable;
+
+    private final List<DatatableColumn> groupByColumns;
+
+    private final Map<String, Object> extraProps;
+
+    private final String version;
+
+    private final Class<R> queryClass;
+
+    private final Specification<E> baseSpecification;
+
+    private final Specification<E> additionalSpecification;
+
+    private final String key;
+
+    private final boolean keyed;
+
+    private final int hash;
+
+    private CompiledDatatableQuery(final DatatableQuery<R, E> input) {
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        this.draw = input.getDraw() == null ? 0 : input.getDraw();
+        this.start = input.getStart() == null ? 0 : input.getStart();
+        this.length = input.getLength();
+        this.searchValue = input.getSearch() == null ? null : input.getSearch().getValue();
+        this.searchTerm = getTerm(searchValue);
+        this.searchLikePattern = searchTerm == null ? null : DatatableSpecification.getLikeFilterValue(searchTerm);
+
+        final List<Column> compiledColumns = new ArrayList<Column>(input.getColumns().size());
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < input.getColumns().size(); i++) {
+            final DatatableColumn column = input.getColumns().get(i);
+            compiledColumns.add(new Column(column));
+            if (column.getData() != null && !indexes.containsKey(column.getData().toLowerCase())) {
+                // comme getColumIndex: la premiere colonne, sans tenir compte de la casse
+                indexes.put(column.getData().toLowerCase(), i);
+            }
+        }
+        this.columns = Collections.unmodifiableList(compiledColumns);
+        this.columnIndexes = Collections.unmodifiableMap(indexes);
+
+        final List<DatatableOrder> compiledOrders = new ArrayList<DatatableOrder>(input.getOrder().size());
+        for (final DatatableOrder order : input.getOrder()) {
+            if (order.getColumn() == null || order.getColumn() < 0 || order.getColumn() >= columns.size()) {
+                throw new IllegalArgumentException("Ordre sur une colonne inconnue: " + order);
+            }
+            compiledOrders.add(new DatatableOrder(order.getColumn(), order.getDir()));
+        }
+        this.orders = Collections.unmodifiableList(compiledOrders);
+        this.sort = DatatableHelper.getSort(input);
+        this.pageable = DatatableHelper.getPageable(input);
+
+        this.groupByColumns = input.getGroupByColumns() == null ? null
+            : Collections.unmodifiableList(new ArrayList<DatatableColumn>(input.getGroupByColumns()));
+        this.extraProps = input.getExtraProps() == null ? Collections.<String, Object> emptyMap()
+            : Collections.unmodifiableMap(new TreeMap<String, Object>(input.getExtraProps()));
+        this.version = input.getVersion();
+        this.queryClass = input.getQueryClass();
+        this.baseSpecification = input.getBaseSpecification();
+        this.additionalSpecification = input.getAdditionalSpecification();
+
+        // specification sans clé: la clé n'a que la structure, et equals() compare les specifications
+        final String specificationsKey =
+            DatatableHelper.getQueryKey(input, baseSpecification, additionalSpecification);
+        this.keyed = specificationsKey != null;
+        this.key = keyed ? specificationsKey : DatatableHelper.getQueryKey(input);
+        this.hash = key.hashCode();
+    }
+
+    /**
+     * @param input
+     *            la requete
+     * @return le snapshot de la requete
+     * @throws IllegalArgumentException
+     *             si la requete n'a pas de colonnes ou si un ordre est sur une colonne inconnue
+     */
+    public static <R, E> CompiledDatatableQuery<R, E> of(final DatatableQuery<R, E> input) {
+        return new CompiledDatatableQuery<R, E>(input);
+    }
+
+    private static String getTerm(final String value) {
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        return value.trim().toLowerCase();
+    }
+
+    /**
+     * Cree une nouvelle requete modifiable, avec les valeurs du snapshot
+     *
+     * @return la requete
+     */
+    public DatatableQuery<R, E> toQuery() {
+        final DatatableQuery<R, E> ret = new DatatableQuery<R, E>(length);
+        ret.setDraw(draw);
+        ret.setStart(start);
+        ret.setSearch(new DatatableSearch(searchValue, false));
+        final List<DatatableColumn> queryColumns = new ArrayList<DatatableColumn>(columns.size());
+        for (final Column column : columns) {
+            queryColumns.add(column.toColumn());
+        }
+        ret.setColumns(queryColumns);
+        final List<DatatableOrder> queryOrders = new ArrayList<DatatableOrder>(orders.size());
+        for (final DatatableOrder order : orders) {
+            queryOrders.add(new DatatableOrder(order.getColumn(), order.getDir()));
+        }
+        ret.setOrder(queryOrders);
+        ret.setExtraProps(new HashMap<String, Object>(extraProps));
+        ret.setVersion(version);
+        ret.setQueryClass(queryClass);
+        ret.setGroupByColumns(groupByColumns == null ? null : new ArrayList<DatatableColumn>(groupByColumns));
+        ret.setBaseSpecification(baseSpecification);
+        ret.setAdditionalSpecification(additionalSpecification);
+        return ret;
+    }
+
+    /**
+     * @param columnName
+     *            data de la colonne (sans tenir compte de la casse)
+     * @return l'index de la colonne
+     * @throws IllegalArgumentException
+     *             si la colonne n'existe pas
+     */
+    public int getColumnIndex(final String columnName) {
+        final Integer ret = columnName == null ? null : columnIndexes.get(columnName.toLowerCase());
+        if (ret == null) {
+            throw new IllegalArgumentException("La colonne '" + columnName + "' n'existe pas");
+        }
+        return ret;
+    }
+
+    /**
+     * @param columnName
+     *            data de la colonne (sans tenir compte de la casse)
+     * @return la colonne, ou <code>null</code> si elle n'existe pas
+     */
+    public Column getColumn(final String columnName) {
+        final Integer ret = columnName == null ? null : columnIndexes.get(columnName.toLowerCase());
+        return ret == null ? null : columns.get(ret);
+    }
+
+    public int getDraw() {
+        return draw;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return le filtre global, trim et en minuscules, ou <code>null</code> si il n'y a pas de filtre global
+     */
+    public String getSearchTerm() {
+        return searchTerm;
+    }
+
+    /**
+     * @return le motif "like" du filtre global, ou <code>null</code> si il n'y a pas de filtre global
+     */
+    public String getSearchLikePattern() {
+        return searchLikePattern;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public List<DatatableOrder> getOrders() {
+        return orders;
+    }
+
+    /**
+     * @return l'ordre sur les colonnes ordonnables, ou <code>null</code> si il n'y a pas d'ordre
+     */
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return la page: une longueur de -1 est une page de toutes les lignes
+     */
+    public Pageable getPageable() {
+        return pageable;
+    }
+
+    public List<DatatableColumn> getGroupByColumns() {
+        return groupByColumns;
+    }
+
+    public Map<String, Object> getExtraProps() {
+        return extraProps;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public Class<R> getQueryClass() {
+        return queryClass;
+    }
+
+    public Specification<E> getBaseSpecification() {
+        return baseSpecification;
+    }
+
+    public Specification<E> getAdditionalSpecification() {
+        return additionalSpecification;
+    }
+
+    /**
+     * @return la clé structurelle: colonnes, filtres, ordre, page, group by, type de retour, extra properties et
+     *         specifications, sauf si une specification n'a pas de {@link KeyedSpecification clé}. Le compteur "draw"
+     *         n'en fait pas partie.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompiledDatatableQuery)) {
+            return false;
+        }
+        final CompiledDatatableQuery<?, ?> that = (CompiledDatatableQuery<?, ?>) obj;
+        return hash == that.hash && key.equals(that.key) && (keyed && that.keyed
+            || Objects.equals(baseSpecification, that.baseSpecification)
+                && Objects.equals(additionalSpecification, that.additionalSpecification));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledDatatableQuery [draw=" + draw + ", key=" + key + "]";
+    }
+
+    /**
+     * Colonne immutable d'une requete compilée
+     */
+    public static final class Column {
+
+        private final String data;
+
+        private final String name;
+
+        private final boolean searchable;
+
+        private final boolean orderable;
+
+        private final boolean searchWithoutSpaces;
+
+        private final Class<?> type;
+
+        private final String searchValue;
+
+        private final String searchTerm;
+
+        private final String likePattern;
+
+        private final Boolean booleanValue;
+
+        private final List<DatatableAggregate> aggregates;
+
+        private Column(final DatatableColumn column) {
+            this.data = column.getData();
+            this.name = column.getName();
+            this.searchable = column.getSearchable();
+            this.orderable = Boolean.TRUE.equals(column.getOrderable());
+            this.searchWithoutSpaces = column.isSearchWithoutSpaces();
+            this.type = column.getType();
+            this.searchValue = column.getSearch() == null ? null : column.getSearch().getValue();
+            this.searchTerm = getTerm(searchValue);
+            this.likePattern = searchTerm == null ? null : DatatableSpecification.getLikeFilterValue(searchTerm);
+            this.booleanValue = "true".equals(searchTerm) || "false".equals(searchTerm)
+                ? Boolean.valueOf(searchTerm) : null;
+            this.aggregates = column.getAggregates() == null ? Collections.<DatatableAggregate> emptyList()
+                : Collections.unmodifiableList(new ArrayList<DatatableAggregate>(column.getAggregates()));
+        }
+
+        private DatatableColumn toColumn() {
+            final DatatableColumn ret = new DatatableColumn(name, data, searchable, orderable,
+                searchValue == null ? null : new DatatableSearch(searchValue, false));
+            ret.setSearchWithoutSpaces(searchWithoutSpaces);
+            ret.setType(type);
+            ret.setAggregates(aggregates);
+            return ret;
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSearchable() {
+            return searchable;
+        }
+
+        public boolean isOrderable() {
+            return orderable;
+        }
+
+        public boolean isSearchWithoutSpaces() {
+            return searchWithoutSpaces;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return le filtre de la colonne, trim et en minuscules, ou <code>null</code> si il n'y a pas de filtre
+         */
+        public String getSearchTerm() {
+            return searchTerm;
+        }
+
+        /**
+         * @return le motif "like" du filtre, ou <code>null</code> si il n'y a pas de filtre
+         */
+        public String getLikePattern() {
+            return likePattern;
+        }
+
+        /**
+         * @return la valeur du filtre si c'est un boolean ("true" ou "false"), sinon <code>null</code>
+         */
+        public Boolean getBooleanValue() {
+            return booleanValue;
+        }
+
+        /**
+         * @return agregats de la colonne
+         */
+        public List<DatatableAggregate> getAggregates() {
+            return aggregates;
+        }
+
+        @Override
+        public String toString() {
+            return "Column [data=" + data + ", searchable=" + searchable + ", orderable=" + orderable
+                + ", searchTerm=" + searchTerm + "]";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.andresoviedo.datatable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Listener JPA qui compte les modifications de chaque entité. A declarer sur les entités avec
+ * <code>@EntityListeners(DataVersionListener.class)</code>.
+ * <p>
+ * Les compteurs sont en memoire: ils ne voient que les modifications faites par cette JVM avec JPA. Ils ne sont
+ * donc utilisés que par les DAOs declarés sur une seule JVM ({@link DatatableDAOImpl#setSingleNode(boolean)}).
+ *
+ * @see DataVersionSources#listener(Class...)
+ * @author afoviedo
+ */
+public class DataVersionListener {
+
+    private static final ConcurrentMap<Class<?>, AtomicLong> VERSIONS = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    /**
+     * Incremente le compteur de l'entité (et de ses super classes)
+     *
+     * @param entity
+     *            l'entité créée, modifiée ou supprimée
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(final Object entity) {
+        increment(entity.getClass());
+    }
+
+    /**
+     * Incremente le compteur d'une entité et de ses super classes, par exemple aprés une requete "update" en masse
+     *
+     * @param entity
+     *            l'entité modifiée
+     */
+    public static void increment(final Class<?> entity) {
+        for (Class<?> clazz = entity; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            AtomicLong counter = VERSIONS.get(clazz);
+            if (counter == null) {
+                final AtomicLong newCounter = new AtomicLong();
+                counter = VERSIONS.putIfAbsent(clazz, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param entity
+     *            l'entité
+     * @return le nombre de modifications de l'entité (et de ses sous classes)
+     */
+    public static long getVersion(final Class<?> entity) {
+        final AtomicLong counter = VERSIONS.get(entity);
+        return counter == null ? 0 : counter.get();
+    }
+}
@@ -0,0 +1,36 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Source de la version des données d'une entité. La version change chaque fois que les données de l'entité changent:
+ * le {@link DatatableDAOImpl} l'utilise pour savoir si le resultat d'une requete a changé sans executer la requete.
+ *
+ * @see DataVersionSources
+ * @author afoviedo
+ */
+public interface DataVersionSource {
+
+    /**
+     * Retourne la version actuelle des données de l'entité
+     *
+     * @param entityManager
+     *            l'entity manager du draw
+     * @param entity
+     *            l'entité JPA
+     * @return la version des données
+     */
+    String getVersion(EntityManager entityManager, Class<?> entity);
+
+    /**
+     * Indique si la version voit les modifications faites par toutes les JVMs (version lue de la base). Une source
+     * locale a la JVM n'est utilisée que si le DAO est declaré sur une seule JVM
+     * ({@link DatatableDAOImpl#setSingleNode(boolean)}): sinon une modification faite par un autre noeud ne change
+     * pas la version, et la vue recevrait "not modified" avec des données perimées.
+     *
+     * @return <code>true</code> (par defaut) si la version est la meme pour tous les noeuds
+     */
+    default boolean isClusterSafe() {
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+/**
+ * Factory des {@link DataVersionSource}
+ *
+ * @author afoviedo
+ */
+public final class DataVersionSources {
+
+    private DataVersionSources() {
+        // abstract
+    }
+
+    /**
+     * Version lue des compteurs du {@link DataVersionListener}: aucune requete n'est executée. Les compteurs sont
+     * locaux a la JVM: la source n'est utilisée que par un DAO declaré sur une seule JVM
+     * ({@link DatatableDAOImpl#setSingleNode(boolean)}).
+     *
+     * @param dependencies
+     *            autres entités dont le datatable affiche des données (entités jointes)
+     * @return la source
+     */
+    public static DataVersionSource listener(final Class<?>... dependencies) {
+        return new ListenerDataVersionSource(dependencies);
+    }
+
+    /**
+     * Version lue d'une colonne de version ou de date de modification: <code>max(attribute)</code> et le nombre de
+     * registres (pour voir les suppressions). La colonne doit etre indexée. La version est lue de la base: la source
+     * peut etre utilisée par plusieurs noeuds.
+     *
+     * @param attribute
+     *            nom de l'atribut de version de l'entité
+     * @return la source
+     */
+    public static DataVersionSource column(final String attribute) {
+        return new ColumnDataVersionSource(attribute);
+    }
+
+    private static class ListenerDataVersionSource implements DataVersionSource {
+
+        private final Class<?>[] dependencies;
+
+        private ListenerDataVersionSource(final Class<?>[] dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public String getVersion(final EntityManager entityManager, final Class<?> entity) {
+            final StringBuilder version = new StringBuilder().append(DataVersionListener.getVersion(entity));
+            for (final Class<?> dependency : dependencies) {
+                version.append('.').append(DataVersionListener.getVersion(dependency));
+            }
+            return version.toString();
+        }
+
+        @Override
+        public boolean isClusterSafe() {
+            return false;
+        }
+    }
+
+    private static class ColumnDataVersionSource implements DataVersionSource {
+
+        private final String attribute;
+
+        private ColumnDataVersionSource(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public String getVersion(final EntityManager entityManager, final Class<?> entity) {
+            return getVersion(entityManager, entity, attribute);
+        }
+
+        private static <E> String getVersion(final EntityManager entityManager, final Class<E> entity,
+            final String attribute) {
+            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+            final Root<E> from = cq.from(entity);
+            cq.multiselect(cb.greatest(from.<Comparable<Object>> get(attribute)), cb.count(from));
+            final Object[] ret = entityManager.createQuery(cq).getSingleResult();
+            return ret[0] + "." + ret[1];
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * Execution de plusieurs datatables (d'entités differentes) avec un seul entity manager, par exemple pour les pages
+ * de type dashboard qui affichent plusieurs datatables.
+ *
+ * <pre>
+ * List&lt;DatatableResult&lt;?&gt;&gt; results = new DatatableBatch(emf).add(ordersDao, ordersQuery)
+ *     .add(customersDao, customersQuery).execute();
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public class DatatableBatch {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final List<Entry<?, ?>> entries = new ArrayList<Entry<?, ?>>();
+
+    /**
+     * Constructeur du batch
+     *
+     * @param entityManagerFactory
+     *            factory de l'entity manager partagé par toutes les requetes du batch
+     */
+    public DatatableBatch(final EntityManagerFactory entityManagerFactory) {
+        super();
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Ajoute une requete au batch
+     *
+     * @param dao
+     *            le DAO de l'entité
+     * @param input
+     *            la requete du datatable
+     * @return this
+     */
+    public <R, T> DatatableBatch add(final DatatableDAOImpl<T> dao, final DatatableQuery<R, T> input) {
+        return add(dao, input, null, null);
+    }
+
+    /**
+     * Ajoute une requete au batch
+     *
+     * @param dao
+     *            le DAO de l'entité
+     * @param input
+     *            la requete du datatable
+     * @param additionalSpecification
+     *            an additional {@link Specification} to apply to the query (with an "AND" clause)
+     * @param preFilteringSpecification
+     *            a pre-filtering {@link Specification} to apply to the query (with an "AND" clause)
+     * @return this
+     */
+    public <R, T> DatatableBatch add(final DatatableDAOImpl<T> dao, final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        entries.add(new Entry<R, T>(dao, input, additionalSpecification, preFilteringSpecification));
+        return this;
+    }
+
+    /**
+     * Execute toutes les requetes du batch avec le meme entity manager
+     *
+     * @return les resultats, dans l'ordre des requetes ajoutées
+     */
+    public List<DatatableResult<?>> execute() {
+        final List<DatatableResult<?>> ret = new ArrayList<DatatableResult<?>>(entries.size());
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            for (final Entry<?, ?> entry : entries) {
+                ret.add(entry.execute(entityManager));
+            }
+        } finally {
+            entityManager.close();
+        }
+        return ret;
+    }
+
+    private static class Entry<R, T> {
+
+        private final DatatableDAOImpl<T> dao;
+        private final DatatableQuery<R, T> input;
+        private final Specification<T> additionalSpecification;
+        private final Specification<T> preFilteringSpecification;
+
+        private Entry(final DatatableDAOImpl<T> dao, final DatatableQuery<R, T> input,
+            final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+            this.dao = dao;
+            this.input = input;
+            this.additionalSpecification = additionalSpecification;
+            this.preFilteringSpecification = preFilteringSpecification;
+        }
+
+        private DatatableResult<R> execute(final EntityManager entityManager) {
+            return dao.findAll(entityManager, input, additionalSpecification, preFilteringSpecification);
+        }
+    }
+}
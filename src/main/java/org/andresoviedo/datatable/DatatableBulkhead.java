@@ -0,0 +1,381 @@
+package org.andresoviedo.datatable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Controle d'admission des requetes du datatable (bulkhead): nombre maximum d'executions concurrentes par entité et
+ * par tenant, pour qu'une table lourde n'utilise pas tout le pool de connexions. Une requete sans place attend dans
+ * une file bornée pendant au plus {@link #setMaxWait(long, TimeUnit)}; si la file est pleine elle est rejetée tout de
+ * suite. Le meme bulkhead peut etre partagé par les DAOs de plusieurs entités.
+ * <p>
+ * Le tenant est la valeur de la propriété {@link #TENANT} dans les {@link DatatableQuery#getExtraProps()}, positionnée
+ * par le serveur avec {@link #setTenant(DatatableQuery, Object)} (le {@link DatatableRequestParser} ne copie pas les
+ * parametres HTTP reservés <code>datatable.*</code>). Une requete sans tenant n'est limitée que par entité. Les places
+ * d'un tenant sont libérées quand il n'a plus de requete en cours ni en attente.
+ *
+ * <pre>
+ * final DatatableBulkhead bulkhead = new DatatableBulkhead(4, 2, 20);
+ * ordersDAO.setBulkhead(bulkhead);
+ * customersDAO.setBulkhead(bulkhead);
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public class DatatableBulkhead {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Extra property de la requete avec la clé du tenant
+     */
+    public static final String TENANT = "datatable.tenant";
+
+    private final ConcurrentMap<Object, Compartment> compartments = new ConcurrentHashMap<Object, Compartment>();
+
+    private final int maxConcurrentPerEntity;
+
+    private final int maxConcurrentPerTenant;
+
+    private final int maxQueued;
+
+    private long maxWaitNanos = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitedNanos = new AtomicLong();
+
+    /**
+     * @param maxConcurrentPerEntity
+     *            nombre maximum d'executions concurrentes par entité
+     * @param maxConcurrentPerTenant
+     *            nombre maximum d'executions concurrentes par tenant, ou <code>0</code> pour pas de limite
+     * @param maxQueued
+     *            nombre maximum de requetes en attente par entité et par tenant
+     */
+    public DatatableBulkhead(final int maxConcurrentPerEntity, final int maxConcurrentPerTenant,
+        final int maxQueued) {
+        if (maxConcurrentPerEntity <= 0 || maxConcurrentPerTenant < 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("Limites invalides: " + maxConcurrentPerEntity + ", "
+                + maxConcurrentPerTenant + ", " + maxQueued);
+        }
+        this.maxConcurrentPerEntity = maxConcurrentPerEntity;
+        this.maxConcurrentPerTenant = maxConcurrentPerTenant;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Attend une place pour executer une requete de l'entité. La place doit etre rendue avec
+     * {@link Permit#release()}.
+     *
+     * @param entity
+     *            classe de l'entité
+     * @param input
+     *            la requete (pour le tenant), peut etre <code>null</code>
+     * @return la place
+     * @throws IllegalStateException
+     *             si la file est pleine ou si l'attente depasse le temps maximum
+     */
+    public Permit acquire(final Class<?> entity, final DatatableQuery<?, ?> input) {
+        final long start = System.nanoTime();
+        final Compartment entityCompartment = getCompartment(entity);
+        final Object tenant = getTenant(input);
+
+        // le tenant d'abord: les requetes d'un tenant au dela de sa limite attendent sans occuper l'entité
+        final Compartment tenantCompartment = useTenantCompartment(tenant);
+        if (tenantCompartment != null) {
+            try {
+                tenantCompartment.acquire("tenant " + tenant, start);
+            } catch (final RuntimeException ex) {
+                releaseTenantCompartment(tenantCompartment);
+                throw ex;
+            }
+        }
+        try {
+            entityCompartment.acquire(entity.getName(), start);
+        } catch (final RuntimeException ex) {
+            if (tenantCompartment != null) {
+                tenantCompartment.permits.release();
+                releaseTenantCompartment(tenantCompartment);
+            }
+            throw ex;
+        }
+        final long waited = System.nanoTime() - start;
+        admitted.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        for (long max = maxWaitedNanos.get(); waited > max && !maxWaitedNanos.compareAndSet(max, waited); max =
+            maxWaitedNanos.get()) {
+            // retry
+        }
+        return new Permit(this, entityCompartment, tenantCompartment);
+    }
+
+    /**
+     * Prend une place sans attendre, pour les requetes speculatives (prechargement): pas de place si des requetes
+     * attendent deja. Les requetes sans place ne sont pas comptées comme rejetées.
+     *
+     * @param entity
+     *            classe de l'entité
+     * @param input
+     *            la requete (pour le tenant), peut etre <code>null</code>
+     * @return la place, ou <code>null</code> si il n'y a pas de place libre
+     */
+    public Permit tryAcquire(final Class<?> entity, final DatatableQuery<?, ?> input) {
+        final Compartment tenantCompartment = useTenantCompartment(getTenant(input));
+        if (tenantCompartment != null && !tenantCompartment.tryAcquire()) {
+            releaseTenantCompartment(tenantCompartment);
+            return null;
+        }
+        final Compartment entityCompartment = getCompartment(entity);
+        if (!entityCompartment.tryAcquire()) {
+            if (tenantCompartment != null) {
+                tenantCompartment.permits.release();
+                releaseTenantCompartment(tenantCompartment);
+            }
+            return null;
+        }
+        return new Permit(this, entityCompartment, tenantCompartment);
+    }
+
+    /**
+     * Positionne le tenant de la requete. A appeler par le serveur (d'aprés l'utilisateur authentifié), jamais d'aprés
+     * un parametre de la requete HTTP.
+     *
+     * @param input
+     *            la requete
+     * @param tenant
+     *            clé du tenant, ou <code>null</code> pour pas de tenant
+     */
+    public static void setTenant(final DatatableQuery<?, ?> input, final Object tenant) {
+        if (tenant == null) {
+            input.getExtraProps().remove(TENANT);
+        } else {
+            input.getExtraProps().put(TENANT, tenant);
+        }
+    }
+
+    private Compartment getCompartment(final Class<?> entity) {
+        Compartment ret = compartments.get(entity);
+        if (ret == null) {
+            final Compartment created = new Compartment(entity, maxConcurrentPerEntity);
+            ret = compartments.putIfAbsent(entity, created);
+            if (ret == null) {
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Compartiment du tenant, créé si besoin, avec un utilisateur de plus: il n'est pas supprimé tant qu'il a des
+     * utilisateurs (requetes en cours ou en attente)
+     *
+     * @return le compartiment, ou <code>null</code> si pas de limite par tenant
+     */
+    private Compartment useTenantCompartment(final Object tenant) {
+        if (tenant == null || maxConcurrentPerTenant == 0) {
+            return null;
+        }
+        return compartments.compute(tenant, (key, current) -> {
+            final Compartment ret = current != null ? current : new Compartment(key, maxConcurrentPerTenant);
+            ret.users++;
+            return ret;
+        });
+    }
+
+    /**
+     * Un utilisateur de moins: le compartiment du tenant est supprimé si il n'en a plus
+     */
+    private void releaseTenantCompartment(final Compartment compartment) {
+        compartments.computeIfPresent(compartment.key,
+            (key, current) -> current == compartment && --current.users == 0 ? null : current);
+    }
+
+    private static Object getTenant(final DatatableQuery<?, ?> input) {
+        if (input == null || input.getExtraProps() == null) {
+            return null;
+        }
+        final Object ret = input.getExtraProps().get(TENANT);
+        // les tenants ne partagent pas l'espace des clés des entités
+        return ret == null ? null : TENANT + '=' + ret;
+    }
+
+    /**
+     * @param maxWait
+     *            temps maximum d'attente d'une place (5 secondes par defaut)
+     * @param unit
+     *            unité du temps
+     */
+    public void setMaxWait(final long maxWait, final TimeUnit unit) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("Temps d'attente negatif: " + maxWait);
+        }
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * @return nombre de requetes en attente d'une place
+     */
+    public int getQueueDepth() {
+        int ret = 0;
+        for (final Compartment compartment : compartments.values()) {
+            ret += compartment.queued.get();
+        }
+        return ret;
+    }
+
+    /**
+     * @param entity
+     *            classe de l'entité
+     * @return nombre de requetes de l'entité en attente d'une place
+     */
+    public int getQueueDepth(final Class<?> entity) {
+        final Compartment compartment = compartments.get(entity);
+        return compartment == null ? 0 : compartment.queued.get();
+    }
+
+    /**
+     * @return nombre de requetes admises
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * @return nombre de requetes rejetées parce que la file était pleine
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return nombre de requetes rejetées aprés le temps maximum d'attente
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return temps d'attente moyen des requetes admises, en millisecondes
+     */
+    public double getAverageWaitMillis() {
+        final long count = admitted.get();
+        return count == 0 ? 0 : waitNanos.get() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return temps d'attente maximum d'une requete admise, en millisecondes
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitedNanos.get());
+    }
+
+    /**
+     * Place d'execution d'une requete
+     */
+    public static class Permit {
+
+        private final DatatableBulkhead bulkhead;
+
+        private final Compartment entityCompartment;
+
+        private final Compartment tenantCompartment;
+
+        private boolean released;
+
+        private Permit(final DatatableBulkhead bulkhead, final Compartment entityCompartment,
+            final Compartment tenantCompartment) {
+            this.bulkhead = bulkhead;
+            this.entityCompartment = entityCompartment;
+            this.tenantCompartment = tenantCompartment;
+        }
+
+        /**
+         * Rend la place. Les appels suivants n'ont pas d'effet.
+         */
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (tenantCompartment != null) {
+                tenantCompartment.permits.release();
+                bulkhead.releaseTenantCompartment(tenantCompartment);
+            }
+            entityCompartment.permits.release();
+        }
+    }
+
+    /**
+     * Places et file d'attente d'une entité ou d'un tenant
+     */
+    private class Compartment {
+
+        private final Object key;
+
+        private final Semaphore permits;
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * Requetes en cours ou en attente d'un compartiment de tenant, modifié seulement dans les
+         * <code>compute</code> de la map (sous le verrou de la clé)
+         */
+        private int users;
+
+        private Compartment(final Object key, final int maxConcurrent) {
+            this.key = key;
+            this.permits = new Semaphore(maxConcurrent, true);
+        }
+
+        /**
+         * Place sans attendre, aprés les requetes en attente (semaphore equitable)
+         */
+        private boolean tryAcquire() {
+            try {
+                return permits.tryAcquire(0, TimeUnit.NANOSECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void acquire(final String name, final long start) {
+            if (permits.tryAcquire()) {
+                return;
+            }
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Datatable queue full: {0}", name);
+                throw new IllegalStateException("Trop de requetes en attente pour " + name + ", reessayer plus tard");
+            }
+            try {
+                if (!permits.tryAcquire(maxWaitNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS)) {
+                    timeouts.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Datatable queue timeout: {0}", name);
+                    throw new IllegalStateException("Temps d'attente depassé pour " + name + ", reessayer plus tard");
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Attente interrompue pour " + name, ex);
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+    }
+}
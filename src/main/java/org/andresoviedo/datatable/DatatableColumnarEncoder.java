@@ -0,0 +1,172 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableColumnarResult;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * Encodage columnar des resultats du datatable ({@link DatatableColumnarResult}): les noms des colonnes une seule
+ * fois et un tableau de valeurs par colonne, au lieu de repeter le nom de chaque propriété dans chaque ligne. Les
+ * colonnes de texte avec peu de valeurs differentes sont encodées avec un dictionnaire.
+ * <p>
+ * Le format est choisi par requete, avec la propriété {@link #FORMAT} a {@link DatatableColumnarResult#FORMAT} dans les
+ * {@link DatatableQuery#getExtraProps()}:
+ *
+ * <pre>
+ * return DatatableColumnarEncoder.encodeIfRequested(ordersDAO.findAll(input), input);
+ * </pre>
+ *
+ * Coté client, le decodeur <code>META-INF/resources/datatable/datatable-columnar.js</code>:
+ *
+ * <pre>
+ * $('#orders').DataTable({ serverSide: true, ajax: { url: 'orders', dataSrc: datatableColumnar.dataSrc } });
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public final class DatatableColumnarEncoder {
+
+    /**
+     * Extra property de la requete avec le format du resultat
+     */
+    public static final String FORMAT = "datatable.format";
+
+    /**
+     * Nombre maximum de valeurs d'un dictionnaire
+     */
+    static final int MAX_DICTIONARY_SIZE = 256;
+
+    private DatatableColumnarEncoder() {
+        // abstract
+    }
+
+    /**
+     * @param input
+     *            la requete
+     * @return <code>true</code> si la requete demande le format columnar
+     */
+    public static boolean isRequested(final DatatableQuery<?, ?> input) {
+        return input.getExtraProps() != null
+            && DatatableColumnarResult.FORMAT.equals(input.getExtraProps().get(FORMAT));
+    }
+
+    /**
+     * Encode le resultat si la requete demande le format columnar
+     *
+     * @param result
+     *            le resultat
+     * @param input
+     *            la requete du resultat
+     * @return le resultat encodé, ou le resultat si la requete ne demande pas le format columnar
+     */
+    public static <R> DatatableResult<R> encodeIfRequested(final DatatableResult<R> result,
+        final DatatableQuery<R, ?> input) {
+        return isRequested(input) ? encode(result, input) : result;
+    }
+
+    /**
+     * Encode le resultat: une colonne par {@link DatatableColumn} de la requete. Les valeurs sont lues avec le path
+     * de la colonne (<code>columns.data</code>) sur les beans, ou par position pour les lignes <code>Object[]</code>.
+     *
+     * @param result
+     *            le resultat
+     * @param input
+     *            la requete du resultat
+     * @return le resultat encodé
+     */
+    public static <R> DatatableColumnarResult<R> encode(final DatatableResult<R> result,
+        final DatatableQuery<R, ?> input) {
+        final DatatableColumnarResult<R> ret = new DatatableColumnarResult<R>();
+        ret.setDraw(result.getDraw());
+        ret.setRecordsTotal(result.getRecordsTotal());
+        ret.setRecordsFiltered(result.getRecordsFiltered());
+        ret.setError(result.getError());
+        ret.setVersion(result.getVersion());
+        ret.setNotModified(result.isNotModified());
+        ret.setDowngrades(result.getDowngrades());
+        ret.setAggregates(result.getAggregates());
+
+        final List<R> rows = result.getData();
+        final List<DatatableColumn> columns = input.getGroupByColumns() != null && input.getQueryClass() != null
+            ? input.getGroupByColumns() : input.getColumns();
+        final List<String> names = new ArrayList<String>(columns.size());
+        final List<List<Object>> values = new ArrayList<List<Object>>(columns.size());
+        final Map<String, List<String>> dictionaries = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < columns.size(); i++) {
+            final String name = columns.get(i).getData();
+            final List<Object> columnValues = new ArrayList<Object>(rows.size());
+            for (final R row : rows) {
+                columnValues.add(getValue(row, name, i));
+            }
+            final List<String> dictionary = getDictionary(columnValues);
+            if (dictionary != null) {
+                dictionaries.put(name, dictionary);
+            }
+            names.add(name);
+            values.add(columnValues);
+        }
+        ret.setSize(rows.size());
+        ret.setColumns(names);
+        ret.setValues(values);
+        ret.setDictionaries(dictionaries);
+        return ret;
+    }
+
+    private static Object getValue(final Object row, final String name, final int index) {
+        if (row instanceof Object[]) {
+            return ((Object[]) row)[index];
+        }
+        if (row instanceof Map) {
+            return ((Map<?, ?>) row).get(name);
+        }
+        return DatatableHelper.getProperty(row, name);
+    }
+
+    /**
+     * Encode la colonne avec un dictionnaire si toutes les valeurs sont des textes et si elles ont peu de valeurs
+     * differentes (au plus la moitié des lignes et {@link #MAX_DICTIONARY_SIZE}). Les valeurs de la colonne sont
+     * remplacées par leur index dans le dictionnaire.
+     *
+     * @return le dictionnaire, ou <code>null</code> si la colonne n'est pas encodée
+     */
+    private static List<String> getDictionary(final List<Object> columnValues) {
+        final int maxSize = Math.min(MAX_DICTIONARY_SIZE, columnValues.size() / 2);
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (final Object value : columnValues) {
+            if (value == null) {
+                continue;
+            }
+            if (!(value instanceof String)) {
+                return null;
+            }
+            if (!indexes.containsKey(value)) {
+                if (indexes.size() == maxSize) {
+                    return null;
+                }
+                indexes.put((String) value, indexes.size());
+            }
+        }
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        final String[] ret = new String[indexes.size()];
+        for (final Map.Entry<String, Integer> entry : indexes.entrySet()) {
+            ret[entry.getValue()] = entry.getKey();
+        }
+        for (int i = 0; i < columnValues.size(); i++) {
+            final Object value = columnValues.get(i);
+            if (value != null) {
+                columnValues.set(i, indexes.get(value));
+            }
+        }
+        return Arrays.asList(ret);
+    }
+}
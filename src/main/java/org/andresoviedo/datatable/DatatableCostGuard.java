@@ -0,0 +1,497 @@
+package org.andresoviedo.datatable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.Column;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableOrder;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Modele de cout des requetes du datatable, pour qu'une seule requete (<code>length=-1</code>, ordre sur une colonne
+ * jointe sans index, filtre global sur 30 colonnes) ne sature pas la base. Le cout est la somme de:
+ * <ul>
+ * <li>la taille de la page: {@link #setRowCost(int)} par tranche de 100 lignes, {@link #setUnboundedCost(int)} pour
+ * une page sans limite</li>
+ * <li>les joins: {@link #setJoinCost(int)} par join, double pour une association to-many</li>
+ * <li>les ordres sur une colonne sans index: {@link #setUnindexedSortCost(int)} par colonne</li>
+ * <li>les filtres "like" (par colonne et, pour le filtre global, par colonne cherchable):
+ * {@link #setLikeCost(int)} par "like", comptés deux fois (page et count) sauf si le count est approximatif</li>
+ * </ul>
+ * Au dela de {@link #setMaxCost(int)} la requete est rejetée ou, en mode {@link Mode#DOWNGRADE}, degradée dans cet
+ * ordre jusqu'a passer: taille de page limitée a {@link #setMaxLength(int)}, ordres sans index supprimés, puis count
+ * filtré approximatif (limité a {@link #setApproximateCountLimit(int)}). Les degradations appliquées sont dans
+ * {@link org.andresoviedo.datatable.dto.DatatableResult#getDowngrades()}.
+ * <p>
+ * Les index sont lus des annotations de l'entité: <code>@Id</code>, <code>@Column(unique = true)</code>, premiere
+ * colonne des <code>@Table(uniqueConstraints)</code> et, avec JPA 2.1, des <code>@Table(indexes)</code>. Les autres
+ * index (colonnes jointes, index créés par script) se declarent avec {@link #addIndex(Class, String)}.
+ *
+ * @author afoviedo
+ */
+public class DatatableCostGuard {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Action pour une requete au dela du budget
+     */
+    public enum Mode {
+
+        /**
+         * La requete est rejetée (erreur du resultat)
+         */
+        REJECT,
+
+        /**
+         * La requete est degradée, puis rejetée si elle est encore au dela du budget
+         */
+        DOWNGRADE
+    }
+
+    private final ConcurrentMap<Class<?>, Set<String>> indexes = new ConcurrentHashMap<Class<?>, Set<String>>();
+
+    private final Mode mode;
+
+    private int maxCost = 200;
+
+    private int maxLength = 1000;
+
+    private int approximateCountLimit = 10000;
+
+    private int rowCost = 10;
+
+    private int unboundedCost = 1000;
+
+    private int joinCost = 10;
+
+    private int unindexedSortCost = 50;
+
+    private int likeCost = 5;
+
+    /**
+     * @param mode
+     *            action pour une requete au dela du budget
+     */
+    public DatatableCostGuard(final Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Declare un index dont la premiere colonne est l'atribut specifié
+     *
+     * @param entity
+     *            classe de l'entité
+     * @param path
+     *            path de l'atribut, par exemple "customer.name"
+     * @return this
+     */
+    public DatatableCostGuard addIndex(final Class<?> entity, final String path) {
+        getIndexes(entity).add(path);
+        return this;
+    }
+
+    /**
+     * Evalue la requete et la degrade ou la rejette si elle est au dela du budget
+     *
+     * @param input
+     *            la requete (n'est pas modifiée)
+     * @param entityType
+     *            metamodel de l'entité
+     * @return le plan: la requete a executer et les degradations
+     * @throws IllegalStateException
+     *             si la requete est rejetée
+     */
+    public <R, E> Plan<R, E> plan(final DatatableQuery<R, E> input, final ManagedType<E> entityType) {
+        DatatableQuery<R, E> query = input;
+        final List<String> downgrades = new ArrayList<String>();
+        boolean approximateCount = false;
+        int cost = getCost(query, entityType, approximateCount);
+        if (cost > maxCost && mode == Mode.DOWNGRADE) {
+            if (query.getLength() < 0 || query.getLength() > maxLength) {
+                query = DatatableHelper.copy(query);
+                if (query.getLength() < 0) {
+                    query.setStart(0);
+                }
+                query.setLength(maxLength);
+                downgrades.add("length=" + maxLength);
+                cost = getCost(query, entityType, approximateCount);
+            }
+            if (cost > maxCost) {
+                final List<String> dropped = new ArrayList<String>();
+                final List<DatatableOrder> orders = new ArrayList<DatatableOrder>();
+                for (final DatatableOrder order : query.getOrder()) {
+                    final DatatableColumn column = query.getColumns().get(order.getColumn());
+                    if (column.getOrderable() && !isIndexed(entityType.getJavaType(), column.getData())) {
+                        dropped.add(column.getData());
+                    } else {
+                        orders.add(order);
+                    }
+                }
+                if (!dropped.isEmpty()) {
+                    query = query == input ? DatatableHelper.copy(query) : query;
+                    query.setOrder(orders);
+                    downgrades.add("order-=" + dropped);
+                    cost = getCost(query, entityType, approximateCount);
+                }
+            }
+            if (cost > maxCost && isFiltering(query) && !DatatableDAOImpl.hasAggregates(query)) {
+                // les agregats lisent toutes les lignes filtrées: pas de count approximatif
+                approximateCount = true;
+                downgrades.add("recordsFiltered<=" + approximateCountLimit);
+                cost = getCost(query, entityType, approximateCount);
+            }
+        }
+        if (cost > maxCost) {
+            throw new IllegalStateException(
+                "Requete trop couteuse (" + cost + " > " + maxCost + "): " + entityType.getJavaType().getName());
+        }
+        if (!downgrades.isEmpty()) {
+            LOGGER.log(Level.INFO, "Query downgraded {0}: {1}", new Object[] { entityType.getJavaType().getName(),
+                downgrades });
+        }
+        return new Plan<R, E>(query, cost, downgrades, approximateCount ? approximateCountLimit : 0);
+    }
+
+    /**
+     * Cout de la requete d'aprés le modele
+     *
+     * @param input
+     *            la requete
+     * @param entityType
+     *            metamodel de l'entité
+     * @param approximateCount
+     *            <code>true</code> si le count filtré est approximatif
+     * @return le cout
+     */
+    public int getCost(final DatatableQuery<?, ?> input, final ManagedType<?> entityType,
+        final boolean approximateCount) {
+        // taille de la page
+        int ret = input.getLength() < 0 || input.getLength() == Integer.MAX_VALUE ? unboundedCost
+            : (input.getLength() + 99) / 100 * rowCost;
+
+        // paths des colonnes utilisées (les joins sont partagés)
+        final Set<String> paths = new LinkedHashSet<String>();
+        if (input.getQueryClass() != null) {
+            for (final DatatableColumn column : input.getGroupByColumns() != null ? input.getGroupByColumns()
+                : input.getColumns()) {
+                paths.add(column.getData());
+            }
+        }
+
+        // ordres
+        for (final DatatableOrder order : input.getOrder()) {
+            final DatatableColumn column = input.getColumns().get(order.getColumn());
+            if (column.getOrderable()) {
+                paths.add(column.getData());
+                if (!isIndexed(entityType.getJavaType(), column.getData())) {
+                    ret += unindexedSortCost;
+                }
+            }
+        }
+
+        // filtres: evalués par la page et par le count filtré
+        int likes = 0;
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getSearchable() && column.getSearch() != null && hasText(column.getSearch().getValue())) {
+                paths.add(column.getData());
+                likes++;
+            }
+        }
+        if (input.getSearch() != null && hasText(input.getSearch().getValue())) {
+            if (SearchColumns.getSearchAttribute(entityType.getJavaType(), input.getColumns()) != null) {
+                likes++;
+            } else {
+                for (final DatatableColumn column : input.getColumns()) {
+                    if (column.getSearchable()) {
+                        paths.add(column.getData());
+                        likes++;
+                    }
+                }
+            }
+        }
+        ret += likes * likeCost * (approximateCount ? 1 : 2);
+
+        // joins
+        final Set<String> joins = new HashSet<String>();
+        for (final String path : paths) {
+            ret += getJoinCost(entityType, path, joins);
+        }
+        return ret;
+    }
+
+    /**
+     * Cout des joins du path qui ne sont pas deja dans <code>joins</code>
+     */
+    private int getJoinCost(final ManagedType<?> entityType, final String path, final Set<String> joins) {
+        final String[] values = path.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR);
+        int ret = 0;
+        ManagedType<?> type = entityType;
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < values.length - 1; i++) {
+            final Attribute<?, ?> attribute = type.getAttribute(values[i]);
+            if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
+                // pas de join pour un @Embedded
+                return ret;
+            }
+            prefix.append(values[i]).append(DatatableSpecification.ATTRIBUTE_SEPARATOR);
+            if (joins.add(prefix.toString())) {
+                ret += attribute.isCollection() ? 2 * joinCost : joinCost;
+            }
+            final Type<?> next;
+            if (attribute instanceof SingularAttribute) {
+                next = ((SingularAttribute<?, ?>) attribute).getType();
+            } else {
+                next = ((PluralAttribute<?, ?, ?>) attribute).getElementType();
+            }
+            if (!(next instanceof ManagedType)) {
+                return ret;
+            }
+            type = (ManagedType<?>) next;
+        }
+        return ret;
+    }
+
+    private static boolean isFiltering(final DatatableQuery<?, ?> input) {
+        if (input.getSearch() != null && hasText(input.getSearch().getValue())) {
+            return true;
+        }
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getSearchable() && column.getSearch() != null && hasText(column.getSearch().getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasText(final String value) {
+        return value != null && value.trim().length() > 0;
+    }
+
+    /**
+     * @param entity
+     *            classe de l'entité
+     * @param path
+     *            path de l'atribut
+     * @return <code>true</code> si l'atribut est la premiere colonne d'un index
+     */
+    public boolean isIndexed(final Class<?> entity, final String path) {
+        return getIndexes(entity).contains(path);
+    }
+
+    private Set<String> getIndexes(final Class<?> entity) {
+        Set<String> ret = indexes.get(entity);
+        if (ret == null) {
+            ret = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            ret.addAll(getDeclaredIndexes(entity));
+            final Set<String> previous = indexes.putIfAbsent(entity, ret);
+            if (previous != null) {
+                ret = previous;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Atributs en premiere colonne d'un index declaré par annotations
+     */
+    private static Set<String> getDeclaredIndexes(final Class<?> entity) {
+        final Set<String> columns = new HashSet<String>();
+        final Set<String> ret = new HashSet<String>();
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = entity; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            final Table table = clazz.getAnnotation(Table.class);
+            if (table != null) {
+                for (final UniqueConstraint constraint : table.uniqueConstraints()) {
+                    if (constraint.columnNames().length > 0) {
+                        columns.add(constraint.columnNames()[0].toLowerCase());
+                    }
+                }
+                columns.addAll(getTableIndexes(table));
+            }
+            Collections.addAll(fields, clazz.getDeclaredFields());
+        }
+        for (final Field field : fields) {
+            final Column column = field.getAnnotation(Column.class);
+            final String columnName =
+                column != null && column.name().length() > 0 ? column.name() : field.getName();
+            if (field.getAnnotation(Id.class) != null || field.getAnnotation(EmbeddedId.class) != null
+                || (column != null && column.unique()) || columns.contains(columnName.toLowerCase())) {
+                ret.add(field.getName());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Premiere colonne des <code>@Table(indexes)</code>, lus par reflection (JPA 2.1)
+     */
+    private static Set<String> getTableIndexes(final Table table) {
+        final Set<String> ret = new HashSet<String>();
+        try {
+            final Method indexesMethod = Table.class.getMethod("indexes");
+            for (final Object index : (Object[]) indexesMethod.invoke(table)) {
+                final String columnList = (String) index.getClass().getMethod("columnList").invoke(index);
+                final String leading = columnList.trim().split("[\\s,]+")[0];
+                if (leading.length() > 0) {
+                    ret.add(leading.toLowerCase());
+                }
+            }
+        } catch (final NoSuchMethodException ex) {
+            // JPA 2.0: pas de @Index
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException("Index illisibles: " + ex.getMessage(), ex);
+        } catch (final InvocationTargetException ex) {
+            throw new IllegalStateException("Index illisibles: " + ex.getTargetException().getMessage(), ex);
+        }
+        return ret;
+    }
+
+    /**
+     * @param maxCost
+     *            budget d'une requete (par defaut 200)
+     */
+    public void setMaxCost(final int maxCost) {
+        this.maxCost = maxCost;
+    }
+
+    /**
+     * @param maxLength
+     *            taille de page maximum d'une requete degradée (par defaut 1000)
+     */
+    public void setMaxLength(final int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("Taille de page invalide: " + maxLength);
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @param approximateCountLimit
+     *            nombre maximum de lignes comptées par un count filtré approximatif (par defaut 10000)
+     */
+    public void setApproximateCountLimit(final int approximateCountLimit) {
+        if (approximateCountLimit <= 0) {
+            throw new IllegalArgumentException("Limite du count invalide: " + approximateCountLimit);
+        }
+        this.approximateCountLimit = approximateCountLimit;
+    }
+
+    /**
+     * @param rowCost
+     *            cout par tranche de 100 lignes de la page (par defaut 10)
+     */
+    public void setRowCost(final int rowCost) {
+        this.rowCost = rowCost;
+    }
+
+    /**
+     * @param unboundedCost
+     *            cout d'une page sans limite (par defaut 1000)
+     */
+    public void setUnboundedCost(final int unboundedCost) {
+        this.unboundedCost = unboundedCost;
+    }
+
+    /**
+     * @param joinCost
+     *            cout d'un join, double pour une association to-many (par defaut 10)
+     */
+    public void setJoinCost(final int joinCost) {
+        this.joinCost = joinCost;
+    }
+
+    /**
+     * @param unindexedSortCost
+     *            cout d'un ordre sur une colonne sans index (par defaut 50)
+     */
+    public void setUnindexedSortCost(final int unindexedSortCost) {
+        this.unindexedSortCost = unindexedSortCost;
+    }
+
+    /**
+     * @param likeCost
+     *            cout d'un "like" (par defaut 5)
+     */
+    public void setLikeCost(final int likeCost) {
+        this.likeCost = likeCost;
+    }
+
+    /**
+     * Requete a executer aprés evaluation du cout
+     *
+     * @param <R>
+     *            type du resultat
+     * @param <E>
+     *            type de l'entité
+     */
+    public static class Plan<R, E> {
+
+        private final DatatableQuery<R, E> query;
+
+        private final int cost;
+
+        private final List<String> downgrades;
+
+        private final int countLimit;
+
+        private Plan(final DatatableQuery<R, E> query, final int cost, final List<String> downgrades,
+            final int countLimit) {
+            this.query = query;
+            this.cost = cost;
+            this.downgrades = Collections.unmodifiableList(downgrades);
+            this.countLimit = countLimit;
+        }
+
+        /**
+         * @return la requete a executer (une copie si elle a été degradée)
+         */
+        public DatatableQuery<R, E> getQuery() {
+            return query;
+        }
+
+        /**
+         * @return le cout de la requete a executer
+         */
+        public int getCost() {
+            return cost;
+        }
+
+        /**
+         * @return les degradations appliquées, vide si la requete n'a pas changé
+         */
+        public List<String> getDowngrades() {
+            return downgrades;
+        }
+
+        /**
+         * @return nombre maximum de lignes comptées par le count filtré, ou <code>0</code> pour un count exact
+         */
+        public int getCountLimit() {
+            return countLimit;
+        }
+    }
+}
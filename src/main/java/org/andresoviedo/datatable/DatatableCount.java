@@ -0,0 +1,102 @@
+package org.andresoviedo.datatable;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Count matérialisé d'une entité pour une clé de prefiltre, maintenu par {@link MaterializedCounts}. A declarer dans
+ * le persistence unit (<code>&lt;class&gt;org.andresoviedo.datatable.DatatableCount&lt;/class&gt;</code>).
+ *
+ * @author afoviedo
+ */
+@Entity
+@Table(name = "DATATABLE_COUNT")
+public class DatatableCount {
+
+    @Id
+    @Column(name = "ID", length = 512)
+    private String id;
+
+    @Column(name = "ENTITY_NAME", nullable = false)
+    private String entityName;
+
+    @Column(name = "PREFILTER_KEY", nullable = false)
+    private String prefilterKey;
+
+    @Column(name = "TOTAL", nullable = false)
+    private long total;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "UPDATED")
+    private Date updated;
+
+    /**
+     * Debut de la derniere reconciliation: les variations commitées avant sont deja dans le total
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "RECONCILED")
+    private Date reconciled;
+
+    public DatatableCount() {
+        super();
+    }
+
+    public DatatableCount(final String entityName, final String prefilterKey) {
+        this.id = getId(entityName, prefilterKey);
+        this.entityName = entityName;
+        this.prefilterKey = prefilterKey;
+    }
+
+    /**
+     * @param entityName
+     *            nom de l'entité
+     * @param prefilterKey
+     *            clé du prefiltre
+     * @return l'identifiant du count
+     */
+    public static String getId(final String entityName, final String prefilterKey) {
+        return entityName + "|" + prefilterKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getPrefilterKey() {
+        return prefilterKey;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(final long total) {
+        this.total = total;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(final Date updated) {
+        this.updated = updated;
+    }
+
+    public Date getReconciled() {
+        return reconciled;
+    }
+
+    public void setReconciled(final Date reconciled) {
+        this.reconciled = reconciled;
+    }
+}
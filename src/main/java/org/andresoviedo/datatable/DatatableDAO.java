@@ -1,5 +1,11 @@
 package org.andresoviedo.datatable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
 import org.andresoviedo.datatable.dto.DatatableQuery;
 import org.andresoviedo.datatable.dto.DatatableResult;
 
@@ -12,6 +18,11 @@ import org.andresoviedo.datatable.dto.DatatableResult;
  */
 public interface DatatableDAO<T> {
 
+    /**
+     * Nombre de lignes lues par requete pour les publishers, par defaut
+     */
+    int DEFAULT_PUBLISH_CHUNK_SIZE = 100;
+
     /**
      * Returns the filtered list for the given {@link DatatableQuery}.
      * 
@@ -51,4 +62,125 @@ public interface DatatableDAO<T> {
      */
     <R> DatatableResult<R> findAll(DatatableQuery<R, T> input, Specification<T> additionalSpecification,
         Specification<T> preFilteringSpecification);
+
+    /**
+     * Returns the filtered lists for several {@link DatatableQuery}, for example all the datatables of a page. The
+     * default implementation executes the queries one after the other with {@link #findAll(DatatableQuery)};
+     * implementations may execute all the queries with the same entity manager (and connection) instead of one per
+     * query.
+     * 
+     * @param inputs
+     *            the {@link DatatableQuery} list mapped from the Ajax requests
+     * @param <R>
+     *            type du retour de la requete
+     * @return the {@link DatatableResult} list, in the same order as the inputs
+     */
+    default <R> List<DatatableResult<R>> findAllBatch(final List<DatatableQuery<R, T>> inputs) {
+        final List<DatatableResult<R>> ret = new ArrayList<DatatableResult<R>>(inputs.size());
+        for (final DatatableQuery<R, T> input : inputs) {
+            ret.add(findAll(input));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the rows for the given {@link DatatableQuery}, without the counts. The default implementation returns
+     * the data of {@link #findAll(DatatableQuery, Specification, Specification)}; implementations should read only
+     * the rows.
+     * 
+     * @param input
+     *            the {@link DatatableQuery}: filters, order and range of the rows
+     * @param additionalSpecification
+     *            an additional {@link Specification} to apply to the query (with an "AND" clause)
+     * @param preFilteringSpecification
+     *            a pre-filtering {@link Specification} to apply to the query (with an "AND" clause)
+     * @param <R>
+     *            type du retour de la requete
+     * @return the rows
+     * @throws IllegalStateException
+     *             if the query fails
+     */
+    default <R> List<R> findData(final DatatableQuery<R, T> input, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+        final DatatableResult<R> result = findAll(input, additionalSpecification, preFilteringSpecification);
+        if (result.getError() != null) {
+            throw new IllegalStateException(result.getError());
+        }
+        return result.getData() == null ? Collections.<R> emptyList() : result.getData();
+    }
+
+    /**
+     * Returns a {@link Flow.Publisher} of the rows for the given {@link DatatableQuery}, for example to export a long
+     * result set. The rows are read from the database in chunks, only when the subscriber requests them. The database
+     * resources of a subscription are released when it completes, fails or is cancelled.
+     * 
+     * @param input
+     *            the {@link DatatableQuery}: filters, order and range (<code>start</code>, <code>length</code>) of the
+     *            rows
+     * @param executor
+     *            executor of the database reads and of the subscriber signals
+     * @param <R>
+     *            type du retour de la requete
+     * @return a {@link Flow.Publisher} of the rows
+     */
+    default <R> Flow.Publisher<R> publish(final DatatableQuery<R, T> input, final Executor executor) {
+        return publish(input, null, null, executor);
+    }
+
+    /**
+     * Returns a {@link Flow.Publisher} of the rows for the given {@link DatatableQuery}. The default implementation
+     * reads chunks of {@link #DEFAULT_PUBLISH_CHUNK_SIZE} rows: the first one with
+     * {@link #findAll(DatatableQuery, Specification, Specification)} (the counts are computed once), the next ones
+     * with {@link #findData(DatatableQuery, Specification, Specification)}.
+     * 
+     * @param input
+     *            the {@link DatatableQuery}: filters, order and range (<code>start</code>, <code>length</code>) of the
+     *            rows
+     * @param additionalSpecification
+     *            an additional {@link Specification} to apply to the query (with an "AND" clause)
+     * @param preFilteringSpecification
+     *            a pre-filtering {@link Specification} to apply to the query (with an "AND" clause)
+     * @param executor
+     *            executor of the database reads and of the subscriber signals
+     * @param <R>
+     *            type du retour de la requete
+     * @return a {@link Flow.Publisher} of the rows
+     * @see #publish(DatatableQuery, Executor)
+     */
+    default <R> Flow.Publisher<R> publish(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final Executor executor) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+
+        final Pageable pageable = DatatableHelper.getPageable(input);
+        return new DatatablePublisher<R>(() -> new DatatablePublisher.PageSource<R>() {
+
+            private boolean counted;
+
+            @Override
+            public List<R> fetch(final int offset, final int maxResults) {
+                final DatatableQuery<R, T> chunk = DatatableHelper.copy(input);
+                chunk.setStart(offset);
+                chunk.setLength(maxResults);
+                if (counted) {
+                    return findData(chunk, additionalSpecification, preFilteringSpecification);
+                }
+                final DatatableResult<R> result = findAll(chunk, additionalSpecification, preFilteringSpecification);
+                if (result.getError() != null) {
+                    throw new IllegalStateException(result.getError());
+                }
+                counted = true;
+                return result.getData() == null ? Collections.<R> emptyList() : result.getData();
+            }
+
+            @Override
+            public void close() {
+                // rien a liberer: chaque bloc est une requete
+            }
+        }, pageable.getOffset(), pageable.getPageSize(), DEFAULT_PUBLISH_CHUNK_SIZE, executor);
+    }
 }
@@ -1,261 +1,2162 @@
-package org.andresoviedo.datatable;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.PersistenceException;
-import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Root;
-import javax.persistence.criteria.Selection;
-
-import org.andresoviedo.datatable.dto.DatatableQuery;
-import org.andresoviedo.datatable.dto.DatatableResult;
-
-/**
- * Implementation du datatable server side en utilisent le criteria API pour construir les réquétes.
- * 
- * @author afoviedo
- * @param <T>
- *            type de l'entité JPA
- */
-public class DatatableDAOImpl<T> implements DatatableDAO<T> {
-
-	private Logger LOGGER = Logger.getLogger("");
-
-    private final EntityManagerFactory entityManagerFactory;
-
-    private final Class<T> entity;
-
-    /**
-     * Constructeur du DAO pour faire executer les requetes du datatable
-     * 
-     * @param entityManagerFactory
-     *            le JPA entity manager
-     * @param entity
-     *            l'entité a gerer pour ce DAO
-     */
-    public DatatableDAOImpl(final EntityManagerFactory entityManagerFactory, final Class<T> entity) {
-        super();
-        this.entityManagerFactory = entityManagerFactory;
-        this.entity = entity;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input) {
-        return findAll(input, null, null);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
-        final Specification<T> additionalSpecification) {
-        return findAll(input, additionalSpecification, null);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
-        final Specification<T> additionalSpecification,
-        final Specification<T> preFilteringSpecification) {
-
-        // asserts
-        if (input.getColumns() == null || input.getColumns().isEmpty()) {
-            throw new IllegalArgumentException("Pas de colonnes configuré");
-        }
-
-        final DatatableResult<R> output = new DatatableResult<R>();
-        output.setDraw(input.getDraw());
-        if (input.getLength() == 0) {
-            return output;
-        }
-
-        try {
-            // Compter nombre de registres
-            output.setRecordsTotal(count(preFilteringSpecification, input));
-            LOGGER.log(Level.INFO, "Total prefiltered: {0}", output.getRecordsTotal());
-            if (output.getRecordsTotal() == 0) {
-                return output;
-            }
-
-            // Creer specification
-            final Specifications<T> specifications = Specifications.where(new DatatableSpecification<T>(input))
-                .and(additionalSpecification).and(preFilteringSpecification);
-
-            // Compter le nombre de registres avec la spec
-            output.setRecordsFiltered(count(specifications, input));
-            LOGGER.log(Level.INFO, "Total filtered: {0}", output.getRecordsFiltered());
-
-            // Executer la requete
-            final Pageable pageable = DatatableHelper.getPageable(input);
-            final List<R> result;
-            if (input.getQueryClass() == null) {
-                // INFO: il faut faire comment suive. Le type de query <R>=<T>
-                result = findAllImpl1(input, specifications, pageable);
-            } else {
-                result = findAllImpl2(input, specifications, pageable);
-            }
-            output.setData(result);
-
-        } catch (final IllegalStateException ex) {
-        	LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-            output.setError(ex.getMessage());
-        } catch (final PersistenceException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
-            output.setError(ex.getMessage());
-        }
-
-        return output;
-    }
-    
-    private long count(final Specification<T> specification, final DatatableQuery<?, T> input) {
-        if (input.getGroupByColumns() == null){
-            return countDefault(specification, input);
-        }
-        return countWhenGroupBy(specification, input);
-    }
-
-    private long countDefault(final Specification<T> specification, final DatatableQuery<?, T> input) {
-    	final EntityManager entityManager = entityManagerFactory.createEntityManager();
-        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
-        final CriteriaQuery<Long> cq = qb.createQuery(Long.class);
-        final Root<T> from = cq.from(this.entity);
-        
-        cq.select(qb.count(from));
-        if (specification != null) {
-            cq.where(specification.toPredicate(from, cq, qb));
-        }
-        final long ret = entityManager.createQuery(cq).getSingleResult();
-        entityManager.close();
-		return ret;
-    }
-    
-    private long countWhenGroupBy(final Specification<T> specification, final DatatableQuery<?, T> input) {
-    	final EntityManager entityManager = entityManagerFactory.createEntityManager();
-        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
-        final CriteriaQuery<Long> cq = qb.createQuery(Long.class);
-        final Root<T> from = cq.from(this.entity);
-        
-        cq.select(qb.literal(1L));
-        if (specification != null) {
-            cq.where(specification.toPredicate(from, cq, qb));
-        }
-        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
-            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
-            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
-            cq.groupBy(groupByList);
-        }
-        final long ret = entityManager.createQuery(cq).getResultList().size();
-        entityManager.close();
-		return ret;
-    }
-
-    @SuppressWarnings("unchecked")
-    private <R> List<R> findAllImpl1(final DatatableQuery<R, T> input, final Specifications<T> specifications,
-        final Pageable pageable) {
-
-        // create query
-    	final EntityManager entityManager = entityManagerFactory.createEntityManager();
-        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
-        final CriteriaQuery<T> cq = qb.createQuery(this.entity);
-
-        // Etablir entité racine
-        final Root<T> from = cq.from(this.entity);
-
-        // select
-        cq.select(from);
-
-        // where
-        if (specifications != null) {
-            cq.where(specifications.toPredicate(from, cq, qb));
-        }
-
-        // group by
-        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
-            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
-            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
-            cq.groupBy(groupByList);
-        }
-
-        // order by
-        if (pageable != null && pageable.getSort() != null) {
-            cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
-        }
-
-        // page limit
-        final TypedQuery<T> q = entityManager.createQuery(cq);
-        if (pageable != null) {
-            q.setFirstResult(pageable.getOffset());
-            q.setMaxResults(pageable.getPageSize());
-        }
-
-        // execute query
-        final List<R> ret = (List<R>) q.getResultList();
-        entityManager.close();
-		return ret;
-    }
-
-    private <R> List<R> findAllImpl2(final DatatableQuery<R, T> input, final Specifications<T> specifications,
-        final Pageable pageable) {
-        
-        // create query
-    	final EntityManager entityManager = entityManagerFactory.createEntityManager();
-        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();        
-        final CriteriaQuery<R> cq = qb.createQuery(input.getQueryClass());
-
-        // Etablir entité racine
-        final Root<T> from = cq.from(this.entity);
-        
-        // select for custom class
-        final List<Selection<?>> selectList = new ArrayList<Selection<?>>();
-        if (input.getGroupByColumns() != null) {
-            DatatableHelper.getExpressions(from, input.getGroupByColumns(), selectList);
-        } else {
-            DatatableHelper.getExpressions(from, input.getColumns(), selectList);
-        }
-        cq.multiselect(selectList);
-
-        // where
-        if (specifications != null) {
-            cq.where(specifications.toPredicate(from, cq, qb));
-        }
-
-        // group by
-        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
-            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
-            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
-            cq.groupBy(groupByList);
-        }
-
-        // order by
-        if (pageable != null && pageable.getSort() != null) {
-            cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
-        }
-
-        // page limit
-        final TypedQuery<R> q = entityManager.createQuery(cq);
-        if (pageable != null) {
-        	LOGGER.log(Level.FINE, "Pageable: offset: {0}, page size: {1}", new Object[]{pageable.getOffset(), pageable.getPageSize()});
-            q.setFirstResult(pageable.getOffset());
-            q.setMaxResults(pageable.getPageSize());
-        }
-
-        // execute query
-        final List<R> ret = q.getResultList();
-        entityManager.close();
-		return ret;
-    }
-}
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.EntityType;
+
+import org.andresoviedo.datatable.dto.DatatableAggregate;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableDelta;
+import org.andresoviedo.datatable.dto.DatatableFacet;
+import org.andresoviedo.datatable.dto.DatatableGroupedResult;
+import org.andresoviedo.datatable.dto.DatatableOrder;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * Implementation du datatable server side en utilisent le criteria API pour construir les réquétes.
+ * 
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public class DatatableDAOImpl<T> implements DatatableDAO<T> {
+
+	private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Fetch size JDBC maximum quand il est calculé d'aprés la taille de la page
+     */
+    static final int MAX_DEFAULT_FETCH_SIZE = 500;
+
+    /**
+     * Nombre maximum de valeurs par facette, par defaut
+     */
+    public static final int DEFAULT_FACET_LIMIT = 50;
+
+    /**
+     * Nombre maximum de valeurs d'un dictionnaire de suggestions, par defaut
+     */
+    public static final int DEFAULT_SUGGESTION_DICTIONARY_SIZE = 10000;
+
+    /**
+     * Nombre maximum de lignes d'une page de groupes, par defaut
+     */
+    public static final int DEFAULT_MAX_GROUPED_ROWS = 10000;
+
+    /**
+     * Valeur d'une colonne nulle dans la clé d'un groupe de plusieurs colonnes
+     */
+    private static final String NULL_GROUP_VALUE = "\u001e";
+
+    /**
+     * Separateur des colonnes dans la clé d'un groupe de plusieurs colonnes
+     */
+    private static final String GROUP_KEY_SEPARATOR = "\u001f";
+
+    private final EntityManagerProvider entityManagerProvider;
+
+    private final Class<T> entity;
+
+    /**
+     * Requetes en lecture seule (pas de snapshots pour le dirty-checking des entités retournées), ou
+     * <code>null</code> pour {@link EntityManagerProvider#isReadOnly()}
+     */
+    private volatile Boolean readOnly;
+
+    /**
+     * Fetch size JDBC, ou <code>0</code> pour la taille de la page
+     */
+    private int fetchSize;
+
+    /**
+     * Hints JPA supplementaires pour toutes les requetes. Copie immutable remplacée a chaque ajout: les draws la
+     * lisent sans synchronisation.
+     */
+    private volatile Map<String, Object> queryHints = Collections.emptyMap();
+
+    /**
+     * Source de la version des données, pour les reponses "not modified"
+     */
+    private DataVersionSource dataVersionSource;
+
+    /**
+     * <code>true</code> si l'application n'a qu'une JVM
+     */
+    private boolean singleNode;
+
+    /**
+     * Atribut de version ou de date de modification de l'entité, pour les requetes delta
+     */
+    private String versionAttribute;
+
+    /**
+     * Prechargement de la page suivante, ou <code>null</code>
+     */
+    private DatatablePrefetcher prefetcher;
+
+    /**
+     * Counts matérialisés pour le total, ou <code>null</code> pour toujours compter
+     */
+    private MaterializedCounts materializedCounts;
+
+    /**
+     * Controle du cout des requetes, ou <code>null</code> pour executer toutes les requetes
+     */
+    private DatatableCostGuard costGuard;
+
+    /**
+     * Controle d'admission des requetes, ou <code>null</code> pour pas de limite de concurrence
+     */
+    private DatatableBulkhead bulkhead;
+
+    /**
+     * Nombre de lignes lues par requete pour les publishers
+     */
+    private int publishChunkSize = DEFAULT_PUBLISH_CHUNK_SIZE;
+
+    /**
+     * Executor des requetes des facettes, ou <code>null</code> pour les executer dans le thread de l'appelant
+     */
+    private Executor facetExecutor;
+
+    /**
+     * Nombre maximum de valeurs par facette
+     */
+    private int facetLimit = DEFAULT_FACET_LIMIT;
+
+    /**
+     * Nombre maximum de lignes d'une page de groupes
+     */
+    private int maxGroupedRows = DEFAULT_MAX_GROUPED_ROWS;
+
+    /**
+     * Cache des facettes, ou <code>null</code>
+     */
+    private ExpiringCache<String, List<DatatableFacet>> facetCache;
+
+    /**
+     * Dictionnaires des suggestions, par colonne
+     */
+    private final ConcurrentMap<String, SuggestionDictionary> suggestions =
+        new ConcurrentHashMap<String, SuggestionDictionary>();
+
+    /**
+     * Taille maximum d'un dictionnaire de suggestions
+     */
+    private int suggestionDictionarySize = DEFAULT_SUGGESTION_DICTIONARY_SIZE;
+
+    private long suggestionRefreshNanos = TimeUnit.MINUTES.toNanos(1);
+
+    private long suggestionReloadNanos = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Entités pre-agregées pour les requetes group by
+     */
+    private final List<Rollup<?>> rollups = new CopyOnWriteArrayList<Rollup<?>>();
+
+    /**
+     * Constructeur du DAO pour faire executer les requetes du datatable
+     * 
+     * @param entityManagerFactory
+     *            le JPA entity manager
+     * @param entity
+     *            l'entité a gerer pour ce DAO
+     */
+    public DatatableDAOImpl(final EntityManagerFactory entityManagerFactory, final Class<T> entity) {
+        this(EntityManagerProviders.perDraw(entityManagerFactory), entity);
+    }
+
+    /**
+     * Constructeur du DAO pour faire executer les requetes du datatable
+     * 
+     * @param entityManagerProvider
+     *            le fournisseur de l'entity manager de chaque draw
+     * @param entity
+     *            l'entité a gerer pour ce DAO
+     */
+    public DatatableDAOImpl(final EntityManagerProvider entityManagerProvider, final Class<T> entity) {
+        super();
+        this.entityManagerProvider = entityManagerProvider;
+        this.entity = entity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input) {
+        return findAll(input, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification) {
+        return findAll(input, additionalSpecification, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+        final Rollup<?> rollup = getRollup(input, additionalSpecification, preFilteringSpecification);
+        if (rollup != null) {
+            LOGGER.log(Level.FINE, "Rollup: {0}", rollup.datatableDAO.getEntity().getName());
+            return rollup.findAll(input);
+        }
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(input);
+        } catch (final IllegalStateException ex) {
+            final DatatableResult<R> output = new DatatableResult<R>();
+            output.setDraw(input.getDraw());
+            output.setError(ex.getMessage());
+            return output;
+        }
+        try {
+            final EntityManager entityManager = entityManagerProvider.getEntityManager(input);
+            try {
+                return findAll(entityManager, input, additionalSpecification, preFilteringSpecification);
+            } finally {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Les requetes group by servies par un rollup sont executées par le DAO du rollup. Les autres sont executées par
+     * groupes de requetes avec le meme tenant et le meme routage
+     * ({@link ReplicaRoutingEntityManagerProvider#FORCE_PRIMARY}): une place du bulkhead et un entity manager par
+     * groupe, obtenus avec la premiere requete du groupe.
+     */
+    @Override
+    public <R> List<DatatableResult<R>> findAllBatch(final List<DatatableQuery<R, T>> inputs) {
+        final List<DatatableResult<R>> ret =
+            new ArrayList<DatatableResult<R>>(Collections.<DatatableResult<R>> nCopies(inputs.size(), null));
+        final Map<List<Object>, List<Integer>> groups = new LinkedHashMap<List<Object>, List<Integer>>();
+        for (int i = 0; i < inputs.size(); i++) {
+            final DatatableQuery<R, T> input = inputs.get(i);
+            final Rollup<?> rollup = getRollup(input, null, null);
+            if (rollup != null) {
+                LOGGER.log(Level.FINE, "Rollup: {0}", rollup.datatableDAO.getEntity().getName());
+                ret.set(i, rollup.findAll(input));
+                continue;
+            }
+            final List<Object> key = getCheckoutKey(input);
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(key, group);
+            }
+            group.add(i);
+        }
+        for (final List<Integer> group : groups.values()) {
+            findAllBatch(inputs, group, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Execute un groupe de requetes du lot avec une place du bulkhead et un entity manager
+     */
+    private <R> void findAllBatch(final List<DatatableQuery<R, T>> inputs, final List<Integer> group,
+        final List<DatatableResult<R>> ret) {
+        final DatatableQuery<R, T> first = inputs.get(group.get(0));
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(first);
+        } catch (final IllegalStateException ex) {
+            for (final Integer i : group) {
+                final DatatableResult<R> output = new DatatableResult<R>();
+                output.setDraw(inputs.get(i).getDraw());
+                output.setError(ex.getMessage());
+                ret.set(i, output);
+            }
+            return;
+        }
+        try {
+            final EntityManager entityManager = entityManagerProvider.getEntityManager(first);
+            try {
+                for (final Integer i : group) {
+                    ret.set(i, findAll(entityManager, inputs.get(i), null, null));
+                }
+            } finally {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * @return clé des requetes qui peuvent partager une place du bulkhead et un entity manager: le tenant et le
+     *         routage de la requete
+     */
+    private static List<Object> getCheckoutKey(final DatatableQuery<?, ?> input) {
+        final Map<String, Object> props =
+            input.getExtraProps() == null ? Collections.<String, Object> emptyMap() : input.getExtraProps();
+        return Arrays.asList(props.get(DatatableBulkhead.TENANT),
+            props.get(ReplicaRoutingEntityManagerProvider.FORCE_PRIMARY));
+    }
+
+    /**
+     * Execute les requetes du datatable (counts et page) avec l'entity manager specifié. L'entity manager n'est pas
+     * fermé.
+     */
+    <R> DatatableResult<R> findAll(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        return findAll(entityManager, input, additionalSpecification, preFilteringSpecification, prefetcher != null);
+    }
+
+    /**
+     * Controle le cout de la requete avant de l'executer: la requete peut etre rejetée (erreur du resultat) ou
+     * degradée (degradations dans le resultat).
+     */
+    private <R> DatatableResult<R> findAll(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final boolean prefetch) {
+        if (costGuard == null || input.getColumns() == null || input.getColumns().isEmpty()) {
+            return findAll(entityManager, input, additionalSpecification, preFilteringSpecification, prefetch, 0);
+        }
+        final DatatableCostGuard.Plan<R, T> plan;
+        try {
+            plan = costGuard.plan(input, entityManager.getMetamodel().entity(entity));
+        } catch (final IllegalStateException ex) {
+            LOGGER.log(Level.WARNING, ex.getMessage());
+            final DatatableResult<R> output = new DatatableResult<R>();
+            output.setDraw(input.getDraw());
+            output.setError(ex.getMessage());
+            return output;
+        }
+        final DatatableResult<R> output = findAll(entityManager, plan.getQuery(), additionalSpecification,
+            preFilteringSpecification, prefetch, plan.getCountLimit());
+        if (!plan.getDowngrades().isEmpty()) {
+            output.setDowngrades(plan.getDowngrades());
+        }
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> DatatableResult<R> findAll(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final boolean prefetch, final int countLimit) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+
+        final DatatableResult<R> output = new DatatableResult<R>();
+        output.setDraw(input.getDraw());
+        if (input.getLength() == 0) {
+            return output;
+        }
+
+        try {
+            // Version des données: rien a executer si la vue a deja ce resultat. Sans clé de requete (specification
+            // sans clé), ni version ni page prechargée
+            String version = null;
+            String dataVersion = null;
+            String pageKey = null;
+            final DataVersionSource versionSource = getDataVersionSource();
+            final String queryKey = versionSource != null || prefetch
+                ? DatatableHelper.getQueryKey(input, additionalSpecification, preFilteringSpecification) : null;
+            if (queryKey != null) {
+                if (versionSource != null) {
+                    dataVersion = versionSource.getVersion(entityManager, entity);
+                }
+                pageKey = DatatableHelper.getToken(dataVersion, queryKey);
+            }
+            if (versionSource != null && pageKey != null) {
+                version = pageKey;
+                if (version.equals(input.getVersion())) {
+                    LOGGER.log(Level.FINE, "Not modified: {0}", version);
+                    output.setVersion(version);
+                    output.setNotModified(true);
+                    return output;
+                }
+            }
+
+            // Page prechargée
+            if (prefetch && pageKey != null) {
+                final DatatableResult<R> prefetched = (DatatableResult<R>) prefetcher.get(pageKey);
+                if (prefetched != null) {
+                    LOGGER.log(Level.FINE, "Prefetched page: {0}", pageKey);
+                    final DatatableResult<R> ret = DatatableHelper.copy(prefetched, input.getDraw());
+                    prefetchNextPage(input, additionalSpecification, preFilteringSpecification, dataVersion, ret);
+                    return ret;
+                }
+            }
+
+            // Compter nombre de registres
+            output.setRecordsTotal(countTotal(entityManager, preFilteringSpecification, input));
+            LOGGER.log(Level.INFO, "Total prefiltered: {0}", output.getRecordsTotal());
+            output.setVersion(version);
+            if (output.getRecordsTotal() == 0) {
+                return output;
+            }
+
+            // Creer specification
+            final DatatableSpecification<T> datatableSpecification = new DatatableSpecification<T>(input);
+            final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+                .and(additionalSpecification).and(datatableSpecification.getFilter());
+
+            // Compter le nombre de registres avec la spec
+            countFiltered(entityManager, input, datatableSpecification, additionalSpecification,
+                preFilteringSpecification, output, countLimit);
+            LOGGER.log(Level.INFO, "Total filtered: {0}", output.getRecordsFiltered());
+
+            // Executer la requete
+            final Pageable pageable = DatatableHelper.getPageable(input);
+            output.setData(findPage(entityManager, input, specifications, pageable));
+
+            // Precharger la page suivante
+            if (prefetch && pageKey != null) {
+                prefetchNextPage(input, additionalSpecification, preFilteringSpecification, dataVersion, output);
+            }
+
+        } catch (final IllegalStateException ex) {
+        	LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+            output.setVersion(null);
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            entityManagerProvider.reportFailure(entityManager, ex);
+            output.setError(ex.getMessage());
+            output.setVersion(null);
+        }
+
+        return output;
+    }
+    
+    /**
+     * Demande le prechargement de la page suivante, si il y en a une
+     */
+    private <R> void prefetchNextPage(final DatatableQuery<R, T> input, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification, final String dataVersion, final DatatableResult<R> output) {
+        final int start = input.getStart();
+        final int length = input.getLength();
+        if (length <= 0 || length == Integer.MAX_VALUE || (long) start + length >= output.getRecordsFiltered()) {
+            return;
+        }
+        final DatatableQuery<R, T> next = DatatableHelper.copy(input);
+        next.setStart(start + length);
+        final String nextKey = DatatableHelper.getToken(dataVersion,
+            DatatableHelper.getQueryKey(next, additionalSpecification, preFilteringSpecification));
+        prefetcher.prefetch(nextKey, new DatatablePrefetcher.Loader() {
+            @Override
+            public DatatableResult<?> load() {
+                // page speculative: seulement si le bulkhead a une place libre
+                final DatatableBulkhead.Permit permit = bulkhead == null ? null : bulkhead.tryAcquire(entity, next);
+                if (bulkhead != null && permit == null) {
+                    return null;
+                }
+                try {
+                    final EntityManager entityManager = entityManagerProvider.getEntityManager(next);
+                    try {
+                        return findAll(entityManager, next, additionalSpecification, preFilteringSpecification,
+                            false);
+                    } finally {
+                        entityManagerProvider.releaseEntityManager(entityManager);
+                    }
+                } finally {
+                    release(permit);
+                }
+            }
+        });
+    }
+
+    /**
+     * Changements de la page courante depuis un resultat precedent, pour les tables rafraichies periodiquement.
+     * Seulement les lignes inserées ou modifiées depuis le high-water mark, ou pas encore affichées par la vue, sont
+     * retournées, avec les counts et les ids ordonnés de la page. Necessite un
+     * {@link #setVersionAttribute(String) atribut de version}.
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param highWaterMark
+     *            le {@link DatatableDelta#getHighWaterMark()} du resultat precedent, ou <code>null</code> pour toutes
+     *            les lignes
+     * @param knownIds
+     *            les ids des lignes affichées par la vue
+     * @return les changements
+     */
+    public <R> DatatableDelta<R> findChanges(final DatatableQuery<R, T> input, final Object highWaterMark,
+        final Collection<?> knownIds) {
+        return findChanges(input, null, null, highWaterMark, knownIds);
+    }
+
+    /**
+     * Changements de la page courante depuis un resultat precedent
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param additionalSpecification
+     *            specification additionnelle (peut etre <code>null</code>)
+     * @param preFilteringSpecification
+     *            specification de pre-filtrage (peut etre <code>null</code>)
+     * @param highWaterMark
+     *            le {@link DatatableDelta#getHighWaterMark()} du resultat precedent, ou <code>null</code> pour toutes
+     *            les lignes
+     * @param knownIds
+     *            les ids des lignes affichées par la vue
+     * @return les changements
+     * @see #findChanges(DatatableQuery, Object, Collection)
+     */
+    public <R> DatatableDelta<R> findChanges(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final Object highWaterMark, final Collection<?> knownIds) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (input.getGroupByColumns() != null) {
+            throw new IllegalArgumentException("Requete delta impossible avec group by");
+        }
+        if (versionAttribute == null) {
+            throw new IllegalStateException("Pas d'atribut de version configuré pour l'entité " + entity.getName());
+        }
+
+        final DatatableDelta<R> output = new DatatableDelta<R>();
+        output.setDraw(input.getDraw());
+        output.setHighWaterMark(highWaterMark);
+        if (input.getLength() == 0) {
+            return output;
+        }
+
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(input);
+        } catch (final IllegalStateException ex) {
+            output.setError(ex.getMessage());
+            return output;
+        }
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            // Compter nombre de registres
+            output.setRecordsTotal(countTotal(entityManager, preFilteringSpecification, input));
+            final DatatableSpecification<T> datatableSpecification = new DatatableSpecification<T>(input);
+            final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+                .and(additionalSpecification).and(datatableSpecification.getFilter());
+            if (output.getRecordsTotal() > 0) {
+                countFiltered(entityManager, input, datatableSpecification, additionalSpecification,
+                    preFilteringSpecification, output, 0);
+            }
+
+            // ids et versions de la page
+            final Pageable pageable = DatatableHelper.getPageable(input);
+            final String idAttribute = getIdAttribute(entityManager);
+            final List<Object[]> keys = output.getRecordsFiltered() == 0 ? Collections.<Object[]> emptyList()
+                : findPageKeys(entityManager, specifications, pageable, idAttribute);
+
+            // lignes nouvelles pour la vue ou modifiées depuis le high-water mark. Les ids sont comparés en texte: ceux
+            // de la vue peuvent avoir perdu leur type (JSON)
+            final Collection<?> viewIds = knownIds == null ? Collections.emptyList() : knownIds;
+            final Set<String> known = new HashSet<String>();
+            for (final Object knownId : viewIds) {
+                known.add(String.valueOf(knownId));
+            }
+            final List<Object> rowIds = new ArrayList<Object>(keys.size());
+            final Set<String> current = new HashSet<String>();
+            final List<Object> changedIds = new ArrayList<Object>();
+            Object newHighWaterMark = highWaterMark;
+            for (final Object[] key : keys) {
+                rowIds.add(key[0]);
+                current.add(String.valueOf(key[0]));
+                if (!known.contains(String.valueOf(key[0])) || compareVersions(key[1], highWaterMark) > 0) {
+                    changedIds.add(key[0]);
+                }
+                if (compareVersions(key[1], newHighWaterMark) > 0) {
+                    newHighWaterMark = key[1];
+                }
+            }
+            final List<Object> removedIds = new ArrayList<Object>();
+            for (final Object knownId : viewIds) {
+                if (!current.contains(String.valueOf(knownId))) {
+                    removedIds.add(knownId);
+                }
+            }
+            output.setRowIds(rowIds);
+            output.setRemovedIds(removedIds);
+            output.setHighWaterMark(newHighWaterMark);
+
+            if (!changedIds.isEmpty()) {
+                final Specification<T> changedSpecification = new Specification<T>() {
+                    @Override
+                    public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query,
+                        final CriteriaBuilder cb) {
+                        return root.get(idAttribute).in(changedIds);
+                    }
+                };
+                final Pageable changedPage = DatatableHelper.getPageable(0, changedIds.size(), pageable.getSort());
+                output.setData(findPage(entityManager, input,
+                    Specifications.where(specifications).and(changedSpecification), changedPage));
+            }
+            LOGGER.log(Level.FINE, "Delta: {0} rows, {1} changed, {2} removed",
+                new Object[] { rowIds.size(), changedIds.size(), removedIds.size() });
+
+        } catch (final IllegalStateException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            output.setError(ex.getMessage());
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+            release(permit);
+        }
+        return output;
+    }
+
+    /**
+     * Pagination par groupes de lignes: voir
+     * {@link #findAllGrouped(DatatableQuery, List, Specification, Specification)}
+     * 
+     * @param input
+     *            la requete: filtres, ordre, et page (en nombre de groupes)
+     * @param groupColumns
+     *            data source des colonnes du groupe
+     * @return les groupes de la page et leurs lignes
+     */
+    public <R> DatatableGroupedResult<R> findAllGrouped(final DatatableQuery<R, T> input,
+        final List<String> groupColumns) {
+        return findAllGrouped(input, groupColumns, null, null);
+    }
+
+    /**
+     * Pagination par groupes de lignes (RowGroup): la page contient les groupes de <code>start</code> a
+     * <code>start + length</code>, avec le nombre de lignes de chaque groupe, et leurs lignes (au plus
+     * {@link #setMaxGroupedRows(int)}). Les counts du resultat sont des nombres de groupes, comptés avec
+     * <code>COUNT(DISTINCT)</code> sans lire les groupes.
+     * <p>
+     * Une requete <code>SELECT x.g1, x.g2, COUNT(x) ... GROUP BY x.g1, x.g2</code> pagée lit les groupes de la page et
+     * leurs counts, puis une seule requete lit les lignes de ces groupes, ordonnées par groupe puis avec l'ordre de la
+     * requete. Le count filtré, les groupes et les lignes ont la meme specification. Les groupes sont ordonnés par
+     * leurs colonnes, dans la direction de l'ordre de la requete si la colonne en fait partie, sinon ascendante.
+     * 
+     * @param input
+     *            la requete: filtres, ordre, et page (en nombre de groupes)
+     * @param groupColumns
+     *            data source des colonnes du groupe (pas des collections)
+     * @param additionalSpecification
+     *            specification additionnelle (peut etre <code>null</code>)
+     * @param preFilteringSpecification
+     *            specification de pre-filtrage (peut etre <code>null</code>)
+     * @return les groupes de la page et leurs lignes
+     */
+    public <R> DatatableGroupedResult<R> findAllGrouped(final DatatableQuery<R, T> input,
+        final List<String> groupColumns, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (groupColumns == null || groupColumns.isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes de groupe configuré");
+        }
+        if (input.getGroupByColumns() != null) {
+            throw new IllegalArgumentException("Pagination par groupes impossible avec group by");
+        }
+
+        final DatatableGroupedResult<R> output = new DatatableGroupedResult<R>();
+        output.setDraw(input.getDraw());
+        output.setGroupColumns(groupColumns);
+        if (input.getLength() == 0) {
+            return output;
+        }
+
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(input);
+        } catch (final IllegalStateException ex) {
+            output.setError(ex.getMessage());
+            return output;
+        }
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            // Compter nombre de groupes
+            final DatatableQuery<R, T> groupInput = DatatableHelper.copy(input);
+            final List<DatatableColumn> groupByColumns = new ArrayList<DatatableColumn>(groupColumns.size());
+            for (final String groupColumn : groupColumns) {
+                groupByColumns.add(new DatatableColumn(groupColumn, groupColumn));
+            }
+            groupInput.setGroupByColumns(groupByColumns);
+            output.setRecordsTotal(countGroups(entityManager, preFilteringSpecification, groupInput));
+            LOGGER.log(Level.INFO, "Total groups prefiltered: {0}", output.getRecordsTotal());
+            if (output.getRecordsTotal() == 0) {
+                return output;
+            }
+            final DatatableSpecification<T> datatableSpecification = new DatatableSpecification<T>(input);
+            final Specifications<T> filtered = Specifications.where(preFilteringSpecification)
+                .and(additionalSpecification).and(datatableSpecification.getFilter());
+            if (!datatableSpecification.isFiltering() && additionalSpecification == null) {
+                output.setRecordsFiltered(output.getRecordsTotal());
+            } else {
+                output.setRecordsFiltered(countGroups(entityManager, filtered, groupInput));
+            }
+            LOGGER.log(Level.INFO, "Total groups filtered: {0}", output.getRecordsFiltered());
+            if (output.getRecordsFiltered() == 0) {
+                return output;
+            }
+
+            // Groupes de la page et leurs counts
+            final Sort inputSort = DatatableHelper.getSort(input);
+            final List<Sort.Order> groupOrders = new ArrayList<Sort.Order>(groupColumns.size());
+            for (final String groupColumn : groupColumns) {
+                final Sort.Order order = inputSort == null ? null : inputSort.getOrderFor(groupColumn);
+                groupOrders.add(new Sort.Order(order == null ? Sort.Direction.ASC : order.getDirection(),
+                    groupColumn));
+            }
+            final Sort groupSort = new Sort(groupOrders);
+            final Pageable pageable = DatatableHelper.getPageable(input);
+            final List<DatatableGroupedResult.Group> groups = findGroups(entityManager, filtered, groupColumns,
+                DatatableHelper.getPageable(pageable.getOffset(), pageable.getPageSize(), groupSort));
+            output.setGroups(groups);
+
+            // Lignes des groupes de la page
+            long rows = 0;
+            for (final DatatableGroupedResult.Group group : groups) {
+                rows += group.getCount();
+            }
+            if (rows > 0) {
+                final Specifications<T> specifications = filtered.and(new Specification<T>() {
+                    @Override
+                    public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query,
+                        final CriteriaBuilder cb) {
+                        return getGroupsPredicate(root, cb, groupColumns, groups);
+                    }
+                });
+                if (rows > maxGroupedRows) {
+                    LOGGER.log(Level.WARNING, "Grouped page truncated: {0} rows, max {1}",
+                        new Object[] { rows, maxGroupedRows });
+                    output.setTruncated(true);
+                }
+                final int length = (int) Math.min(rows, maxGroupedRows);
+                output.setData(findPage(entityManager, input, specifications,
+                    DatatableHelper.getPageable(0, length, groupSort.and(inputSort))));
+            }
+            LOGGER.log(Level.FINE, "Grouped page: {0} groups, {1} rows", new Object[] { groups.size(), rows });
+
+        } catch (final IllegalStateException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            output.setError(ex.getMessage());
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+            release(permit);
+        }
+        return output;
+    }
+
+    /**
+     * Execute la requete des groupes de la page: valeurs des colonnes du groupe et nombre de lignes
+     */
+    private List<DatatableGroupedResult.Group> findGroups(final EntityManager entityManager,
+        final Specification<T> specification, final List<String> groupColumns, final Pageable pageable) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> cq = qb.createQuery(Object[].class);
+        final Root<T> from = cq.from(this.entity);
+
+        final List<Selection<?>> selections = new ArrayList<Selection<?>>(groupColumns.size() + 1);
+        final List<Expression<?>> groupBy = new ArrayList<Expression<?>>(groupColumns.size());
+        for (final String groupColumn : groupColumns) {
+            if (DatatableHelper.isCollectionPath(from, groupColumn)) {
+                throw new IllegalArgumentException("Groupe impossible sur une collection: " + groupColumn);
+            }
+            final Path<?> path = DatatableHelper.getExpression(from, groupColumn, null);
+            selections.add(path);
+            groupBy.add(path);
+        }
+        selections.add(qb.count(from));
+        cq.multiselect(selections);
+        final Predicate predicate = specification.toPredicate(from, cq, qb);
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        cq.groupBy(groupBy);
+        cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
+
+        final TypedQuery<Object[]> q = createQuery(entityManager, cq, pageable.getPageSize());
+        q.setFirstResult(pageable.getOffset());
+        q.setMaxResults(pageable.getPageSize());
+        final List<DatatableGroupedResult.Group> ret = new ArrayList<DatatableGroupedResult.Group>();
+        for (final Object[] row : q.getResultList()) {
+            ret.add(new DatatableGroupedResult.Group(new ArrayList<Object>(Arrays.asList(row).subList(0,
+                groupColumns.size())), ((Number) row[groupColumns.size()]).longValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * <code>(x.g1 = :a AND x.g2 = :b) OR (x.g1 = :c AND x.g2 IS NULL) ...</code>
+     */
+    private static Predicate getGroupsPredicate(final Root<?> root, final CriteriaBuilder cb,
+        final List<String> groupColumns, final List<DatatableGroupedResult.Group> groups) {
+        final List<Path<Object>> paths = new ArrayList<Path<Object>>(groupColumns.size());
+        for (final String groupColumn : groupColumns) {
+            paths.add(DatatableHelper.<Object> getExpression(root, groupColumn, null));
+        }
+        final List<Predicate> anyGroup = new ArrayList<Predicate>(groups.size());
+        for (final DatatableGroupedResult.Group group : groups) {
+            final List<Predicate> allColumns = new ArrayList<Predicate>(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                final Object value = group.getValues().get(i);
+                allColumns.add(value == null ? cb.isNull(paths.get(i)) : cb.equal(paths.get(i), value));
+            }
+            anyGroup.add(DatatablePredicates.and(cb, allColumns));
+        }
+        return DatatablePredicates.or(cb, anyGroup);
+    }
+
+    /**
+     * Valeurs distinctes des colonnes specifiées avec leur nombre de lignes, pour les listes de filtres de la vue.
+     * Chaque colonne est comptée avec les filtres de la requete sauf son propre filtre.
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param columns
+     *            data source des colonnes
+     * @return les facettes, dans l'ordre des colonnes
+     */
+    public List<DatatableFacet> findFacets(final DatatableQuery<?, T> input, final List<String> columns) {
+        return findFacets(input, columns, null, null);
+    }
+
+    /**
+     * Valeurs distinctes des colonnes specifiées avec leur nombre de lignes: une requete
+     * <code>SELECT x.col, COUNT(x) ... GROUP BY x.col ORDER BY 2 DESC</code> par colonne, avec au plus
+     * {@link #setFacetLimit(int)} valeurs. Les colonnes sont comptées en parallele si il y a un
+     * {@link #setFacetExecutor(Executor) executor}, chacune avec son entity manager et sa place du bulkhead: une
+     * colonne sans place a une {@link DatatableFacet#getError() erreur}, et les facettes ne sont pas mises en cache.
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param columns
+     *            data source des colonnes
+     * @param additionalSpecification
+     *            specification additionnelle (peut etre <code>null</code>)
+     * @param preFilteringSpecification
+     *            specification de pre-filtrage (peut etre <code>null</code>)
+     * @return les facettes, dans l'ordre des colonnes
+     */
+    public List<DatatableFacet> findFacets(final DatatableQuery<?, T> input, final List<String> columns,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (input.getGroupByColumns() != null) {
+            throw new IllegalArgumentException("Facettes impossibles avec group by");
+        }
+
+        final String key;
+        if (facetCache != null) {
+            final DatatableQuery<?, T> keyQuery = DatatableHelper.copy(input);
+            keyQuery.setStart(0);
+            keyQuery.setLength(0);
+            keyQuery.setOrder(new ArrayList<DatatableOrder>());
+            final String queryKey =
+                DatatableHelper.getQueryKey(keyQuery, additionalSpecification, preFilteringSpecification);
+            key = queryKey == null ? null : "facets|" + columns + "|" + facetLimit + "|" + queryKey;
+            final List<DatatableFacet> cached = key == null ? null : facetCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        } else {
+            key = null;
+        }
+
+        final List<CompletableFuture<DatatableFacet>> futures = new ArrayList<CompletableFuture<DatatableFacet>>();
+        for (final String column : columns) {
+            final DatatableQuery<?, T> facetQuery = withoutColumnSearch(input, column);
+            final Supplier<DatatableFacet> facet = new Supplier<DatatableFacet>() {
+                @Override
+                public DatatableFacet get() {
+                    return findFacet(facetQuery, column, additionalSpecification, preFilteringSpecification);
+                }
+            };
+            futures.add(facetExecutor == null ? CompletableFuture.completedFuture(facet.get())
+                : CompletableFuture.supplyAsync(facet, facetExecutor));
+        }
+        final List<DatatableFacet> ret = new ArrayList<DatatableFacet>(futures.size());
+        for (final CompletableFuture<DatatableFacet> future : futures) {
+            try {
+                ret.add(future.join());
+            } catch (final CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+        final List<DatatableFacet> facets = Collections.unmodifiableList(ret);
+        boolean failed = false;
+        for (final DatatableFacet facet : facets) {
+            failed |= facet.getError() != null;
+        }
+        if (key != null && !failed) {
+            facetCache.put(key, facets);
+        }
+        return facets;
+    }
+
+    /**
+     * Copie la requete sans le filtre de la colonne: les valeurs d'une colonne sont comptées sous les autres filtres
+     * seulement. Les colonnes de l'appelant ne sont pas modifiées.
+     */
+    private static <R, E> DatatableQuery<R, E> withoutColumnSearch(final DatatableQuery<R, E> input,
+        final String column) {
+        final DatatableQuery<R, E> ret = DatatableHelper.copy(input);
+        for (int i = 0; i < ret.getColumns().size(); i++) {
+            final DatatableColumn current = ret.getColumns().get(i);
+            if (current.getData() != null && current.getData().equalsIgnoreCase(column)
+                && current.getSearch() != null) {
+                final DatatableColumn copy = new DatatableColumn(current.getName(), current.getData(),
+                    current.getSearchable(), Boolean.TRUE.equals(current.getOrderable()), null);
+                copy.setSearchWithoutSpaces(current.isSearchWithoutSpaces());
+                copy.setType(current.getType());
+                ret.getColumns().set(i, copy);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Valeurs et counts d'une colonne, avec son propre entity manager
+     */
+    private DatatableFacet findFacet(final DatatableQuery<?, T> input, final String column,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(input);
+        } catch (final IllegalStateException ex) {
+            final DatatableFacet ret = new DatatableFacet();
+            ret.setColumn(column);
+            ret.setError(ex.getMessage());
+            return ret;
+        }
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+                .and(additionalSpecification).and(new DatatableSpecification<T>(input).getFilter());
+
+            final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<Object[]> cq = qb.createQuery(Object[].class);
+            final Root<T> from = cq.from(this.entity);
+            final Path<?> path = DatatableHelper.getExpression(from, column, null, JoinType.LEFT);
+            // sur une collection, une ligne peut avoir plusieurs fois la meme valeur
+            final Expression<Long> count = DatatableHelper.isCollectionPath(from, column) ? qb.countDistinct(from)
+                : qb.count(from);
+            cq.multiselect(path, count);
+            final Predicate predicate = specifications.toPredicate(from, cq, qb);
+            if (predicate != null) {
+                cq.where(predicate);
+            }
+            cq.groupBy(path);
+            cq.orderBy(qb.desc(count));
+            final TypedQuery<Object[]> q = createQuery(entityManager, cq, facetLimit + 1);
+            q.setMaxResults(facetLimit + 1);
+            final List<Object[]> rows = q.getResultList();
+
+            final DatatableFacet ret = new DatatableFacet();
+            ret.setColumn(column);
+            ret.setTruncated(rows.size() > facetLimit);
+            final List<DatatableFacet.Value> values = new ArrayList<DatatableFacet.Value>(rows.size());
+            for (int i = 0; i < rows.size() && i < facetLimit; i++) {
+                values.add(new DatatableFacet.Value(rows.get(i)[0], ((Number) rows.get(i)[1]).longValue()));
+            }
+            ret.setValues(values);
+            return ret;
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            throw ex;
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+            release(permit);
+        }
+    }
+
+    /**
+     * Premieres valeurs distinctes d'une colonne commençant par le prefixe (sans tenir compte de la casse), dans
+     * l'ordre alphabetique, pour l'autocompletion des filtres par colonne.
+     * <p>
+     * Les valeurs sont lues dans un dictionnaire trié en memoire par colonne et par tenant, chargé a la premiere
+     * demande avec une requete <code>SELECT DISTINCT</code>. Si un {@link #setVersionAttribute(String) atribut de
+     * version} est configuré, le dictionnaire est rafraichi avec les valeurs des lignes modifiées depuis le
+     * chargement, sinon il est rechargé (voir {@link #setSuggestionRefresh(long, long, TimeUnit)}). Les colonnes avec
+     * plus de {@link #setSuggestionDictionarySize(int)} valeurs sont servies par une requete
+     * <code>LIKE 'prefixe%'</code>.
+     * <p>
+     * Les requetes prennent une place du bulkhead et l'entity manager de la requete du datatable (tenant, primaire);
+     * ses filtres ne sont pas appliqués. Un refus du bulkhead ou un echec du chargement est retourné comme erreur du
+     * resultat.
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param column
+     *            la colonne
+     * @param prefix
+     *            le prefixe
+     * @param maxResults
+     *            nombre maximum de valeurs
+     * @return les valeurs, ou l'erreur
+     */
+    public DatatableResult<String> findSuggestions(final DatatableQuery<?, T> input, final DatatableColumn column,
+        final String prefix, final int maxResults) {
+
+        // asserts
+        if (column == null || column.getData() == null || column.getData().length() == 0) {
+            throw new IllegalArgumentException("Pas de colonne configuré");
+        }
+        if (maxResults <= 0) {
+            throw new IllegalArgumentException("Nombre de valeurs invalide: " + maxResults);
+        }
+        final String value = prefix == null ? "" : prefix.trim();
+
+        final DatatableResult<String> output = new DatatableResult<String>();
+        output.setDraw(input.getDraw());
+        final DatatableBulkhead.Permit permit;
+        try {
+            permit = acquire(input);
+        } catch (final IllegalStateException ex) {
+            output.setError(ex.getMessage());
+            return output;
+        }
+        try {
+            output.setData(findSuggestions(input, column.getData(), value, maxResults));
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        } finally {
+            release(permit);
+        }
+        return output;
+    }
+
+    private List<String> findSuggestions(final DatatableQuery<?, T> input, final String column, final String prefix,
+        final int maxResults) {
+        final Object tenant =
+            input.getExtraProps() == null ? null : input.getExtraProps().get(DatatableBulkhead.TENANT);
+        final String key = tenant == null ? column : column + '|' + tenant;
+        SuggestionDictionary dictionary = suggestions.get(key);
+        if (dictionary == null) {
+            suggestions.putIfAbsent(key, new SuggestionDictionary());
+            dictionary = suggestions.get(key);
+        }
+        if (dictionary.isCold()) {
+            synchronized (dictionary) {
+                if (dictionary.isCold()) {
+                    loadSuggestions(input, dictionary, column);
+                }
+            }
+        } else {
+            final long now = System.nanoTime();
+            if (now - dictionary.getRefreshedAt() > suggestionRefreshNanos && dictionary.startRefresh()) {
+                // un seul thread rafraichit, les autres lisent le dictionnaire courant
+                try {
+                    if (versionAttribute == null || !dictionary.isComplete()
+                        || now - dictionary.getLoadedAt() > suggestionReloadNanos) {
+                        loadSuggestions(input, dictionary, column);
+                    } else {
+                        refreshSuggestions(input, dictionary, column);
+                    }
+                } catch (final PersistenceException ex) {
+                    LOGGER.log(Level.WARNING, "Suggestions refresh failed: " + column, ex);
+                } finally {
+                    dictionary.endRefresh();
+                }
+            }
+        }
+        if (dictionary.isComplete()) {
+            return dictionary.find(prefix, maxResults);
+        }
+        return findSuggestionsByPrefix(input, column, prefix, maxResults);
+    }
+
+    /**
+     * Charge toutes les valeurs distinctes de la colonne, ou aucune si elle en a plus que la taille du dictionnaire
+     */
+    private void loadSuggestions(final DatatableQuery<?, T> input, final SuggestionDictionary dictionary,
+        final String column) {
+        final long now = System.nanoTime();
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            // la version est lue avant les valeurs: les lignes modifiées pendant le chargement seront relues
+            final Object highWaterMark = versionAttribute == null ? null : findMaxVersion(entityManager);
+            final List<Object> values = findDistinctValues(entityManager, column, null, suggestionDictionarySize + 1);
+            dictionary.load(values.size() > suggestionDictionarySize ? null : values, highWaterMark, now);
+            LOGGER.log(Level.FINE, "Suggestions loaded: {0}, {1} values",
+                new Object[] { column, dictionary.isComplete() ? values.size() : "too many" });
+        } catch (final PersistenceException ex) {
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            throw ex;
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        }
+    }
+
+    /**
+     * Ajoute au dictionnaire les valeurs des lignes modifiées depuis son high-water mark
+     */
+    private void refreshSuggestions(final DatatableQuery<?, T> input, final SuggestionDictionary dictionary,
+        final String column) {
+        final long now = System.nanoTime();
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            final Object highWaterMark = findMaxVersion(entityManager);
+            if (compareVersions(highWaterMark, dictionary.getHighWaterMark()) > 0) {
+                dictionary.add(findDistinctValues(entityManager, column, dictionary.getHighWaterMark(),
+                    suggestionDictionarySize + 1), highWaterMark, suggestionDictionarySize, now);
+            } else {
+                dictionary.add(Collections.emptyList(), dictionary.getHighWaterMark(), suggestionDictionarySize, now);
+            }
+        } catch (final PersistenceException ex) {
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            throw ex;
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object findMaxVersion(final EntityManager entityManager) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object> cq = qb.createQuery(Object.class);
+        final Root<T> from = cq.from(this.entity);
+        cq.select(qb.greatest(from.<Comparable<Object>> get(versionAttribute)));
+        return createQuery(entityManager, cq, 0).getSingleResult();
+    }
+
+    /**
+     * <code>SELECT DISTINCT x.col FROM T x WHERE x.col IS NOT NULL [AND x.version > :hwm]</code>
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> findDistinctValues(final EntityManager entityManager, final String column,
+        final Object highWaterMark, final int maxResults) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object> cq = qb.createQuery(Object.class);
+        final Root<T> from = cq.from(this.entity);
+        final Path<Object> path = DatatableHelper.getExpression(from, column, null);
+        cq.select(path).distinct(true);
+        final List<Predicate> predicates = new ArrayList<Predicate>();
+        predicates.add(qb.isNotNull(path));
+        if (highWaterMark != null) {
+            predicates.add(qb.greaterThan(from.<Comparable<Object>> get(versionAttribute),
+                (Comparable<Object>) highWaterMark));
+        }
+        cq.where(predicates.toArray(new Predicate[predicates.size()]));
+        final TypedQuery<Object> q = createQuery(entityManager, cq, maxResults);
+        q.setMaxResults(maxResults);
+        return q.getResultList();
+    }
+
+    /**
+     * <code>SELECT DISTINCT x.col FROM T x WHERE LOWER(x.col) LIKE 'prefixe%' ORDER BY x.col</code>, pour les colonnes
+     * avec trop de valeurs pour le dictionnaire
+     */
+    private List<String> findSuggestionsByPrefix(final DatatableQuery<?, T> input, final String column,
+        final String prefix, final int maxResults) {
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+            final CriteriaQuery<String> cq = qb.createQuery(String.class);
+            final Root<T> from = cq.from(this.entity);
+            final Path<String> path = DatatableHelper.getExpression(from, column, String.class);
+            cq.select(path).distinct(true);
+            // motif "like" sans le '%' initial: la recherche par prefixe peut utiliser un index
+            cq.where(qb.like(qb.lower(path), DatatableSpecification.getLikeFilterValue(prefix).substring(1),
+                DatatableSpecification.ESCAPE_CHAR));
+            cq.orderBy(qb.asc(path));
+            final TypedQuery<String> q = createQuery(entityManager, cq, maxResults);
+            q.setMaxResults(maxResults);
+            return q.getResultList();
+        } catch (final PersistenceException ex) {
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            throw ex;
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Une requete de la page, sans counts, avec une place du bulkhead et l'entity manager de la requete.
+     */
+    @Override
+    public <R> List<R> findData(final DatatableQuery<R, T> input, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (input.getLength() == 0) {
+            return Collections.emptyList();
+        }
+
+        final DatatableBulkhead.Permit permit = acquire(input);
+        EntityManager entityManager = null;
+        try {
+            entityManager = entityManagerProvider.getEntityManager(input);
+            final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+                .and(additionalSpecification).and(new DatatableSpecification<T>(input).getFilter());
+            return findPage(entityManager, input, specifications, DatatableHelper.getPageable(input));
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            if (entityManager != null) {
+                entityManagerProvider.reportFailure(entityManager, ex);
+            }
+            throw new IllegalStateException(ex.getMessage(), ex);
+        } finally {
+            if (entityManager != null) {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+            release(permit);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> Flow.Publisher<R> publish(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final Executor executor) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+
+        final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+            .and(additionalSpecification).and(new DatatableSpecification<T>(input).getFilter());
+        final Pageable pageable = DatatableHelper.getPageable(input);
+        return new DatatablePublisher<R>(() -> new DatatablePublisher.PageSource<R>() {
+
+            private final EntityManager entityManager = entityManagerProvider.getEntityManager(input);
+
+            @Override
+            public List<R> fetch(final int offset, final int maxResults) {
+                return findPage(entityManager, input, specifications,
+                    DatatableHelper.getPageable(offset, maxResults, pageable.getSort()));
+            }
+
+            @Override
+            public void close() {
+                entityManagerProvider.releaseEntityManager(entityManager);
+            }
+        }, pageable.getOffset(), pageable.getPageSize(), publishChunkSize, executor);
+    }
+
+    /**
+     * @param publishChunkSize
+     *            nombre de lignes lues par requete pour les publishers
+     */
+    public void setPublishChunkSize(final int publishChunkSize) {
+        if (publishChunkSize <= 0) {
+            throw new IllegalArgumentException("Taille de bloc invalide: " + publishChunkSize);
+        }
+        this.publishChunkSize = publishChunkSize;
+    }
+
+    /**
+     * @param readOnly
+     *            <code>true</code> pour executer les requetes en lecture seule: les entités retournées ne sont pas
+     *            surveillées pour le dirty-checking. Par defaut (<code>null</code>) seulement si les entity managers
+     *            sont propres aux requetes du datatable ({@link EntityManagerProvider#isReadOnly()}).
+     */
+    public void setReadOnly(final Boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @param fetchSize
+     *            fetch size JDBC, ou <code>0</code> (par defaut) pour la taille de la page, limité a
+     *            {@value #MAX_DEFAULT_FETCH_SIZE}
+     */
+    public void setFetchSize(final int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size negatif: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Ajoute un hint JPA a toutes les requetes, par exemple "javax.persistence.query.timeout"
+     * 
+     * @param name
+     *            nom du hint
+     * @param value
+     *            valeur du hint
+     */
+    public synchronized void setQueryHint(final String name, final Object value) {
+        final Map<String, Object> hints = new LinkedHashMap<String, Object>(queryHints);
+        hints.put(name, value);
+        this.queryHints = Collections.unmodifiableMap(hints);
+    }
+
+    /**
+     * Active les reponses "not modified": le resultat porte une version ({@link DatatableResult#getVersion()}) et
+     * si la requete suivante renvoie la meme version, alors que les données et la requete n'ont pas changé, aucune
+     * requete n'est executée. Les requetes avec une specification sans {@link KeyedSpecification clé} n'ont pas de
+     * version.
+     * 
+     * @param dataVersionSource
+     *            source de la version des données, ou <code>null</code> pour desactiver
+     * @see DataVersionSources
+     */
+    public void setDataVersionSource(final DataVersionSource dataVersionSource) {
+        if (dataVersionSource != null && !dataVersionSource.isClusterSafe() && !singleNode) {
+            LOGGER.log(Level.WARNING, "Local data version source ignored unless setSingleNode(true): {0}",
+                entity.getName());
+        }
+        this.dataVersionSource = dataVersionSource;
+    }
+
+    /**
+     * @param singleNode
+     *            <code>true</code> si l'application n'a qu'une JVM: les sources de version locales
+     *            ({@link DataVersionSources#listener(Class...)}) sont alors utilisées. Par defaut <code>false</code>:
+     *            seules les sources lues de la base ({@link DataVersionSource#isClusterSafe()}) sont utilisées.
+     */
+    public void setSingleNode(final boolean singleNode) {
+        this.singleNode = singleNode;
+    }
+
+    /**
+     * @return la source de version, ou <code>null</code> si il n'y en a pas ou si elle est locale a la JVM et que
+     *         l'application peut avoir plusieurs noeuds
+     */
+    private DataVersionSource getDataVersionSource() {
+        final DataVersionSource ret = dataVersionSource;
+        return ret != null && (singleNode || ret.isClusterSafe()) ? ret : null;
+    }
+
+    /**
+     * @param versionAttribute
+     *            atribut de version ou de date de modification de l'entité, mis a jour a chaque modification. Requis
+     *            pour les requetes delta ({@link #findChanges(DatatableQuery, Object, Collection)}).
+     */
+    public void setVersionAttribute(final String versionAttribute) {
+        this.versionAttribute = versionAttribute;
+    }
+
+    /**
+     * Active le prechargement de la page suivante aprés chaque draw. Le prechargement s'execute dans un autre thread
+     * avec son propre entity manager: le {@link EntityManagerProvider} ne doit pas partager l'entity manager de
+     * l'appelant. La page prechargée est trouvée par la clé de la requete: les requetes avec une specification sans
+     * {@link KeyedSpecification clé} ne sont pas prechargées.
+     * 
+     * @param prefetcher
+     *            le prechargement, ou <code>null</code> pour desactiver
+     */
+    public void setPrefetcher(final DatatablePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * @param materializedCounts
+     *            counts matérialisés: le total est lu par clé primaire quand le prefiltre en a un, ou
+     *            <code>null</code> (par defaut) pour toujours compter
+     */
+    public void setMaterializedCounts(final MaterializedCounts materializedCounts) {
+        this.materializedCounts = materializedCounts;
+    }
+
+    /**
+     * @param costGuard
+     *            controle du cout des requetes de {@link #findAll(DatatableQuery)}, ou <code>null</code> (par defaut)
+     *            pour executer toutes les requetes
+     */
+    public void setCostGuard(final DatatableCostGuard costGuard) {
+        this.costGuard = costGuard;
+    }
+
+    /**
+     * @param bulkhead
+     *            controle d'admission des requetes de {@link #findAll(DatatableQuery)}, {@link #findAllBatch(List)} et
+     *            des requetes delta, ou <code>null</code> (par defaut) pour pas de limite de concurrence
+     */
+    public void setBulkhead(final DatatableBulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * @param facetExecutor
+     *            executor des requetes de {@link #findFacets(DatatableQuery, List)} (une par colonne), ou
+     *            <code>null</code> (par defaut) pour les executer l'une aprés l'autre
+     */
+    public void setFacetExecutor(final Executor facetExecutor) {
+        this.facetExecutor = facetExecutor;
+    }
+
+    /**
+     * @param maxGroupedRows
+     *            nombre maximum de lignes d'une page de groupes ({@link #DEFAULT_MAX_GROUPED_ROWS} par defaut): au
+     *            dela, seules les premieres lignes sont lues et le resultat est
+     *            {@link DatatableGroupedResult#isTruncated() tronqué}
+     */
+    public void setMaxGroupedRows(final int maxGroupedRows) {
+        if (maxGroupedRows <= 0) {
+            throw new IllegalArgumentException("Nombre de lignes invalide: " + maxGroupedRows);
+        }
+        this.maxGroupedRows = maxGroupedRows;
+    }
+
+    /**
+     * @param facetLimit
+     *            nombre maximum de valeurs par facette ({@link #DEFAULT_FACET_LIMIT} par defaut)
+     */
+    public void setFacetLimit(final int facetLimit) {
+        if (facetLimit <= 0) {
+            throw new IllegalArgumentException("Nombre de valeurs invalide: " + facetLimit);
+        }
+        this.facetLimit = facetLimit;
+    }
+
+    /**
+     * Active le cache des facettes: une meme combinaison de filtres (sans la page ni l'ordre) n'est comptée qu'une
+     * fois pendant la durée de vie. Les facettes d'une requete avec une specification sans
+     * {@link KeyedSpecification clé} ne sont pas mises en cache.
+     * 
+     * @param ttl
+     *            durée de vie des entrées
+     * @param unit
+     *            unité de la durée de vie
+     * @param maxEntries
+     *            nombre maximum d'entrées
+     */
+    public void setFacetCache(final long ttl, final TimeUnit unit, final int maxEntries) {
+        this.facetCache = new ExpiringCache<String, List<DatatableFacet>>(ttl, unit, maxEntries);
+    }
+
+    /**
+     * @param suggestionDictionarySize
+     *            nombre maximum de valeurs d'un dictionnaire de
+     *            {@link #findSuggestions(DatatableQuery, DatatableColumn, String, int)}
+     *            ({@link #DEFAULT_SUGGESTION_DICTIONARY_SIZE} par defaut): au dela la colonne est servie par la base
+     */
+    public void setSuggestionDictionarySize(final int suggestionDictionarySize) {
+        if (suggestionDictionarySize <= 0) {
+            throw new IllegalArgumentException("Taille de dictionnaire invalide: " + suggestionDictionarySize);
+        }
+        this.suggestionDictionarySize = suggestionDictionarySize;
+        this.suggestions.clear();
+    }
+
+    /**
+     * @param refresh
+     *            intervalle de rafraichissement des dictionnaires de suggestions (1 minute par defaut)
+     * @param reload
+     *            intervalle de rechargement complet, pour enlever les valeurs qui n'existent plus (1 heure par
+     *            defaut). Sans atribut de version, les dictionnaires sont rechargés a chaque rafraichissement.
+     * @param unit
+     *            unité des intervalles
+     */
+    public void setSuggestionRefresh(final long refresh, final long reload, final TimeUnit unit) {
+        if (refresh <= 0 || reload < refresh) {
+            throw new IllegalArgumentException("Intervalles invalides: " + refresh + ", " + reload);
+        }
+        this.suggestionRefreshNanos = unit.toNanos(refresh);
+        this.suggestionReloadNanos = unit.toNanos(reload);
+    }
+
+    /**
+     * Declare une entité pre-agregée (rollup) pour les requetes group by de {@link #findAll(DatatableQuery)}: une table
+     * avec une ligne par combinaison de valeurs de ses colonnes (son grain), qui ont les memes paths que dans l'entité.
+     * <p>
+     * Une requete group by est executée sur le plus petit rollup dont le grain contient les colonnes du group by, des
+     * filtres (toutes les colonnes cherchables si il y a un filtre global) et de l'ordre. Les requetes avec des
+     * specifications (elles sont sur l'entité) ou des agregats sont toujours executées sur l'entité. La taille du
+     * rollup est comptée a sa declaration: aucune requete du datatable ne paie ce count.
+     * 
+     * @param rollupDAO
+     *            DAO de l'entité pre-agregée
+     * @param grain
+     *            paths des colonnes du rollup
+     * @param <E>
+     *            type de l'entité pre-agregée
+     * @throws IllegalArgumentException
+     *             si un path n'existe pas dans l'entité ou dans le rollup
+     */
+    public <E> void addRollup(final DatatableDAOImpl<E> rollupDAO, final Collection<String> grain) {
+        if (grain == null || grain.isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré pour le rollup " + rollupDAO.getEntity());
+        }
+        resolvePaths(grain);
+        rollupDAO.resolvePaths(grain);
+        rollups.add(new Rollup<E>(rollupDAO, new HashSet<String>(grain), rollupDAO.countRows()));
+    }
+
+    /**
+     * Cherche le plus petit rollup compatible avec la requete
+     * 
+     * @return le rollup, ou <code>null</code> si la requete doit etre executée sur l'entité
+     */
+    private Rollup<?> getRollup(final DatatableQuery<?, T> input, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+        if (rollups.isEmpty() || input.getGroupByColumns() == null || input.getGroupByColumns().isEmpty()
+            || input.getQueryClass() == null || input.getColumns() == null || additionalSpecification != null
+            || preFilteringSpecification != null || input.getBaseSpecification() != null
+            || input.getAdditionalSpecification() != null || hasAggregates(input)) {
+            return null;
+        }
+
+        // colonnes necessaires: group by, filtres et ordre
+        final Set<String> columns = new HashSet<String>();
+        for (final DatatableColumn column : input.getGroupByColumns()) {
+            columns.add(column.getData());
+        }
+        final boolean globalSearch = input.getSearch() != null && input.getSearch().getValue() != null
+            && input.getSearch().getValue().trim().length() > 0;
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getSearchable() && (globalSearch || column.getSearch() != null
+                && column.getSearch().getValue() != null && column.getSearch().getValue().trim().length() > 0)) {
+                columns.add(column.getData());
+            }
+        }
+        final Sort sort = DatatableHelper.getSort(input);
+        if (sort != null) {
+            for (final Sort.Order order : sort) {
+                columns.add(order.getProperty());
+            }
+        }
+
+        Rollup<?> ret = null;
+        for (final Rollup<?> rollup : rollups) {
+            if (rollup.grain.containsAll(columns) && (ret == null || rollup.rows < ret.rows)) {
+                ret = rollup;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return nombre de lignes de l'entité
+     */
+    long countRows() {
+        final EntityManager entityManager = entityManagerProvider.getEntityManager(null);
+        try {
+            return countDefault(entityManager, null, null);
+        } finally {
+            entityManagerProvider.releaseEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Resout les paths des atributs avec le metamodel de l'entité
+     * 
+     * @param paths
+     *            paths des atributs
+     * @return le type java de chaque path
+     * @throws IllegalArgumentException
+     *             si un path n'existe pas
+     */
+    Map<String, Class<?>> resolvePaths(final Collection<String> paths) {
+        final Map<String, Class<?>> ret = new LinkedHashMap<String, Class<?>>();
+        final EntityManager entityManager = entityManagerProvider.getEntityManager(null);
+        try {
+            final EntityType<T> entityType = entityManager.getMetamodel().entity(entity);
+            for (final String path : paths) {
+                ret.put(path, DatatableHelper.getPathType(entityType, path));
+            }
+        } finally {
+            entityManagerProvider.releaseEntityManager(entityManager);
+        }
+        return ret;
+    }
+
+    /**
+     * @return classe de l'entité
+     */
+    Class<T> getEntity() {
+        return entity;
+    }
+
+    /**
+     * Attend une place du bulkhead avant de prendre une connexion
+     * 
+     * @return la place, ou <code>null</code> si il n'y a pas de bulkhead
+     */
+    private DatatableBulkhead.Permit acquire(final DatatableQuery<?, T> input) {
+        return bulkhead == null ? null : bulkhead.acquire(entity, input);
+    }
+
+    private static void release(final DatatableBulkhead.Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * Cree la requete avec les hints de lecture: flush mode COMMIT (pas de flush automatique avant la requete),
+     * read-only et fetch size. Les hints qu'un provider ne connait pas sont ignorés.
+     */
+    private <X> TypedQuery<X> createQuery(final EntityManager entityManager, final CriteriaQuery<X> cq,
+        final int pageSize) {
+        final TypedQuery<X> q = entityManager.createQuery(cq);
+        q.setFlushMode(FlushModeType.COMMIT);
+        if (readOnly != null ? readOnly : entityManagerProvider.isReadOnly()) {
+            q.setHint("org.hibernate.readOnly", Boolean.TRUE);
+            q.setHint("eclipselink.read-only", "true");
+        }
+        final int size = fetchSize > 0 ? fetchSize : Math.min(pageSize, MAX_DEFAULT_FETCH_SIZE);
+        if (size > 0) {
+            q.setHint("org.hibernate.fetchSize", size);
+            q.setHint("eclipselink.jdbc.fetch-size", size);
+        }
+        for (final Map.Entry<String, Object> hint : queryHints.entrySet()) {
+            q.setHint(hint.getKey(), hint.getValue());
+        }
+        return q;
+    }
+
+    private String getIdAttribute(final EntityManager entityManager) {
+        final EntityType<T> entityType = entityManager.getMetamodel().entity(entity);
+        if (!entityType.hasSingleIdAttribute()) {
+            throw new IllegalStateException("Requete delta impossible avec un id composé: " + entity.getName());
+        }
+        return entityType.getId(entityType.getIdType().getJavaType()).getName();
+    }
+
+    /**
+     * Execute la requete de la page, en selectionnant seulement l'id et la version de chaque ligne
+     */
+    private List<Object[]> findPageKeys(final EntityManager entityManager, final Specifications<T> specifications,
+        final Pageable pageable, final String idAttribute) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> cq = qb.createQuery(Object[].class);
+        final Root<T> from = cq.from(this.entity);
+        cq.multiselect(from.get(idAttribute), from.get(versionAttribute));
+        final Predicate predicate = specifications.toPredicate(from, cq, qb);
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        if (pageable.getSort() != null) {
+            cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
+        }
+        final TypedQuery<Object[]> q = createQuery(entityManager, cq, pageable.getPageSize());
+        q.setFirstResult(pageable.getOffset());
+        q.setMaxResults(pageable.getPageSize());
+        return q.getResultList();
+    }
+
+    /**
+     * Compare deux versions. Le high-water mark renvoyé par la vue peut avoir perdu son type (JSON): les dates sont
+     * comparées avec leur timestamp et les nombres avec leur valeur.
+     * 
+     * @return un nombre positif si <code>version</code> est plus recente que <code>highWaterMark</code>
+     */
+    @SuppressWarnings("unchecked")
+    static int compareVersions(final Object version, final Object highWaterMark) {
+        if (highWaterMark == null) {
+            return version == null ? 0 : 1;
+        }
+        if (version == null) {
+            return -1;
+        }
+        if (version.getClass().isInstance(highWaterMark) && version instanceof Comparable) {
+            return ((Comparable<Object>) version).compareTo(highWaterMark);
+        }
+        return Double.compare(toNumber(version), toNumber(highWaterMark));
+    }
+
+    private static double toNumber(final Object version) {
+        if (version instanceof Date) {
+            return ((Date) version).getTime();
+        }
+        if (version instanceof Number) {
+            return ((Number) version).doubleValue();
+        }
+        try {
+            return Double.parseDouble(version.toString());
+        } catch (final NumberFormatException ex) {
+            throw new IllegalArgumentException("Version non comparable: " + version, ex);
+        }
+    }
+
+    /**
+     * Execute la requete de la page (sans counts)
+     */
+    private <R> List<R> findPage(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specifications<T> specifications, final Pageable pageable) {
+        if (input.getQueryClass() == null) {
+            // INFO: il faut faire comment suive. Le type de query <R>=<T>
+            return findAllImpl1(entityManager, input, specifications, pageable);
+        }
+        return findAllImpl2(entityManager, input, specifications, pageable);
+    }
+
+    /**
+     * Execute seulement la requete de la page (sans counts), avec l'ordre du datatable et la plage specifiée
+     *
+     * @param input
+     *            parametres du datatable: filtres et ordre
+     * @param additionalSpecification
+     *            specification additionnelle (peut etre <code>null</code>)
+     * @param preFilteringSpecification
+     *            specification de pre-filtrage (peut etre <code>null</code>)
+     * @param offset
+     *            index de la premiere ligne
+     * @param maxResults
+     *            nombre maximum de lignes
+     * @return les lignes
+     */
+    <R> List<R> findPage(final DatatableQuery<R, T> input, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification, final int offset, final int maxResults) {
+        final Specifications<T> specifications = Specifications.where(preFilteringSpecification)
+            .and(additionalSpecification).and(new DatatableSpecification<T>(input).getFilter());
+        final Pageable pageable =
+            DatatableHelper.getPageable(offset, maxResults, DatatableHelper.getPageable(input).getSort());
+        final EntityManager entityManager = entityManagerProvider.getEntityManager(input);
+        try {
+            return findPage(entityManager, input, specifications, pageable);
+        } finally {
+            entityManagerProvider.releaseEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Version des données de l'entité (voir {@link #setDataVersionSource(DataVersionSource)}), pour le
+     * {@link ShardedDatatableDAO}
+     *
+     * @param input
+     *            parametres du datatable
+     * @return la version, ou <code>null</code> si il n'y a pas de source de version
+     */
+    String getDataVersion(final DatatableQuery<?, T> input) {
+        final DataVersionSource versionSource = getDataVersionSource();
+        if (versionSource == null) {
+            return null;
+        }
+        final EntityManager entityManager = entityManagerProvider.getEntityManager(input);
+        try {
+            return versionSource.getVersion(entityManager, entity);
+        } finally {
+            entityManagerProvider.releaseEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Count filtré (et agregats des colonnes dans la meme requete)
+     */
+    private void countFiltered(final EntityManager entityManager, final DatatableQuery<?, T> input,
+        final DatatableSpecification<T> datatableSpecification, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification, final DatatableResult<?> output, final int countLimit) {
+        final boolean aggregates = hasAggregates(input);
+        if (!aggregates && !datatableSpecification.isFiltering() && additionalSpecification == null) {
+            // meme predicat que le total: pas besoin de recompter
+            output.setRecordsFiltered(output.getRecordsTotal());
+            return;
+        }
+        // meme specification que la page: les filtres to-many sont des "exists" dans les deux requetes
+        final Specifications<T> countSpecifications = Specifications.where(preFilteringSpecification)
+            .and(additionalSpecification).and(datatableSpecification.getFilter());
+        if (aggregates) {
+            countAndAggregate(entityManager, countSpecifications, input, output);
+        } else if (countLimit > 0 && input.getGroupByColumns() == null) {
+            output.setRecordsFiltered(countAtMost(entityManager, countSpecifications, countLimit));
+        } else {
+            output.setRecordsFiltered(count(entityManager, countSpecifications, input));
+        }
+    }
+
+    static boolean hasAggregates(final DatatableQuery<?, ?> input) {
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getAggregates() != null && !column.getAggregates().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count filtré et agregats des colonnes en une seule requete:
+     * <code>SELECT COUNT(x), SUM(x.a), MAX(x.b) ... WHERE ...</code>. Les colonnes jointes sont en "left join" pour ne
+     * pas changer le count.
+     */
+    @SuppressWarnings("unchecked")
+    private void countAndAggregate(final EntityManager entityManager, final Specification<T> specification,
+        final DatatableQuery<?, T> input, final DatatableResult<?> output) {
+        if (input.getGroupByColumns() != null) {
+            throw new IllegalArgumentException("Agregats impossibles avec group by");
+        }
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> cq = qb.createQuery(Object[].class);
+        final Root<T> from = cq.from(this.entity);
+
+        final List<Selection<?>> selections = new ArrayList<Selection<?>>();
+        selections.add(qb.count(from));
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getAggregates() == null || column.getAggregates().isEmpty()) {
+                continue;
+            }
+            if (DatatableHelper.isCollectionPath(from, column.getData())) {
+                throw new IllegalArgumentException("Agregats impossibles sur une collection: " + column.getData());
+            }
+            final Path<?> path = DatatableHelper.getExpression(from, column.getData(), null, JoinType.LEFT);
+            for (final DatatableAggregate aggregate : column.getAggregates()) {
+                switch (aggregate) {
+                case SUM:
+                    selections.add(qb.sum((Expression<Number>) path));
+                    break;
+                case AVG:
+                    selections.add(qb.avg((Expression<Number>) path));
+                    break;
+                case MIN:
+                    selections.add(qb.least((Expression<Comparable<Object>>) path));
+                    break;
+                case MAX:
+                    selections.add(qb.greatest((Expression<Comparable<Object>>) path));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Agregat inconnu: " + aggregate);
+                }
+            }
+        }
+        cq.multiselect(selections);
+        final Predicate predicate = specification.toPredicate(from, cq, qb);
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        final Object[] row = createQuery(entityManager, cq, 0).getSingleResult();
+
+        final Map<String, Map<String, Object>> aggregates = new LinkedHashMap<String, Map<String, Object>>();
+        int i = 1;
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getAggregates() == null || column.getAggregates().isEmpty()) {
+                continue;
+            }
+            final Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (final DatatableAggregate aggregate : column.getAggregates()) {
+                values.put(aggregate.getKey(), row[i++]);
+            }
+            aggregates.put(column.getData(), values);
+        }
+        output.setRecordsFiltered(((Number) row[0]).longValue());
+        output.setAggregates(aggregates);
+    }
+
+    /**
+     * Count approximatif: lit au plus <code>limit</code> lignes, sans "order by". Le resultat est un minimum.
+     */
+    private long countAtMost(final EntityManager entityManager, final Specification<T> specification,
+        final int limit) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Integer> cq = qb.createQuery(Integer.class);
+        final Root<T> from = cq.from(this.entity);
+
+        cq.select(qb.literal(1));
+        final Predicate predicate = specification.toPredicate(from, cq, qb);
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        final TypedQuery<Integer> q = createQuery(entityManager, cq, limit);
+        q.setMaxResults(limit);
+        return q.getResultList().size();
+    }
+
+    /**
+     * Total du prefiltre: count matérialisé si il y en a un, sinon count
+     */
+    private long countTotal(final EntityManager entityManager, final Specification<T> preFilteringSpecification,
+        final DatatableQuery<?, T> input) {
+        if (materializedCounts != null && input.getGroupByColumns() == null) {
+            final Long ret = materializedCounts.getCount(entityManager, entity, preFilteringSpecification);
+            if (ret != null) {
+                LOGGER.log(Level.FINE, "Materialized count: {0}", ret);
+                return ret;
+            }
+        }
+        return count(entityManager, preFilteringSpecification, input);
+    }
+
+    private long count(final EntityManager entityManager, final Specification<T> specification,
+        final DatatableQuery<?, T> input) {
+        if (input.getGroupByColumns() == null){
+            return countDefault(entityManager, specification, input);
+        }
+        return countWhenGroupBy(entityManager, specification, input);
+    }
+
+    /**
+     * Count minimal: pas de "order by" ni de fetch, seulement les joins necessaires aux predicats de la specification.
+     */
+    private long countDefault(final EntityManager entityManager, final Specification<T> specification,
+        final DatatableQuery<?, T> input) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Long> cq = qb.createQuery(Long.class);
+        final Root<T> from = cq.from(this.entity);
+        
+        cq.select(qb.count(from));
+        final Predicate predicate = specification != null ? specification.toPredicate(from, cq, qb) : null;
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        return createQuery(entityManager, cq, 0).getSingleResult();
+    }
+    
+    private long countWhenGroupBy(final EntityManager entityManager, final Specification<T> specification,
+        final DatatableQuery<?, T> input) {
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Long> cq = qb.createQuery(Long.class);
+        final Root<T> from = cq.from(this.entity);
+        
+        cq.select(qb.literal(1L));
+        final Predicate predicate = specification != null ? specification.toPredicate(from, cq, qb) : null;
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
+            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
+            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
+            cq.groupBy(groupByList);
+        }
+        return createQuery(entityManager, cq, MAX_DEFAULT_FETCH_SIZE).getResultList().size();
+    }
+
+    /**
+     * Nombre de groupes de {@link #findAllGrouped(DatatableQuery, List, Specification, Specification)}, sans lire
+     * leurs clés: <code>COUNT(DISTINCT x.g)</code>, plus un si il y a un groupe des nulls (ignoré par le distinct).
+     * Avec plusieurs colonnes la clé distincte est la concatenation des colonnes en texte, les nulls remplacés par un
+     * marqueur: la conversion en texte (<code>as(String.class)</code>) depend du provider JPA, elle est testée avec
+     * Hibernate sur H2.
+     */
+    private long countGroups(final EntityManager entityManager, final Specification<T> specification,
+        final DatatableQuery<?, T> input) {
+        final List<DatatableColumn> groupByColumns = input.getGroupByColumns();
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        if (groupByColumns.size() > 1) {
+            final CriteriaQuery<Long> cq = qb.createQuery(Long.class);
+            final Root<T> from = cq.from(this.entity);
+            final List<Path<?>> paths = new ArrayList<Path<?>>(groupByColumns.size());
+            DatatableHelper.getExpressions(from, groupByColumns, paths);
+            Expression<String> key = null;
+            for (final Path<?> path : paths) {
+                final Expression<String> value = qb.coalesce(path.as(String.class), NULL_GROUP_VALUE);
+                key = key == null ? value : qb.concat(qb.concat(key, GROUP_KEY_SEPARATOR), value);
+            }
+            cq.select(qb.countDistinct(key));
+            final Predicate predicate = specification != null ? specification.toPredicate(from, cq, qb) : null;
+            if (predicate != null) {
+                cq.where(predicate);
+            }
+            return createQuery(entityManager, cq, 0).getSingleResult();
+        }
+
+        final CriteriaQuery<Object[]> cq = qb.createQuery(Object[].class);
+        final Root<T> from = cq.from(this.entity);
+        final Path<?> path = DatatableHelper.getExpression(from, groupByColumns.get(0).getData(), null);
+        cq.multiselect(qb.countDistinct(path),
+            qb.max(qb.<Integer> selectCase().when(qb.isNull(path), 1).otherwise(0)));
+        final Predicate predicate = specification != null ? specification.toPredicate(from, cq, qb) : null;
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+        final Object[] row = createQuery(entityManager, cq, 0).getSingleResult();
+        final long nullGroup = row[1] != null && ((Number) row[1]).intValue() > 0 ? 1 : 0;
+        return ((Number) row[0]).longValue() + nullGroup;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> List<R> findAllImpl1(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specifications<T> specifications, final Pageable pageable) {
+
+        // create query
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<T> cq = qb.createQuery(this.entity);
+
+        // Etablir entité racine
+        final Root<T> from = cq.from(this.entity);
+
+        // select
+        cq.select(from);
+
+        // where
+        final Predicate predicate = specifications != null ? specifications.toPredicate(from, cq, qb) : null;
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+
+        // group by
+        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
+            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
+            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
+            cq.groupBy(groupByList);
+        }
+
+        // order by
+        if (pageable != null && pageable.getSort() != null) {
+            cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
+        }
+
+        // page limit
+        final TypedQuery<T> q = createQuery(entityManager, cq, pageable != null ? pageable.getPageSize() : 0);
+        if (pageable != null) {
+            q.setFirstResult(pageable.getOffset());
+            q.setMaxResults(pageable.getPageSize());
+        }
+
+        // execute query
+        return (List<R>) q.getResultList();
+    }
+
+    private <R> List<R> findAllImpl2(final EntityManager entityManager, final DatatableQuery<R, T> input,
+        final Specifications<T> specifications, final Pageable pageable) {
+        
+        // create query
+        final CriteriaBuilder qb = entityManager.getCriteriaBuilder();        
+        final CriteriaQuery<R> cq = qb.createQuery(input.getQueryClass());
+
+        // Etablir entité racine
+        final Root<T> from = cq.from(this.entity);
+        
+        // select for custom class
+        final List<Selection<?>> selectList = new ArrayList<Selection<?>>();
+        if (input.getGroupByColumns() != null) {
+            DatatableHelper.getExpressions(from, input.getGroupByColumns(), selectList);
+        } else {
+            DatatableHelper.getExpressions(from, input.getColumns(), selectList);
+        }
+        cq.multiselect(selectList);
+
+        // where
+        final Predicate predicate = specifications != null ? specifications.toPredicate(from, cq, qb) : null;
+        if (predicate != null) {
+            cq.where(predicate);
+        }
+
+        // group by
+        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
+            final List<Expression<?>> groupByList = new ArrayList<Expression<?>>();
+            DatatableHelper.getExpressions(from, input.getGroupByColumns(), groupByList);
+            cq.groupBy(groupByList);
+        }
+
+        // order by
+        if (pageable != null && pageable.getSort() != null) {
+            cq.orderBy(DatatableHelper.getOrderBy(from, qb, pageable));
+        }
+
+        // page limit
+        final TypedQuery<R> q = createQuery(entityManager, cq, pageable != null ? pageable.getPageSize() : 0);
+        if (pageable != null) {
+        	LOGGER.log(Level.FINE, "Pageable: offset: {0}, page size: {1}", new Object[]{pageable.getOffset(), pageable.getPageSize()});
+            q.setFirstResult(pageable.getOffset());
+            q.setMaxResults(pageable.getPageSize());
+        }
+
+        // execute query
+        return q.getResultList();
+    }
+
+    /**
+     * Entité pre-agregée, son grain et sa taille
+     * 
+     * @param <E>
+     *            type de l'entité pre-agregée
+     */
+    private static class Rollup<E> {
+
+        private final DatatableDAOImpl<E> datatableDAO;
+
+        private final Set<String> grain;
+
+        private final long rows;
+
+        private Rollup(final DatatableDAOImpl<E> datatableDAO, final Set<String> grain, final long rows) {
+            this.datatableDAO = datatableDAO;
+            this.grain = grain;
+            this.rows = rows;
+        }
+
+        /**
+         * Execute la requete sur le rollup: les colonnes ont les memes paths, la requete n'a pas de specifications
+         */
+        private <R> DatatableResult<R> findAll(final DatatableQuery<R, ?> input) {
+            return datatableDAO.findAll(DatatableHelper.<R, E> copyForEntity(input));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.andresoviedo.datatable;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory des executors pour le {@link AsyncDatatableDAOImpl}
+ *
+ * @author afoviedo
+ */
+public final class DatatableExecutors {
+
+    private DatatableExecutors() {
+        // abstract
+    }
+
+    /**
+     * @return <code>true</code> si la JVM supporte les virtual threads (Java 21+)
+     */
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadFactoryMethod() != null;
+    }
+
+    /**
+     * Cree un executor qui demarre un virtual thread par tache. Le build cible Java 11, donc la methode Java 21 est
+     * appelée par reflection.
+     *
+     * @return l'executor
+     * @throws UnsupportedOperationException
+     *             si la JVM ne supporte pas les virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method method = getVirtualThreadFactoryMethod();
+        if (method == null) {
+            throw new UnsupportedOperationException("Virtual threads non supportés par la JVM (Java 21+ requis)");
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (final Exception ex) {
+            throw new IllegalStateException("Impossible de creer l'executor de virtual threads", ex);
+        }
+    }
+
+    private static Method getVirtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -1,202 +1,553 @@
-package org.andresoviedo.datatable;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.From;
-import javax.persistence.criteria.Join;
-import javax.persistence.criteria.JoinType;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Root;
-import javax.persistence.metamodel.Attribute;
-import javax.persistence.metamodel.Attribute.PersistentAttributeType;
-
-import org.andresoviedo.datatable.Sort.Direction;
-import org.andresoviedo.datatable.dto.DatatableColumn;
-import org.andresoviedo.datatable.dto.DatatableOrder;
-import org.andresoviedo.datatable.dto.DatatableQuery;
-import org.andresoviedo.datatable.dto.DatatableSearch;
-
-/**
- * Helper du datatable
- * 
- * @author afoviedo
- */
-public final class DatatableHelper {
-
-    private DatatableHelper() {
-        // abstract
-    }
-
-    static void getExpressions(final Root<?> from, final List<DatatableColumn> columns,
-        final List<? super Path<?>> output) {
-        for (final DatatableColumn column : columns) {
-            output.add(DatatableHelper.getExpression(from, column.getData(), null));
-        }
-    }
-
-    static <T> List<Order> getOrderBy(final Root<T> from, final CriteriaBuilder qb, final Pageable pageable) {
-        final List<Order> orderBy = new ArrayList<Order>();
-        for (final Iterator<Sort.Order> it = pageable.getSort().iterator(); it.hasNext();) {
-            final org.andresoviedo.datatable.Sort.Order order = it.next();
-            final Path<?> entityProperty = DatatableHelper.getExpression(from, order.getProperty(), null);
-            if (order.isAscending()) {
-                orderBy.add(qb.asc(entityProperty));
-            } else {
-                orderBy.add(qb.desc(entityProperty));
-            }
-        }
-        return orderBy;
-    }
-
-    /**
-     * Cree une expression Criteria API avec l'atribut de l'entité passé en parametre
-     * 
-     * @param root
-     *            entité JPA contenant le champ
-     * @param columnData
-     *            nom du champ
-     * @param clazz
-     *            class du champ
-     * @param <S>
-     *            type du champ
-     * @return l'expression de l'atribut
-     */
-    public static <S> Path<S> getExpression(final Root<?> root, final String columnData, final Class<S> clazz) {
-        if (!columnData.contains(DatatableSpecification.ATTRIBUTE_SEPARATOR)) {
-            // columnData is like "attribute" so nothing particular to do
-            return root.get(columnData);
-        }
-        // columnData is like "joinedEntity.attribute" so add a join clause
-        final String[] values = columnData.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR);
-        final Attribute<?, ?> attribute = root.getModel().getAttribute(values[0]);
-        if (attribute == null) {
-            throw new IllegalArgumentException(
-                "Colonne '" + values[0] + "' (" + columnData + ") introuvable depuis l'entité '" + root.getJavaType()
-                    + "'");
-        }
-        if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
-            // with @Embedded attribute
-            return root.get(values[0]).get(values[1]);
-        }
-        From<?, ?> from = root;
-        for (int i = 0; i < values.length - 1; i++) {
-    
-            Join<?, ?> join = null;
-            for (final Join<?, ?> joinCandidate : from.getJoins()) {
-                if (joinCandidate.getAttribute().getName().equals(values[i])) {
-                    // LOGGER.debug("Trouve joint d'entite: '{}'", values[i]);
-                    join = joinCandidate;
-                }
-            }
-            if (join == null) {
-                // LOGGER.debug("Joigant entite '{}'...", values[i]);
-                join = from.join(values[i], JoinType.INNER);
-            }
-            from = join;
-        }
-        return from.get(values[values.length - 1]);
-    }
-
-    /**
-     * Construction d'une specification "or" avec la liste de colonnes passés en paramétre
-     * 
-     * @param input
-     *            datatable query
-     * @param colonnes
-     *            liste de colonnes a faire le "where (x=y or z=a or ...)"
-     * @param search
-     *            texte a chercher
-     * @return le predicat or
-     */
-    public static <T> Specification<T> creerSpecificationOr(final DatatableQuery<?, T> input,
-        final List<DatatableColumn> colonnes, final DatatableSearch search) {
-        return new DatatableOrSpecification<T>(colonnes, search);
-    }
-
-    /**
-     * Creates a 'LIMIT .. OFFSET .. ORDER BY ..' clause for the given {@link DatatableQuery}.
-     * 
-     * @param input
-     *            the {@link DatatableQuery} mapped from the Ajax request
-     * @return a {@link Pageable}, must not be {@literal null}.
-     */
-    static <T> Pageable getPageable(final DatatableQuery<?, T> input) {
-        final List<org.andresoviedo.datatable.Sort.Order> orders =
-            new ArrayList<org.andresoviedo.datatable.Sort.Order>();
-        for (final DatatableOrder order : input.getOrder()) {
-            final DatatableColumn column = input.getColumns().get(order.getColumn());
-            if (column.getOrderable()) {
-                final String sortColumn = column.getData();
-                final Direction sortDirection = Direction.fromString(order.getDir());
-                orders.add(new org.andresoviedo.datatable.Sort.Order(sortDirection, sortColumn));
-            }
-        }
-        org.andresoviedo.datatable.Sort sort = null;
-        if (!orders.isEmpty()) {
-            sort = new org.andresoviedo.datatable.Sort(orders);
-        }
-    
-        if (input.getLength() == -1) {
-            input.setStart(0);
-            input.setLength(Integer.MAX_VALUE);
-        }
-        return new DataTablePage(input.getStart(), input.getLength(), sort);
-    }
-
-    static class DataTablePage implements Pageable {
-
-        private final int offset;
-        private final int pageSize;
-        private final Sort sort;
-
-        private DataTablePage(final int offset, final int pageSize, final Sort sort) {
-            this.offset = offset;
-            this.pageSize = pageSize;
-            this.sort = sort;
-        }
-
-        @Override
-        public int getOffset() {
-            return offset;
-        }
-
-        @Override
-        public int getPageSize() {
-            return pageSize;
-        }
-
-        @Override
-        public Sort getSort() {
-            return sort;
-        }
-
-        @Override
-        public Pageable next() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public Pageable previousOrFirst() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public Pageable first() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public boolean hasPrevious() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int getPageNumber() {
-            throw new UnsupportedOperationException();
-        }
-    }
-}
+package org.andresoviedo.datatable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+import org.andresoviedo.datatable.Sort.Direction;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableOrder;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+
+/**
+ * Helper du datatable
+ * 
+ * @author afoviedo
+ */
+public final class DatatableHelper {
+
+    /**
+     * Accesseurs (getters ou champs) lus par {@link #getProperty(Object, String)}, par classe et propriété
+     */
+    private static final ConcurrentMap<String, Object> ACCESSORS = new ConcurrentHashMap<String, Object>();
+
+    private DatatableHelper() {
+        // abstract
+    }
+
+    static void getExpressions(final Root<?> from, final List<DatatableColumn> columns,
+        final List<? super Path<?>> output) {
+        for (final DatatableColumn column : columns) {
+            output.add(DatatableHelper.getExpression(from, column.getData(), null));
+        }
+    }
+
+    static <T> List<Order> getOrderBy(final Root<T> from, final CriteriaBuilder qb, final Pageable pageable) {
+        final List<Order> orderBy = new ArrayList<Order>();
+        for (final Iterator<Sort.Order> it = pageable.getSort().iterator(); it.hasNext();) {
+            final org.andresoviedo.datatable.Sort.Order order = it.next();
+            final Path<?> entityProperty = DatatableHelper.getExpression(from, order.getProperty(), null);
+            if (order.isAscending()) {
+                orderBy.add(qb.asc(entityProperty));
+            } else {
+                orderBy.add(qb.desc(entityProperty));
+            }
+        }
+        return orderBy;
+    }
+
+    /**
+     * Cree une expression Criteria API avec l'atribut de l'entité passé en parametre
+     * 
+     * @param root
+     *            entité JPA contenant le champ
+     * @param columnData
+     *            nom du champ
+     * @param clazz
+     *            class du champ
+     * @param <S>
+     *            type du champ
+     * @return l'expression de l'atribut
+     */
+    public static <S> Path<S> getExpression(final Root<?> root, final String columnData, final Class<S> clazz) {
+        return getExpression(root, columnData, clazz, JoinType.INNER);
+    }
+
+    /**
+     * Cree une expression Criteria API avec l'atribut de l'entité passé en parametre, avec le type des nouveaux joins
+     * (les joins existants sont reutilisés)
+     * 
+     * @param root
+     *            entité JPA contenant le champ
+     * @param columnData
+     *            nom du champ
+     * @param clazz
+     *            class du champ
+     * @param joinType
+     *            type des joins a creer
+     * @param <S>
+     *            type du champ
+     * @return l'expression de l'atribut
+     */
+    static <S> Path<S> getExpression(final Root<?> root, final String columnData, final Class<S> clazz,
+        final JoinType joinType) {
+        if (!columnData.contains(DatatableSpecification.ATTRIBUTE_SEPARATOR)) {
+            // columnData is like "attribute" so nothing particular to do
+            return root.get(columnData);
+        }
+        // columnData is like "joinedEntity.attribute" so add a join clause
+        final String[] values = columnData.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR);
+        final Attribute<?, ?> attribute = root.getModel().getAttribute(values[0]);
+        if (attribute == null) {
+            throw new IllegalArgumentException(
+                "Colonne '" + values[0] + "' (" + columnData + ") introuvable depuis l'entité '" + root.getJavaType()
+                    + "'");
+        }
+        if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
+            // with @Embedded attribute
+            return root.get(values[0]).get(values[1]);
+        }
+        From<?, ?> from = root;
+        for (int i = 0; i < values.length - 1; i++) {
+    
+            Join<?, ?> join = null;
+            for (final Join<?, ?> joinCandidate : from.getJoins()) {
+                if (joinCandidate.getAttribute().getName().equals(values[i])) {
+                    // LOGGER.debug("Trouve joint d'entite: '{}'", values[i]);
+                    join = joinCandidate;
+                }
+            }
+            if (join == null) {
+                // LOGGER.debug("Joigant entite '{}'...", values[i]);
+                join = from.join(values[i], joinType);
+            }
+            from = join;
+        }
+        return from.get(values[values.length - 1]);
+    }
+
+    /**
+     * Indique si le chemin de l'atribut traverse une association to-many (collection). Un join sur ce chemin
+     * multiplie les lignes de l'entité racine.
+     * 
+     * @param root
+     *            entité JPA contenant le champ
+     * @param columnData
+     *            nom du champ, par exemple "joinedEntity.attribute"
+     * @return <code>true</code> si le chemin traverse une collection
+     */
+    static boolean isCollectionPath(final Root<?> root, final String columnData) {
+        if (!columnData.contains(DatatableSpecification.ATTRIBUTE_SEPARATOR)) {
+            return false;
+        }
+        final String[] values = columnData.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR);
+        ManagedType<?> type = root.getModel();
+        for (int i = 0; i < values.length - 1; i++) {
+            final Attribute<?, ?> attribute = type.getAttribute(values[i]);
+            if (attribute.isCollection()) {
+                return true;
+            }
+            final Type<?> next;
+            if (attribute instanceof SingularAttribute) {
+                next = ((SingularAttribute<?, ?>) attribute).getType();
+            } else {
+                next = ((PluralAttribute<?, ?, ?>) attribute).getElementType();
+            }
+            if (!(next instanceof ManagedType)) {
+                return false;
+            }
+            type = (ManagedType<?>) next;
+        }
+        return false;
+    }
+
+    /**
+     * Resout le path d'un atribut avec le metamodel
+     * 
+     * @param type
+     *            type de l'entité
+     * @param columnData
+     *            path de l'atribut, par exemple "joinedEntity.attribute"
+     * @return le type java de l'atribut (type des elements pour une collection)
+     * @throws IllegalArgumentException
+     *             si un atribut du path n'existe pas
+     */
+    static Class<?> getPathType(final ManagedType<?> type, final String columnData) {
+        final String[] values = columnData.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR);
+        ManagedType<?> current = type;
+        for (int i = 0; i < values.length; i++) {
+            final Attribute<?, ?> attribute;
+            try {
+                attribute = current.getAttribute(values[i]);
+            } catch (final IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Colonne '" + values[i] + "' (" + columnData
+                    + ") introuvable depuis '" + current.getJavaType().getName() + "'", ex);
+            }
+            final Type<?> next;
+            if (attribute instanceof SingularAttribute) {
+                next = ((SingularAttribute<?, ?>) attribute).getType();
+            } else {
+                next = ((PluralAttribute<?, ?, ?>) attribute).getElementType();
+            }
+            if (i == values.length - 1) {
+                return next.getJavaType();
+            }
+            if (!(next instanceof ManagedType)) {
+                throw new IllegalArgumentException("Colonne '" + values[i] + "' (" + columnData
+                    + ") n'est pas une entité ni un embeddable");
+            }
+            current = (ManagedType<?>) next;
+        }
+        return current.getJavaType();
+    }
+
+    /**
+     * Construction d'une specification "or" avec la liste de colonnes passés en paramétre
+     * 
+     * @param input
+     *            datatable query
+     * @param colonnes
+     *            liste de colonnes a faire le "where (x=y or z=a or ...)"
+     * @param search
+     *            texte a chercher
+     * @return le predicat or
+     */
+    public static <T> Specification<T> creerSpecificationOr(final DatatableQuery<?, T> input,
+        final List<DatatableColumn> colonnes, final DatatableSearch search) {
+        return new DatatableOrSpecification<T>(colonnes, search);
+    }
+
+    /**
+     * Creates a 'LIMIT .. OFFSET .. ORDER BY ..' clause for the given {@link DatatableQuery}. The query is not
+     * modified: a length of -1 is a page of all the records from the first one.
+     * 
+     * @param input
+     *            the {@link DatatableQuery} mapped from the Ajax request
+     * @return a {@link Pageable}, must not be {@literal null}.
+     */
+    static <T> Pageable getPageable(final DatatableQuery<?, T> input) {
+        final Sort sort = getSort(input);
+        if (input.getLength() == -1) {
+            return new DataTablePage(0, Integer.MAX_VALUE, sort);
+        }
+        return new DataTablePage(input.getStart(), input.getLength(), sort);
+    }
+
+    /**
+     * Creates the 'ORDER BY ..' clause for the given {@link DatatableQuery}: orders on orderable columns only.
+     * 
+     * @param input
+     *            the {@link DatatableQuery} mapped from the Ajax request
+     * @return the {@link Sort}, or <code>null</code> if there is no order
+     */
+    static Sort getSort(final DatatableQuery<?, ?> input) {
+        final List<org.andresoviedo.datatable.Sort.Order> orders =
+            new ArrayList<org.andresoviedo.datatable.Sort.Order>();
+        for (final DatatableOrder order : input.getOrder()) {
+            final DatatableColumn column = input.getColumns().get(order.getColumn());
+            if (column.getOrderable()) {
+                final String sortColumn = column.getData();
+                final Direction sortDirection = Direction.fromString(order.getDir());
+                orders.add(new org.andresoviedo.datatable.Sort.Order(sortDirection, sortColumn));
+            }
+        }
+        return orders.isEmpty() ? null : new org.andresoviedo.datatable.Sort(orders);
+    }
+
+    /**
+     * Creates a 'LIMIT .. OFFSET .. ORDER BY ..' clause.
+     * 
+     * @param offset
+     *            index of the first record
+     * @param pageSize
+     *            number of records
+     * @param sort
+     *            the order, or <code>null</code>
+     * @return a {@link Pageable}
+     */
+    static Pageable getPageable(final int offset, final int pageSize, final Sort sort) {
+        return new DataTablePage(offset, pageSize, sort);
+    }
+
+    /**
+     * Cree la clé normalisée de la requete: colonnes, filtres, ordre, page, group by, type de retour et extra
+     * properties. Le compteur "draw" n'en fait pas partie. Les specifications y participent avec leur
+     * {@link KeyedSpecification#getKey() clé}: une requete avec une specification sans clé n'a pas de clé, car deux
+     * specifications de la meme classe peuvent filtrer des lignes differentes (par exemple d'un autre tenant).
+     * 
+     * @param input
+     *            the {@link DatatableQuery}
+     * @param specifications
+     *            specifications supplementaires de la requete (peuvent etre <code>null</code>)
+     * @return la clé de la requete, ou <code>null</code> si une specification n'a pas de clé
+     */
+    static String getQueryKey(final DatatableQuery<?, ?> input, final Specification<?>... specifications) {
+        final StringBuilder key = new StringBuilder(256);
+        key.append(input.getQueryClass() == null ? "" : input.getQueryClass().getName());
+        key.append("|s=").append(input.getStart()).append("|l=").append(input.getLength());
+        appendSearch(key.append("|q="), input.getSearch());
+        for (final DatatableColumn column : input.getColumns()) {
+            key.append("|c=").append(column.getData()).append(',').append(column.getSearchable()).append(',')
+                .append(column.getOrderable()).append(',').append(column.isSearchWithoutSpaces());
+            appendSearch(key.append(','), column.getSearch());
+            if (column.getAggregates() != null && !column.getAggregates().isEmpty()) {
+                key.append(",a=").append(column.getAggregates());
+            }
+        }
+        for (final DatatableOrder order : input.getOrder()) {
+            key.append("|o=").append(order.getColumn()).append(',').append(order.getDir());
+        }
+        if (input.getGroupByColumns() != null) {
+            for (final DatatableColumn column : input.getGroupByColumns()) {
+                key.append("|g=").append(column.getData());
+            }
+        }
+        if (input.getExtraProps() != null) {
+            for (final Map.Entry<String, Object> prop : new TreeMap<String, Object>(input.getExtraProps())
+                .entrySet()) {
+                key.append("|x=").append(prop.getKey()).append('=').append(prop.getValue());
+            }
+        }
+        for (final Specification<?> specification : specifications) {
+            final String specificationKey = Specifications.getKey(specification);
+            if (specificationKey == null) {
+                return null;
+            }
+            if (specification != null) {
+                key.append("|p=").append(specificationKey.length()).append(':').append(specificationKey);
+            }
+        }
+        return key.toString();
+    }
+
+    private static void appendSearch(final StringBuilder key, final DatatableSearch search) {
+        if (search != null && search.getValue() != null) {
+            key.append(search.getValue().length()).append(':').append(search.getValue()).append(',')
+                .append(search.getRegex());
+        }
+    }
+
+    /**
+     * Cree un token (hash hexadecimal) a partir des valeurs specifiées
+     * 
+     * @param values
+     *            les valeurs
+     * @return le token
+     */
+    static String getToken(final String... values) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (final String value : values) {
+                digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            final byte[] hash = digest.digest();
+            final StringBuilder token = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                token.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                token.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return token.toString();
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Copie la requete, par exemple pour executer une autre page. Les colonnes et les ordres sont partagés.
+     * 
+     * @param input
+     *            la requete a copier
+     * @return la copie
+     */
+    static <R, E> DatatableQuery<R, E> copy(final DatatableQuery<R, E> input) {
+        final DatatableQuery<R, E> ret = copyForEntity(input);
+        ret.setBaseSpecification(input.getBaseSpecification());
+        ret.setAdditionalSpecification(input.getAdditionalSpecification());
+        return ret;
+    }
+
+    /**
+     * Copie la requete pour une autre entité avec les memes paths, par exemple un rollup. Les specifications, sur
+     * l'entité de la requete, ne sont pas copiées.
+     * 
+     * @param input
+     *            la requete a copier
+     * @param <R>
+     *            type du retour de la requete
+     * @param <E>
+     *            type de l'autre entité
+     * @return la copie, sans specifications
+     */
+    static <R, E> DatatableQuery<R, E> copyForEntity(final DatatableQuery<R, ?> input) {
+        final DatatableQuery<R, E> ret = new DatatableQuery<R, E>(input.getLength());
+        ret.setDraw(input.getDraw());
+        ret.setStart(input.getStart());
+        ret.setSearch(input.getSearch());
+        ret.setOrder(new ArrayList<DatatableOrder>(input.getOrder()));
+        ret.setColumns(new ArrayList<DatatableColumn>(input.getColumns()));
+        if (input.getExtraProps() != null) {
+            ret.setExtraProps(new HashMap<String, Object>(input.getExtraProps()));
+        }
+        ret.setQueryClass(input.getQueryClass());
+        ret.setGroupByColumns(input.getGroupByColumns());
+        ret.setVersion(input.getVersion());
+        return ret;
+    }
+
+    /**
+     * Lit la valeur d'un path de proprietés d'un objet (getters, ou champs si il n'y a pas de getter)
+     * 
+     * @param bean
+     *            l'objet
+     * @param path
+     *            le path, par exemple "customer.name"
+     * @return la valeur, ou <code>null</code> si un objet intermediaire est <code>null</code>
+     */
+    static Object getProperty(final Object bean, final String path) {
+        Object ret = bean;
+        for (final String name : path.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR)) {
+            if (ret == null) {
+                return null;
+            }
+            final Object accessor = getAccessor(ret.getClass(), name);
+            try {
+                if (accessor instanceof Method) {
+                    ret = ((Method) accessor).invoke(ret);
+                } else {
+                    ret = ((Field) accessor).get(ret);
+                }
+            } catch (final IllegalAccessException ex) {
+                throw new IllegalStateException("Propriété '" + name + "' illisible: " + ex.getMessage(), ex);
+            } catch (final InvocationTargetException ex) {
+                throw new IllegalStateException("Propriété '" + name + "' illisible: "
+                    + ex.getTargetException().getMessage(), ex.getTargetException());
+            }
+        }
+        return ret;
+    }
+
+    private static Object getAccessor(final Class<?> type, final String name) {
+        final String cacheKey = type.getName() + '#' + name;
+        Object ret = ACCESSORS.get(cacheKey);
+        if (ret != null) {
+            return ret;
+        }
+        final String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (final String prefix : new String[] { "get", "is" }) {
+            try {
+                ret = type.getMethod(prefix + suffix);
+                break;
+            } catch (final NoSuchMethodException ex) {
+                // essayer le suivant
+            }
+        }
+        for (Class<?> c = type; ret == null && c != null; c = c.getSuperclass()) {
+            try {
+                final Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                ret = field;
+            } catch (final NoSuchFieldException ex) {
+                // classe parente
+            }
+        }
+        if (ret == null) {
+            throw new IllegalStateException("Propriété '" + name + "' introuvable dans " + type.getName());
+        }
+        ACCESSORS.putIfAbsent(cacheKey, ret);
+        return ret;
+    }
+
+    /**
+     * Copie le resultat pour un autre draw, par exemple un resultat en cache
+     * 
+     * @param result
+     *            le resultat a copier
+     * @param draw
+     *            le draw de la copie
+     * @return la copie
+     */
+    static <R> DatatableResult<R> copy(final DatatableResult<R> result, final int draw) {
+        final DatatableResult<R> ret = new DatatableResult<R>();
+        ret.setDraw(draw);
+        ret.setRecordsTotal(result.getRecordsTotal());
+        ret.setRecordsFiltered(result.getRecordsFiltered());
+        ret.setData(result.getData());
+        ret.setError(result.getError());
+        ret.setVersion(result.getVersion());
+        ret.setNotModified(result.isNotModified());
+        ret.setDowngrades(result.getDowngrades());
+        ret.setAggregates(result.getAggregates());
+        return ret;
+    }
+
+    static class DataTablePage implements Pageable {
+
+        private final int offset;
+        private final int pageSize;
+        private final Sort sort;
+
+        private DataTablePage(final int offset, final int pageSize, final Sort sort) {
+            this.offset = offset;
+            this.pageSize = pageSize;
+            this.sort = sort;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public Sort getSort() {
+            return sort;
+        }
+
+        @Override
+        public Pageable next() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Pageable previousOrFirst() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Pageable first() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getPageNumber() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
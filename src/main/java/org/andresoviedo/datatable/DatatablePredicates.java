@@ -0,0 +1,65 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Predicate;
+
+/**
+ * Construction des predicats composés n-aires: un seul "and"/"or" pour tous les termes, sans termes neutres
+ * (<code>1=1</code>, <code>0=1</code>). Les termes <code>null</code> sont ignorés. L'ordre des termes est gardé: les
+ * appelants mettent les egalités avant les "like".
+ * <p>
+ * Les predicats ne sont pas inspectés (l'API Criteria ne distingue pas un predicat simple d'un "and" vide, et les
+ * predicats n'ont pas d'egalité): la normalisation est faite a la construction, par {@link Specifications}
+ * (compositions aplaties) et {@link DatatableSpecification} (filtres en double appliqués une seule fois).
+ *
+ * @author afoviedo
+ */
+final class DatatablePredicates {
+
+    private DatatablePredicates() {
+        // abstract
+    }
+
+    /**
+     * @param cb
+     *            criteria builder
+     * @param predicates
+     *            les predicats (peuvent etre <code>null</code>)
+     * @return le "and" des predicats, ou <code>null</code> si il n'y en a aucun
+     */
+    static Predicate and(final CriteriaBuilder cb, final List<Predicate> predicates) {
+        final List<Predicate> terms = nonNull(predicates);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return terms.size() == 1 ? terms.get(0) : cb.and(terms.toArray(new Predicate[terms.size()]));
+    }
+
+    /**
+     * @param cb
+     *            criteria builder
+     * @param predicates
+     *            les predicats (peuvent etre <code>null</code>)
+     * @return le "or" des predicats, ou <code>null</code> si il n'y en a aucun
+     */
+    static Predicate or(final CriteriaBuilder cb, final List<Predicate> predicates) {
+        final List<Predicate> terms = nonNull(predicates);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return terms.size() == 1 ? terms.get(0) : cb.or(terms.toArray(new Predicate[terms.size()]));
+    }
+
+    private static List<Predicate> nonNull(final List<Predicate> predicates) {
+        final List<Predicate> ret = new ArrayList<Predicate>(predicates.size());
+        for (final Predicate predicate : predicates) {
+            if (predicate != null) {
+                ret.add(predicate);
+            }
+        }
+        return ret;
+    }
+}
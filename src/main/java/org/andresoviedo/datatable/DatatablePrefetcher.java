@@ -0,0 +1,218 @@
+package org.andresoviedo.datatable;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * Prechargement de la page suivante d'un datatable. Aprés chaque draw, le {@link DatatableDAOImpl} demande le
+ * prechargement de la page N+1 qui est executé en arriere plan et gardé dans un cache de courte durée: le clic
+ * "suivant" ne va pas en base.
+ * <p>
+ * Le nombre de prechargements simultanés est limité: si la limite est atteinte le prechargement est ignoré. Le taux de
+ * succés du cache ({@link #getHitRate()}) permet d'ajuster la configuration.
+ *
+ * @see DatatableDAOImpl#setPrefetcher(DatatablePrefetcher)
+ * @author afoviedo
+ */
+public class DatatablePrefetcher {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Chargement d'une page
+     */
+    interface Loader {
+
+        /**
+         * @return le resultat de la page, ou <code>null</code> si la page n'est pas chargée
+         */
+        DatatableResult<?> load();
+    }
+
+    private final Executor executor;
+
+    private final Semaphore permits;
+
+    private final ExpiringCache<String, DatatableResult<?>> cache;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Prechargement avec son propre pool de threads (daemon), de la taille du nombre de prechargements simultanés
+     *
+     * @param maxConcurrentPrefetches
+     *            nombre maximum de prechargements simultanés
+     * @param ttl
+     *            durée de vie des pages prechargées
+     * @param unit
+     *            unité de la durée de vie
+     * @param maxEntries
+     *            nombre maximum de pages dans le cache
+     */
+    public DatatablePrefetcher(final int maxConcurrentPrefetches, final long ttl, final TimeUnit unit,
+        final int maxEntries) {
+        this(newPrefetchExecutor(maxConcurrentPrefetches), maxConcurrentPrefetches, ttl, unit, maxEntries);
+    }
+
+    /**
+     * Prechargement avec l'executor specifié
+     *
+     * @param executor
+     *            executor des prechargements
+     * @param maxConcurrentPrefetches
+     *            nombre maximum de prechargements simultanés
+     * @param ttl
+     *            durée de vie des pages prechargées
+     * @param unit
+     *            unité de la durée de vie
+     * @param maxEntries
+     *            nombre maximum de pages dans le cache
+     */
+    public DatatablePrefetcher(final Executor executor, final int maxConcurrentPrefetches, final long ttl,
+        final TimeUnit unit, final int maxEntries) {
+        if (maxConcurrentPrefetches <= 0) {
+            throw new IllegalArgumentException("Nombre de prechargements invalide: " + maxConcurrentPrefetches);
+        }
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrentPrefetches);
+        this.cache = new ExpiringCache<String, DatatableResult<?>>(ttl, unit, maxEntries);
+    }
+
+    /**
+     * Retourne la page prechargée
+     *
+     * @param key
+     *            clé de la page
+     * @return la page, ou <code>null</code> si elle n'est pas prechargée
+     */
+    DatatableResult<?> get(final String key) {
+        final DatatableResult<?> ret = cache.get(key);
+        if (ret == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return ret;
+    }
+
+    /**
+     * Demande le prechargement d'une page, sauf si elle est deja prechargée (ou en cours) ou si la limite de
+     * prechargements simultanés est atteinte.
+     *
+     * @param key
+     *            clé de la page
+     * @param loader
+     *            chargement de la page
+     */
+    void prefetch(final String key, final Loader loader) {
+        if (cache.containsKey(key) || !inFlight.add(key)) {
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            inFlight.remove(key);
+            skipped.incrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final DatatableResult<?> result = loader.load();
+                        if (result == null) {
+                            skipped.incrementAndGet();
+                        } else if (result.getError() == null) {
+                            cache.put(key, result);
+                        }
+                    } catch (final RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, "Prefetch failed: " + ex.getMessage(), ex);
+                    } finally {
+                        inFlight.remove(key);
+                        permits.release();
+                    }
+                }
+            });
+            prefetches.incrementAndGet();
+        } catch (final RejectedExecutionException ex) {
+            inFlight.remove(key);
+            permits.release();
+            skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Vide le cache des pages prechargées
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return nombre de draws servis depuis le cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return nombre de draws qui n'étaient pas dans le cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return taux de succés du cache, entre 0 et 1
+     */
+    public double getHitRate() {
+        final long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * @return nombre de prechargements lancés
+     */
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    /**
+     * @return nombre de prechargements ignorés (limite atteinte, ou pas de place dans le bulkhead)
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    private static Executor newPrefetchExecutor(final int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "datatable-prefetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,245 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publisher des lignes d'un datatable. Les lignes sont lues de la base par blocs, seulement quand le subscriber en
+ * demande: un subscriber lent ne force pas le chargement de tout le resultat en memoire.
+ * <p>
+ * Chaque subscription ouvre sa propre {@link PageSource}, fermée quand la subscription est terminée, en erreur ou
+ * annulée. Les lignes sont lues avec "offset": l'ordre du datatable doit etre deterministe.
+ *
+ * @author afoviedo
+ * @param <R>
+ *            type des lignes
+ */
+class DatatablePublisher<R> implements Flow.Publisher<R> {
+
+    /**
+     * Source des lignes d'une subscription
+     *
+     * @param <R>
+     *            type des lignes
+     */
+    interface PageSource<R> {
+
+        /**
+         * @param offset
+         *            index de la premiere ligne
+         * @param maxResults
+         *            nombre maximum de lignes
+         * @return les lignes, moins que <code>maxResults</code> si c'est la fin du resultat
+         */
+        List<R> fetch(int offset, int maxResults);
+
+        /**
+         * Libere les ressources de la source (entity manager, etc)
+         */
+        void close();
+    }
+
+    private final Supplier<PageSource<R>> sourceFactory;
+    private final int offset;
+    private final int length;
+    private final int chunkSize;
+    private final Executor executor;
+
+    /**
+     * @param sourceFactory
+     *            factory des sources, une par subscription
+     * @param offset
+     *            index de la premiere ligne
+     * @param length
+     *            nombre maximum de lignes a publier
+     * @param chunkSize
+     *            nombre de lignes a lire par requete
+     * @param executor
+     *            executor des lectures et des signaux au subscriber
+     */
+    DatatablePublisher(final Supplier<PageSource<R>> sourceFactory, final int offset, final int length,
+        final int chunkSize, final Executor executor) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Taille de bloc invalide: " + chunkSize);
+        }
+        this.sourceFactory = sourceFactory;
+        this.offset = offset;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super R> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        // signale la fin sans attendre de demande si il n'y a rien a publier
+        subscription.schedule();
+    }
+
+    /**
+     * Subscription avec un drain serialisé: un seul thread a la fois lit la source et signale le subscriber.
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super R> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Deque<R> buffer = new ArrayDeque<R>();
+
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        private PageSource<R> source;
+        private int nextOffset = offset;
+        private int remaining = length;
+        private boolean exhausted;
+        private boolean done;
+
+        private RowSubscription(final Flow.Subscriber<? super R> subscriber) {
+            this.subscriber = subscriber;
+            this.exhausted = length <= 0;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Demande non positive: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (final RejectedExecutionException ex) {
+                    cancelled = true;
+                    closeSource();
+                    subscriber.onError(ex);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            try {
+                for (;;) {
+                    if (done) {
+                        return;
+                    }
+                    if (cancelled) {
+                        done = true;
+                        closeSource();
+                        return;
+                    }
+                    if (invalidRequest != null) {
+                        error(invalidRequest);
+                        return;
+                    }
+
+                    final long demand = requested.get();
+                    long emitted = 0;
+                    while (emitted != demand && !cancelled) {
+                        if (buffer.isEmpty()) {
+                            fetch();
+                            if (buffer.isEmpty()) {
+                                break;
+                            }
+                        }
+                        subscriber.onNext(buffer.poll());
+                        emitted++;
+                    }
+                    if (cancelled) {
+                        continue;
+                    }
+                    if (buffer.isEmpty() && exhausted) {
+                        complete();
+                        return;
+                    }
+                    if (emitted != 0 && demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+
+                    missed = wip.addAndGet(-missed);
+                    if (missed == 0) {
+                        return;
+                    }
+                }
+            } catch (final RuntimeException ex) {
+                error(ex);
+            }
+        }
+
+        private void fetch() {
+            if (exhausted) {
+                return;
+            }
+            if (source == null) {
+                source = sourceFactory.get();
+            }
+            final int maxResults = Math.min(chunkSize, remaining);
+            final List<R> rows = source.fetch(nextOffset, maxResults);
+            nextOffset += rows.size();
+            remaining -= rows.size();
+            if (rows.size() < maxResults || remaining <= 0) {
+                exhausted = true;
+                closeSource();
+            }
+            buffer.addAll(rows);
+        }
+
+        private void complete() {
+            if (!done) {
+                done = true;
+                closeSource();
+                subscriber.onComplete();
+            }
+        }
+
+        private void error(final Throwable ex) {
+            if (!done) {
+                done = true;
+                cancelled = true;
+                buffer.clear();
+                closeSource();
+                subscriber.onError(ex);
+            }
+        }
+
+        private void closeSource() {
+            if (source != null) {
+                final PageSource<R> toClose = source;
+                source = null;
+                toClose.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+
+/**
+ * Registre des datatables de l'application, declarés au demarrage: entité (avec son DAO) et colonnes (paths,
+ * cherchables, ordonnables). Le {@link #warmUp()} valide chaque path avec le metamodel puis execute des requetes
+ * representatives (page, ordre, filtre global, filtre par colonne, avec leurs counts) pour que les lookups du
+ * metamodel, la traduction des requetes par le provider et la compilation JIT ne soient pas faits par les premiers
+ * utilisateurs aprés un deploiement. {@link #isReady()} n'est <code>true</code> qu'aprés un warm-up sans erreurs.
+ *
+ * <pre>
+ * final DatatableRegistry registry = new DatatableRegistry();
+ * registry.register("orders", ordersDAO, new DatatableQuery&lt;Order, Order&gt;()
+ *     .addColumn(new DatatableColumn("reference", "reference", true, true, null),
+ *         new DatatableColumn("customer", "customer.name", true, true, null)));
+ * registry.warmUpAsync(executor);
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public class DatatableRegistry {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Valeur des filtres des requetes de warm-up
+     */
+    static final String WARM_UP_SEARCH = "a";
+
+    private final Map<String, Definition<?>> definitions = new LinkedHashMap<String, Definition<?>>();
+
+    private int warmUpIterations = 3;
+
+    private volatile boolean ready;
+
+    private volatile List<String> failures = Collections.emptyList();
+
+    /**
+     * Declare un datatable
+     *
+     * @param id
+     *            identifiant du datatable
+     * @param datatableDAO
+     *            DAO de l'entité
+     * @param definition
+     *            requete de reference: colonnes, ordre par defaut, type de retour
+     * @return this
+     */
+    public synchronized <T> DatatableRegistry register(final String id, final DatatableDAOImpl<T> datatableDAO,
+        final DatatableQuery<?, T> definition) {
+        if (definitions.containsKey(id)) {
+            throw new IllegalArgumentException("Datatable deja declaré: " + id);
+        }
+        definitions.put(id, new Definition<T>(datatableDAO, CompiledDatatableQuery.of(definition)));
+        ready = false;
+        return this;
+    }
+
+    /**
+     * Cree une requete pour le datatable, avec les colonnes et l'ordre de sa definition
+     *
+     * @param id
+     *            identifiant du datatable
+     * @return une nouvelle requete
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <R, T> DatatableQuery<R, T> newQuery(final String id) {
+        return (DatatableQuery<R, T>) getDefinition(id).query.toQuery();
+    }
+
+    /**
+     * @param id
+     *            identifiant du datatable
+     * @return le DAO du datatable
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> DatatableDAOImpl<T> getDAO(final String id) {
+        return (DatatableDAOImpl<T>) getDefinition(id).datatableDAO;
+    }
+
+    private Definition<?> getDefinition(final String id) {
+        final Definition<?> ret = definitions.get(id);
+        if (ret == null) {
+            throw new IllegalArgumentException("Datatable inconnu: " + id);
+        }
+        return ret;
+    }
+
+    /**
+     * Valide et execute les requetes de warm-up de tous les datatables
+     *
+     * @return <code>true</code> si tous les datatables sont valides et ont été executés sans erreur
+     */
+    public boolean warmUp() {
+        final Map<String, Definition<?>> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<String, Definition<?>>(definitions);
+        }
+        final long start = System.nanoTime();
+        final List<String> errors = new ArrayList<String>();
+        for (final Map.Entry<String, Definition<?>> definition : snapshot.entrySet()) {
+            try {
+                definition.getValue().warmUp(warmUpIterations, errors, definition.getKey());
+            } catch (final RuntimeException ex) {
+                LOGGER.log(Level.SEVERE, "Datatable warm-up failed: " + definition.getKey(), ex);
+                errors.add(definition.getKey() + ": " + ex.getMessage());
+            }
+        }
+        synchronized (this) {
+            failures = Collections.unmodifiableList(errors);
+            ready = errors.isEmpty() && definitions.equals(snapshot);
+        }
+        LOGGER.log(Level.INFO, "Datatable warm-up: {0} tables in {1} ms, {2} errors", new Object[] {
+            snapshot.size(), (System.nanoTime() - start) / 1000000, errors.size() });
+        return errors.isEmpty();
+    }
+
+    /**
+     * Lance le warm-up dans l'executor specifié
+     *
+     * @param executor
+     *            executor du warm-up
+     * @return le resultat du {@link #warmUp()}
+     */
+    public CompletableFuture<Boolean> warmUpAsync(final Executor executor) {
+        return CompletableFuture.supplyAsync(this::warmUp, executor);
+    }
+
+    /**
+     * @return <code>true</code> si le dernier warm-up a fini sans erreurs et qu'aucun datatable n'a été declaré depuis
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return les erreurs du dernier warm-up
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @param warmUpIterations
+     *            nombre d'executions de chaque requete de warm-up (3 par defaut)
+     */
+    public void setWarmUpIterations(final int warmUpIterations) {
+        if (warmUpIterations <= 0) {
+            throw new IllegalArgumentException("Nombre d'executions invalide: " + warmUpIterations);
+        }
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    /**
+     * Datatable declaré
+     */
+    private static class Definition<T> {
+
+        private final DatatableDAOImpl<T> datatableDAO;
+
+        private final CompiledDatatableQuery<?, T> query;
+
+        private Definition(final DatatableDAOImpl<T> datatableDAO, final CompiledDatatableQuery<?, T> query) {
+            this.datatableDAO = datatableDAO;
+            this.query = query;
+        }
+
+        private void warmUp(final int iterations, final List<String> errors, final String id) {
+            // validation des paths
+            final Set<String> paths = new LinkedHashSet<String>();
+            for (final CompiledDatatableQuery.Column column : query.getColumns()) {
+                if (column.getData() != null && column.getData().length() > 0) {
+                    paths.add(column.getData());
+                }
+            }
+            if (query.getGroupByColumns() != null) {
+                for (final DatatableColumn column : query.getGroupByColumns()) {
+                    paths.add(column.getData());
+                }
+            }
+            final Map<String, Class<?>> types = new LinkedHashMap<String, Class<?>>();
+            for (final String path : paths) {
+                try {
+                    types.putAll(datatableDAO.resolvePaths(Collections.singleton(path)));
+                } catch (final IllegalArgumentException ex) {
+                    errors.add(id + ": " + ex.getMessage());
+                }
+            }
+            if (types.size() < paths.size()) {
+                return;
+            }
+
+            // requetes representatives
+            final List<DatatableQuery<?, T>> queries = new ArrayList<DatatableQuery<?, T>>();
+            queries.add(query.toQuery());
+            final DatatableQuery<?, T> globalSearch = query.toQuery();
+            globalSearch.setSearch(new DatatableSearch(WARM_UP_SEARCH, false));
+            queries.add(globalSearch);
+            for (int i = 0; i < query.getColumns().size(); i++) {
+                final CompiledDatatableQuery.Column column = query.getColumns().get(i);
+                if (column.isSearchable() && types.get(column.getData()) == String.class) {
+                    final DatatableQuery<?, T> columnSearch = query.toQuery();
+                    columnSearch.getColumns().get(i).setSearch(new DatatableSearch(WARM_UP_SEARCH, false));
+                    queries.add(columnSearch);
+                }
+            }
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                for (final DatatableQuery<?, T> warmUpQuery : queries) {
+                    final DatatableResult<?> result = datatableDAO.findAll(warmUpQuery);
+                    if (result.getError() != null) {
+                        errors.add(id + ": " + result.getError());
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
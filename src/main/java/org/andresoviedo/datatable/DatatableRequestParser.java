@@ -0,0 +1,268 @@
+package org.andresoviedo.datatable;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableOrder;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+
+/**
+ * Parser des parametres HTTP du protocole DataTables server-side (<code>draw</code>, <code>start</code>,
+ * <code>length</code>, <code>search[value]</code>, <code>columns[i][data]</code>,
+ * <code>columns[i][search][value]</code>, <code>order[i][column]</code>...), en une seule passe et sans binder
+ * reflectif. Les autres parametres sont copiés dans les {@link DatatableQuery#getExtraProps()} (premiere valeur), sauf
+ * <code>version</code> qui est la {@link DatatableQuery#getVersion()} et les propriétés reservées
+ * <code>datatable.*</code> (tenant, routage...) qui sont positionnées par le serveur: seul le format du resultat
+ * ({@link DatatableColumnarEncoder#FORMAT}) peut etre demandé par le client.
+ * <p>
+ * Les index sont validés: colonnes et ordres sans trous, au plus {@link #MAX_COLUMNS} colonnes, ordres sur des
+ * colonnes existantes avec une direction <code>asc</code> ou <code>desc</code>. Une colonne sans <code>data</code>
+ * (colonne calculée par la vue) n'est ni cherchable ni ordonnable. Une requete invalide leve une
+ * {@link IllegalArgumentException}.
+ *
+ * <pre>
+ * final DatatableQuery&lt;Order, Order&gt; input = DatatableRequestParser.parse(request.getParameterMap());
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public final class DatatableRequestParser {
+
+    /**
+     * Nombre maximum de colonnes d'une requete
+     */
+    public static final int MAX_COLUMNS = 256;
+
+    private static final String COLUMNS = "columns[";
+
+    private static final String ORDER = "order[";
+
+    /**
+     * Prefixe des extra properties reservées au serveur
+     */
+    private static final String RESERVED = "datatable.";
+
+    private DatatableRequestParser() {
+        // abstract
+    }
+
+    /**
+     * @param parameters
+     *            parametres de la requete HTTP, par exemple <code>ServletRequest.getParameterMap()</code>
+     * @return la requete du datatable
+     * @throws IllegalArgumentException
+     *             si un parametre est invalide
+     */
+    public static <R, E> DatatableQuery<R, E> parse(final Map<String, String[]> parameters) {
+        final Parser<R, E> parser = new Parser<R, E>();
+        for (final Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            final String[] values = parameter.getValue();
+            parser.parameter(parameter.getKey(), values == null || values.length == 0 ? "" : values[0]);
+        }
+        return parser.build();
+    }
+
+    /**
+     * @param body
+     *            corps de la requete HTTP en <code>application/x-www-form-urlencoded</code> (UTF-8), ou query string
+     * @return la requete du datatable
+     * @throws IllegalArgumentException
+     *             si un parametre est invalide
+     */
+    public static <R, E> DatatableQuery<R, E> parse(final String body) {
+        final Parser<R, E> parser = new Parser<R, E>();
+        int start = 0;
+        while (start < body.length()) {
+            int end = body.indexOf('&', start);
+            if (end < 0) {
+                end = body.length();
+            }
+            if (end > start) {
+                final int equals = body.indexOf('=', start);
+                if (equals < 0 || equals > end) {
+                    parser.parameter(decode(body, start, end), "");
+                } else {
+                    parser.parameter(decode(body, start, equals), decode(body, equals + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+        return parser.build();
+    }
+
+    /**
+     * Decode une partie du corps, sans decodage si elle n'a pas de caracteres encodés
+     */
+    private static String decode(final String body, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = body.charAt(i);
+            if (c == '%' || c == '+') {
+                try {
+                    return URLDecoder.decode(body.substring(start, end), StandardCharsets.UTF_8);
+                } catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Parametre mal encodé: " + body.substring(start, end), ex);
+                }
+            }
+        }
+        return body.substring(start, end);
+    }
+
+    /**
+     * Etat du parsing d'une requete
+     */
+    private static class Parser<R, E> {
+
+        private final DatatableQuery<R, E> query = new DatatableQuery<R, E>();
+
+        private final List<DatatableColumn> columns = new ArrayList<DatatableColumn>();
+
+        private final List<DatatableOrder> orders = new ArrayList<DatatableOrder>();
+
+        private void parameter(final String name, final String value) {
+            if (name.startsWith(COLUMNS)) {
+                column(name, value);
+            } else if (name.startsWith(ORDER)) {
+                order(name, value);
+            } else if ("draw".equals(name)) {
+                query.setDraw(parseInt(name, value, 0));
+            } else if ("start".equals(name)) {
+                query.setStart(parseInt(name, value, 0));
+            } else if ("length".equals(name)) {
+                query.setLength(parseInt(name, value, -1));
+            } else if ("search[value]".equals(name)) {
+                query.getSearch().setValue(value);
+            } else if ("search[regex]".equals(name)) {
+                query.getSearch().setRegex(Boolean.valueOf(value));
+            } else if ("version".equals(name)) {
+                query.setVersion(value.length() == 0 ? null : value);
+            } else if (!name.startsWith("_")
+                && (!name.startsWith(RESERVED) || DatatableColumnarEncoder.FORMAT.equals(name))) {
+                // "_" est l'anti-cache de jQuery
+                query.getExtraProps().put(name, value);
+            }
+        }
+
+        private void column(final String name, final String value) {
+            final int end = name.indexOf(']', COLUMNS.length());
+            final int index = parseIndex(name, COLUMNS.length(), end);
+            while (columns.size() <= index) {
+                columns.add(null);
+            }
+            DatatableColumn column = columns.get(index);
+            if (column == null) {
+                column = new DatatableColumn();
+                columns.set(index, column);
+            }
+            final int property = end + 1;
+            if (name.startsWith("[data]", property)) {
+                column.setData(value);
+            } else if (name.startsWith("[name]", property)) {
+                column.setName(value);
+            } else if (name.startsWith("[searchable]", property)) {
+                column.setSearchable(Boolean.valueOf(value));
+            } else if (name.startsWith("[orderable]", property)) {
+                column.setOrderable(Boolean.valueOf(value));
+            } else if (name.startsWith("[search][value]", property)) {
+                getSearch(column).setValue(value);
+            } else if (name.startsWith("[search][regex]", property)) {
+                getSearch(column).setRegex(Boolean.valueOf(value));
+            }
+            // les autres proprietés (plugins DataTables) sont ignorées
+        }
+
+        private void order(final String name, final String value) {
+            final int end = name.indexOf(']', ORDER.length());
+            final int index = parseIndex(name, ORDER.length(), end);
+            while (orders.size() <= index) {
+                orders.add(null);
+            }
+            DatatableOrder order = orders.get(index);
+            if (order == null) {
+                order = new DatatableOrder();
+                orders.set(index, order);
+            }
+            final int property = end + 1;
+            if (name.startsWith("[column]", property)) {
+                order.setColumn(parseInt(name, value, 0));
+            } else if (name.startsWith("[dir]", property)) {
+                if ("asc".equalsIgnoreCase(value)) {
+                    order.setDir("asc");
+                } else if ("desc".equalsIgnoreCase(value)) {
+                    order.setDir("desc");
+                } else {
+                    throw new IllegalArgumentException("Direction invalide: " + name + "=" + value);
+                }
+            }
+        }
+
+        private DatatableQuery<R, E> build() {
+            for (int i = 0; i < columns.size(); i++) {
+                final DatatableColumn column = columns.get(i);
+                if (column == null) {
+                    throw new IllegalArgumentException("Colonne " + i + " absente");
+                }
+                if (column.getData() == null || column.getData().length() == 0) {
+                    column.setSearchable(false);
+                    column.setOrderable(false);
+                }
+            }
+            for (int i = 0; i < orders.size(); i++) {
+                final DatatableOrder order = orders.get(i);
+                if (order == null || order.getColumn() == null) {
+                    throw new IllegalArgumentException("Ordre " + i + " absent");
+                }
+                if (order.getColumn() >= columns.size()) {
+                    throw new IllegalArgumentException("Ordre " + i + " sur une colonne inconnue: " + order.getColumn());
+                }
+                if (order.getDir() == null) {
+                    order.setDir("asc");
+                }
+            }
+            query.setColumns(columns);
+            query.setOrder(orders);
+            return query;
+        }
+
+        private static DatatableSearch getSearch(final DatatableColumn column) {
+            if (column.getSearch() == null) {
+                column.setSearch(new DatatableSearch("", false));
+            }
+            return column.getSearch();
+        }
+
+        private static int parseIndex(final String name, final int start, final int end) {
+            if (end <= start || end - start > 3) {
+                throw new IllegalArgumentException("Index invalide: " + name);
+            }
+            int ret = 0;
+            for (int i = start; i < end; i++) {
+                final char c = name.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Index invalide: " + name);
+                }
+                ret = ret * 10 + (c - '0');
+            }
+            if (ret >= MAX_COLUMNS) {
+                throw new IllegalArgumentException("Index trop grand (max " + MAX_COLUMNS + "): " + name);
+            }
+            return ret;
+        }
+
+        private static int parseInt(final String name, final String value, final int min) {
+            try {
+                final int ret = Integer.parseInt(value.trim());
+                if (ret < min) {
+                    throw new IllegalArgumentException("Valeur invalide: " + name + "=" + value);
+                }
+                return ret;
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException("Valeur invalide: " + name + "=" + value, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.andresoviedo.datatable;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Colonne de recherche dénormalisée d'une entité: un atribut <code>String</code> qui contient les valeurs des
+ * atributs cherchés par le filtre global, en minuscules et sans accents. Le filtre global du datatable est alors un
+ * seul "like" sur cette colonne, sans joins (la colonne peut avoir un index trigram), quand les colonnes cherchables
+ * (<code>searchable</code>) de la requete sont exactement ces paths; sinon un "like" par colonne cherchable.
+ *
+ * <pre>
+ * &#64;EntityListeners(SearchColumnListener.class)
+ * public class Order {
+ *     &#64;DatatableSearchColumn({ "reference", "customer.name", "lines.product" })
+ *     private String searchText;
+ * }
+ * </pre>
+ *
+ * La colonne est mise a jour par le {@link SearchColumnListener}; les lignes existantes par
+ * {@link SearchColumns#backfill(javax.persistence.EntityManagerFactory, Class, int)}.
+ *
+ * @author afoviedo
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DatatableSearchColumn {
+
+    /**
+     * @return paths des atributs cherchés par le filtre global, par exemple "customer.name"
+     */
+    String[] value();
+}
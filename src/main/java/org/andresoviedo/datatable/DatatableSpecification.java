@@ -1,133 +1,206 @@
-package org.andresoviedo.datatable;
-
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
-
-import org.andresoviedo.datatable.dto.DatatableColumn;
-import org.andresoviedo.datatable.dto.DatatableQuery;
-
-/**
- * Spécification JPA d'aprés les parametres du datatable.
- * 
- * @author afoviedo
- * @param <T>
- *            type de l'entité JPA
- */
-public class DatatableSpecification<T> implements Specification<T> {
-
-    /**
-     * Separateur des atributs de l'entité
-     */
-    public static final String ATTRIBUTE_SEPARATOR = ".";
-    /**
-     * Regexp pour trouver des separateurs
-     */
-    public static final String ESCAPED_ATTRIBUTE_SEPARATOR = "\\.";
-    /**
-     * Escape char de valeur "like"(dependant de la base de données)
-     */
-    public static final char ESCAPE_CHAR = '\\';
-
-    private Logger LOGGER = Logger.getLogger("");
-
-    private final DatatableQuery<?, T> input;
-
-    /**
-     * Constructor de l'especification JPA Criteria avec les parametres specifiés
-     * 
-     * @param input
-     *            paramétres: filtres et ordres
-     */
-    DatatableSpecification(final DatatableQuery<?, T> input) {
-        this.input = input;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb) {
-        Predicate predicate = cb.conjunction();
-        predicate = getPredicateColonnes(root, query, cb, predicate);
-        predicate = getPredicateGlobalSearch(root, query, cb, predicate);
-        return predicate;
-    }
-
-    private Predicate getPredicateGlobalSearch(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb,
-        Predicate predicate) {
-        // check whether a global filter value exists
-        final String globalFilterValue = input.getSearch().getValue();
-        if (globalFilterValue != null && globalFilterValue.trim().length() > 0) {
-            LOGGER.fine("filtre global: {"+ globalFilterValue+"}");
-
-            Predicate matchOneColumnPredicate = cb.disjunction();
-            // add a 'WHERE .. LIKE' clause on each searchable column
-            for (final DatatableColumn column : input.getColumns()) {
-                if (column.getSearchable()) {
-                    LOGGER.log(Level.FINE, "filtre global pour colonne: {}", column);
-                    final Expression<String> expression = DatatableHelper.getExpression(root, column.getData(), String.class);
-
-                    matchOneColumnPredicate = cb.or(matchOneColumnPredicate,
-                        cb.like(cb.lower(expression), getLikeFilterValue(globalFilterValue), ESCAPE_CHAR));
-                }
-            }
-            predicate = cb.and(predicate, matchOneColumnPredicate);
-        }
-        return predicate;
-    }
-
-    private Predicate getPredicateColonnes(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb,
-        Predicate predicate) {
-        // check for each searchable column whether a filter value exists
-        for (final DatatableColumn column : input.getColumns()) {
-            final boolean isColumnSearchable =
-                column.getSearchable() && column.getSearch() != null
-                    && hasText(column.getSearch().getValue());
-            if (!isColumnSearchable) {
-                continue;
-            }
-
-            LOGGER.fine("colonne a filtrer: {"+ column+"}");
-
-            // the filter contains only one value, add a 'WHERE .. LIKE'
-            // clause
-            if (isBoolean(column.getSearch().getValue())) {
-                final Expression<Boolean> booleanExpression = DatatableHelper.getExpression(root, column.getData(), Boolean.class);
-                predicate =
-                    cb.and(predicate, cb.equal(booleanExpression, Boolean.valueOf(column.getSearch().getValue())));
-            } else {
-                final Expression<String> stringExpression = DatatableHelper.getExpression(root, column.getData(), String.class);
-                predicate = cb.and(predicate, cb.like(cb.lower(stringExpression),
-                    getLikeFilterValue(column.getSearch().getValue()), ESCAPE_CHAR));
-            }
-
-        }
-        return predicate;
-    }
-
-    private boolean hasText(String value) {
-		return value != null && value.trim().length() > 0;
-	}
-
-	private static boolean isBoolean(final String filterValue) {
-        return "TRUE".equalsIgnoreCase(filterValue) || "FALSE".equalsIgnoreCase(filterValue);
-    }
-
-    /**
-     * Helper pour creer la valeur like '%filterValue%'".
-     * 
-     * @param filterValue
-     *            le valeur a filtrer
-     * @return la valeur du clause where
-     */
-    public static String getLikeFilterValue(final String filterValue) {
-        return "%" + filterValue.toLowerCase().replaceAll("%", "\\\\" + "%").replaceAll("_", "\\\\" + "_") + "%";
-    }
-
-}
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Spécification JPA d'aprés les parametres du datatable.
+ * 
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public class DatatableSpecification<T> implements Specification<T> {
+
+    /**
+     * Separateur des atributs de l'entité
+     */
+    public static final String ATTRIBUTE_SEPARATOR = ".";
+    /**
+     * Regexp pour trouver des separateurs
+     */
+    public static final String ESCAPED_ATTRIBUTE_SEPARATOR = "\\.";
+    /**
+     * Escape char de valeur "like"(dependant de la base de données)
+     */
+    public static final char ESCAPE_CHAR = '\\';
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    private final DatatableQuery<?, T> input;
+
+    /**
+     * Constructor de l'especification JPA Criteria avec les parametres specifiés
+     * 
+     * @param input
+     *            paramétres: filtres et ordres
+     */
+    DatatableSpecification(final DatatableQuery<?, T> input) {
+        this.input = input;
+    }
+
+    /**
+     * @return <code>true</code> si la requete contient au moins un filtre (par colonne ou global)
+     */
+    boolean isFiltering() {
+        if (hasText(input.getSearch().getValue())) {
+            return true;
+        }
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getSearchable() && column.getSearch() != null && hasText(column.getSearch().getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return cette specification si elle a au moins un filtre, sinon <code>null</code>: composée par un "and", elle
+     *         n'ajoute pas de terme neutre (<code>1=1</code>)
+     */
+    Specification<T> getFilter() {
+        return isFiltering() ? this : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Un seul "and" n-aire, sans termes neutres: les egalités (filtres booleans) d'abord, puis les "like", le filtre
+     * global et les sous-requetes "exists". Sans filtre, le predicat est toujours vrai (<code>conjunction</code>).
+     */
+    @Override
+    public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb) {
+        final List<Predicate> equalities = new ArrayList<Predicate>();
+        final List<Predicate> likes = new ArrayList<Predicate>();
+        final List<Predicate> subqueries = new ArrayList<Predicate>();
+        getPredicateColonnes(root, query, cb, equalities, likes, subqueries);
+
+        final List<Predicate> predicates = new ArrayList<Predicate>(equalities);
+        predicates.addAll(likes);
+        predicates.add(getPredicateGlobalSearch(root, query, cb));
+        predicates.addAll(subqueries);
+        final Predicate ret = DatatablePredicates.and(cb, predicates);
+        return ret != null ? ret : cb.conjunction();
+    }
+
+    private Predicate getPredicateGlobalSearch(final Root<T> root, final CriteriaQuery<?> query,
+        final CriteriaBuilder cb) {
+        // check whether a global filter value exists
+        final String globalFilterValue = input.getSearch().getValue();
+        if (globalFilterValue == null || globalFilterValue.trim().length() == 0) {
+            return null;
+        }
+        LOGGER.fine("filtre global: {"+ globalFilterValue+"}");
+
+        // colonne de recherche dénormalisée: un seul "like", sans joins, si elle couvre les colonnes cherchables
+        final String searchAttribute = SearchColumns.getSearchAttribute(root.getJavaType(), input.getColumns());
+        if (searchAttribute != null) {
+            return cb.like(root.<String> get(searchAttribute),
+                getLikeFilterValue(SearchColumns.fold(globalFilterValue)), ESCAPE_CHAR);
+        }
+
+        // add a 'WHERE .. LIKE' clause on each searchable column (une seule fois par colonne)
+        final List<Predicate> matchOneColumn = new ArrayList<Predicate>();
+        final Set<String> columns = new HashSet<String>();
+        for (final DatatableColumn column : input.getColumns()) {
+            if (column.getSearchable() && columns.add(column.getData())) {
+                LOGGER.log(Level.FINE, "filtre global pour colonne: {}", column);
+                matchOneColumn.add(getPredicate(root, query, cb, column.getData(), globalFilterValue, false));
+            }
+        }
+        final Predicate ret = DatatablePredicates.or(cb, matchOneColumn);
+        // aucune colonne cherchable: aucun resultat
+        return ret != null ? ret : cb.disjunction();
+    }
+
+    private void getPredicateColonnes(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb,
+        final List<Predicate> equalities, final List<Predicate> likes, final List<Predicate> subqueries) {
+        // check for each searchable column whether a filter value exists
+        final Set<String> filters = new HashSet<String>();
+        for (final DatatableColumn column : input.getColumns()) {
+            final boolean isColumnSearchable =
+                column.getSearchable() && column.getSearch() != null
+                    && hasText(column.getSearch().getValue());
+            if (!isColumnSearchable) {
+                continue;
+            }
+            final String filterValue = column.getSearch().getValue();
+            if (!filters.add(column.getData() + '=' + filterValue)) {
+                // meme filtre sur la meme colonne
+                continue;
+            }
+
+            LOGGER.fine("colonne a filtrer: {"+ column+"}");
+
+            // the filter contains only one value, add a 'WHERE .. LIKE' (ou '=' pour un boolean) clause
+            final Predicate predicate = getPredicate(root, query, cb, column.getData(), filterValue, true);
+            if (DatatableHelper.isCollectionPath(root, column.getData())) {
+                subqueries.add(predicate);
+            } else if (isBoolean(filterValue)) {
+                equalities.add(predicate);
+            } else {
+                likes.add(predicate);
+            }
+        }
+    }
+
+    /**
+     * Cree le predicat de filtre pour une colonne. Si la colonne est sur une association to-many le predicat est un
+     * "exists" sur une sous-requete correlée au lieu d'un join: la page et le count ont une ligne par entité, pas une
+     * par element de la collection.
+     */
+    private Predicate getPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb,
+        final String columnData, final String filterValue, final boolean allowBoolean) {
+        if (!DatatableHelper.isCollectionPath(root, columnData)) {
+            return getPredicate(root, cb, columnData, filterValue, allowBoolean);
+        }
+        final Subquery<Integer> subquery = query.subquery(Integer.class);
+        final Root<T> correlated = subquery.correlate(root);
+        subquery.select(cb.literal(1)).where(getPredicate(correlated, cb, columnData, filterValue, allowBoolean));
+        return cb.exists(subquery);
+    }
+
+    private Predicate getPredicate(final Root<T> root, final CriteriaBuilder cb, final String columnData,
+        final String filterValue, final boolean allowBoolean) {
+        if (allowBoolean && isBoolean(filterValue)) {
+            final Expression<Boolean> booleanExpression = DatatableHelper.getExpression(root, columnData, Boolean.class);
+            return cb.equal(booleanExpression, Boolean.valueOf(filterValue));
+        }
+        final Expression<String> stringExpression = DatatableHelper.getExpression(root, columnData, String.class);
+        return cb.like(cb.lower(stringExpression), getLikeFilterValue(filterValue), ESCAPE_CHAR);
+    }
+
+    private boolean hasText(String value) {
+		return value != null && value.trim().length() > 0;
+	}
+
+	private static boolean isBoolean(final String filterValue) {
+        return "TRUE".equalsIgnoreCase(filterValue) || "FALSE".equalsIgnoreCase(filterValue);
+    }
+
+    /**
+     * Helper pour creer la valeur like '%filterValue%'".
+     * 
+     * @param filterValue
+     *            le valeur a filtrer
+     * @return la valeur du clause where
+     */
+    public static String getLikeFilterValue(final String filterValue) {
+        return "%" + filterValue.toLowerCase().replaceAll("%", "\\\\" + "%").replaceAll("_", "\\\\" + "_") + "%";
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Fournisseur de l'entity manager utilisé par le {@link DatatableDAOImpl} pour executer toutes les requetes d'un
+ * draw (counts et page). Le DAO appelle toujours {@link #releaseEntityManager(EntityManager)} dans un "finally".
+ *
+ * @see EntityManagerProviders
+ * @author afoviedo
+ */
+public interface EntityManagerProvider {
+
+    /**
+     * Retourne l'entity manager pour executer les requetes du datatable
+     *
+     * @param input
+     *            la requete du datatable, ou <code>null</code> si l'entity manager est pour plusieurs requetes
+     * @return l'entity manager
+     */
+    EntityManager getEntityManager(DatatableQuery<?, ?> input);
+
+    /**
+     * Libere l'entity manager retourné par {@link #getEntityManager(DatatableQuery)}
+     *
+     * @param entityManager
+     *            l'entity manager
+     */
+    void releaseEntityManager(EntityManager entityManager);
+
+    /**
+     * Indique si les entity managers sont propres aux requetes du datatable, et les requetes peuvent donc etre
+     * executées en lecture seule. Par defaut <code>false</code>: un entity manager partagé avec l'appelant ne doit
+     * pas avoir d'entités en lecture seule, elles ne seraient pas mises a jour par son flush.
+     *
+     * @return <code>true</code> si les requetes peuvent etre en lecture seule
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Signale une erreur d'une requete executée avec l'entity manager, avant sa liberation. Par defaut rien.
+     *
+     * @param entityManager
+     *            l'entity manager
+     * @param ex
+     *            l'erreur
+     */
+    default void reportFailure(final EntityManager entityManager, final PersistenceException ex) {
+        // rien
+    }
+}
@@ -0,0 +1,87 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Factory des {@link EntityManagerProvider}
+ *
+ * @author afoviedo
+ */
+public final class EntityManagerProviders {
+
+    private EntityManagerProviders() {
+        // abstract
+    }
+
+    /**
+     * Un entity manager par draw: créé avant la premiere requete et fermé aprés la derniere.
+     *
+     * @param entityManagerFactory
+     *            factory des entity managers
+     * @return le provider
+     */
+    public static EntityManagerProvider perDraw(final EntityManagerFactory entityManagerFactory) {
+        return new PerDrawEntityManagerProvider(entityManagerFactory);
+    }
+
+    /**
+     * L'entity manager de l'appelant (par exemple celui de la transaction en cours), qui n'est jamais fermé par le
+     * DAO. Les requetes ne sont pas en lecture seule (sauf {@link DatatableDAOImpl#setReadOnly(Boolean)}): les
+     * entités retournées puis modifiées par l'appelant sont mises a jour par le flush de cet entity manager.
+     *
+     * @param entityManager
+     *            l'entity manager de l'appelant
+     * @return le provider
+     */
+    public static EntityManagerProvider shared(final EntityManager entityManager) {
+        return new SharedEntityManagerProvider(entityManager);
+    }
+
+    private static class PerDrawEntityManagerProvider implements EntityManagerProvider {
+
+        private final EntityManagerFactory entityManagerFactory;
+
+        private PerDrawEntityManagerProvider(final EntityManagerFactory entityManagerFactory) {
+            this.entityManagerFactory = entityManagerFactory;
+        }
+
+        @Override
+        public EntityManager getEntityManager(final DatatableQuery<?, ?> input) {
+            return entityManagerFactory.createEntityManager();
+        }
+
+        @Override
+        public void releaseEntityManager(final EntityManager entityManager) {
+            if (entityManager.isOpen()) {
+                entityManager.close();
+            }
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+
+    private static class SharedEntityManagerProvider implements EntityManagerProvider {
+
+        private final EntityManager entityManager;
+
+        private SharedEntityManagerProvider(final EntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+
+        @Override
+        public EntityManager getEntityManager(final DatatableQuery<?, ?> input) {
+            return entityManager;
+        }
+
+        @Override
+        public void releaseEntityManager(final EntityManager entityManager) {
+            // l'entity manager appartient a l'appelant
+        }
+    }
+}
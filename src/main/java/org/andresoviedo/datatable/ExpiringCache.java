@@ -0,0 +1,124 @@
+package org.andresoviedo.datatable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache en memoire avec une durée de vie (TTL) et un nombre maximum d'entrées. Quand le cache est plein, les entrées
+ * expirées sont purgées et, si il est encore plein, la nouvelle entrée n'est pas ajoutée.
+ *
+ * @author afoviedo
+ * @param <K>
+ *            type des clés
+ * @param <V>
+ *            type des valeurs
+ */
+class ExpiringCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    /**
+     * @param ttl
+     *            durée de vie des entrées
+     * @param unit
+     *            unité de la durée de vie
+     * @param maxEntries
+     *            nombre maximum d'entrées
+     */
+    ExpiringCache(final long ttl, final TimeUnit unit, final int maxEntries) {
+        if (ttl <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("TTL et taille du cache doivent etre positifs");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param key
+     *            la clé
+     * @return la valeur, ou <code>null</code> si elle n'est pas dans le cache ou si elle a expiré
+     */
+    V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @param key
+     *            la clé
+     * @return <code>true</code> si la clé est dans le cache et n'a pas expiré
+     */
+    boolean containsKey(final K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key
+     *            la clé
+     * @param value
+     *            la valeur
+     * @return <code>true</code> si la valeur a été ajoutée
+     */
+    boolean put(final K key, final V value) {
+        final long now = System.nanoTime();
+        if (entries.size() >= maxEntries) {
+            purge(now);
+            if (entries.size() >= maxEntries) {
+                return false;
+            }
+        }
+        entries.put(key, new Entry<V>(value, now + ttlNanos));
+        return true;
+    }
+
+    /**
+     * Vide le cache
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return nombre d'entrées (y compris celles expirées pas encore purgées)
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private void purge(final long now) {
+        for (final Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.andresoviedo.datatable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * DAO de datatable en JDBC, sans JPA: les colonnes sont mappées vers SQL par un {@link JdbcTableMapping} et les
+ * lignes sont converties directement en projections, sans entités ni contexte de persistance. Les resultats
+ * (counts, filtres, ordre, page, group by, erreurs) sont les memes que ceux du {@link DatatableDAOImpl}. La colonne de
+ * recherche dénormalisée du filtre global est declarée sur le mapping
+ * ({@link JdbcTableMapping#searchColumn(String, String...)}), pas lue de l'annotation {@link DatatableSearchColumn}.
+ * <p>
+ * Les requetes sont paramétrées: le texte SQL ne depend que de la forme de la requete. Les prepared statements sont
+ * réutilisés sur la connexion (batch, publishers) et le cache de statements du pool ou du driver les réutilise entre
+ * draws. Les specifications additionnelles doivent etre des {@link JdbcSpecification}.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type des lignes sans projection
+ */
+public class JdbcDatatableDAO<T> implements DatatableDAO<T> {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    private static final int MAX_DEFAULT_FETCH_SIZE = 500;
+
+    private final DataSource dataSource;
+
+    private final JdbcTableMapping mapping;
+
+    private final JdbcDialect dialect;
+
+    private final JdbcRowMapper<T> rowMapper;
+
+    private int publishChunkSize = DEFAULT_PUBLISH_CHUNK_SIZE;
+
+    private int fetchSize;
+
+    /**
+     * @param dataSource
+     *            la source des connexions
+     * @param mapping
+     *            le mapping des colonnes
+     * @param dialect
+     *            le dialecte SQL
+     * @param rowMapper
+     *            conversion des lignes pour les requetes sans classe de projection (colonnes de l'entité racine du
+     *            mapping, dans l'ordre de declaration), ou <code>null</code> si toutes les requetes ont une projection
+     */
+    public JdbcDatatableDAO(final DataSource dataSource, final JdbcTableMapping mapping, final JdbcDialect dialect,
+        final JdbcRowMapper<T> rowMapper) {
+        this.dataSource = dataSource;
+        this.mapping = mapping;
+        this.dialect = dialect;
+        this.rowMapper = rowMapper;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input) {
+        return findAll(input, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification) {
+        return findAll(input, additionalSpecification, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        final Session session = new Session();
+        try {
+            return findAll(session, input, additionalSpecification, preFilteringSpecification);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Toutes les requetes sont executées sur la meme connexion: les requetes de meme forme réutilisent le meme
+     * prepared statement.
+     */
+    @Override
+    public <R> List<DatatableResult<R>> findAllBatch(final List<DatatableQuery<R, T>> inputs) {
+        final List<DatatableResult<R>> ret = new ArrayList<DatatableResult<R>>(inputs.size());
+        final Session session = new Session();
+        try {
+            for (final DatatableQuery<R, T> input : inputs) {
+                ret.add(findAll(session, input, null, null));
+            }
+        } finally {
+            session.close();
+        }
+        return ret;
+    }
+
+    private <R> DatatableResult<R> findAll(final Session session, final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        final JdbcSpecification<T> additional = toJdbc(additionalSpecification);
+        final JdbcSpecification<T> preFiltering = toJdbc(preFilteringSpecification);
+
+        final DatatableResult<R> output = new DatatableResult<R>();
+        output.setDraw(input.getDraw());
+        if (input.getLength() == 0) {
+            return output;
+        }
+
+        try {
+            // Compter nombre de registres
+            output.setRecordsTotal(count(session, JdbcSqlBuilder.count(mapping, dialect, input, false, preFiltering)));
+            LOGGER.log(Level.INFO, "Total prefiltered: {0}", output.getRecordsTotal());
+            if (output.getRecordsTotal() == 0) {
+                return output;
+            }
+
+            // Compter le nombre de registres avec les filtres
+            if (additional == null && !new DatatableSpecification<T>(input).isFiltering()) {
+                output.setRecordsFiltered(output.getRecordsTotal());
+            } else {
+                output.setRecordsFiltered(count(session,
+                    JdbcSqlBuilder.count(mapping, dialect, input, true, additional, preFiltering)));
+            }
+            LOGGER.log(Level.INFO, "Total filtered: {0}", output.getRecordsFiltered());
+
+            // Executer la requete
+            output.setData(findPage(session, input, DatatableHelper.getPageable(input), additional, preFiltering));
+
+        } catch (final IllegalStateException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        } catch (final SQLException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        }
+
+        return output;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Chaque subscription a sa connexion: tous les blocs sont lus avec le meme prepared statement.
+     */
+    @Override
+    public <R> Flow.Publisher<R> publish(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final Executor executor) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        final JdbcSpecification<T> additional = toJdbc(additionalSpecification);
+        final JdbcSpecification<T> preFiltering = toJdbc(preFilteringSpecification);
+
+        final Pageable pageable = DatatableHelper.getPageable(input);
+        return new DatatablePublisher<R>(() -> new DatatablePublisher.PageSource<R>() {
+
+            private final Session session = new Session();
+
+            @Override
+            public List<R> fetch(final int offset, final int maxResults) {
+                try {
+                    return findPage(session, input,
+                        DatatableHelper.getPageable(offset, maxResults, pageable.getSort()), additional, preFiltering);
+                } catch (final SQLException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public void close() {
+                session.close();
+            }
+        }, pageable.getOffset(), pageable.getPageSize(), publishChunkSize, executor);
+    }
+
+    /**
+     * @param publishChunkSize
+     *            nombre de lignes lues par requete pour les publishers
+     */
+    public void setPublishChunkSize(final int publishChunkSize) {
+        if (publishChunkSize <= 0) {
+            throw new IllegalArgumentException("Taille de bloc invalide: " + publishChunkSize);
+        }
+        this.publishChunkSize = publishChunkSize;
+    }
+
+    /**
+     * @param fetchSize
+     *            fetch size JDBC, ou <code>0</code> (par defaut) pour la taille de la page, limité a
+     *            {@value #MAX_DEFAULT_FETCH_SIZE}
+     */
+    public void setFetchSize(final int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size negatif: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    private long count(final Session session, final JdbcSqlBuilder query) throws SQLException {
+        final PreparedStatement statement = session.prepare(query);
+        final ResultSet rs = statement.executeQuery();
+        try {
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            rs.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> List<R> findPage(final Session session, final DatatableQuery<R, T> input, final Pageable pageable,
+        final JdbcSpecification<T> additional, final JdbcSpecification<T> preFiltering) throws SQLException {
+        final JdbcRowMapper<R> mapper;
+        if (input.getQueryClass() != null) {
+            mapper = JdbcRowMappers.constructor(input.getQueryClass());
+        } else if (rowMapper != null) {
+            mapper = (JdbcRowMapper<R>) rowMapper;
+        } else {
+            throw new IllegalStateException("Pas de classe de projection ni de row mapper configuré");
+        }
+
+        final PreparedStatement statement =
+            session.prepare(JdbcSqlBuilder.page(mapping, dialect, input, pageable, additional, preFiltering));
+        if (fetchSize > 0) {
+            statement.setFetchSize(fetchSize);
+        } else if (pageable.getPageSize() > 0) {
+            statement.setFetchSize(Math.min(pageable.getPageSize(), MAX_DEFAULT_FETCH_SIZE));
+        }
+        final List<R> ret = new ArrayList<R>(Math.min(pageable.getPageSize(), MAX_DEFAULT_FETCH_SIZE));
+        final ResultSet rs = statement.executeQuery();
+        try {
+            while (rs.next()) {
+                ret.add(mapper.mapRow(rs));
+            }
+        } finally {
+            rs.close();
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JdbcSpecification<T> toJdbc(final Specification<T> specification) {
+        if (specification == null || specification instanceof JdbcSpecification) {
+            return (JdbcSpecification<T>) specification;
+        }
+        throw new IllegalArgumentException("Specification non supportée par le DAO JDBC (JdbcSpecification attendue): "
+            + specification.getClass().getName());
+    }
+
+    /**
+     * Connexion et cache de prepared statements (par texte SQL) de la connexion. La connexion est ouverte a la
+     * premiere requete.
+     */
+    private class Session {
+
+        private Connection connection;
+
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+        PreparedStatement prepare(final JdbcSqlBuilder query) throws SQLException {
+            if (connection == null) {
+                connection = dataSource.getConnection();
+            }
+            PreparedStatement ret = statements.get(query.getSql());
+            if (ret == null) {
+                LOGGER.log(Level.FINE, "Prepare: {0}", query.getSql());
+                ret = connection.prepareStatement(query.getSql());
+                statements.put(query.getSql(), ret);
+            } else {
+                ret.clearParameters();
+            }
+            final List<Object> parameters = query.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                ret.setObject(i + 1, parameters.get(i));
+            }
+            return ret;
+        }
+
+        void close() {
+            for (final PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (final SQLException ex) {
+                    LOGGER.log(Level.WARNING, "Close statement failed: " + ex.getMessage(), ex);
+                }
+            }
+            statements.clear();
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (final SQLException ex) {
+                    LOGGER.log(Level.WARNING, "Close connection failed: " + ex.getMessage(), ex);
+                }
+                connection = null;
+            }
+        }
+    }
+}
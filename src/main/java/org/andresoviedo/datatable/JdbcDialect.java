@@ -0,0 +1,96 @@
+package org.andresoviedo.datatable;
+
+import java.util.List;
+
+/**
+ * Dialecte SQL du {@link JdbcDatatableDAO}: pagination et caractere d'echappement des "like".
+ *
+ * @author afoviedo
+ */
+public enum JdbcDialect {
+
+    /**
+     * <code>LIMIT ? OFFSET ?</code>: PostgreSQL, H2, HSQLDB, SQLite
+     */
+    LIMIT_OFFSET {
+        @Override
+        void appendPage(final StringBuilder sql, final List<Object> parameters, final int offset, final int limit) {
+            sql.append(" LIMIT ? OFFSET ?");
+            parameters.add(limit);
+            parameters.add(offset);
+        }
+    },
+
+    /**
+     * <code>LIMIT ?, ?</code>, backslash echappé dans les litteraux: MySQL, MariaDB
+     */
+    MYSQL {
+        @Override
+        void appendPage(final StringBuilder sql, final List<Object> parameters, final int offset, final int limit) {
+            sql.append(" LIMIT ?, ?");
+            parameters.add(offset);
+            parameters.add(limit);
+        }
+
+        @Override
+        String getEscapeLiteral() {
+            return "'\\\\'";
+        }
+    },
+
+    /**
+     * <code>OFFSET ? ROWS FETCH NEXT ? ROWS ONLY</code> (SQL:2008): Oracle 12c+, DB2, Derby
+     */
+    OFFSET_FETCH {
+        @Override
+        void appendPage(final StringBuilder sql, final List<Object> parameters, final int offset, final int limit) {
+            sql.append(" OFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+            parameters.add(offset);
+            parameters.add(limit);
+        }
+    },
+
+    /**
+     * <code>OFFSET ? ROWS FETCH NEXT ? ROWS ONLY</code> avec un "order by" obligatoire: SQL Server 2012+
+     */
+    SQLSERVER {
+        @Override
+        void appendPage(final StringBuilder sql, final List<Object> parameters, final int offset, final int limit) {
+            OFFSET_FETCH.appendPage(sql, parameters, offset, limit);
+        }
+
+        @Override
+        String getDefaultOrderBy() {
+            return "(SELECT NULL)";
+        }
+    };
+
+    /**
+     * Ajoute la clause de pagination a la requete
+     *
+     * @param sql
+     *            la requete
+     * @param parameters
+     *            les parametres de la requete
+     * @param offset
+     *            index du premier registre
+     * @param limit
+     *            nombre maximum de registres
+     */
+    abstract void appendPage(StringBuilder sql, List<Object> parameters, int offset, int limit);
+
+    /**
+     * @return le litteral SQL du caractere d'echappement {@link DatatableSpecification#ESCAPE_CHAR}
+     */
+    String getEscapeLiteral() {
+        return "'\\'";
+    }
+
+    /**
+     * @return l'expression "order by" a utiliser pour paginer une requete sans ordre, ou <code>null</code> si le
+     *         dialecte n'en a pas besoin
+     */
+    String getDefaultOrderBy() {
+        return null;
+    }
+}
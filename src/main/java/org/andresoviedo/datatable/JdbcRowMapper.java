@@ -0,0 +1,24 @@
+package org.andresoviedo.datatable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Conversion d'une ligne du {@link ResultSet} en objet, pour le {@link JdbcDatatableDAO}
+ *
+ * @see JdbcRowMappers
+ * @author afoviedo
+ * @param <R>
+ *            type des objets
+ */
+public interface JdbcRowMapper<R> {
+
+    /**
+     * @param rs
+     *            le resultat, positionné sur la ligne a convertir
+     * @return l'objet de la ligne
+     * @throws SQLException
+     *             erreur de lecture du resultat
+     */
+    R mapRow(ResultSet rs) throws SQLException;
+}
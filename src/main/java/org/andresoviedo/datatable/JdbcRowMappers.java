@@ -0,0 +1,261 @@
+package org.andresoviedo.datatable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Implementations de {@link JdbcRowMapper}
+ *
+ * @author afoviedo
+ */
+public final class JdbcRowMappers {
+
+    private static final ConcurrentMap<Class<?>, JdbcRowMapper<?>> CONSTRUCTOR_MAPPERS =
+        new ConcurrentHashMap<Class<?>, JdbcRowMapper<?>>();
+
+    private JdbcRowMappers() {
+    }
+
+    /**
+     * Projection par constructeur, comme le "select new" de JPA: la ligne est passée au constructeur qui a le meme
+     * nombre de parametres que de colonnes et des types compatibles avec les colonnes. Les valeurs numeriques sont
+     * converties au type du parametre.
+     *
+     * @param type
+     *            classe de projection
+     * @return le mapper
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> JdbcRowMapper<R> constructor(final Class<R> type) {
+        JdbcRowMapper<R> ret = (JdbcRowMapper<R>) CONSTRUCTOR_MAPPERS.get(type);
+        if (ret == null) {
+            ret = new ConstructorRowMapper<R>(type);
+            final JdbcRowMapper<R> previous = (JdbcRowMapper<R>) CONSTRUCTOR_MAPPERS.putIfAbsent(type, ret);
+            if (previous != null) {
+                ret = previous;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Projection par constructeur. Le constructeur est choisi par signature de resultat (nombre et classes des
+     * colonnes d'apres le {@link ResultSetMetaData}), pas d'apres les valeurs d'une ligne: une valeur
+     * <code>null</code> ne peut pas choisir une autre surcharge, et des requetes avec d'autres colonnes sur la meme
+     * classe ont chacune leur constructeur.
+     */
+    private static class ConstructorRowMapper<R> implements JdbcRowMapper<R> {
+
+        private final Class<R> type;
+
+        /**
+         * Constructeurs par signature de resultat
+         */
+        private final ConcurrentMap<String, Constructor<R>> constructors =
+            new ConcurrentHashMap<String, Constructor<R>>();
+
+        /**
+         * Dernier resultat lu et son constructeur, pour ne pas recalculer la signature a chaque ligne
+         */
+        private volatile Resolved<R> last;
+
+        private ConstructorRowMapper(final Class<R> type) {
+            this.type = type;
+        }
+
+        @Override
+        public R mapRow(final ResultSet rs) throws SQLException {
+            final ResultSetMetaData metaData = rs.getMetaData();
+            final int columnCount = metaData.getColumnCount();
+            final Object[] values = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = rs.getObject(i + 1);
+            }
+            Resolved<R> current = last;
+            if (current == null || current.metaData != metaData) {
+                current = new Resolved<R>(metaData, getConstructor(metaData, values));
+                last = current;
+            }
+            final Class<?>[] parameterTypes = current.constructor.getParameterTypes();
+            final Object[] args = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                args[i] = convert(values[i], parameterTypes[i]);
+            }
+            try {
+                return current.constructor.newInstance(args);
+            } catch (final InstantiationException ex) {
+                throw new IllegalStateException("Erreur de projection " + type.getName() + ": " + ex.getMessage(), ex);
+            } catch (final IllegalAccessException ex) {
+                throw new IllegalStateException("Erreur de projection " + type.getName() + ": " + ex.getMessage(), ex);
+            } catch (final InvocationTargetException ex) {
+                throw new IllegalStateException("Erreur de projection " + type.getName() + ": "
+                    + ex.getTargetException().getMessage(), ex.getTargetException());
+            }
+        }
+
+        private Constructor<R> getConstructor(final ResultSetMetaData metaData, final Object[] values)
+            throws SQLException {
+            final Class<?>[] columnTypes = new Class<?>[values.length];
+            final StringBuilder signature = new StringBuilder(16 * values.length);
+            for (int i = 0; i < values.length; i++) {
+                final String className = metaData.getColumnClassName(i + 1);
+                columnTypes[i] = loadClass(className);
+                signature.append(className).append(',');
+            }
+            final String key = signature.toString();
+            Constructor<R> ret = constructors.get(key);
+            if (ret == null) {
+                ret = findConstructor(columnTypes, values);
+                final Constructor<R> previous = constructors.putIfAbsent(key, ret);
+                if (previous != null) {
+                    ret = previous;
+                }
+            }
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Constructor<R> findConstructor(final Class<?>[] columnTypes, final Object[] values) {
+            for (final Constructor<?> candidate : type.getConstructors()) {
+                final Class<?>[] parameterTypes = candidate.getParameterTypes();
+                if (parameterTypes.length != values.length) {
+                    continue;
+                }
+                boolean compatible = true;
+                for (int i = 0; compatible && i < values.length; i++) {
+                    compatible = columnTypes[i] != null ? isConvertible(columnTypes[i], parameterTypes[i])
+                        : isConvertible(values[i], parameterTypes[i]);
+                }
+                if (compatible) {
+                    return (Constructor<R>) candidate;
+                }
+            }
+            throw new IllegalStateException("Pas de constructeur public " + type.getName() + " avec " + values.length
+                + " parametres compatibles");
+        }
+
+        private Class<?> loadClass(final String className) {
+            if (className == null) {
+                return null;
+            }
+            try {
+                return Class.forName(className, false, type.getClassLoader());
+            } catch (final ClassNotFoundException ex) {
+                // classe propre au driver: choix d'apres la valeur
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Constructeur choisi pour un resultat
+     */
+    private static class Resolved<R> {
+
+        private final ResultSetMetaData metaData;
+
+        private final Constructor<R> constructor;
+
+        private Resolved(final ResultSetMetaData metaData, final Constructor<R> constructor) {
+            this.metaData = metaData;
+            this.constructor = constructor;
+        }
+    }
+
+    /**
+     * Conversion possible d'une colonne de la classe specifiée vers le type du parametre, comme {@link #convert}
+     */
+    private static boolean isConvertible(final Class<?> columnType, final Class<?> type) {
+        final Class<?> target = wrapper(type);
+        if (target.isAssignableFrom(columnType) || target == String.class) {
+            return true;
+        }
+        if (Number.class.isAssignableFrom(columnType)) {
+            return target == Long.class || target == Integer.class || target == Short.class || target == Byte.class
+                || target == Double.class || target == Float.class || target == BigDecimal.class
+                || target == BigInteger.class || target == Boolean.class;
+        }
+        return columnType == String.class && target.isEnum();
+    }
+
+    private static boolean isConvertible(final Object value, final Class<?> type) {
+        if (value == null) {
+            return !type.isPrimitive();
+        }
+        try {
+            convert(value, type);
+            return true;
+        } catch (final IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object convert(final Object value, final Class<?> type) {
+        if (value == null) {
+            return null;
+        }
+        final Class<?> target = wrapper(type);
+        if (target.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            if (target == Long.class) {
+                return number.longValue();
+            } else if (target == Integer.class) {
+                return number.intValue();
+            } else if (target == Short.class) {
+                return number.shortValue();
+            } else if (target == Byte.class) {
+                return number.byteValue();
+            } else if (target == Double.class) {
+                return number.doubleValue();
+            } else if (target == Float.class) {
+                return number.floatValue();
+            } else if (target == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            } else if (target == BigInteger.class) {
+                return new BigDecimal(number.toString()).toBigInteger();
+            } else if (target == Boolean.class) {
+                return number.intValue() != 0;
+            }
+        }
+        if (value instanceof String && target.isEnum()) {
+            return Enum.valueOf((Class<Enum>) target, (String) value);
+        }
+        if (target == String.class) {
+            return value.toString();
+        }
+        throw new IllegalArgumentException("Conversion impossible de " + value.getClass().getName() + " en "
+            + type.getName());
+    }
+
+    private static Class<?> wrapper(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+}
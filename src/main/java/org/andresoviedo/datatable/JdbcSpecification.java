@@ -0,0 +1,47 @@
+package org.andresoviedo.datatable;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+/**
+ * Specification SQL pour le {@link JdbcDatatableDAO}: les specifications additionnelles et de pre-filtrage du DAO
+ * JDBC doivent implementer cette interface.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité
+ */
+public interface JdbcSpecification<T> extends Specification<T> {
+
+    /**
+     * Cree la condition SQL de la clause "where". Les valeurs sont des parametres "?" ajoutés a la liste, jamais
+     * concatenées.
+     *
+     * @param mapping
+     *            le mapping de la table
+     * @param parameters
+     *            les parametres de la requete, ou ajouter ceux de la condition
+     * @return la condition SQL, ou <code>null</code> pour aucune condition
+     */
+    String toSql(JdbcTableMapping mapping, List<Object> parameters);
+
+    /**
+     * @return les paths des associations (joins du mapping) utilisées par la condition SQL
+     */
+    default List<String> getJoinPaths() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Une specification SQL n'a pas de predicat JPA
+     */
+    @Override
+    default Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb) {
+        throw new UnsupportedOperationException("Specification SQL: " + getClass().getName());
+    }
+}
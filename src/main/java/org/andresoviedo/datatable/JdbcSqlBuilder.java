@@ -0,0 +1,298 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * Construction des requetes SQL du {@link JdbcDatatableDAO}: memes filtres, ordres et counts que la
+ * {@link DatatableSpecification}, y compris la colonne de recherche dénormalisée
+ * ({@link JdbcTableMapping#searchColumn(String, String...)}) et les filtres en double appliqués une seule fois. Toutes
+ * les valeurs sont des parametres "?": pour une meme forme de requete (filtres actifs, ordre, pagination) le texte
+ * SQL est identique et le prepared statement est réutilisable.
+ *
+ * @author afoviedo
+ */
+class JdbcSqlBuilder {
+
+    private final JdbcTableMapping mapping;
+
+    private final JdbcDialect dialect;
+
+    /**
+     * Paths des joins de la requete principale
+     */
+    private final Set<String> joinPaths = new LinkedHashSet<String>();
+
+    private final StringBuilder where = new StringBuilder(128);
+
+    private final List<Object> parameters = new ArrayList<Object>();
+
+    private String sql;
+
+    private JdbcSqlBuilder(final JdbcTableMapping mapping, final JdbcDialect dialect) {
+        this.mapping = mapping;
+        this.dialect = dialect;
+    }
+
+    /**
+     * Requete "count"
+     *
+     * @param mapping
+     *            mapping de la table
+     * @param dialect
+     *            dialecte
+     * @param input
+     *            parametres du datatable
+     * @param filtering
+     *            <code>true</code> pour appliquer les filtres du datatable
+     * @param specifications
+     *            specifications SQL (peuvent etre <code>null</code>)
+     * @return la requete
+     */
+    static JdbcSqlBuilder count(final JdbcTableMapping mapping, final JdbcDialect dialect,
+        final DatatableQuery<?, ?> input, final boolean filtering, final JdbcSpecification<?>... specifications) {
+        final JdbcSqlBuilder ret = new JdbcSqlBuilder(mapping, dialect);
+        ret.where(input, filtering, specifications);
+        final List<DatatableColumn> groupBy = input.getGroupByColumns();
+        if (groupBy == null || groupBy.isEmpty()) {
+            ret.sql = "SELECT COUNT(*)" + ret.from();
+        } else {
+            final String groupByList = ret.columnList(groupBy);
+            ret.sql = "SELECT COUNT(*) FROM (SELECT 1 AS x" + ret.from() + " GROUP BY " + groupByList + ") g";
+        }
+        return ret;
+    }
+
+    /**
+     * Requete d'une page. Les colonnes selectionnées sont les colonnes du "group by", les colonnes du datatable si il
+     * y a une classe de projection, ou sinon les colonnes de l'entité racine du mapping.
+     *
+     * @param mapping
+     *            mapping de la table
+     * @param dialect
+     *            dialecte
+     * @param input
+     *            parametres du datatable
+     * @param pageable
+     *            page et ordre
+     * @param specifications
+     *            specifications SQL (peuvent etre <code>null</code>)
+     * @return la requete
+     */
+    static JdbcSqlBuilder page(final JdbcTableMapping mapping, final JdbcDialect dialect,
+        final DatatableQuery<?, ?> input, final Pageable pageable, final JdbcSpecification<?>... specifications) {
+        final JdbcSqlBuilder ret = new JdbcSqlBuilder(mapping, dialect);
+        final List<DatatableColumn> groupBy = input.getGroupByColumns();
+        final boolean grouping = groupBy != null && !groupBy.isEmpty();
+        final String select;
+        if (grouping) {
+            select = ret.columnList(groupBy);
+        } else if (input.getQueryClass() != null) {
+            select = ret.columnList(input.getColumns());
+        } else {
+            final StringBuilder rootColumns = new StringBuilder();
+            for (final String path : mapping.getRootColumns()) {
+                rootColumns.append(rootColumns.length() == 0 ? "" : ", ").append(mapping.getColumn(path));
+            }
+            select = rootColumns.toString();
+        }
+        ret.where(input, true, specifications);
+        final String orderBy = ret.orderBy(pageable.getSort());
+
+        final StringBuilder sql = new StringBuilder(256);
+        sql.append("SELECT ").append(select).append(ret.from());
+        if (grouping) {
+            sql.append(" GROUP BY ").append(select);
+        }
+        final boolean paging = pageable.getOffset() > 0 || pageable.getPageSize() != Integer.MAX_VALUE;
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        } else if (paging && dialect.getDefaultOrderBy() != null) {
+            sql.append(" ORDER BY ").append(dialect.getDefaultOrderBy());
+        }
+        if (paging) {
+            dialect.appendPage(sql, ret.parameters, pageable.getOffset(), pageable.getPageSize());
+        }
+        ret.sql = sql.toString();
+        return ret;
+    }
+
+    /**
+     * @return le texte SQL
+     */
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return les parametres, dans l'ordre des "?"
+     */
+    List<Object> getParameters() {
+        return parameters;
+    }
+
+    private String from() {
+        final StringBuilder ret = new StringBuilder(128);
+        ret.append(" FROM ").append(mapping.getTable()).append(' ').append(mapping.getAlias());
+        for (final JdbcTableMapping.Join join : mapping.getJoins()) {
+            if (joinPaths.contains(join.getPath())) {
+                appendJoin(ret, join);
+            }
+        }
+        if (where.length() > 0) {
+            ret.append(" WHERE ").append(where);
+        }
+        return ret.toString();
+    }
+
+    private String columnList(final List<DatatableColumn> columns) {
+        final StringBuilder ret = new StringBuilder();
+        for (final DatatableColumn column : columns) {
+            ret.append(ret.length() == 0 ? "" : ", ").append(column(column.getData()));
+        }
+        return ret.toString();
+    }
+
+    private String orderBy(final Sort sort) {
+        if (sort == null) {
+            return null;
+        }
+        final StringBuilder ret = new StringBuilder();
+        for (final Sort.Order order : sort) {
+            ret.append(ret.length() == 0 ? "" : ", ").append(column(order.getProperty()))
+                .append(order.isAscending() ? " ASC" : " DESC");
+        }
+        return ret.length() == 0 ? null : ret.toString();
+    }
+
+    /**
+     * Expression SQL d'une colonne de la requete principale, avec ses joins
+     */
+    private String column(final String path) {
+        final String ret = mapping.getColumn(path);
+        for (final JdbcTableMapping.Join join : mapping.getJoins(path)) {
+            joinPaths.add(join.getPath());
+        }
+        return ret;
+    }
+
+    private void where(final DatatableQuery<?, ?> input, final boolean filtering,
+        final JdbcSpecification<?>... specifications) {
+        if (filtering) {
+            // filtres par colonne (une seule fois par colonne et valeur)
+            final Set<String> filters = new HashSet<String>();
+            for (final DatatableColumn column : input.getColumns()) {
+                if (column.getSearchable() && column.getSearch() != null && hasText(column.getSearch().getValue())
+                    && filters.add(column.getData() + '=' + column.getSearch().getValue())) {
+                    and(predicate(column.getData(), column.getSearch().getValue(), true));
+                }
+            }
+
+            // filtre global
+            final String globalFilterValue = input.getSearch().getValue();
+            if (hasText(globalFilterValue)) {
+                and(globalSearch(input.getColumns(), globalFilterValue));
+            }
+        }
+
+        for (final JdbcSpecification<?> specification : specifications) {
+            if (specification == null) {
+                continue;
+            }
+            final String condition = specification.toSql(mapping, parameters);
+            if (condition != null) {
+                for (final String path : specification.getJoinPaths()) {
+                    // le join de l'association et ceux dont il depend
+                    for (final JdbcTableMapping.Join join : mapping
+                        .getJoins(path + DatatableSpecification.ATTRIBUTE_SEPARATOR)) {
+                        joinPaths.add(join.getPath());
+                    }
+                }
+                and("(" + condition + ")");
+            }
+        }
+    }
+
+    /**
+     * Filtre global: un seul "like" sur la colonne de recherche dénormalisée si elle couvre les colonnes cherchables,
+     * sinon un "like" par colonne cherchable (une seule fois par colonne), comme la {@link DatatableSpecification}.
+     */
+    private String globalSearch(final List<DatatableColumn> columns, final String globalFilterValue) {
+        if (mapping.getSearchColumn() != null && SearchColumns.isSearchedColumns(mapping.getSearchPaths(), columns)) {
+            parameters.add(DatatableSpecification.getLikeFilterValue(SearchColumns.fold(globalFilterValue)));
+            return mapping.getSearchColumn() + " LIKE ? ESCAPE " + dialect.getEscapeLiteral();
+        }
+        final StringBuilder matchOneColumn = new StringBuilder();
+        final Set<String> paths = new HashSet<String>();
+        for (final DatatableColumn column : columns) {
+            if (column.getSearchable() && paths.add(column.getData())) {
+                matchOneColumn.append(matchOneColumn.length() == 0 ? "" : " OR ")
+                    .append(predicate(column.getData(), globalFilterValue, false));
+            }
+        }
+        // aucune colonne cherchable: aucun resultat
+        return matchOneColumn.length() == 0 ? "1 = 0" : "(" + matchOneColumn + ")";
+    }
+
+    private void and(final String condition) {
+        where.append(where.length() == 0 ? "" : " AND ").append(condition);
+    }
+
+    /**
+     * Predicat de filtre pour une colonne. Si la colonne est sur une association to-many le predicat est un "exists"
+     * sur une sous-requete correlée au lieu d'un join: la page et le count ont une ligne par ligne de la table racine.
+     */
+    private String predicate(final String path, final String filterValue, final boolean allowBoolean) {
+        final List<JdbcTableMapping.Join> joins = mapping.getJoins(path);
+        int toMany = -1;
+        for (int i = 0; toMany < 0 && i < joins.size(); i++) {
+            if (joins.get(i).isToMany()) {
+                toMany = i;
+            }
+        }
+        if (toMany < 0) {
+            return expressionPredicate(column(path), filterValue, allowBoolean);
+        }
+        for (int i = 0; i < toMany; i++) {
+            joinPaths.add(joins.get(i).getPath());
+        }
+        final JdbcTableMapping.Join correlated = joins.get(toMany);
+        final StringBuilder ret = new StringBuilder(128);
+        ret.append("EXISTS (SELECT 1 FROM ").append(correlated.getTable()).append(' ').append(correlated.getAlias());
+        for (int i = toMany + 1; i < joins.size(); i++) {
+            appendJoin(ret, joins.get(i));
+        }
+        ret.append(" WHERE ").append(correlated.getCondition()).append(" AND ")
+            .append(expressionPredicate(mapping.getColumn(path), filterValue, allowBoolean)).append(')');
+        return ret.toString();
+    }
+
+    private String expressionPredicate(final String expression, final String filterValue,
+        final boolean allowBoolean) {
+        if (allowBoolean && isBoolean(filterValue)) {
+            parameters.add(Boolean.valueOf(filterValue));
+            return expression + " = ?";
+        }
+        parameters.add(DatatableSpecification.getLikeFilterValue(filterValue));
+        return "LOWER(" + expression + ") LIKE ? ESCAPE " + dialect.getEscapeLiteral();
+    }
+
+    private static void appendJoin(final StringBuilder sql, final JdbcTableMapping.Join join) {
+        sql.append(" INNER JOIN ").append(join.getTable()).append(' ').append(join.getAlias()).append(" ON ")
+            .append(join.getCondition());
+    }
+
+    private static boolean hasText(final String value) {
+        return value != null && value.trim().length() > 0;
+    }
+
+    private static boolean isBoolean(final String filterValue) {
+        return "TRUE".equalsIgnoreCase(filterValue) || "FALSE".equalsIgnoreCase(filterValue);
+    }
+}
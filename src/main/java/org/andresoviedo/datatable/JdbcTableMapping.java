@@ -0,0 +1,248 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mapping des colonnes du datatable ({@link org.andresoviedo.datatable.dto.DatatableColumn#getData()}) vers les
+ * tables et colonnes SQL, pour le {@link JdbcDatatableDAO}.
+ *
+ * <pre>
+ * new JdbcTableMapping("orders", "o").column("id", "o.id").column("reference", "o.reference")
+ *     .join("customer", "customer", "c", "c.id = o.customer_id").column("customer.name", "c.name")
+ *     .joinMany("lines", "order_line", "l", "l.order_id = o.id").column("lines.product", "l.product");
+ * </pre>
+ *
+ * Les expressions SQL viennent de la configuration, jamais de la requete: une colonne de la requete qui n'est pas
+ * mappée est refusée.
+ *
+ * @author afoviedo
+ */
+public class JdbcTableMapping {
+
+    private final String table;
+
+    private final String alias;
+
+    private final Map<String, String> columns = new LinkedHashMap<String, String>();
+
+    private final Map<String, Join> joins = new LinkedHashMap<String, Join>();
+
+    private String searchColumn;
+
+    private List<String> searchPaths = Collections.emptyList();
+
+    /**
+     * @param table
+     *            table de l'entité racine
+     * @param alias
+     *            alias SQL de la table
+     */
+    public JdbcTableMapping(final String table, final String alias) {
+        this.table = table;
+        this.alias = alias;
+    }
+
+    /**
+     * Ajoute une colonne
+     *
+     * @param path
+     *            path de la colonne du datatable, par exemple "customer.name"
+     * @param sqlExpression
+     *            expression SQL de la colonne, par exemple "c.name"
+     * @return this
+     */
+    public JdbcTableMapping column(final String path, final String sqlExpression) {
+        columns.put(path, sqlExpression);
+        return this;
+    }
+
+    /**
+     * Ajoute une association to-one (inner join). Les joins doivent etre declarés aprés le join dont ils dependent.
+     *
+     * @param path
+     *            path de l'association, par exemple "customer"
+     * @param joinTable
+     *            table jointe
+     * @param joinAlias
+     *            alias SQL de la table jointe
+     * @param condition
+     *            condition du join, par exemple "c.id = o.customer_id"
+     * @return this
+     */
+    public JdbcTableMapping join(final String path, final String joinTable, final String joinAlias,
+        final String condition) {
+        joins.put(path, new Join(path, joinTable, joinAlias, condition, false));
+        return this;
+    }
+
+    /**
+     * Ajoute une association to-many (collection). Les filtres sur cette association sont des sous-requetes "exists",
+     * dans la page comme dans les counts.
+     *
+     * @param path
+     *            path de l'association, par exemple "lines"
+     * @param joinTable
+     *            table jointe
+     * @param joinAlias
+     *            alias SQL de la table jointe
+     * @param condition
+     *            condition du join, par exemple "l.order_id = o.id"
+     * @return this
+     */
+    public JdbcTableMapping joinMany(final String path, final String joinTable, final String joinAlias,
+        final String condition) {
+        joins.put(path, new Join(path, joinTable, joinAlias, condition, true));
+        return this;
+    }
+
+    /**
+     * Declare la colonne de recherche dénormalisée de la table (voir {@link DatatableSearchColumn}): le filtre global
+     * est un seul "like" sur cette colonne quand les colonnes cherchables de la requete sont exactement les paths.
+     *
+     * @param sqlExpression
+     *            expression SQL de la colonne, par exemple "o.search_text"
+     * @param paths
+     *            paths des colonnes du datatable contenues dans la colonne de recherche
+     * @return this
+     */
+    public JdbcTableMapping searchColumn(final String sqlExpression, final String... paths) {
+        this.searchColumn = sqlExpression;
+        this.searchPaths = Collections.unmodifiableList(Arrays.asList(paths.clone()));
+        return this;
+    }
+
+    /**
+     * @return table de l'entité racine
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return alias SQL de la table de l'entité racine
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * Retourne l'expression SQL d'une colonne
+     *
+     * @param path
+     *            path de la colonne
+     * @return l'expression SQL
+     * @throws IllegalArgumentException
+     *             si la colonne n'est pas mappée
+     */
+    public String getColumn(final String path) {
+        final String ret = columns.get(path);
+        if (ret == null) {
+            throw new IllegalArgumentException("Colonne '" + path + "' introuvable dans le mapping de '" + table + "'");
+        }
+        return ret;
+    }
+
+    /**
+     * @return expression SQL de la colonne de recherche, ou <code>null</code> si la table n'en a pas
+     */
+    String getSearchColumn() {
+        return searchColumn;
+    }
+
+    /**
+     * @return paths des colonnes contenues dans la colonne de recherche
+     */
+    List<String> getSearchPaths() {
+        return searchPaths;
+    }
+
+    /**
+     * @return les paths des colonnes de l'entité racine (sans join), dans l'ordre de declaration
+     */
+    List<String> getRootColumns() {
+        final List<String> ret = new ArrayList<String>();
+        for (final String path : columns.keySet()) {
+            if (getJoins(path).isEmpty()) {
+                ret.add(path);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return les joins, dans l'ordre de declaration
+     */
+    Collection<Join> getJoins() {
+        return joins.values();
+    }
+
+    /**
+     * Retourne les joins necessaires pour une colonne, du premier au dernier
+     *
+     * @param path
+     *            path de la colonne, par exemple "customer.address.city"
+     * @return les joins, par exemple "customer" et "customer.address"
+     */
+    List<Join> getJoins(final String path) {
+        if (!path.contains(DatatableSpecification.ATTRIBUTE_SEPARATOR) || joins.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Join> ret = new ArrayList<Join>();
+        int index = path.indexOf(DatatableSpecification.ATTRIBUTE_SEPARATOR);
+        while (index > 0) {
+            final Join join = joins.get(path.substring(0, index));
+            if (join != null) {
+                ret.add(join);
+            }
+            index = path.indexOf(DatatableSpecification.ATTRIBUTE_SEPARATOR, index + 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Join SQL d'une association
+     */
+    static class Join {
+
+        private final String path;
+        private final String table;
+        private final String alias;
+        private final String condition;
+        private final boolean toMany;
+
+        private Join(final String path, final String table, final String alias, final String condition,
+            final boolean toMany) {
+            this.path = path;
+            this.table = table;
+            this.alias = alias;
+            this.condition = condition;
+            this.toMany = toMany;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getTable() {
+            return table;
+        }
+
+        String getAlias() {
+            return alias;
+        }
+
+        String getCondition() {
+            return condition;
+        }
+
+        boolean isToMany() {
+            return toMany;
+        }
+    }
+}
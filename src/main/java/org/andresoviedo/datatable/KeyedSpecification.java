@@ -0,0 +1,19 @@
+package org.andresoviedo.datatable;
+
+/**
+ * {@link Specification} avec une clé stable, basée sur ses valeurs. La clé participe a la clé de la requete (token de
+ * version, page prechargée, facettes en cache, curseur des shards): une requete avec une specification sans clé n'a
+ * ni version ni cache.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public interface KeyedSpecification<T> extends Specification<T> {
+
+    /**
+     * @return la clé de la specification: deux specifications avec la meme clé filtrent les memes lignes, quel que
+     *         soit le tenant ou l'utilisateur. <code>null</code> si la specification n'a pas de clé
+     */
+    String getKey();
+}
@@ -0,0 +1,91 @@
+package org.andresoviedo.datatable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Listener JPA qui maintient les counts matérialisés des entités enregistrées avec
+ * {@link MaterializedCounts#register(Class, String)}. A declarer sur les entités avec
+ * <code>@EntityListeners(MaterializedCountListener.class)</code>.
+ * <p>
+ * Les variations sont gardées en memoire et ecrites par {@link MaterializedCounts#flush()}. Elles sont comptées aprés
+ * le commit de la transaction ({@link MaterializedCounts.TransactionHook}): une transaction annulée ne change pas les
+ * counts.
+ *
+ * @author afoviedo
+ */
+public class MaterializedCountListener {
+
+    /**
+     * Clé de prefiltre des entités chargées (<code>null</code> si l'entité n'a pas de valeur de prefiltre), pour voir
+     * les changements de clé
+     */
+    private static final Map<Object, String> LOADED_KEYS =
+        Collections.synchronizedMap(new WeakHashMap<Object, String>());
+
+    /**
+     * @param entity
+     *            l'entité créée
+     */
+    @PostPersist
+    public void onPersist(final Object entity) {
+        final String key = MaterializedCounts.getPrefilterKey(entity);
+        MaterializedCounts.add(entity.getClass(), key, 1);
+        remember(entity, key);
+    }
+
+    /**
+     * @param entity
+     *            l'entité supprimée
+     */
+    @PostRemove
+    public void onRemove(final Object entity) {
+        final String key;
+        synchronized (LOADED_KEYS) {
+            key = LOADED_KEYS.containsKey(entity) ? LOADED_KEYS.remove(entity)
+                : MaterializedCounts.getPrefilterKey(entity);
+        }
+        MaterializedCounts.add(entity.getClass(), key, -1);
+    }
+
+    /**
+     * @param entity
+     *            l'entité chargée
+     */
+    @PostLoad
+    public void onLoad(final Object entity) {
+        remember(entity, MaterializedCounts.getPrefilterKey(entity));
+    }
+
+    /**
+     * @param entity
+     *            l'entité modifiée: si sa clé de prefiltre a changé (y compris de ou vers <code>null</code>), elle
+     *            passe d'un count a l'autre
+     */
+    @PostUpdate
+    public void onUpdate(final Object entity) {
+        final String key = MaterializedCounts.getPrefilterKey(entity);
+        final boolean loaded;
+        final String previous;
+        synchronized (LOADED_KEYS) {
+            loaded = LOADED_KEYS.containsKey(entity);
+            previous = LOADED_KEYS.get(entity);
+        }
+        if (loaded) {
+            MaterializedCounts.moveKey(entity.getClass(), previous, key);
+        }
+        remember(entity, key);
+    }
+
+    private static void remember(final Object entity, final String key) {
+        if (MaterializedCounts.isRegistered(entity.getClass())) {
+            LOADED_KEYS.put(entity, key);
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Root;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Counts matérialisés par entité et par clé de prefiltre (table {@link DatatableCount}): le
+ * <code>recordsTotal</code> du {@link DatatableDAOImpl} est lu par clé primaire au lieu d'un <code>count(*)</code>.
+ * <p>
+ * Les entités sont enregistrées avec l'atribut de leur prefiltre ({@link #register(Class, String)}) et declarent le
+ * {@link MaterializedCountListener}. Les variations sont ecrites par {@link #flush()} et les counts sont recalculés
+ * par {@link #reconcile(Class)}, par exemple avec {@link #schedule(ScheduledExecutorService, long, long, TimeUnit)}.
+ * Le count est lu si le prefiltre du draw est absent (clé {@link #ALL}) ou une {@link PrefilterSpecification} sur
+ * l'atribut enregistré; sinon, ou si le count n'existe pas encore, le DAO execute le <code>count(*)</code>.
+ * <p>
+ * Les variations sont comptées aprés le commit de la transaction (voir {@link TransactionHook}): par defaut avec la
+ * <code>TransactionSynchronizationRegistry</code> JTA, et sans transaction JTA au moment du flush JPA. Les variations
+ * commitées avant le debut d'une reconciliation sont deja dans le nouveau count: elles ne sont pas ecrites (les
+ * horloges des JVMs doivent etre synchronisées).
+ * <p>
+ * Les counts sont eventuellement consistants: les modifications en masse (JPQL, SQL) ne sont vues qu'aprés la
+ * reconciliation.
+ *
+ * @see DatatableDAOImpl#setMaterializedCounts(MaterializedCounts)
+ * @author afoviedo
+ */
+public class MaterializedCounts {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Clé du count sans prefiltre (toute la table)
+     */
+    public static final String ALL = "*";
+
+    /**
+     * Entités enregistrées et atribut de leur prefiltre ("" si pas de prefiltre)
+     */
+    private static final ConcurrentMap<Class<?>, String> ATTRIBUTES = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * Variations en attente, par identifiant de count
+     */
+    private static final ConcurrentMap<String, Pending> PENDING = new ConcurrentHashMap<String, Pending>();
+
+    private static volatile TransactionHook transactionHook = new JtaTransactionHook();
+
+    /**
+     * Execution des variations aprés le commit de la transaction de l'entité
+     */
+    public interface TransactionHook {
+
+        /**
+         * @param action
+         *            action a executer aprés le commit de la transaction courante, et jamais aprés un rollback
+         * @return <code>false</code> si l'action n'a pas été enregistrée (pas de transaction): elle est executée
+         *         tout de suite
+         */
+        boolean afterCommit(Runnable action);
+    }
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    /**
+     * @param entityManagerFactory
+     *            factory de la base des counts (la base primaire)
+     */
+    public MaterializedCounts(final EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Enregistre une entité
+     *
+     * @param entity
+     *            l'entité
+     * @param prefilterAttribute
+     *            path de l'atribut du prefiltre, par exemple "tenant.id", ou <code>null</code> pour seulement le count
+     *            de toute la table
+     */
+    public static void register(final Class<?> entity, final String prefilterAttribute) {
+        ATTRIBUTES.put(entity, prefilterAttribute == null ? "" : prefilterAttribute);
+    }
+
+    /**
+     * @param hook
+     *            execution des variations aprés commit, par exemple avec les synchronisations de transaction du
+     *            framework, ou <code>null</code> pour les compter au flush JPA. Par defaut JTA.
+     */
+    public static void setTransactionHook(final TransactionHook hook) {
+        transactionHook = hook;
+    }
+
+    /**
+     * Lit le count matérialisé du prefiltre
+     *
+     * @param entityManager
+     *            l'entity manager du draw
+     * @param entity
+     *            l'entité
+     * @param preFilteringSpecification
+     *            le prefiltre du draw (peut etre <code>null</code>)
+     * @return le count, ou <code>null</code> si le prefiltre n'a pas de count matérialisé
+     */
+    Long getCount(final EntityManager entityManager, final Class<?> entity,
+        final Specification<?> preFilteringSpecification) {
+        final String attribute = ATTRIBUTES.get(entity);
+        if (attribute == null) {
+            return null;
+        }
+        final String key;
+        if (preFilteringSpecification == null) {
+            key = ALL;
+        } else if (preFilteringSpecification instanceof PrefilterSpecification
+            && ((PrefilterSpecification<?>) preFilteringSpecification).getAttribute().equals(attribute)) {
+            key = String.valueOf(((PrefilterSpecification<?>) preFilteringSpecification).getValue());
+        } else {
+            return null;
+        }
+        final String id = DatatableCount.getId(entity.getName(), key);
+        final DatatableCount count = entityManager.find(DatatableCount.class, id);
+        if (count == null) {
+            return null;
+        }
+        final Pending pending = PENDING.get(id);
+        return Math.max(0, count.getTotal() + (pending == null ? 0 : pending.delta.get()));
+    }
+
+    /**
+     * Ecrit les variations en attente. Les counts qui n'existent pas encore sont créés par reconciliation.
+     */
+    public void flush() {
+        final Map<String, Long> deltas = new HashMap<String, Long>();
+        final Map<String, Long> committed = new HashMap<String, Long>();
+        for (final Map.Entry<String, Pending> entry : PENDING.entrySet()) {
+            final long delta = entry.getValue().delta.getAndSet(0);
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+                // lu aprés la variation: au plus la date d'une variation plus recente
+                committed.put(entry.getKey(), entry.getValue().committed.get());
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final Set<String> missing = new HashSet<String>();
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        final EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            final Date now = new Date();
+            for (final Map.Entry<String, Long> delta : deltas.entrySet()) {
+                // pas de variation si toutes ont été commitées avant la reconciliation
+                final int updated = entityManager
+                    .createQuery("UPDATE DatatableCount c SET c.total = c.total + :delta, c.updated = :now"
+                        + " WHERE c.id = :id AND (c.reconciled IS NULL OR c.reconciled <= :committed)")
+                    .setParameter("delta", delta.getValue()).setParameter("now", now)
+                    .setParameter("committed", new Date(committed.get(delta.getKey())))
+                    .setParameter("id", delta.getKey()).executeUpdate();
+                if (updated == 0 && entityManager.find(DatatableCount.class, delta.getKey()) == null) {
+                    missing.add(delta.getKey().substring(0, delta.getKey().indexOf('|')));
+                }
+            }
+            transaction.commit();
+        } catch (final RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Flush counts failed: " + ex.getMessage(), ex);
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            for (final Map.Entry<String, Long> delta : deltas.entrySet()) {
+                getPending(delta.getKey()).add(delta.getValue(), committed.get(delta.getKey()));
+            }
+            return;
+        } finally {
+            entityManager.close();
+        }
+        for (final Class<?> entity : ATTRIBUTES.keySet()) {
+            if (missing.contains(entity.getName())) {
+                reconcile(entity);
+            }
+        }
+    }
+
+    /**
+     * Recalcule tous les counts d'une entité
+     *
+     * @param entity
+     *            l'entité enregistrée
+     */
+    public void reconcile(final Class<?> entity) {
+        final String attribute = ATTRIBUTES.get(entity);
+        if (attribute == null) {
+            throw new IllegalArgumentException("Entité non enregistrée: " + entity.getName());
+        }
+        // les variations en attente (de toutes les JVMs) commitées avant le debut des counts sont dans les nouveaux
+        // counts: le flush ne les ecrit pas (voir DatatableCount#getReconciled())
+        final Date started = new Date();
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        final EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            final Map<String, Long> totals = new HashMap<String, Long>();
+            totals.put(ALL, countAll(entityManager, entity));
+            if (attribute.length() > 0) {
+                for (final Object[] row : countByKey(entityManager, entity, attribute)) {
+                    totals.put(String.valueOf(row[0]), (Long) row[1]);
+                }
+            }
+
+            final Date now = new Date();
+            final List<DatatableCount> existing = entityManager
+                .createQuery("SELECT c FROM DatatableCount c WHERE c.entityName = :entityName", DatatableCount.class)
+                .setParameter("entityName", entity.getName()).getResultList();
+            for (final DatatableCount count : existing) {
+                final Long total = totals.remove(count.getPrefilterKey());
+                count.setTotal(total == null ? 0 : total);
+                count.setUpdated(now);
+                count.setReconciled(started);
+            }
+            for (final Map.Entry<String, Long> total : totals.entrySet()) {
+                final DatatableCount count = new DatatableCount(entity.getName(), total.getKey());
+                count.setTotal(total.getValue());
+                count.setUpdated(now);
+                count.setReconciled(started);
+                entityManager.persist(count);
+            }
+            transaction.commit();
+            LOGGER.log(Level.FINE, "Counts reconciled: {0}", entity.getName());
+        } catch (final RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Reconcile counts failed: " + ex.getMessage(), ex);
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Recalcule les counts de toutes les entités enregistrées
+     */
+    public void reconcileAll() {
+        for (final Class<?> entity : new ArrayList<Class<?>>(ATTRIBUTES.keySet())) {
+            reconcile(entity);
+        }
+    }
+
+    /**
+     * Programme l'ecriture des variations et la reconciliation des counts
+     *
+     * @param scheduler
+     *            le scheduler
+     * @param flushInterval
+     *            intervalle d'ecriture des variations
+     * @param reconcileInterval
+     *            intervalle de reconciliation (la premiere est immediate)
+     * @param unit
+     *            unité des intervalles
+     */
+    public void schedule(final ScheduledExecutorService scheduler, final long flushInterval,
+        final long reconcileInterval, final TimeUnit unit) {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reconcileAll();
+            }
+        }, 0, reconcileInterval, unit);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, unit);
+    }
+
+    /**
+     * @param entity
+     *            l'entité
+     * @return la clé de prefiltre de l'entité, ou <code>null</code> si elle n'en a pas
+     */
+    static String getPrefilterKey(final Object entity) {
+        final Class<?> registered = getRegistered(entity.getClass());
+        if (registered == null) {
+            return null;
+        }
+        final String attribute = ATTRIBUTES.get(registered);
+        if (attribute.length() == 0) {
+            return null;
+        }
+        final Object value = DatatableHelper.getProperty(entity, attribute);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @param entityClass
+     *            classe de l'entité
+     * @return <code>true</code> si l'entité (ou une super classe) est enregistrée
+     */
+    static boolean isRegistered(final Class<?> entityClass) {
+        return getRegistered(entityClass) != null;
+    }
+
+    /**
+     * Ajoute une variation au count de toute la table et a celui de la clé, aprés le commit
+     */
+    static void add(final Class<?> entityClass, final String key, final long delta) {
+        final Class<?> registered = getRegistered(entityClass);
+        if (registered == null) {
+            return;
+        }
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                final long now = System.currentTimeMillis();
+                getPending(DatatableCount.getId(registered.getName(), ALL)).add(delta, now);
+                if (key != null) {
+                    getPending(DatatableCount.getId(registered.getName(), key)).add(delta, now);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deplace une entité d'une clé a l'autre, aprés le commit. Une clé <code>null</code> (entité sans valeur de
+     * prefiltre) n'a pas de count: seul l'autre count change.
+     */
+    static void moveKey(final Class<?> entityClass, final String from, final String to) {
+        final Class<?> registered = getRegistered(entityClass);
+        if (registered == null || (from == null ? to == null : from.equals(to))) {
+            return;
+        }
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                final long now = System.currentTimeMillis();
+                if (from != null) {
+                    getPending(DatatableCount.getId(registered.getName(), from)).add(-1, now);
+                }
+                if (to != null) {
+                    getPending(DatatableCount.getId(registered.getName(), to)).add(1, now);
+                }
+            }
+        });
+    }
+
+    private static void afterCommit(final Runnable action) {
+        final TransactionHook hook = transactionHook;
+        if (hook == null || !hook.afterCommit(action)) {
+            action.run();
+        }
+    }
+
+    private static Class<?> getRegistered(final Class<?> entityClass) {
+        for (Class<?> clazz = entityClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            if (ATTRIBUTES.containsKey(clazz)) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    private static Pending getPending(final String id) {
+        Pending ret = PENDING.get(id);
+        if (ret == null) {
+            final Pending newCounter = new Pending();
+            ret = PENDING.putIfAbsent(id, newCounter);
+            if (ret == null) {
+                ret = newCounter;
+            }
+        }
+        return ret;
+    }
+
+    private static <E> long countAll(final EntityManager entityManager, final Class<E> entity) {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        cq.select(cb.count(cq.from(entity)));
+        return entityManager.createQuery(cq).getSingleResult();
+    }
+
+    private static <E> List<Object[]> countByKey(final EntityManager entityManager, final Class<E> entity,
+        final String attribute) {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        final Root<E> from = cq.from(entity);
+        final Expression<Object> key = DatatableHelper.getExpression(from, attribute, Object.class);
+        cq.multiselect(key, cb.count(from)).groupBy(key);
+        return entityManager.createQuery(cq).getResultList();
+    }
+
+    /**
+     * Variation en attente d'un count
+     */
+    private static class Pending {
+
+        private final AtomicLong delta = new AtomicLong();
+
+        /**
+         * Date du commit de la derniere variation (millisecondes)
+         */
+        private final AtomicLong committed = new AtomicLong();
+
+        private void add(final long value, final long commitTime) {
+            committed.accumulateAndGet(commitTime, Math::max);
+            delta.addAndGet(value);
+        }
+    }
+
+    /**
+     * Execution aprés commit avec la <code>TransactionSynchronizationRegistry</code> JTA, si elle existe et qu'une
+     * transaction est active
+     */
+    private static class JtaTransactionHook implements TransactionHook {
+
+        private static final String REGISTRY = "java:comp/TransactionSynchronizationRegistry";
+
+        private volatile boolean unavailable;
+
+        @Override
+        public boolean afterCommit(final Runnable action) {
+            if (unavailable) {
+                return false;
+            }
+            final TransactionSynchronizationRegistry registry;
+            try {
+                registry = (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY);
+            } catch (final NamingException ex) {
+                Logger.getLogger("").log(Level.FINE, "No JTA registry: {0}", ex.getMessage());
+                unavailable = true;
+                return false;
+            }
+            if (registry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+                return false;
+            }
+            try {
+                registry.registerInterposedSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                        // rien
+                    }
+
+                    @Override
+                    public void afterCompletion(final int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            action.run();
+                        }
+                    }
+                });
+                return true;
+            } catch (final IllegalStateException ex) {
+                // transaction en cours de commit
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+/**
+ * Specification de pre-filtrage par egalité sur un atribut, par exemple le tenant:
+ * <code>new PrefilterSpecification&lt;Order&gt;("tenant.id", tenantId)</code>. Sa valeur est la clé du count
+ * matérialisé du prefiltre (voir {@link MaterializedCounts}). Sa {@link #getKey() clé} est l'atribut, le type et la
+ * valeur: le <code>toString()</code> de la valeur doit l'identifier.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public class PrefilterSpecification<T> implements KeyedSpecification<T> {
+
+    private final String attribute;
+
+    private final Object value;
+
+    /**
+     * @param attribute
+     *            path de l'atribut, par exemple "tenant.id"
+     * @param value
+     *            valeur de l'atribut
+     */
+    public PrefilterSpecification(final String attribute, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Valeur de prefiltre nulle: " + attribute);
+        }
+        this.attribute = attribute;
+        this.value = value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb) {
+        return cb.equal(DatatableHelper.getExpression(root, attribute, Object.class), value);
+    }
+
+    /**
+     * @return path de l'atribut
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * @return valeur de l'atribut
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getKey() {
+        return attribute + "=" + value.getClass().getName() + ":" + value;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof PrefilterSpecification)) {
+            return false;
+        }
+        final PrefilterSpecification<?> other = (PrefilterSpecification<?>) obj;
+        return attribute.equals(other.attribute) && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * attribute.hashCode() + value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return attribute + "=" + value;
+    }
+}
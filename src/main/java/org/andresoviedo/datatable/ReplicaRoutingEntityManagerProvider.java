@@ -0,0 +1,431 @@
+package org.andresoviedo.datatable;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.andresoviedo.datatable.dto.DatatableQuery;
+
+/**
+ * {@link EntityManagerProvider} qui envoie les requetes du datatable (counts et page, toutes en lecture) vers des
+ * replicas de la base, avec une politique de repartition de charge. La base primaire est utilisée si aucun replica
+ * n'est disponible: replica en erreur de connexion (pendant {@link #setRetryAfter(long, TimeUnit)}) ou en retard de
+ * plus de {@link #setMaxLag(long, TimeUnit)} d'aprés la {@link LagProbe}. Les erreurs des requetes (SQL invalide,
+ * timeout, contrainte) ne changent pas l'etat du replica. Les mesures du retard sont executées sur l'executor de
+ * {@link #setLagProbe(LagProbe, Executor)}, jamais sur le thread de la requete.
+ * <p>
+ * Une requete peut forcer la base primaire avec la propriété {@link #FORCE_PRIMARY} a <code>true</code> dans les
+ * {@link DatatableQuery#getExtraProps()}, par exemple juste aprés une ecriture de l'utilisateur. Elle est positionnée
+ * par le serveur avec {@link #setForcePrimary(DatatableQuery, boolean)}: le {@link DatatableRequestParser} ne copie
+ * pas les parametres HTTP reservés <code>datatable.*</code>.
+ *
+ * <pre>
+ * new DatatableDAOImpl&lt;Order&gt;(new ReplicaRoutingEntityManagerProvider(primary, Arrays.asList(replica1, replica2),
+ *     ReplicaRoutingEntityManagerProvider.Policy.LEAST_IN_FLIGHT), Order.class);
+ * </pre>
+ *
+ * @author afoviedo
+ */
+public class ReplicaRoutingEntityManagerProvider implements EntityManagerProvider {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    /**
+     * Extra property de la requete pour forcer la base primaire
+     */
+    public static final String FORCE_PRIMARY = "datatable.forcePrimary";
+
+    /**
+     * Politique de repartition des requetes entre les replicas
+     */
+    public enum Policy {
+
+        /**
+         * Chaque replica a son tour
+         */
+        ROUND_ROBIN,
+
+        /**
+         * Replica au hasard
+         */
+        RANDOM,
+
+        /**
+         * Replica avec le moins d'entity managers ouverts
+         */
+        LEAST_IN_FLIGHT
+    }
+
+    /**
+     * Mesure du retard de replication d'un replica
+     */
+    public interface LagProbe {
+
+        /**
+         * @param entityManager
+         *            entity manager du replica
+         * @return le retard du replica en millisecondes
+         */
+        long getLagMillis(EntityManager entityManager);
+    }
+
+    private final EntityManagerFactory primary;
+
+    private final List<Replica> replicas = new ArrayList<Replica>();
+
+    private final Policy policy;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Map<EntityManager, Replica> inFlight =
+        Collections.synchronizedMap(new IdentityHashMap<EntityManager, Replica>());
+
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+
+    private LagProbe lagProbe;
+
+    private Executor probeExecutor;
+
+    private long maxLagMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private long probeIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+
+    private long retryAfterNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * @param primary
+     *            factory de la base primaire
+     * @param replicas
+     *            factories des replicas
+     * @param policy
+     *            politique de repartition
+     */
+    public ReplicaRoutingEntityManagerProvider(final EntityManagerFactory primary,
+        final List<EntityManagerFactory> replicas, final Policy policy) {
+        this.primary = primary;
+        for (final EntityManagerFactory replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Mesure du retard avec une requete SQL native qui retourne le retard en millisecondes, par exemple pour
+     * PostgreSQL:
+     * <code>SELECT COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)</code>
+     *
+     * @param sql
+     *            la requete
+     * @return la mesure
+     */
+    public static LagProbe nativeQueryLagProbe(final String sql) {
+        return new LagProbe() {
+            @Override
+            public long getLagMillis(final EntityManager entityManager) {
+                final Object ret = entityManager.createNativeQuery(sql).getSingleResult();
+                return ret == null ? 0 : ((Number) ret).longValue();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntityManager getEntityManager(final DatatableQuery<?, ?> input) {
+        if (!isForcePrimary(input)) {
+            final List<Replica> candidates = getCandidates();
+            for (int i = 0; i < candidates.size(); i++) {
+                final Replica replica = candidates.get(i);
+                try {
+                    final EntityManager ret = replica.factory.createEntityManager();
+                    replica.inFlight.incrementAndGet();
+                    inFlight.put(ret, replica);
+                    return ret;
+                } catch (final PersistenceException ex) {
+                    LOGGER.log(Level.WARNING, "Replica unavailable: " + ex.getMessage(), ex);
+                    replica.markDown();
+                }
+            }
+            if (!replicas.isEmpty()) {
+                primaryFallbacks.incrementAndGet();
+            }
+        }
+        return primary.createEntityManager();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseEntityManager(final EntityManager entityManager) {
+        final Replica replica = inFlight.remove(entityManager);
+        if (replica != null) {
+            replica.inFlight.decrementAndGet();
+        }
+        if (entityManager.isOpen()) {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Les entity managers sont créés pour les requetes du datatable: lecture seule
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * Si l'erreur est une erreur de connexion, le replica de l'entity manager n'est plus utilisé pendant
+     * {@link #setRetryAfter(long, TimeUnit)}
+     */
+    @Override
+    public void reportFailure(final EntityManager entityManager, final PersistenceException ex) {
+        final Replica replica = inFlight.get(entityManager);
+        if (replica != null && isConnectionFailure(ex)) {
+            LOGGER.log(Level.WARNING, "Replica connection failed: {0}", ex.getMessage());
+            replica.markDown();
+        }
+    }
+
+    /**
+     * Mesure le retard des replicas, toutes les {@link #setProbeInterval(long, TimeUnit)} au plus. Un replica n'est
+     * utilisé qu'aprés sa premiere mesure.
+     *
+     * @param lagProbe
+     *            mesure du retard des replicas, ou <code>null</code> (par defaut) pour ne pas mesurer
+     * @param executor
+     *            executor des mesures (les requetes utilisent la derniere mesure sans l'attendre)
+     */
+    public void setLagProbe(final LagProbe lagProbe, final Executor executor) {
+        if (lagProbe != null && executor == null) {
+            throw new IllegalArgumentException("Pas d'executor pour la mesure du retard");
+        }
+        this.probeExecutor = executor;
+        this.lagProbe = lagProbe;
+    }
+
+    /**
+     * @param maxLag
+     *            retard maximum d'un replica (5 secondes par defaut)
+     * @param unit
+     *            unité du retard
+     */
+    public void setMaxLag(final long maxLag, final TimeUnit unit) {
+        this.maxLagMillis = unit.toMillis(maxLag);
+    }
+
+    /**
+     * @param probeInterval
+     *            intervalle entre deux mesures du retard d'un replica (5 secondes par defaut)
+     * @param unit
+     *            unité de l'intervalle
+     */
+    public void setProbeInterval(final long probeInterval, final TimeUnit unit) {
+        this.probeIntervalNanos = unit.toNanos(probeInterval);
+    }
+
+    /**
+     * @param retryAfter
+     *            durée pendant laquelle un replica en erreur n'est plus utilisé (30 secondes par defaut)
+     * @param unit
+     *            unité de la durée
+     */
+    public void setRetryAfter(final long retryAfter, final TimeUnit unit) {
+        this.retryAfterNanos = unit.toNanos(retryAfter);
+    }
+
+    /**
+     * @return nombre de requetes envoyées a la base primaire parce qu'aucun replica n'était disponible
+     */
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.get();
+    }
+
+    /**
+     * Force la base primaire pour la requete. A appeler par le serveur, par exemple quand l'utilisateur vient de
+     * modifier des données, jamais d'aprés un parametre de la requete HTTP.
+     *
+     * @param input
+     *            la requete
+     * @param forcePrimary
+     *            <code>true</code> pour lire sur la base primaire
+     */
+    public static void setForcePrimary(final DatatableQuery<?, ?> input, final boolean forcePrimary) {
+        if (forcePrimary) {
+            input.getExtraProps().put(FORCE_PRIMARY, Boolean.TRUE);
+        } else {
+            input.getExtraProps().remove(FORCE_PRIMARY);
+        }
+    }
+
+    /**
+     * @return <code>true</code> si une des causes est une erreur de connexion: SQL state de la classe "08" ou
+     *         exception JDBC de connexion
+     */
+    static boolean isConnectionFailure(final Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException
+                || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                final String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("08")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isForcePrimary(final DatatableQuery<?, ?> input) {
+        if (input == null || input.getExtraProps() == null) {
+            return false;
+        }
+        final Object value = input.getExtraProps().get(FORCE_PRIMARY);
+        return Boolean.TRUE.equals(value) || "true".equalsIgnoreCase(String.valueOf(value));
+    }
+
+    /**
+     * @return les replicas disponibles, dans l'ordre de la politique de repartition
+     */
+    private List<Replica> getCandidates() {
+        final long now = System.nanoTime();
+        final List<Replica> ret = new ArrayList<Replica>(replicas.size());
+        for (final Replica replica : replicas) {
+            if (replica.isAvailable(now)) {
+                ret.add(replica);
+            }
+        }
+        if (ret.size() > 1) {
+            switch (policy) {
+            case ROUND_ROBIN:
+                Collections.rotate(ret, -Math.floorMod(next.getAndIncrement(), ret.size()));
+                break;
+            case RANDOM:
+                Collections.rotate(ret, -ThreadLocalRandom.current().nextInt(ret.size()));
+                break;
+            case LEAST_IN_FLIGHT:
+                Replica least = ret.get(0);
+                for (final Replica replica : ret) {
+                    if (replica.inFlight.get() < least.inFlight.get()) {
+                        least = replica;
+                    }
+                }
+                ret.remove(least);
+                ret.add(0, least);
+                break;
+            default:
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Etat d'un replica
+     */
+    private class Replica {
+
+        private final EntityManagerFactory factory;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        /**
+         * Mesure du retard sur l'executor
+         */
+        private final Runnable probeTask = new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        };
+
+        private volatile boolean down;
+
+        private volatile long downUntil;
+
+        private volatile long probedAt;
+
+        private volatile boolean probed;
+
+        private volatile long lagMillis;
+
+        private Replica(final EntityManagerFactory factory) {
+            this.factory = factory;
+        }
+
+        private boolean isAvailable(final long now) {
+            if (down) {
+                if (now - downUntil < 0) {
+                    return false;
+                }
+                down = false;
+            }
+            if (lagProbe == null) {
+                return true;
+            }
+            if ((!probed || now - probedAt > probeIntervalNanos) && probing.compareAndSet(false, true)) {
+                try {
+                    probeExecutor.execute(probeTask);
+                } catch (final RejectedExecutionException ex) {
+                    LOGGER.log(Level.WARNING, "Replica probe rejected: {0}", ex.getMessage());
+                    probing.set(false);
+                }
+            }
+            return probed && !down && lagMillis <= maxLagMillis;
+        }
+
+        /**
+         * Mesure le retard, une seule mesure a la fois par replica
+         */
+        private void probe() {
+            try {
+                final EntityManager entityManager = factory.createEntityManager();
+                try {
+                    lagMillis = lagProbe.getLagMillis(entityManager);
+                } finally {
+                    entityManager.close();
+                }
+                if (lagMillis > maxLagMillis) {
+                    LOGGER.log(Level.INFO, "Replica lag {0} ms", lagMillis);
+                }
+            } catch (final PersistenceException ex) {
+                LOGGER.log(Level.WARNING, "Replica probe failed: " + ex.getMessage(), ex);
+                markDown();
+            } finally {
+                probedAt = System.nanoTime();
+                probed = true;
+                probing.set(false);
+            }
+        }
+
+        private void markDown() {
+            downUntil = System.nanoTime() + retryAfterNanos;
+            down = true;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Listener JPA qui met a jour la {@link DatatableSearchColumn} de l'entité avant chaque insert et update. A declarer
+ * sur les entités avec <code>@EntityListeners(SearchColumnListener.class)</code>.
+ * <p>
+ * Une modification des seules entités jointes (par exemple le nom du client) ne met pas a jour la colonne: la
+ * relancer avec {@link SearchColumns#backfill(javax.persistence.EntityManagerFactory, Class, int)}.
+ *
+ * @author afoviedo
+ */
+public class SearchColumnListener {
+
+    /**
+     * @param entity
+     *            l'entité créée ou modifiée
+     */
+    @PrePersist
+    @PreUpdate
+    public void onChange(final Object entity) {
+        SearchColumns.update(entity);
+    }
+}
@@ -0,0 +1,284 @@
+package org.andresoviedo.datatable;
+
+import java.lang.reflect.Field;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.persistence.Column;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Lob;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+
+/**
+ * Calcul et mise a jour des colonnes de recherche dénormalisées ({@link DatatableSearchColumn}).
+ *
+ * @author afoviedo
+ */
+public final class SearchColumns {
+
+    private static final Logger LOGGER = Logger.getLogger("");
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static final SearchColumn NONE = new SearchColumn(null, new String[0], 0);
+
+    private static final ConcurrentMap<Class<?>, SearchColumn> SEARCH_COLUMNS =
+        new ConcurrentHashMap<Class<?>, SearchColumn>();
+
+    private SearchColumns() {
+        // abstract
+    }
+
+    /**
+     * Normalise un texte pour la recherche: minuscules, sans accents, espaces simples
+     *
+     * @param value
+     *            le texte
+     * @return le texte normalisé
+     */
+    public static String fold(final String value) {
+        final String ret = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        return SPACES.matcher(ret.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    /**
+     * @param entity
+     *            classe de l'entité
+     * @return le nom de l'atribut de la colonne de recherche, ou <code>null</code> si l'entité n'en a pas
+     */
+    public static String getSearchAttribute(final Class<?> entity) {
+        final SearchColumn ret = getSearchColumn(entity);
+        return ret == NONE ? null : ret.field.getName();
+    }
+
+    /**
+     * Retourne la colonne de recherche si elle peut remplacer le filtre global de la requete: les colonnes cherchables
+     * (<code>searchable</code>) de la requete doivent etre exactement les paths de l'annotation. Sinon le filtre
+     * global est un "like" par colonne cherchable.
+     *
+     * @param entity
+     *            classe de l'entité
+     * @param columns
+     *            colonnes de la requete
+     * @return le nom de l'atribut de la colonne de recherche, ou <code>null</code> si elle ne peut pas etre utilisée
+     */
+    public static String getSearchAttribute(final Class<?> entity, final List<DatatableColumn> columns) {
+        final SearchColumn ret = getSearchColumn(entity);
+        return ret != NONE && isSearchedColumns(Arrays.asList(ret.paths), columns) ? ret.field.getName() : null;
+    }
+
+    /**
+     * @param paths
+     *            paths de la colonne de recherche
+     * @param columns
+     *            colonnes de la requete
+     * @return <code>true</code> si les colonnes cherchables sont exactement les paths
+     */
+    static boolean isSearchedColumns(final Collection<String> paths, final List<DatatableColumn> columns) {
+        final Set<String> searchable = new HashSet<String>();
+        for (final DatatableColumn column : columns) {
+            if (column.getSearchable()) {
+                searchable.add(column.getData());
+            }
+        }
+        return !searchable.isEmpty() && searchable.equals(new HashSet<String>(paths));
+    }
+
+    /**
+     * Calcule la valeur de la colonne de recherche de l'entité
+     *
+     * @param entity
+     *            l'entité
+     * @return la valeur, ou <code>null</code> si l'entité n'a pas de colonne de recherche
+     */
+    public static String compute(final Object entity) {
+        final SearchColumn searchColumn = getSearchColumn(entity.getClass());
+        if (searchColumn == NONE) {
+            return null;
+        }
+        final StringBuilder ret = new StringBuilder();
+        for (final String path : searchColumn.paths) {
+            for (final Object value : getValues(entity, path)) {
+                ret.append(ret.length() == 0 ? "" : " ").append(value);
+            }
+        }
+        final String folded = fold(ret.toString());
+        return searchColumn.maxLength > 0 && folded.length() > searchColumn.maxLength
+            ? folded.substring(0, searchColumn.maxLength) : folded;
+    }
+
+    /**
+     * Met a jour la colonne de recherche de l'entité
+     *
+     * @param entity
+     *            l'entité
+     * @return <code>true</code> si la valeur a changé
+     */
+    public static boolean update(final Object entity) {
+        final SearchColumn searchColumn = getSearchColumn(entity.getClass());
+        if (searchColumn == NONE) {
+            return false;
+        }
+        final String value = compute(entity);
+        try {
+            if (value.equals(searchColumn.field.get(entity))) {
+                return false;
+            }
+            searchColumn.field.set(entity, value);
+            return true;
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException("Colonne de recherche illisible: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Recalcule la colonne de recherche de toutes les lignes de l'entité, par lots (une transaction par lot)
+     *
+     * @param entityManagerFactory
+     *            factory des entity managers
+     * @param entity
+     *            classe de l'entité
+     * @param batchSize
+     *            nombre de lignes par lot
+     * @return nombre de lignes modifiées
+     */
+    public static <E> long backfill(final EntityManagerFactory entityManagerFactory, final Class<E> entity,
+        final int batchSize) {
+        if (getSearchColumn(entity) == NONE) {
+            throw new IllegalArgumentException("Pas de colonne de recherche: " + entity.getName());
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Taille de lot invalide: " + batchSize);
+        }
+        long ret = 0;
+        int offset = 0;
+        while (true) {
+            final EntityManager entityManager = entityManagerFactory.createEntityManager();
+            final EntityTransaction transaction = entityManager.getTransaction();
+            try {
+                transaction.begin();
+                final List<E> batch = findBatch(entityManager, entity, offset, batchSize);
+                for (final E row : batch) {
+                    if (update(row)) {
+                        ret++;
+                    }
+                }
+                transaction.commit();
+                if (batch.size() < batchSize) {
+                    break;
+                }
+                offset += batch.size();
+            } catch (final RuntimeException ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            } finally {
+                entityManager.close();
+            }
+        }
+        LOGGER.log(Level.INFO, "Search column backfill {0}: {1} rows", new Object[] { entity.getName(), ret });
+        return ret;
+    }
+
+    private static <E> List<E> findBatch(final EntityManager entityManager, final Class<E> entity, final int offset,
+        final int batchSize) {
+        final EntityType<E> entityType = entityManager.getMetamodel().entity(entity);
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<E> cq = cb.createQuery(entity);
+        final Root<E> from = cq.from(entity);
+        cq.select(from).orderBy(cb.asc(from.get(entityType.getId(entityType.getIdType().getJavaType()))));
+        return entityManager.createQuery(cq).setFirstResult(offset).setMaxResults(batchSize).getResultList();
+    }
+
+    /**
+     * Valeurs d'un path, en parcourant les collections
+     */
+    private static List<Object> getValues(final Object entity, final String path) {
+        List<Object> ret = Collections.singletonList(entity);
+        for (final String name : path.split(DatatableSpecification.ESCAPED_ATTRIBUTE_SEPARATOR)) {
+            final List<Object> next = new ArrayList<Object>();
+            for (final Object bean : ret) {
+                final Object value = DatatableHelper.getProperty(bean, name);
+                if (value instanceof Iterable) {
+                    for (final Object element : (Iterable<?>) value) {
+                        if (element != null) {
+                            next.add(element);
+                        }
+                    }
+                } else if (value != null) {
+                    next.add(value);
+                }
+            }
+            ret = next;
+        }
+        return ret;
+    }
+
+    private static SearchColumn getSearchColumn(final Class<?> entity) {
+        SearchColumn ret = SEARCH_COLUMNS.get(entity);
+        if (ret == null) {
+            ret = NONE;
+            for (Class<?> clazz = entity; ret == NONE && clazz != null && clazz != Object.class; clazz =
+                clazz.getSuperclass()) {
+                for (final Field field : clazz.getDeclaredFields()) {
+                    final DatatableSearchColumn annotation = field.getAnnotation(DatatableSearchColumn.class);
+                    if (annotation != null) {
+                        if (field.getType() != String.class) {
+                            throw new IllegalStateException("La colonne de recherche doit etre un String: " + field);
+                        }
+                        field.setAccessible(true);
+                        final Column column = field.getAnnotation(Column.class);
+                        final int maxLength = column != null && field.getAnnotation(Lob.class) == null
+                            ? column.length() : 0;
+                        ret = new SearchColumn(field, annotation.value(), maxLength);
+                        break;
+                    }
+                }
+            }
+            SEARCH_COLUMNS.putIfAbsent(entity, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Colonne de recherche d'une entité
+     */
+    private static class SearchColumn {
+
+        private final Field field;
+
+        private final String[] paths;
+
+        /**
+         * Longueur de la colonne (<code>@Column(length)</code>), ou <code>0</code> pour pas de limite
+         */
+        private final int maxLength;
+
+        private SearchColumn(final Field field, final String[] paths, final int maxLength) {
+            this.field = field;
+            this.paths = paths;
+            this.maxLength = maxLength;
+        }
+    }
+}
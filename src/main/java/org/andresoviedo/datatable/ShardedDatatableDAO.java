@@ -0,0 +1,674 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.PersistenceException;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+
+/**
+ * DAO de datatable sur plusieurs bases (shards), chacune avec son {@link DatatableDAOImpl}. Les counts sont executés
+ * en parallele sur tous les shards et additionnés. Pour la page, chaque shard retourne ses
+ * <code>start + length</code> premieres lignes avec le meme ordre, fusionnées (k-way merge) avant d'appliquer
+ * l'offset.
+ * <p>
+ * Au dela de {@link #setMaxMergeWindow(int)} lignes la fusion est faite par curseur (keyset): aprés chaque page la
+ * derniere clé de tri lue sur chaque shard est gardée, et la page suivante ne lit que <code>length</code> lignes par
+ * shard a partir de cette clé. Sans curseur (saut direct a une page lointaine) les shards sont lus par blocs de
+ * {@link #setChunkSize(int)} lignes. Le curseur est valide pour les versions des données des shards au moment de la
+ * lecture: il n'est utilisé que si les shards ont une {@link DatatableDAOImpl#setDataVersionSource(DataVersionSource)
+ * source de version} et si les specifications de la requete ont une {@link KeyedSpecification clé}.
+ * <p>
+ * La fusion compare les valeurs des colonnes de tri lues sur les lignes (getters ou champs du path de la colonne,
+ * nulls en dernier en ordre ascendant): la classe de projection doit les exposer, et l'ordre des chaines doit etre le
+ * meme en base qu'en Java (collation binaire). Sans ordre, les shards sont concatenés dans l'ordre de la liste. Les
+ * requetes "group by" ne sont pas supportées: un groupe peut etre sur plusieurs shards.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type de l'entité JPA
+ */
+public class ShardedDatatableDAO<T> implements DatatableDAO<T> {
+
+    private Logger LOGGER = Logger.getLogger("");
+
+    private static final int DEFAULT_MAX_MERGE_WINDOW = 1000;
+
+    private static final int DEFAULT_CHUNK_SIZE = 200;
+
+    private final List<DatatableDAOImpl<T>> shards;
+
+    private final Executor executor;
+
+    private final ExpiringCache<String, Cursor> cursors = new ExpiringCache<String, Cursor>(1, TimeUnit.MINUTES, 1000);
+
+    private int maxMergeWindow = DEFAULT_MAX_MERGE_WINDOW;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private int publishChunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param shards
+     *            les DAOs des shards, un par base
+     * @param executor
+     *            executor des requetes paralleles sur les shards
+     */
+    public ShardedDatatableDAO(final List<DatatableDAOImpl<T>> shards, final Executor executor) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("Pas de shards configuré");
+        }
+        this.shards = new ArrayList<DatatableDAOImpl<T>>(shards);
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input) {
+        return findAll(input, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification) {
+        return findAll(input, additionalSpecification, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <R> DatatableResult<R> findAll(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
+            throw new IllegalArgumentException("Group by non supporté sur plusieurs shards");
+        }
+
+        final DatatableResult<R> output = new DatatableResult<R>();
+        output.setDraw(input.getDraw());
+        if (input.getLength() == 0) {
+            return output;
+        }
+
+        try {
+            final Pageable pageable = DatatableHelper.getPageable(input);
+            final int start = pageable.getOffset();
+            final int length = pageable.getPageSize();
+            final Sort sort = pageable.getSort();
+            final boolean topN = sort != null && (long) start + length <= maxMergeWindow;
+            // pas de curseur pour une requete sans clé (specification sans clé)
+            final boolean keyed =
+                DatatableHelper.getQueryKey(input, additionalSpecification, preFilteringSpecification) != null;
+            final String versions = sort == null || topN || !keyed ? null : getDataVersions(input);
+            final Cursor cursor =
+                versions == null ? null : cursors.get(getCursorKey(input, start, versions, additionalSpecification,
+                    preFilteringSpecification));
+
+            // Counts (et premieres lignes) en parallele sur tous les shards
+            final int headLength = topN ? start + length : sort == null || cursor != null ? 1 : chunkSize;
+            final List<DatatableResult<R>> heads = findAllShards(input, headLength, additionalSpecification,
+                preFilteringSpecification);
+            for (final DatatableResult<R> head : heads) {
+                if (head.getError() != null) {
+                    output.setError(head.getError());
+                    return output;
+                }
+                output.setRecordsTotal(output.getRecordsTotal() + head.getRecordsTotal());
+                output.setRecordsFiltered(output.getRecordsFiltered() + head.getRecordsFiltered());
+            }
+            LOGGER.log(Level.INFO, "Total prefiltered: {0}", output.getRecordsTotal());
+            LOGGER.log(Level.INFO, "Total filtered: {0}", output.getRecordsFiltered());
+            if (output.getRecordsTotal() == 0) {
+                return output;
+            }
+
+            // Page
+            if (sort == null) {
+                output.setData(concat(input, heads, start, length, additionalSpecification,
+                    preFilteringSpecification));
+                return output;
+            }
+            final List<ShardStream<R>> streams;
+            if (topN) {
+                LOGGER.log(Level.FINE, "Top-N merge: {0}", start + length);
+                streams = new ArrayList<ShardStream<R>>(shards.size());
+                for (int i = 0; i < shards.size(); i++) {
+                    streams.add(new ShardStream<R>(i, heads.get(i).getData(), null, 0));
+                }
+            } else if (cursor != null) {
+                LOGGER.log(Level.FINE, "Keyset merge: {0}", start);
+                streams = seek(input, sort, cursor, length, additionalSpecification, preFilteringSpecification);
+            } else {
+                LOGGER.log(Level.FINE, "Chunked merge: {0}", start);
+                streams = new ArrayList<ShardStream<R>>(shards.size());
+                for (int i = 0; i < shards.size(); i++) {
+                    final ShardStream<R> stream = new ShardStream<R>(i, heads.get(i).getData(), null, 0);
+                    stream.chunked(input, additionalSpecification, preFilteringSpecification, chunkSize);
+                    streams.add(stream);
+                }
+            }
+            output.setData(merge(streams, sort, topN || cursor == null ? start : 0, length));
+
+            // Curseur de la page suivante
+            if (versions != null && length != Integer.MAX_VALUE) {
+                final Cursor next = getCursor(streams);
+                if (next != null) {
+                    cursors.put(getCursorKey(input, start + length, versions, additionalSpecification,
+                        preFilteringSpecification), next);
+                }
+            }
+
+        } catch (final IllegalStateException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        } catch (final PersistenceException ex) {
+            LOGGER.log(Level.SEVERE, ex.getMessage(), ex);
+            output.setError(ex.getMessage());
+        }
+
+        return output;
+    }
+
+    /**
+     * Premieres valeurs distinctes d'une colonne commençant par le prefixe, pour l'autocompletion des filtres par
+     * colonne (voir {@link DatatableDAOImpl#findSuggestions(DatatableQuery, DatatableColumn, String, int)}). Les
+     * valeurs de chaque shard sont fusionnées sans doublons, dans l'ordre alphabetique sans tenir compte de la casse.
+     * Si un shard echoue, le resultat a son erreur.
+     * 
+     * @param input
+     *            la requete du datatable
+     * @param column
+     *            la colonne
+     * @param prefix
+     *            le prefixe (sans tenir compte de la casse)
+     * @param maxResults
+     *            nombre maximum de valeurs
+     * @return les valeurs, ou l'erreur
+     */
+    public DatatableResult<String> findSuggestions(final DatatableQuery<?, T> input, final DatatableColumn column,
+        final String prefix, final int maxResults) {
+        final List<CompletableFuture<DatatableResult<String>>> futures =
+            new ArrayList<CompletableFuture<DatatableResult<String>>>(shards.size());
+        for (final DatatableDAOImpl<T> shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> shard.findSuggestions(input, column, prefix, maxResults),
+                executor));
+        }
+        final DatatableResult<String> output = new DatatableResult<String>();
+        output.setDraw(input.getDraw());
+        final TreeMap<String, String> merged = new TreeMap<String, String>();
+        for (final DatatableResult<String> result : join(futures)) {
+            if (result.getError() != null) {
+                output.setError(result.getError());
+                return output;
+            }
+            for (final String value : result.getData()) {
+                merged.put(value.toLowerCase() + '\u0000' + value, value);
+            }
+        }
+        final List<String> ret = new ArrayList<String>(Math.min(maxResults, merged.size()));
+        for (final String value : merged.values()) {
+            if (ret.size() == maxResults) {
+                break;
+            }
+            ret.add(value);
+        }
+        output.setData(ret);
+        return output;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Les shards sont lus par blocs et fusionnés au fur et a mesure de la demande.
+     */
+    @Override
+    public <R> Flow.Publisher<R> publish(final DatatableQuery<R, T> input,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification,
+        final Executor executor) {
+
+        // asserts
+        if (input.getColumns() == null || input.getColumns().isEmpty()) {
+            throw new IllegalArgumentException("Pas de colonnes configuré");
+        }
+        if (input.getGroupByColumns() != null && !input.getGroupByColumns().isEmpty()) {
+            throw new IllegalArgumentException("Group by non supporté sur plusieurs shards");
+        }
+
+        final Pageable pageable = DatatableHelper.getPageable(input);
+        return new DatatablePublisher<R>(() -> new DatatablePublisher.PageSource<R>() {
+
+            private final List<ShardStream<R>> streams = new ArrayList<ShardStream<R>>(shards.size());
+
+            private final PriorityQueue<ShardStream<R>> queue;
+
+            private int position;
+
+            {
+                for (int i = 0; i < shards.size(); i++) {
+                    final ShardStream<R> stream = new ShardStream<R>(i, Collections.<R> emptyList(), null, 0);
+                    stream.chunked(input, additionalSpecification, preFilteringSpecification, publishChunkSize);
+                    streams.add(stream);
+                }
+                queue = newQueue(streams, pageable.getSort());
+            }
+
+            @Override
+            public List<R> fetch(final int offset, final int maxResults) {
+                final List<R> skipped = poll(queue, offset - position);
+                position += skipped.size();
+                final List<R> ret = poll(queue, maxResults);
+                position += ret.size();
+                return ret;
+            }
+
+            @Override
+            public void close() {
+                queue.clear();
+            }
+        }, pageable.getOffset(), pageable.getPageSize(), publishChunkSize, executor);
+    }
+
+    /**
+     * @param maxMergeWindow
+     *            nombre maximum de lignes (<code>start + length</code>) lues sur chaque shard pour une fusion directe;
+     *            au dela la fusion est faite par curseur ou par blocs
+     */
+    public void setMaxMergeWindow(final int maxMergeWindow) {
+        if (maxMergeWindow <= 0) {
+            throw new IllegalArgumentException("Fenetre de fusion invalide: " + maxMergeWindow);
+        }
+        this.maxMergeWindow = maxMergeWindow;
+    }
+
+    /**
+     * @param chunkSize
+     *            nombre de lignes lues par requete sur un shard pour les fusions par blocs
+     */
+    public void setChunkSize(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Taille de bloc invalide: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param publishChunkSize
+     *            nombre de lignes lues par requete sur un shard pour les publishers
+     */
+    public void setPublishChunkSize(final int publishChunkSize) {
+        if (publishChunkSize <= 0) {
+            throw new IllegalArgumentException("Taille de bloc invalide: " + publishChunkSize);
+        }
+        this.publishChunkSize = publishChunkSize;
+    }
+
+    /**
+     * Execute la requete sur tous les shards en parallele, a partir de la premiere ligne
+     */
+    private <R> List<DatatableResult<R>> findAllShards(final DatatableQuery<R, T> input, final int length,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        final List<CompletableFuture<DatatableResult<R>>> futures =
+            new ArrayList<CompletableFuture<DatatableResult<R>>>(shards.size());
+        for (final DatatableDAOImpl<T> shard : shards) {
+            final DatatableQuery<R, T> shardInput = getShardQuery(input, length);
+            futures.add(CompletableFuture.supplyAsync(
+                () -> shard.findAll(shardInput, additionalSpecification, preFilteringSpecification), executor));
+        }
+        return join(futures);
+    }
+
+    /**
+     * Page sans ordre: les shards sont concatenés, l'offset est reparti d'aprés les counts de chaque shard
+     */
+    private <R> List<R> concat(final DatatableQuery<R, T> input, final List<DatatableResult<R>> heads,
+        final int start, final int length, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+        final List<CompletableFuture<List<R>>> futures = new ArrayList<CompletableFuture<List<R>>>(shards.size());
+        long shardStart = 0;
+        final long end = (long) start + length;
+        for (int i = 0; i < shards.size() && shardStart < end; i++) {
+            final long shardEnd = shardStart + heads.get(i).getRecordsFiltered();
+            if (shardEnd > start) {
+                final DatatableDAOImpl<T> shard = shards.get(i);
+                final int offset = (int) Math.max(0, start - shardStart);
+                final int maxResults = (int) Math.min(Integer.MAX_VALUE, Math.min(end, shardEnd) - shardStart - offset);
+                final DatatableQuery<R, T> shardInput = getShardQuery(input, maxResults);
+                futures.add(CompletableFuture.supplyAsync(() -> shard.findPage(shardInput, additionalSpecification,
+                    preFilteringSpecification, offset, maxResults), executor));
+            }
+            shardStart = shardEnd;
+        }
+        final List<R> ret = new ArrayList<R>();
+        for (final List<R> rows : join(futures)) {
+            ret.addAll(rows);
+        }
+        return ret;
+    }
+
+    /**
+     * Lit <code>length</code> lignes sur chaque shard a partir du curseur
+     */
+    private <R> List<ShardStream<R>> seek(final DatatableQuery<R, T> input, final Sort sort, final Cursor cursor,
+        final int length, final Specification<T> additionalSpecification,
+        final Specification<T> preFilteringSpecification) {
+        final List<CompletableFuture<List<R>>> futures = new ArrayList<CompletableFuture<List<R>>>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            final DatatableDAOImpl<T> shard = shards.get(i);
+            final Object[] key = cursor.keys[i];
+            final int offset = cursor.duplicates[i];
+            final Specification<T> specification = key == null ? additionalSpecification
+                : Specifications.where(additionalSpecification).and(new KeysetSpecification<T>(sort, key));
+            final DatatableQuery<R, T> shardInput = getShardQuery(input, length);
+            futures.add(CompletableFuture.supplyAsync(
+                () -> shard.findPage(shardInput, specification, preFilteringSpecification, offset, length), executor));
+        }
+        final List<List<R>> pages = join(futures);
+        final List<ShardStream<R>> ret = new ArrayList<ShardStream<R>>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            ret.add(new ShardStream<R>(i, pages.get(i), cursor.keys[i], cursor.duplicates[i]));
+        }
+        return ret;
+    }
+
+    /**
+     * Fusion des shards: saute <code>skip</code> lignes et retourne les <code>length</code> suivantes
+     */
+    private <R> List<R> merge(final List<ShardStream<R>> streams, final Sort sort, final int skip, final int length) {
+        final PriorityQueue<ShardStream<R>> queue = newQueue(streams, sort);
+        poll(queue, skip);
+        return poll(queue, length);
+    }
+
+    private <R> PriorityQueue<ShardStream<R>> newQueue(final List<ShardStream<R>> streams, final Sort sort) {
+        final PriorityQueue<ShardStream<R>> ret =
+            new PriorityQueue<ShardStream<R>>(streams.size(), new Comparator<ShardStream<R>>() {
+                @Override
+                public int compare(final ShardStream<R> o1, final ShardStream<R> o2) {
+                    final int ret = sort == null ? 0 : compareKeys(sort, o1.headKey, o2.headKey);
+                    return ret != 0 ? ret : Integer.compare(o1.shard, o2.shard);
+                }
+            });
+        for (final ShardStream<R> stream : streams) {
+            stream.sort = sort;
+            if (stream.head()) {
+                ret.add(stream);
+            }
+        }
+        return ret;
+    }
+
+    private <R> List<R> poll(final PriorityQueue<ShardStream<R>> queue, final int count) {
+        final List<R> ret = new ArrayList<R>(Math.max(0, Math.min(count, DEFAULT_MAX_MERGE_WINDOW)));
+        while (ret.size() < count && !queue.isEmpty()) {
+            final ShardStream<R> stream = queue.poll();
+            ret.add(stream.take());
+            if (stream.head()) {
+                queue.add(stream);
+            }
+        }
+        return ret;
+    }
+
+    private static <R> List<R> join(final List<CompletableFuture<R>> futures) {
+        final List<R> ret = new ArrayList<R>(futures.size());
+        try {
+            for (final CompletableFuture<R> future : futures) {
+                ret.add(future.join());
+            }
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return ret;
+    }
+
+    private <R> DatatableQuery<R, T> getShardQuery(final DatatableQuery<R, T> input, final int length) {
+        final DatatableQuery<R, T> ret = DatatableHelper.copy(input);
+        ret.setStart(0);
+        ret.setLength(length);
+        ret.setVersion(null);
+        return ret;
+    }
+
+    /**
+     * Clé du curseur: la requete sans pagination et les versions des données des shards. Un curseur lu avant une
+     * modification d'un shard n'est plus trouvé (la page est alors lue par blocs).
+     */
+    private String getCursorKey(final DatatableQuery<?, T> input, final int start, final String versions,
+        final Specification<T> additionalSpecification, final Specification<T> preFilteringSpecification) {
+        final DatatableQuery<?, T> key = DatatableHelper.copy(input);
+        key.setStart(start);
+        key.setLength(0);
+        return DatatableHelper.getToken(versions,
+            DatatableHelper.getQueryKey(key, additionalSpecification, preFilteringSpecification));
+    }
+
+    /**
+     * @return les versions des données de tous les shards, lues en parallele, ou <code>null</code> si les shards
+     *         n'ont pas de source de version
+     */
+    private String getDataVersions(final DatatableQuery<?, T> input) {
+        final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(shards.size());
+        for (final DatatableDAOImpl<T> shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> shard.getDataVersion(input), executor));
+        }
+        final List<String> versions = join(futures);
+        return versions.contains(null) ? null : versions.toString();
+    }
+
+    /**
+     * @return le curseur aprés la fusion, ou <code>null</code> si une clé contient une valeur nulle
+     */
+    private <R> Cursor getCursor(final List<ShardStream<R>> streams) {
+        final Object[][] keys = new Object[streams.size()][];
+        final int[] duplicates = new int[streams.size()];
+        for (int i = 0; i < streams.size(); i++) {
+            final ShardStream<R> stream = streams.get(i);
+            if (stream.lastKey != null && Arrays.asList(stream.lastKey).contains(null)) {
+                return null;
+            }
+            keys[i] = stream.lastKey;
+            duplicates[i] = stream.lastKey == null ? 0 : stream.duplicates;
+        }
+        return new Cursor(keys, duplicates);
+    }
+
+    /**
+     * Compare les clés de tri de deux lignes: nulls en dernier en ordre ascendant
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareKeys(final Sort sort, final Object[] key1, final Object[] key2) {
+        int i = 0;
+        for (final Sort.Order order : sort) {
+            final Object value1 = key1[i];
+            final Object value2 = key2[i];
+            i++;
+            final int ret;
+            if (value1 == null || value2 == null) {
+                ret = value1 == value2 ? 0 : value1 == null ? 1 : -1;
+            } else {
+                ret = ((Comparable) value1).compareTo(value2);
+            }
+            if (ret != 0) {
+                return order.isAscending() ? ret : -ret;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return les valeurs des colonnes de tri de la ligne
+     */
+    private static Object[] getKey(final Sort sort, final Object row) {
+        final List<Object> ret = new ArrayList<Object>();
+        for (final Sort.Order order : sort) {
+            ret.add(DatatableHelper.getProperty(row, order.getProperty()));
+        }
+        return ret.toArray();
+    }
+
+    /**
+     * Lignes d'un shard pour la fusion: une page deja lue, éventuellement suivie de blocs lus a la demande. Garde la
+     * derniere clé lue et le nombre de lignes lues avec cette clé, pour le curseur de la page suivante.
+     */
+    private class ShardStream<R> {
+
+        private final int shard;
+
+        private List<R> rows;
+
+        private int position;
+
+        private Sort sort;
+
+        private Object[] headKey;
+
+        private Object[] lastKey;
+
+        private int duplicates;
+
+        // lecture par blocs
+        private DatatableQuery<R, T> input;
+        private Specification<T> additionalSpecification;
+        private Specification<T> preFilteringSpecification;
+        private int blockSize;
+        private int offset;
+        private boolean exhausted = true;
+
+        private ShardStream(final int shard, final List<R> rows, final Object[] lastKey, final int duplicates) {
+            this.shard = shard;
+            this.rows = rows == null ? Collections.<R> emptyList() : rows;
+            this.lastKey = lastKey;
+            this.duplicates = duplicates;
+        }
+
+        /**
+         * Lit les lignes suivantes par blocs, aprés les lignes deja lues
+         */
+        private void chunked(final DatatableQuery<R, T> input, final Specification<T> additionalSpecification,
+            final Specification<T> preFilteringSpecification, final int blockSize) {
+            this.input = getShardQuery(input, blockSize);
+            this.additionalSpecification = additionalSpecification;
+            this.preFilteringSpecification = preFilteringSpecification;
+            this.blockSize = blockSize;
+            this.offset = rows.size();
+            this.exhausted = !rows.isEmpty() && rows.size() < blockSize;
+        }
+
+        /**
+         * @return <code>true</code> si il y a une ligne suivante
+         */
+        private boolean head() {
+            if (position >= rows.size()) {
+                if (exhausted) {
+                    return false;
+                }
+                rows = shards.get(shard).findPage(input, additionalSpecification, preFilteringSpecification, offset,
+                    blockSize);
+                position = 0;
+                offset += rows.size();
+                exhausted = rows.size() < blockSize;
+                if (rows.isEmpty()) {
+                    return false;
+                }
+            }
+            headKey = sort == null ? null : getKey(sort, rows.get(position));
+            return true;
+        }
+
+        private R take() {
+            if (headKey != null && Arrays.equals(headKey, lastKey)) {
+                duplicates++;
+            } else {
+                lastKey = headKey;
+                duplicates = 1;
+            }
+            return rows.get(position++);
+        }
+    }
+
+    /**
+     * Position de la fusion aprés une page: par shard, la derniere clé de tri lue et le nombre de lignes lues avec
+     * cette clé (<code>null</code> et <code>0</code> si aucune ligne lue)
+     */
+    private static class Cursor {
+
+        private final Object[][] keys;
+
+        private final int[] duplicates;
+
+        private Cursor(final Object[][] keys, final int[] duplicates) {
+            this.keys = keys;
+            this.duplicates = duplicates;
+        }
+    }
+
+    /**
+     * Lignes a partir d'une clé de tri (incluse), dans l'ordre du tri:
+     * <code>(a &gt; x) or (a = x and b &gt; y) or (a = x and b = y)</code>
+     */
+    private static class KeysetSpecification<T> implements Specification<T> {
+
+        private final List<Sort.Order> orders = new ArrayList<Sort.Order>();
+
+        private final Object[] key;
+
+        private KeysetSpecification(final Sort sort, final Object[] key) {
+            for (final Sort.Order order : sort) {
+                orders.add(order);
+            }
+            this.key = key;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder cb) {
+            final List<Predicate> or = new ArrayList<Predicate>(orders.size() + 1);
+            final List<Predicate> equals = new ArrayList<Predicate>(orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                final Sort.Order order = orders.get(i);
+                final Expression<Comparable> expression =
+                    DatatableHelper.getExpression(root, order.getProperty(), Comparable.class);
+                final Comparable value = (Comparable) key[i];
+                final List<Predicate> and = new ArrayList<Predicate>(equals);
+                and.add(order.isAscending() ? cb.greaterThan(expression, value) : cb.lessThan(expression, value));
+                or.add(cb.and(and.toArray(new Predicate[and.size()])));
+                equals.add(cb.equal(expression, value));
+            }
+            or.add(cb.and(equals.toArray(new Predicate[equals.size()])));
+            return cb.or(or.toArray(new Predicate[or.size()]));
+        }
+    }
+}
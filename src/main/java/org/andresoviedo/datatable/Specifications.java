@@ -16,6 +16,9 @@
 package org.andresoviedo.datatable;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -23,12 +26,13 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
 /**
- * Helper class to easily combine {@link Specification} instances.
+ * Helper class to easily combine {@link Specification} instances. Combinations are equal, and have a
+ * {@link KeyedSpecification#getKey() key}, when their operands are.
  * 
  * @author Oliver Gierke
  * @author Thomas Darimont
  */
-public class Specifications<T> implements Specification<T>, Serializable {
+public class Specifications<T> implements KeyedSpecification<T>, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -95,6 +99,35 @@ public class Specifications<T> implements Specification<T>, Serializable {
 		return spec == null ? null : spec.toPredicate(root, query, builder);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.andresoviedo.datatable.KeyedSpecification#getKey()
+	 */
+	public String getKey() {
+		return getKey(spec);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Specifications && Objects.equals(spec, ((Specifications<?>) obj).spec);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(spec);
+	}
+
+	/**
+	 * Returns the key of the given {@link Specification}: empty for {@literal null}, {@literal null} if it is not a
+	 * {@link KeyedSpecification}.
+	 */
+	static String getKey(Specification<?> spec) {
+		if (spec == null) {
+			return "";
+		}
+		return spec instanceof KeyedSpecification ? ((KeyedSpecification<?>) spec).getKey() : null;
+	}
+
 	/**
 	 * Enum for the composition types for {@link Predicate}s.
 	 * 
@@ -102,21 +135,7 @@ public class Specifications<T> implements Specification<T>, Serializable {
 	 */
 	enum CompositionType {
 
-		AND {
-			@Override
-			public Predicate combine(CriteriaBuilder builder, Predicate lhs, Predicate rhs) {
-				return builder.and(lhs, rhs);
-			}
-		},
-
-		OR {
-			@Override
-			public Predicate combine(CriteriaBuilder builder, Predicate lhs, Predicate rhs) {
-				return builder.or(lhs, rhs);
-			}
-		};
-
-		abstract Predicate combine(CriteriaBuilder builder, Predicate lhs, Predicate rhs);
+		AND, OR
 	}
 
 	/**
@@ -125,7 +144,7 @@ public class Specifications<T> implements Specification<T>, Serializable {
 	 * @author Thomas Darimont
 	 * @since 1.6
 	 */
-	private static class NegatedSpecification<T> implements Specification<T>, Serializable {
+	private static class NegatedSpecification<T> implements KeyedSpecification<T>, Serializable {
 
 		private static final long serialVersionUID = 1L;
 
@@ -141,7 +160,23 @@ public class Specifications<T> implements Specification<T>, Serializable {
 		}
 
 		public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
-			return spec == null ? null : builder.not(spec.toPredicate(root, query, builder));
+			Predicate predicate = spec == null ? null : spec.toPredicate(root, query, builder);
+			return predicate == null ? null : builder.not(predicate);
+		}
+
+		public String getKey() {
+			String key = Specifications.getKey(spec);
+			return key == null ? null : "not(" + key.length() + ":" + key + ")";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof NegatedSpecification && Objects.equals(spec, ((NegatedSpecification<?>) obj).spec);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Objects.hashCode(spec);
 		}
 	}
 
@@ -151,7 +186,7 @@ public class Specifications<T> implements Specification<T>, Serializable {
 	 * @author Thomas Darimont
 	 * @since 1.6
 	 */
-	private static class ComposedSpecification<T> implements Specification<T>, Serializable {
+	private static class ComposedSpecification<T> implements KeyedSpecification<T>, Serializable {
 
 		private static final long serialVersionUID = 1L;
 
@@ -178,15 +213,75 @@ public class Specifications<T> implements Specification<T>, Serializable {
 
 		/**
 		 * Returns {@link Predicate} for the given {@link Root} and {@link CriteriaQuery} that is constructed via the given
-		 * {@link CriteriaBuilder}.
+		 * {@link CriteriaBuilder}. Nested compositions of the same type are flattened into one n-ary predicate;
+		 * {@literal null} specifications and predicates are skipped.
 		 */
 		public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
 
-			Predicate otherPredicate = rhs == null ? null : rhs.toPredicate(root, query, builder);
-			Predicate thisPredicate = lhs == null ? null : lhs.toPredicate(root, query, builder);
+			List<Specification<T>> operands = getOperands();
+
+			List<Predicate> predicates = new ArrayList<Predicate>(operands.size());
+			for (Specification<T> operand : operands) {
+				predicates.add(operand.toPredicate(root, query, builder));
+			}
+			return compositionType == CompositionType.AND ? DatatablePredicates.and(builder, predicates)
+					: DatatablePredicates.or(builder, predicates);
+		}
+
+		/**
+		 * Returns the key of the flattened operands, {@literal null} if one of them has no key.
+		 */
+		public String getKey() {
+			StringBuilder key = new StringBuilder(compositionType.name()).append('(');
+			for (Specification<T> operand : getOperands()) {
+				String operandKey = Specifications.getKey(operand);
+				if (operandKey == null) {
+					return null;
+				}
+				key.append(operandKey.length()).append(':').append(operandKey);
+			}
+			return key.append(')').toString();
+		}
+
+		/**
+		 * Compositions are equal when their flattened operands are.
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ComposedSpecification)) {
+				return false;
+			}
+			ComposedSpecification<?> other = (ComposedSpecification<?>) obj;
+			return compositionType == other.compositionType && getOperands().equals(other.getOperands());
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * compositionType.hashCode() + getOperands().hashCode();
+		}
 
-			return thisPredicate == null ? otherPredicate : otherPredicate == null ? thisPredicate : this.compositionType
-					.combine(builder, thisPredicate, otherPredicate);
+		private List<Specification<T>> getOperands() {
+			List<Specification<T>> operands = new ArrayList<Specification<T>>();
+			collect(this, operands);
+			return operands;
+		}
+
+		/**
+		 * Collects the operands of this composition, descending into nested compositions of the same type.
+		 */
+		private void collect(Specification<T> spec, List<Specification<T>> operands) {
+			if (spec == null) {
+				return;
+			}
+			if (spec instanceof Specifications) {
+				collect(((Specifications<T>) spec).spec, operands);
+			} else if (spec instanceof ComposedSpecification
+					&& ((ComposedSpecification<T>) spec).compositionType == compositionType) {
+				collect(((ComposedSpecification<T>) spec).lhs, operands);
+				collect(((ComposedSpecification<T>) spec).rhs, operands);
+			} else {
+				operands.add(spec);
+			}
 		}
 	}
 }
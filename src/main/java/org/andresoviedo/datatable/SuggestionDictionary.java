@@ -0,0 +1,155 @@
+package org.andresoviedo.datatable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dictionnaire trié des valeurs distinctes d'une colonne, pour l'autocompletion des filtres par colonne. Les valeurs
+ * sont triées sans tenir compte de la casse: les valeurs commençant par un prefixe sont une plage du dictionnaire.
+ * <p>
+ * Les lectures ne sont pas bloquées pendant un rafraichissement: les nouvelles valeurs sont ajoutées au dictionnaire
+ * courant, et un rechargement complet remplace le dictionnaire.
+ *
+ * @author afoviedo
+ */
+class SuggestionDictionary {
+
+    /**
+     * Separateur entre la clé en minuscules et la valeur: deux valeurs qui ne different que par la casse sont gardées
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile NavigableMap<String, String> values;
+
+    private volatile boolean complete;
+
+    private volatile Object highWaterMark;
+
+    private volatile long refreshedAt;
+
+    private volatile long loadedAt;
+
+    /**
+     * @return <code>true</code> si le dictionnaire n'a pas encore été chargé
+     */
+    boolean isCold() {
+        return values == null;
+    }
+
+    /**
+     * @return <code>false</code> si la colonne a trop de valeurs pour le dictionnaire
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    Object getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return <code>true</code> si le thread doit rafraichir le dictionnaire, <code>false</code> si un autre thread le
+     *         rafraichit deja
+     */
+    boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+
+    void endRefresh() {
+        refreshing.set(false);
+    }
+
+    /**
+     * Remplace le dictionnaire
+     *
+     * @param newValues
+     *            toutes les valeurs de la colonne, ou <code>null</code> si la colonne a trop de valeurs
+     * @param newHighWaterMark
+     *            version maximum des lignes lues
+     * @param now
+     *            date du chargement ({@link System#nanoTime()})
+     */
+    void load(final Collection<?> newValues, final Object newHighWaterMark, final long now) {
+        final NavigableMap<String, String> map = new ConcurrentSkipListMap<String, String>();
+        if (newValues != null) {
+            put(map, newValues);
+        }
+        this.complete = newValues != null;
+        this.highWaterMark = newHighWaterMark;
+        this.values = map;
+        this.loadedAt = now;
+        this.refreshedAt = now;
+    }
+
+    /**
+     * Ajoute les valeurs des lignes modifiées depuis le high-water mark
+     *
+     * @param newValues
+     *            les valeurs
+     * @param newHighWaterMark
+     *            version maximum des lignes lues
+     * @param maxSize
+     *            nombre maximum de valeurs: au dela la colonne n'est plus servie par le dictionnaire
+     * @param now
+     *            date du rafraichissement ({@link System#nanoTime()})
+     */
+    void add(final Collection<?> newValues, final Object newHighWaterMark, final int maxSize, final long now) {
+        if (newValues.size() > maxSize) {
+            load(null, newHighWaterMark, now);
+            return;
+        }
+        put(values, newValues);
+        if (values.size() > maxSize) {
+            load(null, newHighWaterMark, now);
+            return;
+        }
+        this.highWaterMark = newHighWaterMark;
+        this.refreshedAt = now;
+    }
+
+    private static void put(final NavigableMap<String, String> map, final Collection<?> newValues) {
+        for (final Object value : newValues) {
+            if (value != null) {
+                final String text = String.valueOf(value);
+                map.put(text.toLowerCase() + SEPARATOR + text, text);
+            }
+        }
+    }
+
+    /**
+     * @param prefix
+     *            prefixe (sans tenir compte de la casse)
+     * @param maxResults
+     *            nombre maximum de valeurs
+     * @return les premieres valeurs commençant par le prefixe, dans l'ordre alphabetique
+     */
+    List<String> find(final String prefix, final int maxResults) {
+        final String from = prefix.toLowerCase();
+        final List<String> ret = new ArrayList<String>(Math.min(maxResults, 16));
+        for (final String value : values.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            if (ret.size() == maxResults) {
+                break;
+            }
+            ret.add(value);
+        }
+        return ret;
+    }
+
+    int size() {
+        return values == null ? 0 : values.size();
+    }
+}
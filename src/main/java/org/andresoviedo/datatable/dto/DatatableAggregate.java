@@ -0,0 +1,36 @@
+package org.andresoviedo.datatable.dto;
+
+/**
+ * Agregat d'une colonne, calculé sur les lignes filtrées avec le count filtré
+ * 
+ * @author afoviedo
+ */
+public enum DatatableAggregate {
+
+    /**
+     * Somme (colonne numerique)
+     */
+    SUM,
+
+    /**
+     * Moyenne (colonne numerique)
+     */
+    AVG,
+
+    /**
+     * Minimum (colonne comparable: nombres, dates, textes)
+     */
+    MIN,
+
+    /**
+     * Maximum (colonne comparable: nombres, dates, textes)
+     */
+    MAX;
+
+    /**
+     * @return le nom de l'agregat dans le resultat: "sum", "avg", "min" ou "max"
+     */
+    public String getKey() {
+        return name().toLowerCase();
+    }
+}
@@ -1,5 +1,10 @@
 package org.andresoviedo.datatable.dto;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import javax.validation.constraints.NotNull;
 
 /**
@@ -54,6 +59,11 @@ public class DatatableColumn {
      */
     private Class<?> type = String.class;
 
+    /**
+     * Agregats de la colonne, calculés sur les lignes filtrées
+     */
+    private List<DatatableAggregate> aggregates = Collections.emptyList();
+
     /**
      * Construct a datatable column
      */
@@ -208,6 +218,33 @@ public class DatatableColumn {
         this.type = type;
     }
 
+    /**
+     * @return agregats de la colonne, calculés sur les lignes filtrées
+     */
+    public List<DatatableAggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @param aggregates
+     *            agregats de la colonne, calculés sur les lignes filtrées
+     */
+    public void setAggregates(final List<DatatableAggregate> aggregates) {
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * @param aggregate
+     *            agregats a ajouter
+     * @return this
+     */
+    public DatatableColumn addAggregate(final DatatableAggregate... aggregate) {
+        final List<DatatableAggregate> ret = new ArrayList<DatatableAggregate>(aggregates);
+        ret.addAll(Arrays.asList(aggregate));
+        this.aggregates = ret;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
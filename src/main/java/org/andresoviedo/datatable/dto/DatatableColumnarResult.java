@@ -0,0 +1,87 @@
+package org.andresoviedo.datatable.dto;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Datatable AJAX result in columnar form: the column names once, then one array of values per column instead of one
+ * object per row. Low-cardinality string columns are dictionary-encoded: their values are indexes in
+ * {@link #getDictionaries()}. {@link #getData()} is always empty; the rows are rebuilt by the javascript decoder
+ * <code>META-INF/resources/datatable/datatable-columnar.js</code> in the DataTables <code>ajax.dataSrc</code> hook.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type du bean encodé
+ */
+public class DatatableColumnarResult<T> extends DatatableResult<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Format of this result, for the decoder
+     */
+    public static final String FORMAT = "columnar";
+
+    /**
+     * Number of rows
+     */
+    private int size;
+
+    /**
+     * Data source of each column (DataTables <code>columns.data</code>, may be a dotted path)
+     */
+    private List<String> columns = Collections.emptyList();
+
+    /**
+     * Values of each column, in the order of {@link #getColumns()}: one array per column with one value per row
+     */
+    private List<List<Object>> values = Collections.emptyList();
+
+    /**
+     * Dictionaries of the dictionary-encoded columns, by column data source
+     */
+    private Map<String, List<String>> dictionaries = Collections.emptyMap();
+
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(final int size) {
+        this.size = size;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(final List<String> columns) {
+        this.columns = columns;
+    }
+
+    public List<List<Object>> getValues() {
+        return values;
+    }
+
+    public void setValues(final List<List<Object>> values) {
+        this.values = values;
+    }
+
+    public Map<String, List<String>> getDictionaries() {
+        return dictionaries;
+    }
+
+    public void setDictionaries(final Map<String, List<String>> dictionaries) {
+        this.dictionaries = dictionaries;
+    }
+
+    @Override
+    public String toString() {
+        return "DatatableColumnarResult [size=" + size + ", columns=" + columns + ", dictionaries="
+            + dictionaries.keySet() + ", " + super.toString() + "]";
+    }
+}
@@ -0,0 +1,69 @@
+package org.andresoviedo.datatable.dto;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Datatable AJAX delta result: only the rows of the current page that changed since the previous result, so that the
+ * view can patch its table in place.
+ * <p>
+ * {@link #getData()} contains the rows of the current page that were inserted or updated since the high-water mark,
+ * or that were not yet displayed by the view. {@link #getRowIds()} is the complete, ordered list of the ids of the
+ * current page: the view must display its rows in that order and drop the rows listed in {@link #getRemovedIds()}.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type du bean a retourner
+ */
+public class DatatableDelta<T> extends DatatableResult<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Ids of the rows of the current page, in display order
+     */
+    private List<Object> rowIds = Collections.emptyList();
+
+    /**
+     * Ids displayed by the view that are no longer in the current page (deleted, filtered out or moved to another
+     * page)
+     */
+    private List<Object> removedIds = Collections.emptyList();
+
+    /**
+     * High-water mark of this result: the highest value of the version column in the current page. To be sent back
+     * for the next delta request.
+     */
+    private Object highWaterMark;
+
+    public List<Object> getRowIds() {
+        return rowIds;
+    }
+
+    public void setRowIds(final List<Object> rowIds) {
+        this.rowIds = rowIds;
+    }
+
+    public List<Object> getRemovedIds() {
+        return removedIds;
+    }
+
+    public void setRemovedIds(final List<Object> removedIds) {
+        this.removedIds = removedIds;
+    }
+
+    public Object getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(final Object highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        return "DataTablesDelta [" + super.toString() + ", rowIds=" + rowIds + ", removedIds=" + removedIds
+            + ", highWaterMark=" + highWaterMark + "]";
+    }
+
+}
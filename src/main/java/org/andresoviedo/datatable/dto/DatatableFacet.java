@@ -0,0 +1,116 @@
+package org.andresoviedo.datatable.dto;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Distinct values of a column with their number of rows, for the filter dropdowns of the view (SearchPanes style).
+ * The counts are computed under the other active filters of the query, without the column's own filter.
+ *
+ * @author afoviedo
+ */
+public class DatatableFacet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Column's data source
+     */
+    private String column;
+
+    /**
+     * Values of the column, most frequent first
+     */
+    private List<Value> values = Collections.emptyList();
+
+    /**
+     * <code>true</code> if the column has more values than the returned ones
+     */
+    private boolean truncated;
+
+    /**
+     * Error message if the column could not be counted
+     */
+    private String error;
+
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(final String column) {
+        this.column = column;
+    }
+
+    public List<Value> getValues() {
+        return values;
+    }
+
+    public void setValues(final List<Value> values) {
+        this.values = values;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(final boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(final String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "DatatableFacet [column=" + column + ", values=" + values + ", truncated=" + truncated + ", error=" + error
+            + "]";
+    }
+
+    /**
+     * A value of the column with its number of rows
+     */
+    public static class Value implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Object value;
+
+        private long count;
+
+        public Value() {
+            super();
+        }
+
+        public Value(final Object value, final long count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public void setValue(final Object value) {
+            this.value = value;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(final long count) {
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return value + "=" + count;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.andresoviedo.datatable.dto;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Datatable AJAX result paginated by groups of rows (DataTables RowGroup style). The records counts are numbers of
+ * groups: the page contains the groups from <code>start</code> to <code>start + length</code>. Each group header has
+ * the values of the group columns and its number of rows; {@link #getData()} contains the member rows of the groups
+ * of the page, in the order of {@link #getGroups()}.
+ *
+ * @author afoviedo
+ * @param <T>
+ *            type des lignes
+ */
+public class DatatableGroupedResult<T> extends DatatableResult<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Data source of the group columns
+     */
+    private List<String> groupColumns = Collections.emptyList();
+
+    /**
+     * Group headers of the page
+     */
+    private List<Group> groups = Collections.emptyList();
+
+    /**
+     * <code>true</code> if the groups of the page have more rows than the maximum: {@link #getData()} only has the
+     * first rows
+     */
+    private boolean truncated;
+
+    public List<String> getGroupColumns() {
+        return groupColumns;
+    }
+
+    public void setGroupColumns(final List<String> groupColumns) {
+        this.groupColumns = groupColumns;
+    }
+
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    public void setGroups(final List<Group> groups) {
+        this.groups = groups;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(final boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    @Override
+    public String toString() {
+        return "DatatableGroupedResult [groupColumns=" + groupColumns + ", groups=" + groups + ", truncated="
+            + truncated + ", " + super.toString() + "]";
+    }
+
+    /**
+     * Group header: values of the group columns and number of rows
+     */
+    public static class Group implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private List<Object> values;
+
+        private long count;
+
+        public Group() {
+            super();
+        }
+
+        public Group(final List<Object> values, final long count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+
+        public void setValues(final List<Object> values) {
+            this.values = values;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(final long count) {
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return values + "=" + count;
+        }
+    }
+}
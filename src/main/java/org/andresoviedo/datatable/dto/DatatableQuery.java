@@ -69,6 +69,10 @@ public class DatatableQuery<R, E> {
      * Extra properties envoyés depuis la vue
      */
     private Map<String, Object> extraProps = new HashMap<String, Object>();
+    /**
+     * Version des données du resultat precedent ({@link DatatableResult#getVersion()}), renvoyée par la vue
+     */
+    private String version;
     // ------------------------------------------ atributs moteur datatable ---------------------------------------- //
     /**
      * Type de retour
@@ -518,6 +522,21 @@ public class DatatableQuery<R, E> {
         this.extraProps = extraProps;
     }
 
+    /**
+     * @return version des données du resultat precedent, ou <code>null</code>
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version
+     *            version des données du resultat precedent ({@link DatatableResult#getVersion()})
+     */
+    public void setVersion(final String version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "DataTablesInput [draw=" + draw + ", start=" + start + ", length=" + length + ", search=" + search
@@ -3,6 +3,7 @@ package org.andresoviedo.datatable.dto;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Datatable AJAX result
@@ -47,6 +48,30 @@ public class DatatableResult<T> implements Serializable {
      */
     private String error;
 
+    /**
+     * Version des données de ce resultat (token de la version des données et de la requete). A renvoyer dans
+     * {@link DatatableQuery#setVersion(String)} pour la requete suivante.
+     */
+    private String version;
+
+    /**
+     * <code>true</code> si les données n'ont pas changé depuis la version envoyée par la requete: dans ce cas le
+     * resultat ne contient ni les counts ni les données.
+     */
+    private boolean notModified;
+
+    /**
+     * Degradations appliquées a la requete par le controle de cout (page limitée, ordres supprimés, count filtré
+     * approximatif). Vide si la requete a été executée telle quelle.
+     */
+    private List<String> downgrades = Collections.emptyList();
+
+    /**
+     * Agregats des colonnes sur les lignes filtrées: par data de colonne, la valeur de chaque agregat ("sum", "avg",
+     * "min", "max"). Vide si la requete n'a pas d'agregats.
+     */
+    private Map<String, Map<String, Object>> aggregates = Collections.emptyMap();
+
     public int getDraw() {
         return draw;
     }
@@ -87,10 +112,44 @@ public class DatatableResult<T> implements Serializable {
         this.error = error;
     }
 
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(final String version) {
+        this.version = version;
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public void setNotModified(final boolean notModified) {
+        this.notModified = notModified;
+    }
+
+    public List<String> getDowngrades() {
+        return downgrades;
+    }
+
+    public void setDowngrades(final List<String> downgrades) {
+        this.downgrades = downgrades;
+    }
+
+    public Map<String, Map<String, Object>> getAggregates() {
+        return aggregates;
+    }
+
+    public void setAggregates(final Map<String, Map<String, Object>> aggregates) {
+        this.aggregates = aggregates;
+    }
+
     @Override
     public String toString() {
         return "DataTablesOutput [draw=" + draw + ", recordsTotal=" + recordsTotal + ", recordsFiltered="
-            + recordsFiltered + ", data=" + data + ", error=" + error + "]";
+            + recordsFiltered + ", data=" + data + ", error=" + error + ", version=" + version + ", notModified="
+            + notModified + ", downgrades=" + downgrades
+            + ", aggregates=" + aggregates + "]";
     }
 
 }
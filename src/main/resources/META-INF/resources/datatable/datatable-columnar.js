@@ -0,0 +1,52 @@
+/**
+ * Decodeur du format columnar des resultats du datatable (DatatableColumnarResult): reconstruit les lignes a partir
+ * des colonnes. Les colonnes avec un path ("customer.name") sont reconstruites en objets imbriqués.
+ *
+ * $('#orders').DataTable({
+ *     serverSide: true,
+ *     ajax: { url: 'orders', dataSrc: datatableColumnar.dataSrc }
+ * });
+ *
+ * @author afoviedo
+ */
+(function (root) {
+    'use strict';
+
+    function set(row, path, value) {
+        var names = path.split('.');
+        var target = row;
+        for (var i = 0; i < names.length - 1; i++) {
+            target = target[names[i]] || (target[names[i]] = {});
+        }
+        target[names[names.length - 1]] = value;
+    }
+
+    function decode(json) {
+        if (json.format !== 'columnar') {
+            return json.data;
+        }
+        var rows = new Array(json.size);
+        for (var r = 0; r < json.size; r++) {
+            rows[r] = {};
+        }
+        var dictionaries = json.dictionaries || {};
+        for (var c = 0; c < json.columns.length; c++) {
+            var name = json.columns[c];
+            var values = json.values[c];
+            var dictionary = dictionaries[name];
+            for (var i = 0; i < json.size; i++) {
+                var value = values[i];
+                set(rows[i], name, dictionary && value !== null ? dictionary[value] : value);
+            }
+        }
+        return rows;
+    }
+
+    root.datatableColumnar = {
+        decode: decode,
+        dataSrc: function (json) {
+            json.data = decode(json);
+            return json.data;
+        }
+    };
+})(this);
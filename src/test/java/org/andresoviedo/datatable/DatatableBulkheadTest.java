@@ -0,0 +1,170 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.andresoviedo.datatable.DatatableBulkhead.Permit;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableFacet;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.junit.Test;
+
+/**
+ * Tests du {@link DatatableBulkhead}: comptage des places par entité et par tenant
+ *
+ * @author afoviedo
+ */
+public class DatatableBulkheadTest {
+
+    private static DatatableQuery<Object, Object> newQuery(final String tenant) {
+        final DatatableQuery<Object, Object> ret = new DatatableQuery<Object, Object>();
+        DatatableBulkhead.setTenant(ret, tenant);
+        return ret;
+    }
+
+    @Test
+    public void entityPermits() {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(2, 0, 0);
+        final Permit permit1 = bulkhead.acquire(Object.class, null);
+        final Permit permit2 = bulkhead.acquire(Object.class, null);
+        assertNull(bulkhead.tryAcquire(Object.class, null));
+        assertRejected(bulkhead, Object.class, null);
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(2, bulkhead.getAdmitted());
+
+        // une autre entité a ses propres places
+        assertNotNull(bulkhead.tryAcquire(String.class, null));
+
+        // la place n'est rendue qu'une fois
+        permit1.release();
+        permit1.release();
+        assertNotNull(bulkhead.tryAcquire(Object.class, null));
+        assertNull(bulkhead.tryAcquire(Object.class, null));
+        permit2.release();
+    }
+
+    @Test
+    public void queuedTenantDoesNotHoldEntityPermit() throws Exception {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(2, 1, 5);
+        final Permit tenant1 = bulkhead.acquire(Object.class, newQuery("a"));
+
+        // la deuxieme requete du tenant "a" attend sa place de tenant
+        final CompletableFuture<Permit> queued =
+            CompletableFuture.supplyAsync(() -> bulkhead.acquire(Object.class, newQuery("a")));
+        while (bulkhead.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, bulkhead.getQueueDepth(Object.class));
+
+        // ... sans occuper la deuxieme place de l'entité
+        final Permit other = bulkhead.tryAcquire(Object.class, newQuery("b"));
+        assertNotNull(other);
+        other.release();
+
+        tenant1.release();
+        queued.get(5, TimeUnit.SECONDS).release();
+        assertEquals(0, bulkhead.getQueueDepth());
+        assertEquals(2, bulkhead.getAdmitted());
+    }
+
+    @Test
+    public void timeoutReleasesPermits() {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(2, 1, 5);
+        bulkhead.setMaxWait(10, TimeUnit.MILLISECONDS);
+        final Permit permit = bulkhead.acquire(Object.class, newQuery("a"));
+        assertRejected(bulkhead, Object.class, newQuery("a"));
+        assertEquals(1, bulkhead.getTimeouts());
+        assertEquals(0, bulkhead.getQueueDepth());
+
+        permit.release();
+        final Permit again = bulkhead.tryAcquire(Object.class, newQuery("a"));
+        assertNotNull(again);
+        again.release();
+    }
+
+    @Test
+    public void entityRejectionReleasesTenantPermit() {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(1, 1, 0);
+        final Permit permit = bulkhead.acquire(Object.class, null);
+
+        // place de tenant prise puis rendue: l'entité est pleine
+        assertRejected(bulkhead, Object.class, newQuery("a"));
+        assertNull(bulkhead.tryAcquire(Object.class, newQuery("a")));
+
+        permit.release();
+        final Permit tenant = bulkhead.tryAcquire(Object.class, newQuery("a"));
+        assertNotNull(tenant);
+        assertNull(bulkhead.tryAcquire(String.class, newQuery("a")));
+        tenant.release();
+        assertNotNull(bulkhead.tryAcquire(String.class, newQuery("a")));
+    }
+
+    @Test
+    public void entityManagerFailureReleasesPermit() {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(1, 0, 0);
+        final DatatableDAOImpl<Object> dao = new DatatableDAOImpl<Object>(new EntityManagerProvider() {
+            @Override
+            public EntityManager getEntityManager(final DatatableQuery<?, ?> input) {
+                throw new PersistenceException("Connexion refusée");
+            }
+
+            @Override
+            public void releaseEntityManager(final EntityManager entityManager) {
+                fail("Pas d'entity manager");
+            }
+        }, Object.class);
+        dao.setBulkhead(bulkhead);
+        dao.setVersionAttribute("version");
+        final DatatableQuery<Object, Object> input = newQuery(null);
+        input.addColumn(new DatatableColumn("id", "id"));
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("Connexion refusée", dao.findChanges(input, null, null).getError());
+            assertEquals("Connexion refusée", dao.findAllGrouped(input, Arrays.asList("id")).getError());
+            assertEquals("Connexion refusée",
+                dao.findSuggestions(input, input.getColumns().get(0), "", 10).getError());
+            try {
+                dao.findAll(input);
+                fail("Page sans entity manager");
+            } catch (final PersistenceException ex) {
+                // ok
+            }
+            try {
+                dao.findFacets(input, Arrays.asList("id"));
+                fail("Facettes sans entity manager");
+            } catch (final PersistenceException ex) {
+                // ok
+            }
+        }
+        assertEquals(0, bulkhead.getRejected());
+
+        // une colonne sans place est une erreur de la facette
+        final Permit permit = bulkhead.acquire(Object.class, null);
+        final DatatableFacet facet = dao.findFacets(input, Collections.singletonList("id")).get(0);
+        assertEquals("id", facet.getColumn());
+        assertNotEquals(null, facet.getError());
+        assertNotEquals(null, dao.findSuggestions(input, input.getColumns().get(0), "", 10).getError());
+        permit.release();
+    }
+
+    private static void assertRejected(final DatatableBulkhead bulkhead, final Class<?> entity,
+        final DatatableQuery<?, ?> input) {
+        try {
+            bulkhead.acquire(entity, input).release();
+            fail("Requete admise");
+        } catch (final IllegalStateException ex) {
+            // ok
+        }
+    }
+}
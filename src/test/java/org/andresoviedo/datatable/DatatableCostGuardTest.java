@@ -0,0 +1,227 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.andresoviedo.datatable.DatatableCostGuard.Mode;
+import org.andresoviedo.datatable.DatatableCostGuard.Plan;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+import org.junit.Test;
+
+/**
+ * Tests du {@link DatatableCostGuard}: cout, degradation et rejet
+ *
+ * @author afoviedo
+ */
+public class DatatableCostGuardTest {
+
+    /**
+     * Entité du test: "id" et "reference" (premiere colonne d'une contrainte unique) sont indexés
+     */
+    @Table(uniqueConstraints = @UniqueConstraint(columnNames = { "REFERENCE", "STATUS" }))
+    static class Order {
+
+        @Id
+        private Long id;
+
+        @Column(name = "REFERENCE")
+        private String reference;
+
+        private String status;
+    }
+
+    static class Customer {
+    }
+
+    static class Line {
+    }
+
+    private final ManagedType<Order> orderType = managedType(Order.class,
+        attribute("customer", PersistentAttributeType.MANY_TO_ONE, managedType(Customer.class, null)),
+        attribute("lines", PersistentAttributeType.ONE_TO_MANY, managedType(Line.class, null)));
+
+    private static DatatableQuery<Order, Order> newQuery(final int length) {
+        final DatatableQuery<Order, Order> ret = new DatatableQuery<Order, Order>(length);
+        ret.addColumn(new DatatableColumn("id", "id", false, true, null),
+            new DatatableColumn("status", "status", true, true, new DatatableSearch("", false)),
+            new DatatableColumn("customer", "customer.name", false, true, null),
+            new DatatableColumn("product", "lines.product", true, false, new DatatableSearch("", false)));
+        ret.setStart(0);
+        return ret;
+    }
+
+    @Test
+    public void declaredIndexes() {
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.REJECT);
+        assertTrue(guard.isIndexed(Order.class, "id"));
+        assertTrue(guard.isIndexed(Order.class, "reference"));
+        assertFalse(guard.isIndexed(Order.class, "status"));
+        assertFalse(guard.isIndexed(Order.class, "customer.name"));
+        guard.addIndex(Order.class, "customer.name");
+        assertTrue(guard.isIndexed(Order.class, "customer.name"));
+    }
+
+    @Test
+    public void cost() {
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.REJECT);
+        final DatatableQuery<Order, Order> input = newQuery(10);
+        // 10 lignes
+        assertEquals(10, guard.getCost(input, orderType, false));
+
+        // ordre sans index (50) et join to-one (10)
+        input.addOrder("customer.name", true);
+        assertEquals(70, guard.getCost(input, orderType, false));
+
+        // "like" sur la page et le count (2 * 5) et join to-many (20)
+        input.getColumns().get(3).setSearchValue("abc");
+        assertEquals(100, guard.getCost(input, orderType, false));
+        assertEquals(95, guard.getCost(input, orderType, true));
+
+        // page sans limite
+        input.setLength(-1);
+        assertEquals(1090, guard.getCost(input, orderType, false));
+
+        guard.addIndex(Order.class, "customer.name");
+        assertEquals(1040, guard.getCost(input, orderType, false));
+    }
+
+    @Test
+    public void planWithinBudget() {
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.REJECT);
+        final DatatableQuery<Order, Order> input = newQuery(10);
+        input.addOrder("id", false);
+
+        final Plan<Order, Order> plan = guard.plan(input, orderType);
+        assertSame(input, plan.getQuery());
+        assertEquals(10, plan.getCost());
+        assertEquals(Collections.emptyList(), plan.getDowngrades());
+        assertEquals(0, plan.getCountLimit());
+    }
+
+    @Test
+    public void downgradeLength() {
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.DOWNGRADE);
+        final DatatableQuery<Order, Order> input = newQuery(-1);
+        input.setStart(50);
+        input.addOrder("customer.name", true);
+        input.getColumns().get(1).setSearchValue("open");
+
+        final Plan<Order, Order> plan = guard.plan(input, orderType);
+        assertEquals(Arrays.asList("length=1000"), plan.getDowngrades());
+        assertEquals(170, plan.getCost());
+        assertEquals(Integer.valueOf(0), plan.getQuery().getStart());
+        assertEquals(Integer.valueOf(1000), plan.getQuery().getLength());
+        assertEquals(0, plan.getCountLimit());
+
+        // la requete n'est pas modifiée
+        assertEquals(Integer.valueOf(-1), input.getLength());
+        assertEquals(Integer.valueOf(50), input.getStart());
+    }
+
+    @Test
+    public void downgradeOrdersThenCount() {
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.DOWNGRADE);
+        guard.setMaxCost(105);
+        final DatatableQuery<Order, Order> input = newQuery(-1);
+        input.addOrder("id", true);
+        input.addOrder("customer.name", true);
+        input.getColumns().get(1).setSearchValue("open");
+
+        final Plan<Order, Order> plan = guard.plan(input, orderType);
+        assertEquals(Arrays.asList("length=1000", "order-=[customer.name]", "recordsFiltered<=10000"),
+            plan.getDowngrades());
+        assertEquals(105, plan.getCost());
+        assertEquals(10000, plan.getCountLimit());
+        assertEquals(1, plan.getQuery().getOrder().size());
+        assertEquals(Integer.valueOf(0), plan.getQuery().getOrder().get(0).getColumn());
+        assertEquals(2, input.getOrder().size());
+    }
+
+    @Test
+    public void reject() {
+        final DatatableQuery<Order, Order> input = newQuery(-1);
+        input.getColumns().get(1).setSearchValue("open");
+        assertRejected(new DatatableCostGuard(Mode.REJECT), input);
+
+        // encore au dela du budget aprés les degradations
+        final DatatableCostGuard guard = new DatatableCostGuard(Mode.DOWNGRADE);
+        guard.setMaxCost(50);
+        assertRejected(guard, input);
+    }
+
+    private void assertRejected(final DatatableCostGuard guard, final DatatableQuery<Order, Order> input) {
+        try {
+            guard.plan(input, orderType);
+            fail("Requete acceptée");
+        } catch (final IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(Order.class.getName()));
+        }
+    }
+
+    /**
+     * Metamodel d'une entité: les atributs non declarés sont des atributs basiques
+     */
+    @SuppressWarnings("unchecked")
+    private static <X> ManagedType<X> managedType(final Class<X> javaType, final Attribute<?, ?>... attributes) {
+        final Map<String, Attribute<?, ?>> byName = new HashMap<String, Attribute<?, ?>>();
+        if (attributes != null) {
+            for (final Attribute<?, ?> attribute : attributes) {
+                byName.put(attribute.getName(), attribute);
+            }
+        }
+        return (ManagedType<X>) Proxy.newProxyInstance(ManagedType.class.getClassLoader(),
+            new Class<?>[] { ManagedType.class }, (proxy, method, args) -> {
+                if ("getJavaType".equals(method.getName())) {
+                    return javaType;
+                }
+                if ("getAttribute".equals(method.getName())) {
+                    final Attribute<?, ?> ret = byName.get(args[0]);
+                    return ret != null ? ret : attribute((String) args[0], PersistentAttributeType.BASIC, null);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private static Attribute<?, ?> attribute(final String name, final PersistentAttributeType attributeType,
+        final ManagedType<?> type) {
+        final boolean collection = attributeType == PersistentAttributeType.ONE_TO_MANY
+            || attributeType == PersistentAttributeType.MANY_TO_MANY;
+        return (Attribute<?, ?>) Proxy.newProxyInstance(Attribute.class.getClassLoader(),
+            new Class<?>[] { collection ? PluralAttribute.class : SingularAttribute.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getPersistentAttributeType":
+                    return attributeType;
+                case "isCollection":
+                    return collection;
+                case "getType":
+                case "getElementType":
+                    return type;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
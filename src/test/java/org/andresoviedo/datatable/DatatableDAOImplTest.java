@@ -0,0 +1,408 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.andresoviedo.datatable.dto.DatatableAggregate;
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableDelta;
+import org.andresoviedo.datatable.dto.DatatableGroupedResult;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+import org.andresoviedo.datatable.model.Order;
+import org.andresoviedo.datatable.model.StatusRollup;
+import org.andresoviedo.datatable.model.StatusRow;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests du {@link DatatableDAOImpl} sur la base H2 des tests ({@link TestDatabase})
+ *
+ * @author afoviedo
+ */
+public class DatatableDAOImplTest {
+
+    private DatatableDAOImpl<Order> dao;
+
+    /**
+     * Requetes passées a chaque checkout de l'entity manager
+     */
+    private final List<DatatableQuery<?, ?>> checkouts = new ArrayList<DatatableQuery<?, ?>>();
+
+    @Before
+    public void setUp() {
+        final EntityManagerProvider provider = EntityManagerProviders.perDraw(TestDatabase.reset());
+        dao = new DatatableDAOImpl<Order>(new EntityManagerProvider() {
+            @Override
+            public EntityManager getEntityManager(final DatatableQuery<?, ?> input) {
+                if (input != null) {
+                    checkouts.add(input);
+                }
+                return provider.getEntityManager(input);
+            }
+
+            @Override
+            public void releaseEntityManager(final EntityManager entityManager) {
+                provider.releaseEntityManager(entityManager);
+            }
+        }, Order.class);
+    }
+
+    private static DatatableQuery<Order, Order> newQuery(final int length) {
+        final DatatableQuery<Order, Order> ret = new DatatableQuery<Order, Order>(length);
+        ret.addColumn(new DatatableColumn("id", "id", false, true, null),
+            new DatatableColumn("reference", "reference", true, true, new DatatableSearch("", false)),
+            new DatatableColumn("status", "status", true, true, new DatatableSearch("", false)),
+            new DatatableColumn("amount", "amount", false, true, null),
+            new DatatableColumn("customer", "customer.name", true, true, new DatatableSearch("", false)),
+            new DatatableColumn("product", "lines.product", true, false, new DatatableSearch("", false)));
+        ret.addOrder("id", true);
+        return ret;
+    }
+
+    /**
+     * Specification sans clé, avec le meme hash pour toutes les villes
+     */
+    private static Specification<Order> city(final String city) {
+        return new Specification<Order>() {
+            @Override
+            public Predicate toPredicate(final Root<Order> root, final CriteriaQuery<?> query,
+                final CriteriaBuilder cb) {
+                return cb.equal(root.get("customer").get("city"), city);
+            }
+
+            @Override
+            public int hashCode() {
+                return 1;
+            }
+        };
+    }
+
+    private static List<String> references(final List<Order> orders) {
+        final List<String> ret = new ArrayList<String>();
+        for (final Order order : orders) {
+            ret.add(order.getReference());
+        }
+        return ret;
+    }
+
+    @Test
+    public void toManyFilterCountsEntities() {
+        // B-1 a deux lignes "pear": une seule ligne dans la page et le count
+        final DatatableQuery<Order, Order> input = newQuery(10);
+        input.getColumns().get(5).setSearchValue("pear");
+        final DatatableResult<Order> result = dao.findAll(input);
+        assertNull(result.getError());
+        assertEquals(6, result.getRecordsTotal());
+        assertEquals(2, result.getRecordsFiltered());
+        assertEquals(Arrays.asList("A-1", "B-1"), references(result.getData()));
+
+        // filtre global: "exists" dans le "or" des colonnes
+        final DatatableQuery<Order, Order> global = newQuery(2);
+        global.getSearch().setValue("apple");
+        final DatatableResult<Order> globalResult = dao.findAll(global);
+        assertEquals(3, globalResult.getRecordsFiltered());
+        assertEquals(Arrays.asList("A-1", "A-2"), references(globalResult.getData()));
+
+        // to-many et to-one
+        input.getColumns().get(4).setSearchValue("bob");
+        final DatatableResult<Order> both = dao.findAll(input);
+        assertEquals(1, both.getRecordsFiltered());
+        assertEquals(Arrays.asList("B-1"), references(both.getData()));
+    }
+
+    @Test
+    public void prefetchKeyedSpecifications() {
+        final DatatablePrefetcher prefetcher = new DatatablePrefetcher(Runnable::run, 1, 1, TimeUnit.MINUTES, 10);
+        dao.setPrefetcher(prefetcher);
+
+        // la page suivante de Paris est prechargée, pas celle de Lyon
+        final DatatableQuery<Order, Order> input = newQuery(2);
+        assertEquals(Arrays.asList("A-1", "A-2"), references(
+            dao.findAll(input, null, new PrefilterSpecification<Order>("customer.city", "Paris")).getData()));
+        assertEquals(1, prefetcher.getPrefetches());
+        input.setStart(2);
+        assertEquals(Arrays.asList(), references(
+            dao.findAll(input, null, new PrefilterSpecification<Order>("customer.city", "Lyon")).getData()));
+        assertEquals(0, prefetcher.getHits());
+        assertEquals(Arrays.asList("C-1", "C-2"), references(
+            dao.findAll(input, null, new PrefilterSpecification<Order>("customer.city", "Paris")).getData()));
+        assertEquals(1, prefetcher.getHits());
+
+        // specifications sans clé: pas de prechargement, meme avec le meme hash
+        prefetcher.clear();
+        input.setStart(0);
+        assertEquals(Arrays.asList("A-1", "A-2"), references(dao.findAll(input, null, city("Paris")).getData()));
+        input.setStart(2);
+        assertEquals(Arrays.asList(), references(dao.findAll(input, null, city("Lyon")).getData()));
+        assertEquals(1, prefetcher.getPrefetches());
+        assertEquals(1, prefetcher.getHits());
+    }
+
+    @Test
+    public void batchPerTenant() {
+        final DatatableBulkhead bulkhead = new DatatableBulkhead(1, 1, 0);
+        dao.setBulkhead(bulkhead);
+        final DatatableQuery<Order, Order> a1 = newQuery(10);
+        a1.getColumns().get(4).setSearchValue("alice");
+        DatatableBulkhead.setTenant(a1, "a");
+        final DatatableQuery<Order, Order> b = newQuery(10);
+        b.getColumns().get(4).setSearchValue("bob");
+        DatatableBulkhead.setTenant(b, "b");
+        final DatatableQuery<Order, Order> a2 = newQuery(1);
+        DatatableBulkhead.setTenant(a2, "a");
+
+        final List<DatatableResult<Order>> results = dao.findAllBatch(Arrays.asList(a1, b, a2));
+        assertEquals(3, results.size());
+        assertEquals(Arrays.asList("A-1", "A-2"), references(results.get(0).getData()));
+        assertEquals(Arrays.asList("B-1", "B-2"), references(results.get(1).getData()));
+        assertEquals(Arrays.asList("A-1"), references(results.get(2).getData()));
+        assertEquals(6, results.get(2).getRecordsFiltered());
+
+        // un entity manager et une place par tenant, avec la premiere requete du tenant
+        assertEquals(Arrays.asList(a1, b), checkouts);
+        assertEquals(2, bulkhead.getAdmitted());
+        assertEquals(0, bulkhead.getRejected());
+    }
+
+    @Test
+    public void aggregatesWithFilteredCount() {
+        final DatatableQuery<Order, Order> input = newQuery(1);
+        input.getColumns().get(2).setSearchValue("open");
+        input.getColumns().get(3).addAggregate(DatatableAggregate.SUM, DatatableAggregate.MIN, DatatableAggregate.MAX);
+        input.getColumns().get(4).addAggregate(DatatableAggregate.MIN, DatatableAggregate.MAX);
+
+        final DatatableResult<Order> result = dao.findAll(input);
+        assertNull(result.getError());
+        assertEquals(6, result.getRecordsTotal());
+        assertEquals(3, result.getRecordsFiltered());
+        assertEquals(Arrays.asList("A-1"), references(result.getData()));
+        final Map<String, Object> amount = result.getAggregates().get("amount");
+        assertEquals(80L, ((Number) amount.get("sum")).longValue());
+        assertEquals(10, ((Number) amount.get("min")).intValue());
+        assertEquals(40, ((Number) amount.get("max")).intValue());
+        assertEquals(Arrays.asList("sum", "min", "max"), new ArrayList<String>(amount.keySet()));
+        assertEquals("Alice", result.getAggregates().get("customer.name").get("min"));
+        assertEquals("Bob", result.getAggregates().get("customer.name").get("max"));
+
+        // sans filtre: agregats de toutes les lignes
+        input.getColumns().get(2).setSearchValue(null);
+        final DatatableResult<Order> all = dao.findAll(input);
+        assertEquals(6, all.getRecordsFiltered());
+        assertEquals(210L, ((Number) all.getAggregates().get("amount").get("sum")).longValue());
+        assertEquals("Carol", all.getAggregates().get("customer.name").get("max"));
+    }
+
+    @Test
+    public void groupedPagination() {
+        final DatatableQuery<Order, Order> input = newQuery(2);
+        input.setStart(1);
+        final DatatableGroupedResult<Order> result = dao.findAllGrouped(input, Arrays.asList("customer.name"));
+        assertNull(result.getError());
+        assertEquals(3, result.getRecordsTotal());
+        assertEquals(3, result.getRecordsFiltered());
+        assertEquals("[[Bob]=2, [Carol]=2]", result.getGroups().toString());
+        assertEquals(Arrays.asList("B-1", "B-2", "C-1", "C-2"), references(result.getData()));
+        assertFalse(result.isTruncated());
+
+        // groupes ordonnés dans la direction de l'ordre de la requete, lignes avec l'ordre de la requete
+        input.setStart(0);
+        input.getOrder().clear();
+        input.addOrder("customer.name", false);
+        input.addOrder("amount", false);
+        input.getColumns().get(2).setSearchValue("open");
+        final DatatableGroupedResult<Order> filtered = dao.findAllGrouped(input, Arrays.asList("customer.name"));
+        assertEquals(3, filtered.getRecordsTotal());
+        assertEquals(2, filtered.getRecordsFiltered());
+        assertEquals("[[Bob]=2, [Alice]=1]", filtered.getGroups().toString());
+        assertEquals(Arrays.asList("B-2", "B-1", "A-1"), references(filtered.getData()));
+    }
+
+    @Test
+    public void groupedRowsCap() {
+        dao.setMaxGroupedRows(3);
+        final DatatableQuery<Order, Order> input = newQuery(2);
+        input.setStart(1);
+        final DatatableGroupedResult<Order> result = dao.findAllGrouped(input, Arrays.asList("customer.name"));
+        assertEquals("[[Bob]=2, [Carol]=2]", result.getGroups().toString());
+        assertEquals(Arrays.asList("B-1", "B-2", "C-1"), references(result.getData()));
+        assertTrue(result.isTruncated());
+    }
+
+    @Test
+    public void distinctGroupCount() {
+        // groupe des nulls compté avec COUNT(DISTINCT)
+        final DatatableQuery<Order, Order> input = newQuery(10);
+        final DatatableGroupedResult<Order> status = dao.findAllGrouped(input, Arrays.asList("status"));
+        assertEquals(3, status.getRecordsTotal());
+        assertEquals(3, status.getGroups().size());
+        assertEquals(6, status.getData().size());
+
+        // plusieurs colonnes: (Paris, open), (Paris, closed), (Lyon, open), (Paris, null)
+        final DatatableGroupedResult<Order> cityStatus =
+            dao.findAllGrouped(input, Arrays.asList("customer.city", "status"));
+        assertEquals(4, cityStatus.getRecordsTotal());
+        assertEquals(4, cityStatus.getGroups().size());
+        input.getColumns().get(4).setSearchValue("a");
+        final DatatableGroupedResult<Order> filtered =
+            dao.findAllGrouped(input, Arrays.asList("customer.city", "status"));
+        assertEquals(3, filtered.getRecordsFiltered());
+        assertEquals(3, filtered.getGroups().size());
+    }
+
+    @Test
+    public void groupByCount() {
+        final DatatableQuery<StatusRow, Order> input = new DatatableQuery<StatusRow, Order>(10);
+        input.setQueryClass(StatusRow.class);
+        input.addColumn(new DatatableColumn("status", "status", true, true, new DatatableSearch("", false)),
+            new DatatableColumn("customer", "customer.name", true, true, new DatatableSearch("", false)));
+        input.setGroupByColumns(Arrays.asList(new DatatableColumn("status", "status")));
+        final DatatableResult<StatusRow> result = dao.findAll(input);
+        assertNull(result.getError());
+        assertEquals(3, result.getRecordsTotal());
+        assertEquals(3, result.getData().size());
+
+        input.getColumns().get(1).setSearchValue("bob");
+        assertEquals(1, dao.findAll(input).getRecordsFiltered());
+    }
+
+    @Test
+    public void deltaRefresh() {
+        dao.setVersionAttribute("version");
+        final DatatableQuery<Order, Order> input = newQuery(3);
+
+        // premier draw: toutes les lignes de la page
+        final DatatableDelta<Order> first = dao.findChanges(input, null, null);
+        assertNull(first.getError());
+        assertEquals(6, first.getRecordsTotal());
+        assertEquals(Arrays.<Object> asList(1L, 2L, 3L), first.getRowIds());
+        assertEquals(Arrays.asList("A-1", "A-2", "B-1"), references(first.getData()));
+        assertEquals(3L, first.getHighWaterMark());
+
+        // rien n'a changé
+        final DatatableDelta<Order> unchanged = dao.findChanges(input, 3L, first.getRowIds());
+        assertEquals(Arrays.<Object> asList(1L, 2L, 3L), unchanged.getRowIds());
+        assertTrue(unchanged.getData() == null || unchanged.getData().isEmpty());
+        assertEquals(Collections.emptyList(), unchanged.getRemovedIds());
+        assertEquals(3L, unchanged.getHighWaterMark());
+
+        // A-2 modifiée, A-1 supprimée: B-2 entre dans la page
+        TestDatabase.execute(new TestDatabase.Transaction() {
+            @Override
+            public void run(final EntityManager entityManager) {
+                final Order a2 = entityManager.find(Order.class, 2L);
+                a2.setStatus("shipped");
+                a2.setVersion(10L);
+                entityManager.createQuery("delete from Line l where l.order.id = 1").executeUpdate();
+                entityManager.remove(entityManager.find(Order.class, 1L));
+            }
+        });
+        // les ids de la vue peuvent etre des textes (JSON)
+        final DatatableDelta<Order> delta = dao.findChanges(input, 3L, Arrays.asList("1", "2", "3"));
+        assertEquals(5, delta.getRecordsTotal());
+        assertEquals(5, delta.getRecordsFiltered());
+        assertEquals(Arrays.<Object> asList(2L, 3L, 4L), delta.getRowIds());
+        assertEquals(Arrays.asList("A-2", "B-2"), references(delta.getData()));
+        assertEquals("shipped", delta.getData().get(0).getStatus());
+        assertEquals(Arrays.<Object> asList("1"), delta.getRemovedIds());
+        assertEquals(10L, delta.getHighWaterMark());
+    }
+
+    @Test
+    public void dataWithoutCounts() {
+        final DatatableQuery<Order, Order> input = newQuery(2);
+        input.setStart(2);
+        input.getColumns().get(4).setSearchValue("a");
+        assertEquals(Arrays.asList("C-1", "C-2"), references(dao.findData(input, null, null)));
+
+        input.setStart(1);
+        assertEquals(Arrays.asList("C-1"),
+            references(dao.findData(input, null, new PrefilterSpecification<Order>("status", "closed"))));
+    }
+
+    @Test
+    public void suggestions() {
+        final DatatableQuery<Order, Order> input = newQuery(10);
+        input.getColumns().get(2).setSearchValue("closed");
+        final DatatableColumn column = input.getColumns().get(4);
+
+        // dictionnaire de la colonne, sans les filtres de la requete
+        final DatatableResult<String> result = dao.findSuggestions(input, column, "b", 10);
+        assertNull(result.getError());
+        assertEquals(Arrays.asList("Bob"), result.getData());
+        assertEquals(Arrays.asList("Alice", "Bob"), dao.findSuggestions(input, column, " ", 2).getData());
+        assertEquals(Collections.singletonList(input), checkouts);
+
+        // trop de valeurs pour le dictionnaire: requete par prefixe
+        checkouts.clear();
+        dao.setSuggestionDictionarySize(2);
+        assertEquals(Arrays.asList("Alice"), dao.findSuggestions(input, column, "AL", 10).getData());
+        assertEquals(Arrays.asList(input, input), checkouts);
+    }
+
+    private static DatatableQuery<StatusRow, Order> newStatusQuery(final String... columns) {
+        final DatatableQuery<StatusRow, Order> ret = new DatatableQuery<StatusRow, Order>(10);
+        ret.setQueryClass(StatusRow.class);
+        for (final String column : columns) {
+            ret.addColumn(new DatatableColumn(column, column, true, true, new DatatableSearch("", false)));
+        }
+        ret.setGroupByColumns(Arrays.asList(new DatatableColumn("status", "status")));
+        return ret;
+    }
+
+    private static List<String> statuses(final DatatableResult<StatusRow> result) {
+        final List<String> ret = new ArrayList<String>();
+        for (final StatusRow row : result.getData()) {
+            ret.add(row.getStatus());
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    @Test
+    public void rollupRouting() {
+        // les rollups ne passent pas par le provider des checkouts
+        final EntityManagerProvider provider = EntityManagerProviders.perDraw(TestDatabase.reset());
+        dao.addRollup(new DatatableDAOImpl<Order>(provider, Order.class), Arrays.asList("status", "customer.name"));
+        dao.addRollup(new DatatableDAOImpl<StatusRollup>(provider, StatusRollup.class), Arrays.asList("status"));
+
+        // le plus petit rollup du grain
+        final DatatableQuery<StatusRow, Order> status = newStatusQuery("status");
+        assertEquals(Arrays.asList("archived", "closed", "open"), statuses(dao.findAll(status)));
+
+        // filtre hors du grain du plus petit
+        final DatatableQuery<StatusRow, Order> customer = newStatusQuery("status", "customer.name");
+        customer.getColumns().get(1).setSearchValue("bob");
+        assertEquals(Arrays.asList("open"), statuses(dao.findAll(customer)));
+        assertTrue(checkouts.isEmpty());
+
+        // specification: sur l'entité
+        assertEquals(Arrays.asList("open"), statuses(dao.findAll(status, city("Lyon"))));
+        assertEquals(Collections.singletonList(status), checkouts);
+
+        // batch: les rollups a part, les autres requetes sur l'entité
+        checkouts.clear();
+        final DatatableQuery<StatusRow, Order> paris = newStatusQuery("status");
+        paris.setAdditionalSpecification(city("Paris"));
+        final List<DatatableResult<StatusRow>> results = dao.findAllBatch(Arrays.asList(status, paris));
+        assertEquals(Arrays.asList("archived", "closed", "open"), statuses(results.get(0)));
+        assertEquals(3, results.get(1).getRecordsFiltered());
+        assertEquals(Collections.singletonList(paris), checkouts);
+    }
+}
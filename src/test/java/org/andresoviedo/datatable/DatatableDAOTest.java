@@ -0,0 +1,115 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+import org.junit.Test;
+
+/**
+ * Tests des methodes par defaut du {@link DatatableDAO}, avec un DAO en memoire
+ *
+ * @author afoviedo
+ */
+public class DatatableDAOTest {
+
+    /**
+     * DAO de lignes "0", "1", ... qui compte ses requetes
+     */
+    private static class MemoryDAO implements DatatableDAO<String> {
+
+        private final int rows;
+
+        private int counts;
+
+        private int pages;
+
+        private MemoryDAO(final int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public <R> DatatableResult<R> findAll(final DatatableQuery<R, String> input) {
+            return findAll(input, null, null);
+        }
+
+        @Override
+        public <R> DatatableResult<R> findAll(final DatatableQuery<R, String> input,
+            final Specification<String> additionalSpecification) {
+            return findAll(input, additionalSpecification, null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> DatatableResult<R> findAll(final DatatableQuery<R, String> input,
+            final Specification<String> additionalSpecification,
+            final Specification<String> preFilteringSpecification) {
+            counts++;
+            pages--;
+            final DatatableResult<R> ret = new DatatableResult<R>();
+            ret.setRecordsTotal(rows);
+            ret.setRecordsFiltered(rows);
+            ret.setData((List<R>) findData(input, additionalSpecification, preFilteringSpecification));
+            return ret;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> List<R> findData(final DatatableQuery<R, String> input,
+            final Specification<String> additionalSpecification,
+            final Specification<String> preFilteringSpecification) {
+            pages++;
+            final List<R> ret = new ArrayList<R>();
+            for (int i = input.getStart(); i < Math.min(rows, input.getStart() + input.getLength()); i++) {
+                ret.add((R) String.valueOf(i));
+            }
+            return ret;
+        }
+    }
+
+    @Test
+    public void publishCountsOnce() {
+        final MemoryDAO dao = new MemoryDAO(250);
+        final DatatableQuery<String, String> input = new DatatableQuery<String, String>(240);
+        input.addColumn(new DatatableColumn("id", "id"));
+        input.setStart(10);
+
+        final List<String> rows = new ArrayList<String>();
+        final boolean[] complete = new boolean[1];
+        dao.publish(input, Runnable::run).subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(final String item) {
+                rows.add(item);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                throw new AssertionError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                complete[0] = true;
+            }
+        });
+
+        assertTrue(complete[0]);
+        assertEquals(240, rows.size());
+        assertEquals("10", rows.get(0));
+        assertEquals("249", rows.get(239));
+        // blocs de DEFAULT_PUBLISH_CHUNK_SIZE lignes: le premier avec les counts
+        assertEquals(1, dao.counts);
+        assertEquals(2, dao.pages);
+    }
+}
@@ -0,0 +1,98 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.junit.Test;
+
+/**
+ * Tests des clés de requete du {@link DatatableHelper}: les specifications y participent par leur clé
+ *
+ * @author afoviedo
+ */
+public class DatatableHelperTest {
+
+    /**
+     * Specification sans clé, avec le meme hash pour tous les tenants
+     */
+    static class TenantSpecification implements Specification<Object> {
+
+        private final String tenant;
+
+        TenantSpecification(final String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        public Predicate toPredicate(final Root<Object> root, final CriteriaQuery<?> query,
+            final CriteriaBuilder cb) {
+            return cb.equal(root.get("tenant"), tenant);
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    private static DatatableQuery<Object, Object> newQuery() {
+        final DatatableQuery<Object, Object> ret = new DatatableQuery<Object, Object>(10);
+        ret.addColumn(new DatatableColumn("id", "id"));
+        return ret;
+    }
+
+    @Test
+    public void keyedSpecifications() {
+        final DatatableQuery<Object, Object> input = newQuery();
+        final String a = DatatableHelper.getQueryKey(input, new PrefilterSpecification<Object>("tenant", "a"));
+        assertEquals(a, DatatableHelper.getQueryKey(input, new PrefilterSpecification<Object>("tenant", "a")));
+        assertNotEquals(a, DatatableHelper.getQueryKey(input, new PrefilterSpecification<Object>("tenant", "b")));
+        assertNotEquals(a, DatatableHelper.getQueryKey(input, new PrefilterSpecification<Object>("tenant", 'a')));
+        assertEquals(DatatableHelper.getQueryKey(input), DatatableHelper.getQueryKey(input, null, null));
+
+        // compositions: clé des operandes
+        final Specifications<Object> ab = Specifications.where(new PrefilterSpecification<Object>("tenant", "a"))
+            .and(new PrefilterSpecification<Object>("status", "b"));
+        final Specifications<Object> ab2 = Specifications.where(new PrefilterSpecification<Object>("tenant", "a"))
+            .and(new PrefilterSpecification<Object>("status", "b"));
+        assertEquals(ab, ab2);
+        assertEquals(ab.hashCode(), ab2.hashCode());
+        assertEquals(DatatableHelper.getQueryKey(input, ab), DatatableHelper.getQueryKey(input, ab2));
+        assertNotEquals(DatatableHelper.getQueryKey(input, ab), DatatableHelper.getQueryKey(input,
+            Specifications.where(new PrefilterSpecification<Object>("tenant", "a"))
+                .or(new PrefilterSpecification<Object>("status", "b"))));
+        assertNotEquals(DatatableHelper.getQueryKey(input, ab),
+            DatatableHelper.getQueryKey(input, Specifications.not(ab)));
+    }
+
+    @Test
+    public void specificationsWithoutKey() {
+        final DatatableQuery<Object, Object> input = newQuery();
+        assertNull(DatatableHelper.getQueryKey(input, new TenantSpecification("a")));
+        assertNull(DatatableHelper.getQueryKey(input, null, new TenantSpecification("a")));
+        assertNull(DatatableHelper.getQueryKey(input,
+            Specifications.where(new PrefilterSpecification<Object>("status", "b")).and(new TenantSpecification("a"))));
+        assertNull(DatatableHelper.getQueryKey(input, Specifications.not(new TenantSpecification("a"))));
+    }
+
+    @Test
+    public void compiledQueriesCompareSpecifications() {
+        final TenantSpecification a = new TenantSpecification("a");
+        final DatatableQuery<Object, Object> input = newQuery();
+        input.setAdditionalSpecification(a);
+        final DatatableQuery<Object, Object> other = newQuery();
+        other.setAdditionalSpecification(new TenantSpecification("b"));
+
+        assertEquals(CompiledDatatableQuery.of(input), CompiledDatatableQuery.of(input));
+        assertNotEquals(CompiledDatatableQuery.of(input), CompiledDatatableQuery.of(other));
+        assertNotEquals(CompiledDatatableQuery.of(input), CompiledDatatableQuery.of(newQuery()));
+    }
+}
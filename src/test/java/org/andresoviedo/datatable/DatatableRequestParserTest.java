@@ -0,0 +1,106 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.junit.Test;
+
+/**
+ * Tests du {@link DatatableRequestParser}
+ *
+ * @author afoviedo
+ */
+public class DatatableRequestParserTest {
+
+    @Test
+    public void parseBody() {
+        final DatatableQuery<Object, Object> query = DatatableRequestParser.parse("draw=3&start=20&length=10"
+            + "&search%5Bvalue%5D=caf%C3%A9+noir&columns%5B0%5D%5Bdata%5D=id&columns%5B0%5D%5Borderable%5D=true"
+            + "&columns%5B1%5D%5Bdata%5D=customer.name&columns%5B1%5D%5Bsearchable%5D=true"
+            + "&columns%5B1%5D%5Bsearch%5D%5Bvalue%5D=bob&order%5B0%5D%5Bcolumn%5D=1&order%5B0%5D%5Bdir%5D=DESC"
+            + "&version=v1&_=123&status=open");
+
+        assertEquals(Integer.valueOf(3), query.getDraw());
+        assertEquals(Integer.valueOf(20), query.getStart());
+        assertEquals(Integer.valueOf(10), query.getLength());
+        assertEquals("café noir", query.getSearch().getValue());
+        assertEquals("v1", query.getVersion());
+
+        assertEquals(2, query.getColumns().size());
+        final DatatableColumn id = query.getColumns().get(0);
+        assertEquals("id", id.getData());
+        assertTrue(id.getOrderable());
+        final DatatableColumn name = query.getColumns().get(1);
+        assertEquals("customer.name", name.getData());
+        assertTrue(name.getSearchable());
+        assertEquals("bob", name.getSearch().getValue());
+
+        assertEquals(1, query.getOrder().size());
+        assertEquals(Integer.valueOf(1), query.getOrder().get(0).getColumn());
+        assertEquals("desc", query.getOrder().get(0).getDir());
+
+        // l'anti-cache de jQuery n'est pas une extra property
+        assertEquals(1, query.getExtraProps().size());
+        assertEquals("open", query.getExtraProps().get("status"));
+    }
+
+    @Test
+    public void parseParameterMap() {
+        final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        parameters.put("length", new String[] { "-1" });
+        parameters.put("columns[0][data]", new String[] { "id", "ignored" });
+        parameters.put("columns[1][data]", new String[] {});
+        parameters.put("columns[1][searchable]", new String[] { "true" });
+        parameters.put("columns[1][orderable]", new String[] { "true" });
+        parameters.put("order[0][column]", new String[] { "0" });
+
+        final DatatableQuery<Object, Object> query = DatatableRequestParser.parse(parameters);
+
+        assertEquals(Integer.valueOf(-1), query.getLength());
+        assertEquals("id", query.getColumns().get(0).getData());
+        // colonne calculée par la vue: ni cherchable ni ordonnable
+        assertFalse(query.getColumns().get(1).getSearchable());
+        assertFalse(query.getColumns().get(1).getOrderable());
+        assertEquals("asc", query.getOrder().get(0).getDir());
+        assertNull(query.getVersion());
+    }
+
+    @Test
+    public void reservedPropertiesAreDropped() {
+        final DatatableQuery<Object, Object> query = DatatableRequestParser.parse("columns[0][data]=id"
+            + "&datatable.tenant=other&datatable.forcePrimary=true&" + DatatableColumnarEncoder.FORMAT + "=columnar");
+
+        assertEquals(1, query.getExtraProps().size());
+        assertEquals("columnar", query.getExtraProps().get(DatatableColumnarEncoder.FORMAT));
+    }
+
+    @Test
+    public void invalidRequests() {
+        assertInvalid("columns[1][data]=id");
+        assertInvalid("columns[0][data]=id&order[1][column]=0");
+        assertInvalid("columns[0][data]=id&order[0][column]=1");
+        assertInvalid("columns[0][data]=id&order[0][column]=0&order[0][dir]=up");
+        assertInvalid("columns[x][data]=id");
+        assertInvalid("columns[" + DatatableRequestParser.MAX_COLUMNS + "][data]=id");
+        assertInvalid("columns[0][data]=id&length=-2");
+        assertInvalid("columns[0][data]=id&start=abc");
+        assertInvalid("columns[0][data]=%E0%A4%A");
+    }
+
+    private static void assertInvalid(final String body) {
+        try {
+            DatatableRequestParser.parse(body);
+            fail("Requete invalide acceptée: " + body);
+        } catch (final IllegalArgumentException ex) {
+            // ok
+        }
+    }
+}
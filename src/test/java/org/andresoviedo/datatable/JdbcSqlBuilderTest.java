@@ -0,0 +1,157 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableSearch;
+import org.junit.Test;
+
+/**
+ * Tests du {@link JdbcSqlBuilder}: texte SQL et parametres par dialecte
+ *
+ * @author afoviedo
+ */
+public class JdbcSqlBuilderTest {
+
+    private static final String FROM = " FROM orders o";
+
+    private static final String CUSTOMER_JOIN = " INNER JOIN customer c ON c.id = o.customer_id";
+
+    private static final String STATUS_LIKE = "LOWER(o.status) LIKE ? ESCAPE '\\'";
+
+    private static final String PRODUCT_EXISTS =
+        "EXISTS (SELECT 1 FROM order_line l WHERE l.order_id = o.id AND LOWER(l.product) LIKE ? ESCAPE '\\')";
+
+    private static JdbcTableMapping newMapping() {
+        return new JdbcTableMapping("orders", "o").column("id", "o.id").column("status", "o.status")
+            .column("customer.name", "c.name").column("lines.product", "l.product")
+            .join("customer", "customer", "c", "c.id = o.customer_id")
+            .joinMany("lines", "order_line", "l", "l.order_id = o.id");
+    }
+
+    private static DatatableQuery<Object, Object> newQuery(final String status, final String product) {
+        final DatatableQuery<Object, Object> ret = new DatatableQuery<Object, Object>(10);
+        ret.addColumn(new DatatableColumn("id", "id", false, true, null),
+            new DatatableColumn("status", "status", true, true, new DatatableSearch(status, false)),
+            new DatatableColumn("customer", "customer.name", true, true, null),
+            new DatatableColumn("product", "lines.product", true, false, new DatatableSearch(product, false)));
+        ret.setStart(20);
+        return ret;
+    }
+
+    @Test
+    public void pagePerDialect() {
+        final DatatableQuery<Object, Object> input = newQuery("open", "ab%");
+        input.addOrder("customer.name", false);
+        final String select = "SELECT o.id, o.status" + FROM + CUSTOMER_JOIN + " WHERE " + STATUS_LIKE + " AND "
+            + PRODUCT_EXISTS + " ORDER BY c.name DESC";
+
+        assertPage(JdbcDialect.LIMIT_OFFSET, input, select + " LIMIT ? OFFSET ?", 10, 20);
+        assertPage(JdbcDialect.MYSQL, input, select.replace("'\\'", "'\\\\'") + " LIMIT ?, ?", 20, 10);
+        assertPage(JdbcDialect.OFFSET_FETCH, input, select + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", 20, 10);
+        assertPage(JdbcDialect.SQLSERVER, input, select + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", 20, 10);
+    }
+
+    @Test
+    public void pageWithoutOrder() {
+        final DatatableQuery<Object, Object> input = newQuery("", "");
+
+        assertPage(JdbcDialect.LIMIT_OFFSET, input, "SELECT o.id, o.status" + FROM + " LIMIT ? OFFSET ?", 10, 20);
+        assertPage(JdbcDialect.SQLSERVER, input,
+            "SELECT o.id, o.status" + FROM + " ORDER BY (SELECT NULL) OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", 20, 10);
+
+        // sans pagination: pas d'ordre par defaut
+        input.setLength(-1);
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.page(newMapping(), JdbcDialect.SQLSERVER, input,
+            DatatableHelper.getPageable(input));
+        assertEquals("SELECT o.id, o.status" + FROM, builder.getSql());
+        assertEquals(Arrays.asList(), builder.getParameters());
+    }
+
+    @Test
+    public void countUsesExistsForToMany() {
+        final DatatableQuery<Object, Object> input = newQuery("open", "ab%");
+
+        final JdbcSqlBuilder filtered = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, true);
+        assertEquals("SELECT COUNT(*)" + FROM + " WHERE " + STATUS_LIKE + " AND " + PRODUCT_EXISTS,
+            filtered.getSql());
+        assertEquals(Arrays.<Object> asList("%open%", "%ab\\%%"), filtered.getParameters());
+
+        final JdbcSqlBuilder total = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, false);
+        assertEquals("SELECT COUNT(*)" + FROM, total.getSql());
+        assertEquals(Arrays.asList(), total.getParameters());
+    }
+
+    @Test
+    public void groupByCount() {
+        final DatatableQuery<Object, Object> input = newQuery("", "");
+        input.setGroupByColumns(Arrays.asList(new DatatableColumn("customer", "customer.name")));
+
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, true);
+        assertEquals("SELECT COUNT(*) FROM (SELECT 1 AS x" + FROM + CUSTOMER_JOIN + " GROUP BY c.name) g",
+            builder.getSql());
+    }
+
+    @Test
+    public void booleanAndDuplicatedFilters() {
+        final DatatableQuery<Object, Object> input = newQuery("TRUE", "");
+        input.addColumn(new DatatableColumn("status2", "status", true, false, new DatatableSearch("TRUE", false)));
+
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, true);
+        assertEquals("SELECT COUNT(*)" + FROM + " WHERE o.status = ?", builder.getSql());
+        assertEquals(Arrays.<Object> asList(Boolean.TRUE), builder.getParameters());
+    }
+
+    @Test
+    public void globalSearchPerColumn() {
+        final DatatableQuery<Object, Object> input = newQuery("", "");
+        input.getColumns().get(3).setSearchable(false);
+        input.setSearch(new DatatableSearch("Café", false));
+
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, true);
+        assertEquals("SELECT COUNT(*)" + FROM + CUSTOMER_JOIN + " WHERE (" + STATUS_LIKE
+            + " OR LOWER(c.name) LIKE ? ESCAPE '\\')", builder.getSql());
+        assertEquals(Arrays.<Object> asList("%café%", "%café%"), builder.getParameters());
+    }
+
+    @Test
+    public void globalSearchColumn() {
+        final JdbcTableMapping mapping = newMapping().searchColumn("o.search_text", "status", "customer.name");
+        final DatatableQuery<Object, Object> input = newQuery("", "");
+        input.getColumns().get(3).setSearchable(false);
+        input.setSearch(new DatatableSearch("Café", false));
+
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.count(mapping, JdbcDialect.MYSQL, input, true);
+        assertEquals("SELECT COUNT(*)" + FROM + " WHERE o.search_text LIKE ? ESCAPE '\\\\'", builder.getSql());
+        assertEquals(Arrays.<Object> asList("%cafe%"), builder.getParameters());
+
+        // la colonne de recherche ne couvre pas les produits: un "like" par colonne
+        input.getColumns().get(3).setSearchable(true);
+        final JdbcSqlBuilder perColumn = JdbcSqlBuilder.count(mapping, JdbcDialect.MYSQL, input, true);
+        assertEquals(3, perColumn.getParameters().size());
+    }
+
+    @Test
+    public void noSearchableColumn() {
+        final DatatableQuery<Object, Object> input = newQuery("", "");
+        for (final DatatableColumn column : input.getColumns()) {
+            column.setSearchable(false);
+        }
+        input.setSearch(new DatatableSearch("x", false));
+
+        final JdbcSqlBuilder builder = JdbcSqlBuilder.count(newMapping(), JdbcDialect.LIMIT_OFFSET, input, true);
+        assertEquals("SELECT COUNT(*)" + FROM + " WHERE 1 = 0", builder.getSql());
+    }
+
+    private static void assertPage(final JdbcDialect dialect, final DatatableQuery<Object, Object> input,
+        final String sql, final Object... page) {
+        final JdbcSqlBuilder builder =
+            JdbcSqlBuilder.page(newMapping(), dialect, input, DatatableHelper.getPageable(input));
+        assertEquals(sql, builder.getSql());
+        final int filters = builder.getParameters().size() - page.length;
+        assertEquals(Arrays.asList(page), builder.getParameters().subList(filters, builder.getParameters().size()));
+    }
+}
@@ -0,0 +1,347 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.andresoviedo.datatable.dto.DatatableColumn;
+import org.andresoviedo.datatable.dto.DatatableQuery;
+import org.andresoviedo.datatable.dto.DatatableResult;
+import org.junit.Test;
+
+/**
+ * Tests de la fusion du {@link ShardedDatatableDAO}: top-N, blocs et curseur (keyset), sur des shards en memoire
+ *
+ * @author afoviedo
+ */
+public class ShardedDatatableDAOTest {
+
+    private static final int LENGTH = 2;
+
+    private static final int CHUNK_SIZE = 3;
+
+    @Test
+    public void topN() {
+        final MemoryShard shard0 = new MemoryShard(0, "a", "c", "e", "g");
+        final MemoryShard shard1 = new MemoryShard(1, "b", "d", "f", "h");
+        final ShardedDatatableDAO<Row> dao = newDAO(shard0, shard1);
+
+        final DatatableResult<Row> ascending = dao.findAll(newQuery(1, 3, true));
+        assertEquals(null, ascending.getError());
+        assertEquals(8, ascending.getRecordsTotal());
+        assertEquals(8, ascending.getRecordsFiltered());
+        assertEquals(Arrays.asList("b@1.0", "c@0.1", "d@1.1"), toString(ascending.getData()));
+
+        final DatatableResult<Row> descending = dao.findAll(newQuery(0, 3, false));
+        assertEquals(Arrays.asList("h@1.3", "g@0.3", "f@1.2"), toString(descending.getData()));
+
+        // chaque shard ne lit que start + length lignes
+        assertEquals(Arrays.asList(4, 3), shard0.reads);
+        assertTrue(shard0.pages.isEmpty());
+    }
+
+    @Test
+    public void keysetMerge() {
+        final MemoryShard shard0 = new MemoryShard(0, "a", "a", "b", "c", "c", "c", "d", "f");
+        final MemoryShard shard1 = new MemoryShard(1, "a", "b", "b", "c", "d", "d", "e", "f");
+        final ShardedDatatableDAO<Row> dao = newDAO(shard0, shard1);
+        final List<String> expected = merge(shard0, shard1);
+
+        for (int start = 0; start < expected.size(); start += LENGTH) {
+            shard0.pages.clear();
+            shard1.pages.clear();
+            final DatatableResult<Row> result = dao.findAll(newQuery(start, LENGTH, true));
+            assertEquals(null, result.getError());
+            assertEquals(16, result.getRecordsFiltered());
+            assertEquals("page " + start, expected.subList(start, start + LENGTH), toString(result.getData()));
+            if (start + LENGTH <= 4) {
+                // top-N
+                assertTrue(shard0.pages.isEmpty());
+            } else if (start == 4) {
+                // pas encore de curseur: lecture par blocs
+                assertTrue(shard0.pages.isEmpty() || shard0.pages.contains(CHUNK_SIZE));
+            } else {
+                // curseur de la page precedente: length lignes par shard
+                assertEquals("page " + start, Arrays.asList(LENGTH), shard0.pages);
+                assertEquals("page " + start, Arrays.asList(LENGTH), shard1.pages);
+            }
+        }
+    }
+
+    @Test
+    public void keysetCursorExpiresWithDataVersion() {
+        final MemoryShard shard0 = new MemoryShard(0, "a", "b", "c", "d", "e", "f", "g", "h");
+        final MemoryShard shard1 = new MemoryShard(1, "a", "b", "c", "d", "e", "f", "g", "h");
+        final ShardedDatatableDAO<Row> dao = newDAO(shard0, shard1);
+        final List<String> expected = merge(shard0, shard1);
+
+        dao.findAll(newQuery(4, LENGTH, true));
+        shard1.version = "2";
+        shard1.pages.clear();
+        final DatatableResult<Row> result = dao.findAll(newQuery(6, LENGTH, true));
+        assertEquals(expected.subList(6, 8), toString(result.getData()));
+        // le curseur lu avec l'ancienne version n'est pas utilisé
+        assertTrue(shard1.pages.isEmpty() || shard1.pages.contains(CHUNK_SIZE));
+
+        // sans version, pas de curseur
+        shard1.version = null;
+        dao.findAll(newQuery(8, LENGTH, true));
+        shard1.pages.clear();
+        final DatatableResult<Row> unversioned = dao.findAll(newQuery(10, LENGTH, true));
+        assertEquals(expected.subList(10, 12), toString(unversioned.getData()));
+        assertTrue(shard1.pages.isEmpty() || shard1.pages.contains(CHUNK_SIZE));
+    }
+
+    @Test
+    public void concatWithoutOrder() {
+        final MemoryShard shard0 = new MemoryShard(0, "c", "a", "b");
+        final MemoryShard shard1 = new MemoryShard(1, "f", "e");
+        final ShardedDatatableDAO<Row> dao = newDAO(shard0, shard1);
+
+        final DatatableQuery<Row, Row> input = newQuery(2, 2, true);
+        input.getOrder().clear();
+        final DatatableResult<Row> result = dao.findAll(input);
+        assertEquals(5, result.getRecordsTotal());
+        assertEquals(Arrays.asList("b@0.2", "f@1.0"), toString(result.getData()));
+    }
+
+    private static ShardedDatatableDAO<Row> newDAO(final MemoryShard... shards) {
+        final ShardedDatatableDAO<Row> ret =
+            new ShardedDatatableDAO<Row>(Arrays.<DatatableDAOImpl<Row>> asList(shards), Runnable::run);
+        ret.setMaxMergeWindow(4);
+        ret.setChunkSize(CHUNK_SIZE);
+        return ret;
+    }
+
+    private static DatatableQuery<Row, Row> newQuery(final int start, final int length, final boolean ascending) {
+        final DatatableQuery<Row, Row> ret = new DatatableQuery<Row, Row>(length);
+        ret.addColumn(new DatatableColumn("name", "name", false, true, null));
+        ret.addOrder("name", ascending);
+        ret.setStart(start);
+        return ret;
+    }
+
+    /**
+     * Ordre attendu de la fusion: par nom, puis par shard et par position dans le shard
+     */
+    private static List<String> merge(final MemoryShard... shards) {
+        final List<Row> rows = new ArrayList<Row>();
+        for (final MemoryShard shard : shards) {
+            rows.addAll(shard.rows);
+        }
+        rows.sort(Comparator.comparing(Row::getName).thenComparing(row -> row.shard)
+            .thenComparing(row -> row.position));
+        return toString(rows);
+    }
+
+    private static List<String> toString(final List<Row> rows) {
+        final List<String> ret = new ArrayList<String>();
+        for (final Row row : rows) {
+            ret.add(row.toString());
+        }
+        return ret;
+    }
+
+    /**
+     * Ligne d'un shard
+     */
+    public static class Row {
+
+        private final String name;
+
+        private final int shard;
+
+        private final int position;
+
+        private Row(final String name, final int shard, final int position) {
+            this.name = name;
+            this.shard = shard;
+            this.position = position;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + shard + "." + position;
+        }
+    }
+
+    /**
+     * Shard en memoire: les specifications sont evaluées sur les lignes avec un {@link CriteriaBuilder} qui construit
+     * des conditions Java. Garde le nombre de lignes demandé par chaque lecture.
+     */
+    private static class MemoryShard extends DatatableDAOImpl<Row> {
+
+        private final List<Row> rows = new ArrayList<Row>();
+
+        private final List<Integer> reads = new ArrayList<Integer>();
+
+        private final List<Integer> pages = new ArrayList<Integer>();
+
+        private String version = "1";
+
+        private MemoryShard(final int shard, final String... names) {
+            super((EntityManagerProvider) null, Row.class);
+            for (final String name : names) {
+                rows.add(new Row(name, shard, rows.size()));
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> DatatableResult<R> findAll(final DatatableQuery<R, Row> input,
+            final Specification<Row> additionalSpecification, final Specification<Row> preFilteringSpecification) {
+            reads.add(input.getLength());
+            final DatatableResult<R> ret = new DatatableResult<R>();
+            ret.setRecordsTotal(rows.size());
+            ret.setRecordsFiltered(rows.size());
+            ret.setData((List<R>) select(input, null, 0, input.getLength()));
+            return ret;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        <R> List<R> findPage(final DatatableQuery<R, Row> input, final Specification<Row> additionalSpecification,
+            final Specification<Row> preFilteringSpecification, final int offset, final int maxResults) {
+            pages.add(maxResults);
+            return (List<R>) select(input, additionalSpecification, offset, maxResults);
+        }
+
+        @Override
+        String getDataVersion(final DatatableQuery<?, Row> input) {
+            return version;
+        }
+
+        private List<Row> select(final DatatableQuery<?, Row> input, final Specification<Row> specification,
+            final int offset, final int maxResults) {
+            final List<Row> ret = new ArrayList<Row>();
+            final Predicate predicate = specification == null ? null
+                : specification.toPredicate(ROOT, null, CRITERIA_BUILDER);
+            for (final Row row : rows) {
+                if (predicate == null || ((Condition) Proxy.getInvocationHandler(predicate)).test.test(row)) {
+                    ret.add(row);
+                }
+            }
+            final Sort sort = DatatableHelper.getSort(input);
+            if (sort != null) {
+                final Sort.Order order = sort.iterator().next();
+                final Comparator<Row> comparator = Comparator.comparing(Row::getName);
+                ret.sort(order.isAscending() ? comparator : comparator.reversed());
+            }
+            return ret.subList(Math.min(offset, ret.size()), (int) Math.min(ret.size(), (long) offset + maxResults));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final Root<Row> ROOT = (Root<Row>) Proxy.newProxyInstance(Root.class.getClassLoader(),
+        new Class<?>[] { Root.class }, (proxy, method, args) -> {
+            if ("get".equals(method.getName()) && args[0] instanceof String) {
+                return Proxy.newProxyInstance(Path.class.getClassLoader(), new Class<?>[] { Path.class },
+                    new Property((String) args[0]));
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+    private static final CriteriaBuilder CRITERIA_BUILDER = (CriteriaBuilder) Proxy.newProxyInstance(
+        CriteriaBuilder.class.getClassLoader(), new Class<?>[] { CriteriaBuilder.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "greaterThan":
+                return condition(row -> compare(args, row) > 0);
+            case "lessThan":
+                return condition(row -> compare(args, row) < 0);
+            case "equal":
+                return condition(row -> compare(args, row) == 0);
+            case "and":
+                return condition(row -> {
+                    for (final Condition condition : operands(args)) {
+                        if (!condition.test.test(row)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+            case "or":
+                return condition(row -> {
+                    for (final Condition condition : operands(args)) {
+                        if (condition.test.test(row)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compare(final Object[] args, final Row row) {
+        final Property property = (Property) Proxy.getInvocationHandler(args[0]);
+        final Comparable value = (Comparable) DatatableHelper.getProperty(row, property.name);
+        return value.compareTo(args[1]);
+    }
+
+    private static List<Condition> operands(final Object[] args) {
+        final List<Object> predicates =
+            args.length == 1 && args[0] instanceof Object[] ? Arrays.asList((Object[]) args[0]) : Arrays.asList(args);
+        final List<Condition> ret = new ArrayList<Condition>();
+        for (final Object predicate : predicates) {
+            ret.add((Condition) Proxy.getInvocationHandler(predicate));
+        }
+        return ret;
+    }
+
+    private static Predicate condition(final java.util.function.Predicate<Row> test) {
+        return (Predicate) Proxy.newProxyInstance(Predicate.class.getClassLoader(), new Class<?>[] { Predicate.class },
+            new Condition(test));
+    }
+
+    /**
+     * Path d'un atribut de la ligne
+     */
+    private static class Property implements InvocationHandler {
+
+        private final String name;
+
+        private Property(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /**
+     * Predicat evalué sur une ligne
+     */
+    private static class Condition implements InvocationHandler {
+
+        private final java.util.function.Predicate<Row> test;
+
+        private Condition(final java.util.function.Predicate<Row> test) {
+            this.test = test;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.andresoviedo.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.junit.Test;
+
+/**
+ * Tests des compositions de {@link Specifications}: "and"/"or" n-aires et specifications <code>null</code>, avec un
+ * criteria builder qui ecrit les predicats
+ *
+ * @author afoviedo
+ */
+public class SpecificationsTest {
+
+    /**
+     * Appels du criteria builder
+     */
+    private final List<String> calls = new ArrayList<String>();
+
+    private final CriteriaBuilder cb = (CriteriaBuilder) Proxy.newProxyInstance(CriteriaBuilder.class.getClassLoader(),
+        new Class<?>[] { CriteriaBuilder.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "and":
+            case "or":
+            case "not":
+                final String ret = method.getName() + Arrays.toString(args[0] instanceof Predicate[]
+                    ? (Object[]) args[0] : args).replace(" ", "");
+                calls.add(ret);
+                return predicate(ret);
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+    private static Predicate predicate(final String name) {
+        return (Predicate) Proxy.newProxyInstance(Predicate.class.getClassLoader(), new Class<?>[] { Predicate.class },
+            (proxy, method, args) -> {
+                if ("toString".equals(method.getName())) {
+                    return name;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    /**
+     * @return specification du predicat specifié, ou d'aucun predicat si le nom est <code>null</code>
+     */
+    private static Specification<Object> spec(final String name) {
+        return new Specification<Object>() {
+            @Override
+            public Predicate toPredicate(final Root<Object> root, final CriteriaQuery<?> query,
+                final CriteriaBuilder cb) {
+                return name == null ? null : predicate(name);
+            }
+        };
+    }
+
+    private String toString(final Specification<Object> specification) {
+        final Predicate ret = specification.toPredicate(null, null, cb);
+        return ret == null ? null : ret.toString();
+    }
+
+    @Test
+    public void flattenSameComposition() {
+        assertEquals("and[a,b,c,d]", toString(Specifications.where(spec("a")).and(spec("b")).and(spec("c"))
+            .and(Specifications.where(spec("d")))));
+        assertEquals(Arrays.asList("and[a,b,c,d]"), calls);
+
+        // compositions imbriquées
+        calls.clear();
+        assertEquals("and[a,b,c]",
+            toString(Specifications.where(spec("a")).and(Specifications.where(spec("b")).and(spec("c")))));
+        assertEquals("or[a,b,c]",
+            toString(Specifications.where(spec("a")).or(Specifications.where(spec("b")).or(spec("c")))));
+        assertEquals(Arrays.asList("and[a,b,c]", "or[a,b,c]"), calls);
+    }
+
+    @Test
+    public void keepOtherCompositions() {
+        assertEquals("or[and[a,b],c]", toString(Specifications.where(spec("a")).and(spec("b")).or(spec("c"))));
+        assertEquals("and[a,or[b,c],d]", toString(Specifications.where(spec("a"))
+            .and(Specifications.where(spec("b")).or(spec("c"))).and(spec("d"))));
+    }
+
+    @Test
+    public void skipNulls() {
+        // ni terme neutre ni composition d'un seul terme
+        assertEquals("a", toString(Specifications.where(null).and(spec("a")).and(spec(null)).and(null)));
+        assertEquals("or[a,b]", toString(Specifications.where(spec(null)).or(spec("a")).or(null).or(spec("b"))));
+        assertNull(toString(Specifications.where(null).and(spec(null)).or(null)));
+        assertNull(toString(Specifications.<Object> where(null)));
+        assertEquals(Arrays.asList("or[a,b]"), calls);
+    }
+
+    @Test
+    public void negation() {
+        assertEquals("not[a]", toString(Specifications.not(spec("a"))));
+        assertEquals("not[and[a,b]]", toString(Specifications.not(Specifications.where(spec("a")).and(spec("b")))));
+
+        // la negation de rien est ignorée, pas "not(1=1)"
+        assertNull(toString(Specifications.<Object> not(null)));
+        assertNull(toString(Specifications.not(spec(null))));
+        assertEquals("a", toString(Specifications.where(spec("a")).and(Specifications.<Object> not(null))));
+        assertEquals(Arrays.asList("not[a]", "and[a,b]", "not[and[a,b]]"), calls);
+    }
+}
@@ -0,0 +1,101 @@
+package org.andresoviedo.datatable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.andresoviedo.datatable.model.Customer;
+import org.andresoviedo.datatable.model.Line;
+import org.andresoviedo.datatable.model.Order;
+import org.andresoviedo.datatable.model.StatusRollup;
+
+/**
+ * Base H2 en memoire des tests, avec l'unité "datatable-test" (META-INF/persistence.xml) et un jeu de commandes:
+ * <table>
+ * <tr><th>id</th><th>reference</th><th>status</th><th>amount</th><th>customer</th><th>lines</th></tr>
+ * <tr><td>1</td><td>A-1</td><td>open</td><td>10</td><td>Alice (Paris)</td><td>apple, pear</td></tr>
+ * <tr><td>2</td><td>A-2</td><td>closed</td><td>20</td><td>Alice (Paris)</td><td>apple</td></tr>
+ * <tr><td>3</td><td>B-1</td><td>open</td><td>30</td><td>Bob (Lyon)</td><td>pear, pear</td></tr>
+ * <tr><td>4</td><td>B-2</td><td>open</td><td>40</td><td>Bob (Lyon)</td><td></td></tr>
+ * <tr><td>5</td><td>C-1</td><td>closed</td><td>50</td><td>Carol (Paris)</td><td>apple, plum</td></tr>
+ * <tr><td>6</td><td>C-2</td><td></td><td>60</td><td>Carol (Paris)</td><td>plum</td></tr>
+ * </table>
+ * La version de chaque commande est son id. Le rollup par statut a les statuts "open", "closed" et "archived".
+ *
+ * @author afoviedo
+ */
+final class TestDatabase {
+
+    private static EntityManagerFactory entityManagerFactory;
+
+    private TestDatabase() {
+        // abstract
+    }
+
+    /**
+     * @return la factory de la base, avec le jeu de commandes initial
+     */
+    static synchronized EntityManagerFactory reset() {
+        if (entityManagerFactory == null) {
+            entityManagerFactory = Persistence.createEntityManagerFactory("datatable-test");
+        }
+        execute(new Transaction() {
+            @Override
+            public void run(final EntityManager entityManager) {
+                entityManager.createQuery("delete from Line").executeUpdate();
+                entityManager.createQuery("delete from Order").executeUpdate();
+                entityManager.createQuery("delete from Customer").executeUpdate();
+                entityManager.createQuery("delete from StatusRollup").executeUpdate();
+
+                final Customer alice = new Customer(1L, "Alice", "Paris");
+                final Customer bob = new Customer(2L, "Bob", "Lyon");
+                final Customer carol = new Customer(3L, "Carol", "Paris");
+                persist(entityManager, alice, bob, carol);
+                final Order a1 = new Order(1L, "A-1", "open", 10, alice);
+                final Order a2 = new Order(2L, "A-2", "closed", 20, alice);
+                final Order b1 = new Order(3L, "B-1", "open", 30, bob);
+                final Order b2 = new Order(4L, "B-2", "open", 40, bob);
+                final Order c1 = new Order(5L, "C-1", "closed", 50, carol);
+                final Order c2 = new Order(6L, "C-2", null, 60, carol);
+                persist(entityManager, a1, a2, b1, b2, c1, c2);
+                persist(entityManager, new Line(1L, "apple", a1), new Line(2L, "pear", a1), new Line(3L, "apple", a2),
+                    new Line(4L, "pear", b1), new Line(5L, "pear", b1), new Line(6L, "apple", c1),
+                    new Line(7L, "plum", c1), new Line(8L, "plum", c2));
+                persist(entityManager, new StatusRollup(1L, "open"), new StatusRollup(2L, "closed"),
+                    new StatusRollup(3L, "archived"));
+            }
+        });
+        return entityManagerFactory;
+    }
+
+    /**
+     * Execute des modifications dans une transaction
+     */
+    static void execute(final Transaction transaction) {
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            transaction.run(entityManager);
+            entityManager.getTransaction().commit();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    private static void persist(final EntityManager entityManager, final Object... entities) {
+        for (final Object entity : entities) {
+            entityManager.persist(entity);
+        }
+    }
+
+    /**
+     * Modifications executées dans une transaction
+     */
+    interface Transaction {
+
+        void run(EntityManager entityManager);
+    }
+}
@@ -0,0 +1,42 @@
+package org.andresoviedo.datatable.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Client des commandes de test
+ *
+ * @author afoviedo
+ */
+@Entity
+public class Customer {
+
+    @Id
+    private Long id;
+
+    private String name;
+
+    private String city;
+
+    protected Customer() {
+        // JPA
+    }
+
+    public Customer(final Long id, final String name, final String city) {
+        this.id = id;
+        this.name = name;
+        this.city = city;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+}
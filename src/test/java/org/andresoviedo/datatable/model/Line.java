@@ -0,0 +1,44 @@
+package org.andresoviedo.datatable.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+/**
+ * Ligne d'une commande de test
+ *
+ * @author afoviedo
+ */
+@Entity
+public class Line {
+
+    @Id
+    private Long id;
+
+    private String product;
+
+    @ManyToOne
+    private Order order;
+
+    protected Line() {
+        // JPA
+    }
+
+    public Line(final Long id, final String product, final Order order) {
+        this.id = id;
+        this.product = product;
+        this.order = order;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+}
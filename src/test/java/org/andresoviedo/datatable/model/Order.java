@@ -0,0 +1,87 @@
+package org.andresoviedo.datatable.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+
+/**
+ * Commande de test: un client (to-one), des lignes (to-many) et une version pour les requetes delta
+ *
+ * @author afoviedo
+ */
+@Entity
+@Table(name = "ORDERS")
+public class Order {
+
+    @Id
+    private Long id;
+
+    private String reference;
+
+    private String status;
+
+    private Integer amount;
+
+    private Long version;
+
+    @ManyToOne
+    private Customer customer;
+
+    @OneToMany(mappedBy = "order")
+    private List<Line> lines = new ArrayList<Line>();
+
+    protected Order() {
+        // JPA
+    }
+
+    public Order(final Long id, final String reference, final String status, final Integer amount,
+        final Customer customer) {
+        this.id = id;
+        this.reference = reference;
+        this.status = status;
+        this.amount = amount;
+        this.customer = customer;
+        this.version = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
+    public Integer getAmount() {
+        return amount;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(final Long version) {
+        this.version = version;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+}
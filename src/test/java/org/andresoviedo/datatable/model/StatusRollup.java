@@ -0,0 +1,35 @@
+package org.andresoviedo.datatable.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Rollup des commandes par statut, avec un statut qui n'est pas dans les commandes pour reconnaitre ses lignes
+ *
+ * @author afoviedo
+ */
+@Entity
+public class StatusRollup {
+
+    @Id
+    private Long id;
+
+    private String status;
+
+    protected StatusRollup() {
+        // JPA
+    }
+
+    public StatusRollup(final Long id, final String status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,24 @@
+package org.andresoviedo.datatable.model;
+
+/**
+ * Ligne d'une requete group by sur le statut des commandes
+ *
+ * @author afoviedo
+ */
+public class StatusRow {
+
+    private final String status;
+
+    public StatusRow(final String status) {
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(status);
+    }
+}